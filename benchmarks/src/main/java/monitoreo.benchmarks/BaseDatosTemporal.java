@@ -0,0 +1,63 @@
+package monitoreo.benchmarks;
+
+import monitoreo.db.ConexionBD;
+import monitoreo.db.Muestra;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Archivo SQLite temporal para un benchmark. ConexionBD lee la URL de la propiedad
+ * monitoreo.bd.url una sola vez al cargarse, así que crear() debe llamarse antes de usar
+ * ConexionBD en el proceso (JMH corre cada benchmark en su propio fork).
+ */
+final class BaseDatosTemporal {
+
+    private static final int FILAS_POR_TRANSACCION = 10_000;
+
+    private final Path archivo;
+
+    private BaseDatosTemporal(Path archivo) {
+        this.archivo = archivo;
+    }
+
+    /**
+     * Crea un archivo vacío, apunta ConexionBD a él y aplica el esquema actual.
+     */
+    static BaseDatosTemporal crear(String prefijo) throws IOException {
+        Path archivo = Files.createTempFile(prefijo, ".db");
+        System.setProperty("monitoreo.bd.url", "jdbc:sqlite:" + archivo.toAbsolutePath());
+        ConexionBD.crearTabla();
+        return new BaseDatosTemporal(archivo);
+    }
+
+    /**
+     * Inserta filas muestras del sensor indicado, una cada intervaloMs a partir de inicioMs,
+     * en transacciones de FILAS_POR_TRANSACCION.
+     */
+    void poblar(String sensorId, long inicioMs, long intervaloMs, long filas) {
+        List<Muestra> lote = new ArrayList<>(FILAS_POR_TRANSACCION);
+        for (long i = 0; i < filas; i++) {
+            int fase = (int) (i % 1024);
+            lote.add(new Muestra(sensorId, inicioMs + i * intervaloMs, fase - 512, 512 - fase, fase));
+            if (lote.size() == FILAS_POR_TRANSACCION || i == filas - 1) {
+                if (!ConexionBD.insertarLote(lote)) {
+                    throw new IllegalStateException("No se pudo poblar la base de datos temporal.");
+                }
+                lote.clear();
+            }
+        }
+    }
+
+    /**
+     * Cierra el pool y borra el archivo con sus archivos WAL y SHM.
+     */
+    void borrar() throws IOException {
+        ConexionBD.cerrar();
+        Files.deleteIfExists(archivo);
+        Files.deleteIfExists(Path.of(archivo + "-wal"));
+        Files.deleteIfExists(Path.of(archivo + "-shm"));
+    }
+}
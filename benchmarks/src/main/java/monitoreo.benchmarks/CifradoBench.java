@@ -0,0 +1,106 @@
+package monitoreo.benchmarks;
+
+import monitoreo.util.CifradoUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+import javax.crypto.Cipher;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Costo por mensaje de CifradoUtil: la API de String (Base64, protocolo de texto) y la de
+ * ByteBuffer (payloads del protocolo binario), con tamaños desde una muestra hasta un bloque grande.
+ * Los métodos *PorLlamada repiten la implementación anterior (Cipher.getInstance + init en cada
+ * mensaje) como línea base para comparar con los Cipher reutilizados.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CifradoBench {
+
+    // 20 = una muestra binaria, 256 ≈ una línea de texto, 4096 y 65536 ≈ bloques de consulta
+    @Param({"20", "256", "4096", "65536"})
+    public int bytes;
+
+    // La misma clave que CifradoUtil: los primeros 16 bytes de la clave base
+    private static final SecretKeySpec CLAVE = new SecretKeySpec(
+            Arrays.copyOf("MonitoreoUnison2025".getBytes(StandardCharsets.UTF_8), 16), "AES");
+
+    private String texto;
+    private String textoCifrado;
+
+    private ByteBuffer claro;
+    private ByteBuffer cifrado;
+    private ByteBuffer salidaCifrado;
+    private ByteBuffer salidaClaro;
+
+    @Setup
+    public void preparar() {
+        char[] caracteres = new char[bytes];
+        Arrays.fill(caracteres, 'a');
+        texto = new String(caracteres);
+        textoCifrado = CifradoUtil.encrypt(texto);
+
+        byte[] datos = new byte[bytes];
+        Arrays.fill(datos, (byte) 7);
+        claro = ByteBuffer.wrap(datos);
+        cifrado = ByteBuffer.wrap(CifradoUtil.encryptBytes(datos));
+        salidaCifrado = ByteBuffer.allocate(CifradoUtil.longitudCifrada(bytes));
+        salidaClaro = ByteBuffer.allocate(cifrado.capacity());
+    }
+
+    @Benchmark
+    public String encryptTexto() {
+        return CifradoUtil.encrypt(texto);
+    }
+
+    @Benchmark
+    public String decryptTexto() {
+        return CifradoUtil.decrypt(textoCifrado);
+    }
+
+    @Benchmark
+    public String encryptTextoPorLlamada() throws GeneralSecurityException {
+        Cipher cipher = Cipher.getInstance("AES/ECB/PKCS5Padding");
+        cipher.init(Cipher.ENCRYPT_MODE, CLAVE);
+        return Base64.getEncoder().encodeToString(cipher.doFinal(texto.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Benchmark
+    public String decryptTextoPorLlamada() throws GeneralSecurityException {
+        Cipher cipher = Cipher.getInstance("AES/ECB/PKCS5Padding");
+        cipher.init(Cipher.DECRYPT_MODE, CLAVE);
+        return new String(cipher.doFinal(Base64.getDecoder().decode(textoCifrado)), StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public int encryptBuffer() {
+        claro.rewind();
+        salidaCifrado.clear();
+        return CifradoUtil.encrypt(claro, salidaCifrado);
+    }
+
+    @Benchmark
+    public int decryptBuffer() {
+        cifrado.rewind();
+        salidaClaro.clear();
+        return CifradoUtil.decrypt(cifrado, salidaClaro);
+    }
+}
@@ -0,0 +1,107 @@
+package monitoreo.benchmarks;
+
+import monitoreo.db.ConexionBD;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import java.io.IOException;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Consultas históricas sobre tablas de distinto tamaño. Las filas van una por segundo desde el
+ * 1 de enero de 2025 (10M filas ≈ 116 días). Un día o una hora deberían costar lo mismo sin
+ * importar el tamaño de la tabla (índice (sensor_id, ts)); las cubetas de todo el rango crecen con él.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(1)
+public class ConsultasBench {
+
+    private static final LocalDate PRIMER_DIA = LocalDate.of(2025, 1, 1);
+    private static final long INTERVALO_MS = 1000;
+    private static final long HORA_MS = 3_600_000;
+    private static final int FILAS_POR_BLOQUE = 500;
+    private static final int CUBETAS = 200;
+
+    @Param({"10000", "1000000", "10000000"})
+    public long filas;
+
+    private BaseDatosTemporal base;
+    private long inicioMs;
+    private long finMs;
+
+    @Setup(Level.Trial)
+    public void poblar() throws IOException {
+        base = BaseDatosTemporal.crear("bench-consultas");
+        inicioMs = PRIMER_DIA.atStartOfDay(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        finMs = inicioMs + filas * INTERVALO_MS;
+        base.poblar(ConexionBD.SENSOR_POR_DEFECTO, inicioMs, INTERVALO_MS, filas);
+        // Las estadísticas se toman al arrancar: volver a migrar las refresca con la tabla ya llena
+        ConexionBD.crearTabla();
+    }
+
+    @TearDown(Level.Trial)
+    public void borrarBase() throws IOException {
+        base.borrar();
+    }
+
+    /**
+     * CONSULTAR:fecha — el primer día completo (o toda la tabla si tiene menos de un día).
+     */
+    @Benchmark
+    public List<String> consultarDatosDia() {
+        return ConexionBD.consultarDatos(PRIMER_DIA.toString());
+    }
+
+    /**
+     * CONSULTAR_STREAM:fecha — el mismo día, entregado por bloques.
+     */
+    @Benchmark
+    public int consultarDatosDiaPorBloques(Blackhole bh) {
+        return ConexionBD.consultarDatosPorBloques(PRIMER_DIA.toString(), FILAS_POR_BLOQUE, bh::consume);
+    }
+
+    /**
+     * CONSULTAR_RANGO de la última hora, muestras crudas, de todos los sensores (skip-scan).
+     */
+    @Benchmark
+    public int consultarUltimaHora(Blackhole bh) {
+        return ConexionBD.consultarRango(null, finMs - HORA_MS, finMs, 0, FILAS_POR_BLOQUE, bh::consume);
+    }
+
+    /**
+     * CONSULTAR_RANGO de la última hora de un sensor (tramo contiguo del índice).
+     */
+    @Benchmark
+    public int consultarUltimaHoraSensor(Blackhole bh) {
+        return ConexionBD.consultarRango(ConexionBD.SENSOR_POR_DEFECTO, finMs - HORA_MS, finMs, 0,
+                FILAS_POR_BLOQUE, bh::consume);
+    }
+
+    /**
+     * CONSULTAR_RANGO de toda la tabla agrupada en CUBETAS cubetas (lo que pide el histórico).
+     */
+    @Benchmark
+    public int consultarTodoEnCubetas(Blackhole bh) {
+        long cubetaMs = Math.max(1, (finMs - inicioMs) / CUBETAS);
+        return ConexionBD.consultarRango(ConexionBD.SENSOR_POR_DEFECTO, inicioMs, finMs, cubetaMs,
+                FILAS_POR_BLOQUE, bh::consume);
+    }
+}
@@ -0,0 +1,90 @@
+package monitoreo.benchmarks;
+
+import monitoreo.db.ConexionBD;
+import monitoreo.db.Muestra;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Inserciones en datos_sensor: una transacción por fila (guardarDatos), lotes en una sola
+ * transacción (insertarLote) y el commit agrupado del servidor (encolarDatos) con muchos
+ * clientes esperando su ACK a la vez. Los resultados de guardarDatos e insertarLote son por fila.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class InsercionesBench {
+
+    private static final String SENSOR = ConexionBD.SENSOR_POR_DEFECTO;
+
+    private BaseDatosTemporal base;
+    // Timestamps crecientes y únicos entre hilos, como en la ingesta real
+    private final AtomicLong reloj = new AtomicLong(1_700_000_000_000L);
+
+    @Setup(Level.Trial)
+    public void crearBase() throws IOException {
+        base = BaseDatosTemporal.crear("bench-inserciones");
+    }
+
+    @TearDown(Level.Trial)
+    public void borrarBase() throws IOException {
+        base.borrar();
+    }
+
+    private List<Muestra> lote(int filas) {
+        List<Muestra> lote = new ArrayList<>(filas);
+        long inicio = reloj.getAndAdd(filas);
+        for (int i = 0; i < filas; i++) {
+            lote.add(new Muestra(SENSOR, inicio + i, i, -i, 512));
+        }
+        return lote;
+    }
+
+    @Benchmark
+    public boolean guardarDatosUnaFila() {
+        return ConexionBD.guardarDatos(SENSOR, reloj.getAndIncrement(), 1, 2, 3);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(100)
+    public boolean insertarLote100() {
+        return ConexionBD.insertarLote(lote(100));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(1000)
+    public boolean insertarLote1000() {
+        return ConexionBD.insertarLote(lote(1000));
+    }
+
+    /**
+     * Ruta de GUARDAR en el servidor: cada hilo encola una fila y espera su commit. El resultado
+     * es la latencia de cada GUARDAR, que incluye la espera del lote (monitoreo.bd.lote.esperaMs).
+     */
+    @Benchmark
+    @Threads(32)
+    public boolean encolarDatosConcurrente() throws InterruptedException, ExecutionException {
+        return ConexionBD.encolarDatos(SENSOR, 1, 2, 3, reloj.getAndIncrement()).get();
+    }
+}
@@ -0,0 +1,63 @@
+package monitoreo.servidor;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Costo por muestra del detector de anomalías en la ingesta (DetectorAnomalias.analizar) con
+ * lecturas normales, que no disparan alertas. Con -prof gc se comprueba que no reserva memoria.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = {"-Dmonitoreo.alertas.umbral=0"})
+public class DetectorBench {
+
+    private static final int MUESTRAS = 4096;
+
+    private final int[] x = new int[MUESTRAS];
+    private final int[] y = new int[MUESTRAS];
+    private final int[] z = new int[MUESTRAS];
+    private int i;
+    private long ts;
+
+    @Setup
+    public void preparar() {
+        // Vibración alrededor de la gravedad en z: la magnitud se mantiene cerca de la media
+        SplittableRandom aleatorio = new SplittableRandom(42);
+        for (int k = 0; k < MUESTRAS; k++) {
+            x[k] = aleatorio.nextInt(-40, 41);
+            y[k] = aleatorio.nextInt(-40, 41);
+            z[k] = 512 + aleatorio.nextInt(-40, 41);
+        }
+    }
+
+    @Benchmark
+    public void analizar() {
+        int k = i++ & (MUESTRAS - 1);
+        DetectorAnomalias.analizar("local", ts++, x[k], y[k], z[k]);
+    }
+
+    /**
+     * Varias conexiones del mismo sensor compiten por su estado.
+     */
+    @Benchmark
+    @Threads(4)
+    public void analizarConcurrente() {
+        int k = i++ & (MUESTRAS - 1);
+        DetectorAnomalias.analizar("local", ts++, x[k], y[k], z[k]);
+    }
+}
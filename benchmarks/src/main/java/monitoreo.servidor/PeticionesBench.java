@@ -0,0 +1,93 @@
+package monitoreo.servidor;
+
+import monitoreo.util.CifradoUtil;
+import monitoreo.util.ProtocoloBinario;
+import monitoreo.util.ProtocoloBinario.MuestraBinaria;
+import monitoreo.util.ProtocoloBinario.Trama;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parseo de peticiones de guardado tal como lo hace ManejadorCliente, sin tocar la base de datos:
+ * desde la línea o trama recibida hasta las muestras listas para encolar.
+ * Está en el paquete monitoreo.servidor para usar ManejadorCliente.parsearLote.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PeticionesBench {
+
+    @Param({"1", "100"})
+    public int muestras;
+
+    private String lineaLote;
+    private ByteBuffer tramaLote;
+    private ByteBuffer tramaMuestra;
+
+    @Setup
+    public void preparar() {
+        long[] ts = new long[muestras];
+        int[] x = new int[muestras], y = new int[muestras], z = new int[muestras];
+        StringBuilder mensaje = new StringBuilder("GUARDAR_LOTE:");
+        for (int i = 0; i < muestras; i++) {
+            ts[i] = 1_700_000_000_000L + i * 20L;
+            x[i] = i % 1024;
+            y[i] = -i % 1024;
+            z[i] = 512;
+            if (i > 0) {
+                mensaje.append(';');
+            }
+            mensaje.append(ts[i]).append(',').append(x[i]).append(',').append(y[i]).append(',').append(z[i]);
+        }
+        lineaLote = CifradoUtil.encrypt(mensaje.toString());
+        tramaLote = ProtocoloBinario.codificarTrama(ProtocoloBinario.GUARDAR_LOTE, 1,
+                ProtocoloBinario.cifrarLote(ts, x, y, z, muestras));
+        tramaMuestra = ProtocoloBinario.codificarTrama(ProtocoloBinario.GUARDAR, 1,
+                ProtocoloBinario.cifrarMuestra(x[0], y[0], z[0], ts[0]));
+    }
+
+    /**
+     * Protocolo de texto: línea Base64 → desencriptar → "GUARDAR_LOTE:ts,x,y,z;..." → muestras.
+     */
+    @Benchmark
+    public List<MuestraBinaria> textoGuardarLote() {
+        String mensaje = CifradoUtil.decrypt(lineaLote);
+        return ManejadorCliente.parsearLote(mensaje.substring("GUARDAR_LOTE:".length()));
+    }
+
+    /**
+     * Protocolo binario: bytes del canal → trama GUARDAR_LOTE → muestras.
+     */
+    @Benchmark
+    public List<MuestraBinaria> binarioGuardarLote() throws IOException {
+        tramaLote.rewind();
+        Trama trama = ProtocoloBinario.extraerTrama(tramaLote);
+        return ProtocoloBinario.descifrarLote(trama.payload());
+    }
+
+    /**
+     * Protocolo binario, una muestra por trama (GUARDAR).
+     */
+    @Benchmark
+    public MuestraBinaria binarioGuardar() throws IOException {
+        tramaMuestra.rewind();
+        Trama trama = ProtocoloBinario.extraerTrama(tramaMuestra);
+        return ProtocoloBinario.descifrarMuestra(trama.payload());
+    }
+}
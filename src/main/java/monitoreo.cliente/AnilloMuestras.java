@@ -0,0 +1,83 @@
+package monitoreo.cliente;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Anillo de lecturas entre un único productor (el hilo que lee o genera las muestras) y un
+ * único consumidor (el hilo de JavaFX, una vez por cuadro). No usa candados ni crea objetos:
+ * los ejes se guardan en arreglos primitivos y cada lado solo publica su contador de secuencia.
+ *
+ * El productor nunca espera. Si el consumidor se atrasa hasta llenar el anillo, la lectura nueva
+ * se descarta; a la gráfica solo le interesan las últimas de todos modos.
+ */
+public final class AnilloMuestras {
+
+    private final int mascara;
+    private final int[] xs, ys, zs;
+
+    // Secuencias que solo crecen; la posición en los arreglos es secuencia & mascara.
+    // escritas solo la modifica el productor y leidas solo el consumidor
+    private final AtomicLong escritas = new AtomicLong();
+    private final AtomicLong leidas = new AtomicLong();
+    private final AtomicLong descartadas = new AtomicLong();
+
+    /**
+     * @param capacidadMinima Se redondea a la siguiente potencia de 2.
+     */
+    public AnilloMuestras(int capacidadMinima) {
+        int capacidad = Integer.highestOneBit(Math.max(2, capacidadMinima - 1)) << 1;
+        this.mascara = capacidad - 1;
+        this.xs = new int[capacidad];
+        this.ys = new int[capacidad];
+        this.zs = new int[capacidad];
+    }
+
+    /**
+     * Publica una lectura. Solo la llama el hilo productor.
+     * @return false si el anillo estaba lleno y la lectura se descartó.
+     */
+    public boolean ofrecer(int x, int y, int z) {
+        long secuencia = escritas.getPlain();
+        if (secuencia - leidas.getAcquire() > mascara) {
+            descartadas.setRelease(descartadas.getPlain() + 1);
+            return false;
+        }
+        int i = (int) secuencia & mascara;
+        xs[i] = x;
+        ys[i] = y;
+        zs[i] = z;
+        // La escritura de los ejes queda visible antes que el nuevo contador
+        escritas.setRelease(secuencia + 1);
+        return true;
+    }
+
+    /**
+     * Consume todas las lecturas pendientes y copia las últimas (hasta x.length) a los arreglos,
+     * de la más antigua a la más reciente. Solo la llama el hilo consumidor.
+     * @return Cuántas lecturas había pendientes; se copiaron min(pendientes, x.length).
+     */
+    public int drenar(int[] x, int[] y, int[] z) {
+        long desde = leidas.getPlain();
+        long hasta = escritas.getAcquire();
+        int pendientes = (int) (hasta - desde);
+        int copiar = Math.min(pendientes, x.length);
+        long inicio = hasta - copiar;
+        for (int k = 0; k < copiar; k++) {
+            int i = (int) (inicio + k) & mascara;
+            x[k] = xs[i];
+            y[k] = ys[i];
+            z[k] = zs[i];
+        }
+        // Libera los lugares para el productor solo después de copiarlos
+        leidas.setRelease(hasta);
+        return pendientes;
+    }
+
+    public int getCapacidad() {
+        return mascara + 1;
+    }
+
+    public long getDescartadas() {
+        return descartadas.getAcquire();
+    }
+}
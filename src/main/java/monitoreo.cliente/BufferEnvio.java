@@ -0,0 +1,156 @@
+package monitoreo.cliente;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Acumula lecturas del acelerómetro y las envía al servidor en lotes (GUARDAR_LOTE).
+ * Un único hilo de envío vacía el buffer cuando se junta maxMuestras lecturas o cuando
+ * pasa maxEsperaMs desde la primera lectura pendiente, lo que ocurra primero.
+ * Si no hay conexión el lote se descarta (con aviso) y el envío sigue: SocketCliente
+ * reconecta solo y los lotes siguientes vuelven a guardarse.
+ */
+public class BufferEnvio implements AutoCloseable {
+
+    private final SocketCliente clienteSocket;
+    private final int maxMuestras;
+    private final long maxEsperaMs;
+    private final Thread hiloEnvio;
+
+    // Tiempo máximo para recibir el ACK_LOTE de un lote
+    private static final long TIMEOUT_ACK_S = 30;
+
+    // Doble buffer de arreglos primitivos: se llena uno mientras el otro se envía
+    private long[] timestamps;
+    private int[] xs, ys, zs;
+    private int pendientes;
+    private long primeraPendienteMs;
+    private volatile boolean activo = true;
+
+    public BufferEnvio(SocketCliente clienteSocket, int maxMuestras, long maxEsperaMs) {
+        this.clienteSocket = clienteSocket;
+        this.maxMuestras = maxMuestras;
+        this.maxEsperaMs = maxEsperaMs;
+        this.timestamps = new long[maxMuestras];
+        this.xs = new int[maxMuestras];
+        this.ys = new int[maxMuestras];
+        this.zs = new int[maxMuestras];
+
+        this.hiloEnvio = new Thread(this::bucleEnvio, "envio-lotes");
+        this.hiloEnvio.setDaemon(true);
+        this.hiloEnvio.start();
+    }
+
+    /**
+     * Registra una lectura con la hora actual. Si el buffer está lleno, espera a que el
+     * hilo de envío lo vacíe (el productor se frena al ritmo de la red).
+     */
+    public void agregar(int x, int y, int z) {
+        agregar(System.currentTimeMillis(), x, y, z);
+    }
+
+    /**
+     * Igual que agregar(x, y, z) con la hora de la lectura que indica la fuente.
+     */
+    public synchronized void agregar(long timestampMs, int x, int y, int z) {
+        while (activo && pendientes >= maxMuestras) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+        if (!activo) {
+            return;
+        }
+        if (pendientes == 0) {
+            primeraPendienteMs = System.currentTimeMillis();
+        }
+        timestamps[pendientes] = timestampMs;
+        xs[pendientes] = x;
+        ys[pendientes] = y;
+        zs[pendientes] = z;
+        pendientes++;
+
+        if (pendientes >= maxMuestras) {
+            notifyAll();
+        }
+    }
+
+    private void bucleEnvio() {
+        long[] tsEnvio = new long[maxMuestras];
+        int[] xEnvio = new int[maxMuestras];
+        int[] yEnvio = new int[maxMuestras];
+        int[] zEnvio = new int[maxMuestras];
+
+        while (true) {
+            int n;
+            synchronized (this) {
+                try {
+                    // Esperar hasta que se llene el lote o venza el plazo de la primera lectura
+                    while (activo && (pendientes == 0
+                            || (pendientes < maxMuestras && System.currentTimeMillis() - primeraPendienteMs < maxEsperaMs))) {
+                        long espera = pendientes == 0 ? maxEsperaMs
+                                : maxEsperaMs - (System.currentTimeMillis() - primeraPendienteMs);
+                        wait(Math.max(1, espera));
+                    }
+                } catch (InterruptedException e) {
+                    activo = false;
+                }
+                if (pendientes == 0 && !activo) {
+                    return;
+                }
+
+                // Intercambiar buffers: el productor sigue llenando mientras se envía
+                n = pendientes;
+                long[] t = timestamps; timestamps = tsEnvio; tsEnvio = t;
+                int[] a = xs; xs = xEnvio; xEnvio = a;
+                a = ys; ys = yEnvio; yEnvio = a;
+                a = zs; zs = zEnvio; zEnvio = a;
+                pendientes = 0;
+                notifyAll();
+            }
+
+            boolean[] estados;
+            try {
+                estados = clienteSocket.enviarLoteMonitoreo(tsEnvio, xEnvio, yEnvio, zEnvio, n)
+                        .get(TIMEOUT_ACK_S, TimeUnit.SECONDS);
+            } catch (ExecutionException | TimeoutException e) {
+                System.err.println("Se descartó un lote de " + n + " lecturas: "
+                        + (e.getCause() != null ? e.getCause().getMessage() : "el servidor no respondió a tiempo."));
+                continue;
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (estados == null) {
+                System.err.println("El servidor rechazó un lote de " + n + " lecturas.");
+                continue;
+            }
+            int rechazadas = 0;
+            for (boolean estado : estados) {
+                if (!estado) rechazadas++;
+            }
+            if (rechazadas > 0) {
+                System.err.println("El servidor no guardó " + rechazadas + " de " + n + " lecturas.");
+            }
+        }
+    }
+
+    /**
+     * Envía lo que quede pendiente y detiene el hilo de envío.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            activo = false;
+            notifyAll();
+        }
+        try {
+            hiloEnvio.join(5000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -17,10 +17,18 @@ public class ClienteApp extends Application {
         primaryStage = stage;
         stage.setTitle("Sistema de Monitoreo - Cliente");
 
+        // Una sola conexión con el servidor para todas las vistas; se abre sin bloquear la interfaz
+        SocketCliente.compartido().conectarEnSegundoPlano();
+
         // Carga la primera vista
         loadView("inicioview.fxml");
     }
 
+    @Override
+    public void stop() {
+        SocketCliente.compartido().desconectar();
+    }
+
     /**
      * Método estático para cambiar el contenido de la ventana (navegación).
      * @param fxmlName El nombre del archivo FXML (ej. "inicioview.fxml").
@@ -0,0 +1,147 @@
+package monitoreo.cliente;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reproduce lecturas grabadas en un archivo de texto, una por línea: "ts,x,y,z" (ts en epoch ms)
+ * o "x,y,z". Las líneas vacías, los comentarios (#) y los encabezados se saltan.
+ * Con frecuencia 0 respeta los intervalos entre los ts del archivo; con otra, reproduce a ese
+ * ritmo fijo. Las lecturas salen con la hora actual, como si el sensor las midiera ahora.
+ */
+public class FuenteArchivo implements FuenteMuestras {
+
+    private static final int SIN_TS = -1;
+
+    private final Path archivo;
+    private final boolean repetir;
+    private final int muestrasPorSegundo;
+    private final long periodoNanos;
+    private final boolean usarTsDelArchivo;
+    private BufferedReader lector;
+
+    // Lectura a entregar y la que le sigue (para saber cuánto esperar): {ts, x, y, z}
+    private long[] actual = new long[4];
+    private long[] siguiente = new long[4];
+    private boolean haySiguiente;
+
+    /**
+     * @param muestrasPorSegundo Frecuencia fija, o 0 para respetar los ts del archivo.
+     * @param repetir true para volver al principio al terminar (pruebas de carga largas).
+     * @throws IOException Si no se puede abrir el archivo o no tiene ninguna lectura válida.
+     */
+    public FuenteArchivo(Path archivo, int muestrasPorSegundo, boolean repetir) throws IOException {
+        this.archivo = archivo;
+        this.repetir = repetir;
+        this.lector = Files.newBufferedReader(archivo, StandardCharsets.UTF_8);
+        if (!leerLinea(actual)) {
+            lector.close();
+            throw new IOException("El archivo no tiene lecturas válidas: " + archivo);
+        }
+        haySiguiente = avanzar();
+
+        // Sin frecuencia fija se estima la nominal con el intervalo de las dos primeras lecturas
+        int estimada = muestrasPorSegundo;
+        if (estimada <= 0) {
+            long intervaloMs = haySiguiente && actual[0] != SIN_TS && siguiente[0] != SIN_TS
+                    ? siguiente[0] - actual[0] : 0;
+            estimada = intervaloMs > 0 ? (int) Math.max(1, 1000 / intervaloMs) : 1;
+        }
+        this.muestrasPorSegundo = estimada;
+        this.periodoNanos = TimeUnit.SECONDS.toNanos(1) / estimada;
+        this.usarTsDelArchivo = muestrasPorSegundo <= 0;
+    }
+
+    @Override
+    public long leer(Receptor receptor) throws IOException {
+        if (actual == null) {
+            return -1;
+        }
+        receptor.recibir(System.currentTimeMillis(), (int) actual[1], (int) actual[2], (int) actual[3]);
+        if (!haySiguiente) {
+            actual = null;
+            return 0;
+        }
+
+        long espera = periodoNanos;
+        if (usarTsDelArchivo && actual[0] != SIN_TS && siguiente[0] != SIN_TS && siguiente[0] >= actual[0]) {
+            espera = TimeUnit.MILLISECONDS.toNanos(siguiente[0] - actual[0]);
+        }
+        long[] t = actual; actual = siguiente; siguiente = t;
+        haySiguiente = avanzar();
+        return espera;
+    }
+
+    /**
+     * Lee la lectura que sigue a actual en siguiente; al final del archivo vuelve a empezar si
+     * se pidió repetir.
+     * @return false si no hay más lecturas.
+     */
+    private boolean avanzar() throws IOException {
+        if (leerLinea(siguiente)) {
+            return true;
+        }
+        if (!repetir) {
+            return false;
+        }
+        lector.close();
+        lector = Files.newBufferedReader(archivo, StandardCharsets.UTF_8);
+        return leerLinea(siguiente);
+    }
+
+    /**
+     * @return false al llegar al final del archivo sin encontrar otra lectura válida.
+     */
+    private boolean leerLinea(long[] destino) throws IOException {
+        String linea;
+        while ((linea = lector.readLine()) != null) {
+            linea = linea.trim();
+            if (linea.isEmpty() || linea.startsWith("#")) {
+                continue;
+            }
+            String[] partes = linea.split(",");
+            if (partes.length != 3 && partes.length != 4) {
+                continue;
+            }
+            try {
+                int desplazamiento = partes.length - 3;
+                destino[0] = desplazamiento == 1 ? Long.parseLong(partes[0].trim()) : SIN_TS;
+                destino[1] = Integer.parseInt(partes[desplazamiento].trim());
+                destino[2] = Integer.parseInt(partes[desplazamiento + 1].trim());
+                destino[3] = Integer.parseInt(partes[desplazamiento + 2].trim());
+                return true;
+            } catch (NumberFormatException e) {
+                // Encabezado u otra línea que no es una lectura
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public int getMuestrasPorSegundo() {
+        return muestrasPorSegundo;
+    }
+
+    @Override
+    public String getDescripcion() {
+        return "Archivo " + archivo.getFileName() + (usarTsDelArchivo ? "" : " a " + muestrasPorSegundo + " Hz");
+    }
+
+    @Override
+    public void close() {
+        try {
+            lector.close();
+        } catch (IOException e) {
+            System.err.println("Error al cerrar el archivo de lecturas: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public String toString() {
+        return getDescripcion();
+    }
+}
@@ -0,0 +1,37 @@
+package monitoreo.cliente;
+
+import java.io.IOException;
+
+/**
+ * Origen de lecturas del acelerómetro para el monitor: un generador sintético, un archivo
+ * grabado o, más adelante, un puerto serial. La fuente solo produce lecturas; el ritmo lo
+ * lleva el Muestreador contra el reloj, así que una fuente no duerme ni crea hilos.
+ */
+public interface FuenteMuestras extends AutoCloseable {
+
+    /** Recibe cada lectura producida por la fuente. */
+    @FunctionalInterface
+    interface Receptor {
+        void recibir(long timestampMs, int x, int y, int z);
+    }
+
+    /**
+     * Entrega la siguiente lectura al receptor.
+     * @return Nanosegundos que deben pasar hasta la siguiente lectura, o -1 si la fuente se agotó.
+     */
+    long leer(Receptor receptor) throws IOException;
+
+    /**
+     * @return Lecturas por segundo nominales (para dimensionar buffers y lotes).
+     */
+    int getMuestrasPorSegundo();
+
+    /**
+     * @return Texto para mostrar en el selector de fuentes.
+     */
+    String getDescripcion();
+
+    @Override
+    default void close() {
+    }
+}
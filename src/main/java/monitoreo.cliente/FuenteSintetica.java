@@ -0,0 +1,51 @@
+package monitoreo.cliente;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lecturas aleatorias a frecuencia fija, en el mismo rango que el acelerómetro real.
+ * Sirve para probar el camino completo (gráfica, lotes, servidor) desde 1 Hz hasta varios kHz.
+ */
+public class FuenteSintetica implements FuenteMuestras {
+
+    // Rango de simulación para el acelerómetro
+    private static final int MIN_VAL = -1024;
+    private static final int MAX_VAL = 1024;
+
+    private final int muestrasPorSegundo;
+    private final long periodoNanos;
+    private final SplittableRandom random = new SplittableRandom();
+
+    public FuenteSintetica(int muestrasPorSegundo) {
+        if (muestrasPorSegundo <= 0) {
+            throw new IllegalArgumentException("La frecuencia debe ser positiva: " + muestrasPorSegundo);
+        }
+        this.muestrasPorSegundo = muestrasPorSegundo;
+        this.periodoNanos = TimeUnit.SECONDS.toNanos(1) / muestrasPorSegundo;
+    }
+
+    @Override
+    public long leer(Receptor receptor) {
+        receptor.recibir(System.currentTimeMillis(),
+                random.nextInt(MIN_VAL, MAX_VAL), random.nextInt(MIN_VAL, MAX_VAL), random.nextInt(MIN_VAL, MAX_VAL));
+        return periodoNanos;
+    }
+
+    @Override
+    public int getMuestrasPorSegundo() {
+        return muestrasPorSegundo;
+    }
+
+    @Override
+    public String getDescripcion() {
+        return muestrasPorSegundo >= 1000 && muestrasPorSegundo % 1000 == 0
+                ? "Sintética " + muestrasPorSegundo / 1000 + " kHz"
+                : "Sintética " + muestrasPorSegundo + " Hz";
+    }
+
+    @Override
+    public String toString() {
+        return getDescripcion();
+    }
+}
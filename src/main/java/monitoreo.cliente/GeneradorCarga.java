@@ -0,0 +1,422 @@
+package monitoreo.cliente;
+
+import monitoreo.util.AnilloHash;
+import monitoreo.util.CifradoUtil;
+import monitoreo.util.Histograma;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Stream;
+
+/**
+ * Prueba de carga sin interfaz: abre N conexiones concurrentes (una "estación" por hilo
+ * virtual, registrada como el sensor "estacion-N") que envían GUARDAR a una tasa fija y mezclan
+ * consultas CONSULTAR_RANGO.
+ * Al final reporta throughput, latencias p50/p99/p999 y errores.
+ *
+ * Ejemplo, contra un servidor que la herramienta levanta en otro proceso con una base temporal:
+ * java -cp target/classes:<dependencias> monitoreo.cliente.GeneradorCarga --local
+ *      --estaciones=1000 --tasa=10 --consultas=0.01 --duracion=30
+ *
+ * Contra un clúster (--nodos=host:puerto,..., la misma lista que usan los servidores) cada
+ * estación se conecta al nodo dueño de su sensor y sigue los "REDIRIGIR:host:puerto". Con --local
+ * y --nodos-locales=N se levantan N servidores en los puertos puerto..puerto+N-1, cada uno con su
+ * propia base temporal; al terminar se detienen y se borra el directorio temporal.
+ *
+ * Cada estación agenda sus envíos contra el reloj y mide la latencia desde el instante en que
+ * la petición debía salir, no desde que salió: si el servidor se atrasa, la espera acumulada
+ * cuenta en los percentiles (sin esto un servidor lento "mejora" p99 al frenar a la carga).
+ */
+public class GeneradorCarga {
+
+    // --- Parámetros (--clave=valor) ---
+    private String host = "127.0.0.1";
+    private int puerto = 5000;
+    private int estaciones = 100;
+    private double tasa = 10;            // GUARDAR por segundo por estación
+    private double consultas = 0.01;     // Fracción de peticiones que son CONSULTAR_RANGO
+    private int lote = 0;                // > 0: GUARDAR_LOTE de ese tamaño en lugar de GUARDAR
+    private int duracionS = 30;
+    private int calentamientoS = 5;      // Se envía pero no se mide
+    private int rampaS = 2;              // Las conexiones se abren repartidas en este tiempo
+    private boolean local = false;       // Levantar un ServidorApp en otro proceso
+    private int nodosLocales = 1;        // Con --local: servidores que se levantan en clúster
+    private String nodos;                // Nodos del clúster "host:puerto,..." (null = solo host:puerto)
+
+    // Ventana que pide cada CONSULTAR_RANGO (las últimas muestras, en cubetas de 1 s)
+    private static final long VENTANA_CONSULTA_MS = 10_000;
+    private static final int TIMEOUT_RESPUESTA_MS = 10_000;
+    private static final long ESPERA_RECONEXION_MS = 1000;
+
+    // --- Resultados ---
+    private final Histograma latenciaGuardar = new Histograma();
+    private final Histograma latenciaConsulta = new Histograma();
+    private final LongAdder guardadas = new LongAdder();
+    private final LongAdder consultadas = new LongAdder();
+    private final LongAdder erroresGuardar = new LongAdder();
+    private final LongAdder erroresConsulta = new LongAdder();
+    private final LongAdder erroresConexion = new LongAdder();
+    private final LongAdder redirecciones = new LongAdder();
+    private AnilloHash anillo;
+    private Path directorioLocal;        // Bases temporales de los servidores de --local
+
+    private volatile long inicioMedicionNanos;
+    private volatile boolean activo = true;
+
+    public static void main(String[] args) throws Exception {
+        GeneradorCarga carga = desdeArgumentos(args);
+        List<Process> servidores = carga.local ? carga.levantarServidoresLocales() : List.of();
+        try {
+            carga.ejecutar();
+        } finally {
+            // destroy() envía SIGTERM: cada servidor hace su apagado ordenado e imprime sus métricas
+            for (Process servidor : servidores) {
+                servidor.destroy();
+            }
+            for (Process servidor : servidores) {
+                if (!servidor.waitFor(15, TimeUnit.SECONDS)) {
+                    servidor.destroyForcibly().waitFor(5, TimeUnit.SECONDS);
+                }
+            }
+            carga.borrarDirectorioLocal();
+        }
+    }
+
+    /**
+     * Interpreta --host --puerto --estaciones --tasa --consultas --lote --duracion
+     * --calentamiento --rampa --local --nodos-locales --nodos. Los argumentos desconocidos se ignoran.
+     */
+    static GeneradorCarga desdeArgumentos(String[] args) {
+        GeneradorCarga c = new GeneradorCarga();
+        for (String arg : args) {
+            if (arg.equals("--local")) {
+                c.local = true;
+                continue;
+            }
+            int igual = arg.indexOf('=');
+            if (!arg.startsWith("--") || igual < 0) {
+                continue;
+            }
+            String clave = arg.substring(2, igual);
+            String valor = arg.substring(igual + 1).trim();
+            try {
+                switch (clave) {
+                    case "host" -> c.host = valor;
+                    case "puerto" -> c.puerto = Integer.parseInt(valor);
+                    case "estaciones" -> c.estaciones = Integer.parseInt(valor);
+                    case "tasa" -> c.tasa = Double.parseDouble(valor);
+                    case "consultas" -> c.consultas = Double.parseDouble(valor);
+                    case "lote" -> c.lote = Integer.parseInt(valor);
+                    case "duracion" -> c.duracionS = Integer.parseInt(valor);
+                    case "calentamiento" -> c.calentamientoS = Integer.parseInt(valor);
+                    case "rampa" -> c.rampaS = Integer.parseInt(valor);
+                    case "local" -> c.local = Boolean.parseBoolean(valor);
+                    case "nodos-locales" -> c.nodosLocales = Math.max(1, Integer.parseInt(valor));
+                    case "nodos" -> c.nodos = valor;
+                    default -> { /* Argumento de otro componente */ }
+                }
+            } catch (NumberFormatException e) {
+                System.err.println("Argumento inválido '" + arg + "', se usa el valor por defecto.");
+            }
+        }
+        return c;
+    }
+
+    private void ejecutar() throws InterruptedException {
+        anillo = AnilloHash.desdeLista(nodos);
+        System.out.printf("Estaciones: %d, %.1f peticiones/s por estación (objetivo %.0f/s), consultas: %.1f%%, "
+                        + "lote: %s, duración: %d s (+%d s de calentamiento) contra %s:%d%n",
+                estaciones, tasa, estaciones * tasa, consultas * 100, lote > 0 ? lote + " muestras" : "no",
+                duracionS, calentamientoS, host, puerto);
+        if (anillo != null) {
+            System.out.println("Clúster de " + anillo.getNodos().size() + " nodos: " + anillo);
+        }
+
+        long inicio = System.nanoTime();
+        inicioMedicionNanos = inicio + TimeUnit.SECONDS.toNanos(calentamientoS);
+        long fin = inicioMedicionNanos + TimeUnit.SECONDS.toNanos(duracionS);
+
+        List<Thread> hilos = new ArrayList<>(estaciones);
+        for (int i = 0; i < estaciones; i++) {
+            long arranque = inicio + TimeUnit.SECONDS.toNanos(rampaS) * i / Math.max(1, estaciones);
+            int id = i;
+            hilos.add(Thread.ofVirtual().name("estacion-" + i).start(() -> estacion(id, arranque, fin)));
+        }
+
+        // Avance cada 5 s con la tasa del intervalo
+        long guardadasAntes = 0, consultadasAntes = 0, ultimoReporte = System.nanoTime();
+        while (System.nanoTime() < fin) {
+            Thread.sleep(5000);
+            long ahora = System.nanoTime();
+            long g = guardadas.sum(), q = consultadas.sum();
+            double segundos = (ahora - ultimoReporte) / 1e9;
+            System.out.printf("[%4d s]%s guardar %.0f/s, consultas %.0f/s, errores %d%n",
+                    TimeUnit.NANOSECONDS.toSeconds(ahora - inicio),
+                    ahora < inicioMedicionNanos ? " (calentamiento)" : "",
+                    (g - guardadasAntes) / segundos, (q - consultadasAntes) / segundos,
+                    erroresGuardar.sum() + erroresConsulta.sum() + erroresConexion.sum());
+            guardadasAntes = g;
+            consultadasAntes = q;
+            ultimoReporte = ahora;
+        }
+        activo = false;
+        for (Thread hilo : hilos) {
+            hilo.join(TIMEOUT_RESPUESTA_MS);
+        }
+        reportar();
+    }
+
+    /**
+     * Una estación: su propia conexión y su propio calendario de envíos.
+     */
+    private void estacion(int id, long arranque, long fin) {
+        SplittableRandom random = new SplittableRandom(id);
+        long periodo = (long) (TimeUnit.SECONDS.toNanos(1) / tasa);
+        esperarHasta(arranque);
+        long programado = System.nanoTime();
+        String sensor = "estacion-" + id;
+        String nodo = anillo != null ? anillo.nodoDe(sensor) : host + ":" + puerto;
+
+        while (activo && programado < fin) {
+            try (Socket socket = new Socket()) {
+                socket.connect(new InetSocketAddress(AnilloHash.host(nodo), AnilloHash.puerto(nodo)), TIMEOUT_RESPUESTA_MS);
+                socket.setSoTimeout(TIMEOUT_RESPUESTA_MS);
+                socket.setTcpNoDelay(true);
+                PrintWriter out = new PrintWriter(socket.getOutputStream(), true, StandardCharsets.UTF_8);
+                BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+                // Cada estación es un sensor distinto: sus muestras se reparten entre las particiones
+                out.println(CifradoUtil.encrypt("REGISTRAR:" + sensor));
+                String registro = leerRespuesta(in);
+                if (registro.startsWith("REDIRIGIR:")) {
+                    // En clúster el sensor es de otro nodo: reconectar allí
+                    nodo = registro.substring("REDIRIGIR:".length());
+                    redirecciones.increment();
+                    continue;
+                }
+                if (!registro.startsWith("ACK:")) {
+                    throw new IOException("El servidor no registró la estación " + id + ".");
+                }
+
+                while (activo && programado < fin) {
+                    esperarHasta(programado);
+                    boolean esConsulta = random.nextDouble() < consultas;
+                    boolean exito = esConsulta ? consultar(out, in) : guardar(out, in, random);
+                    registrar(esConsulta, exito, programado);
+                    programado += periodo;
+                }
+            } catch (IOException e) {
+                if (activo) {
+                    erroresConexion.increment();
+                    esperarHasta(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(ESPERA_RECONEXION_MS));
+                    // Las peticiones que tocaban mientras no había conexión se pierden (cuentan como errores)
+                    long ahora = System.nanoTime();
+                    while (programado < ahora) {
+                        if (programado >= inicioMedicionNanos) {
+                            erroresGuardar.increment();
+                        }
+                        programado += periodo;
+                    }
+                }
+            }
+        }
+    }
+
+    private boolean guardar(PrintWriter out, BufferedReader in, SplittableRandom random) throws IOException {
+        String mensaje;
+        if (lote > 0) {
+            StringBuilder sb = new StringBuilder("GUARDAR_LOTE:");
+            long ahora = System.currentTimeMillis();
+            for (int i = 0; i < lote; i++) {
+                if (i > 0) sb.append(';');
+                sb.append(ahora).append(',').append(eje(random)).append(',').append(eje(random)).append(',').append(eje(random));
+            }
+            mensaje = sb.toString();
+        } else {
+            mensaje = "GUARDAR:" + eje(random) + "," + eje(random) + "," + eje(random);
+        }
+        out.println(CifradoUtil.encrypt(mensaje));
+        String respuesta = leerRespuesta(in);
+        return respuesta.startsWith("ACK:") || respuesta.startsWith("ACK_LOTE:") && loteCompleto(respuesta);
+    }
+
+    /**
+     * @return true si el ACK_LOTE reporta todas las muestras guardadas ("ACK_LOTE:n/n:...").
+     */
+    private static boolean loteCompleto(String respuesta) {
+        int barra = respuesta.indexOf('/');
+        int dosPuntos = respuesta.indexOf(':', barra);
+        return barra > 0 && dosPuntos > barra
+                && respuesta.substring("ACK_LOTE:".length(), barra).equals(respuesta.substring(barra + 1, dosPuntos));
+    }
+
+    private boolean consultar(PrintWriter out, BufferedReader in) throws IOException {
+        long ahora = System.currentTimeMillis();
+        out.println(CifradoUtil.encrypt("CONSULTAR_RANGO:" + (ahora - VENTANA_CONSULTA_MS) + "," + ahora + ",1000"));
+        // Respuesta por bloques: "BLOQUE:..." hasta "FIN:n" (o "ERROR:...")
+        while (true) {
+            String respuesta = leerRespuesta(in);
+            if (respuesta.startsWith("FIN:")) {
+                return true;
+            }
+            if (!respuesta.startsWith("BLOQUE:")) {
+                return false;
+            }
+        }
+    }
+
+    private static String leerRespuesta(BufferedReader in) throws IOException {
+        String linea = in.readLine();
+        if (linea == null) {
+            throw new IOException("El servidor cerró la conexión.");
+        }
+        String respuesta = CifradoUtil.decrypt(linea);
+        return respuesta == null ? "" : respuesta;
+    }
+
+    private void registrar(boolean esConsulta, boolean exito, long programado) {
+        if (programado < inicioMedicionNanos) {
+            return;
+        }
+        long latencia = System.nanoTime() - programado;
+        if (esConsulta) {
+            (exito ? consultadas : erroresConsulta).increment();
+            if (exito) latenciaConsulta.registrar(latencia);
+        } else {
+            (exito ? guardadas : erroresGuardar).increment();
+            if (exito) latenciaGuardar.registrar(latencia);
+        }
+    }
+
+    private static int eje(SplittableRandom random) {
+        return random.nextInt(-1024, 1024);
+    }
+
+    private static void esperarHasta(long instante) {
+        long espera;
+        while ((espera = instante - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(espera);
+        }
+    }
+
+    private void reportar() {
+        System.out.println("--- Resultado (" + duracionS + " s medidos) ---");
+        imprimir(lote > 0 ? "GUARDAR_LOTE" : "GUARDAR", guardadas.sum(), erroresGuardar.sum(), latenciaGuardar);
+        imprimir("CONSULTAR_RANGO", consultadas.sum(), erroresConsulta.sum(), latenciaConsulta);
+        System.out.println("Errores de conexión: " + erroresConexion.sum());
+        if (redirecciones.sum() > 0) {
+            System.out.println("Redirecciones al nodo dueño: " + redirecciones.sum());
+        }
+        if (lote > 0) {
+            System.out.printf("Muestras guardadas: %.0f/s%n", (double) guardadas.sum() * lote / duracionS);
+        }
+    }
+
+    private void imprimir(String tipo, long exitosas, long errores, Histograma latencia) {
+        System.out.printf("%-16s ok=%d errores=%d throughput=%.1f/s p50=%.2f ms p99=%.2f ms p999=%.2f ms max=%.2f ms%n",
+                tipo, exitosas, errores, (double) exitosas / duracionS, latencia.percentil(0.5) / 1e6,
+                latencia.percentil(0.99) / 1e6, latencia.percentil(0.999) / 1e6, latencia.getMaximo() / 1e6);
+    }
+
+    /**
+     * Levanta nodosLocales procesos ServidorApp (mismo classpath), cada uno con su base temporal,
+     * y espera a que acepten conexiones. Así la carga no comparte el heap ni el GC con los
+     * servidores medidos. Con más de uno forman un clúster y las estaciones se reparten entre ellos.
+     */
+    private List<Process> levantarServidoresLocales() throws IOException, InterruptedException {
+        Path directorio = Files.createTempDirectory("carga");
+        directorioLocal = directorio;
+        List<String> lista = new ArrayList<>();
+        for (int i = 0; i < nodosLocales; i++) {
+            lista.add(host + ":" + (puerto + i));
+        }
+        if (nodosLocales > 1) {
+            nodos = String.join(",", lista);
+        }
+
+        List<Process> servidores = new ArrayList<>();
+        try {
+            for (int i = 0; i < nodosLocales; i++) {
+                servidores.add(levantarServidor(nodosLocales > 1 ? directorio.resolve("nodo" + i) : directorio, i, lista));
+            }
+        } catch (IOException e) {
+            for (Process servidor : servidores) {
+                servidor.destroyForcibly().waitFor(5, TimeUnit.SECONDS);
+            }
+            borrarDirectorioLocal();
+            throw e;
+        }
+        return servidores;
+    }
+
+    /**
+     * Borra las bases, el archivo y los registros de los servidores locales; se llama con los
+     * servidores ya detenidos.
+     */
+    private void borrarDirectorioLocal() {
+        if (directorioLocal == null) {
+            return;
+        }
+        try (Stream<Path> rutas = Files.walk(directorioLocal)) {
+            // Primero el contenido y después cada directorio
+            for (Path ruta : rutas.sorted(Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(ruta);
+            }
+        } catch (IOException e) {
+            System.err.println("No se pudo borrar el directorio temporal " + directorioLocal + ": " + e.getMessage());
+        }
+    }
+
+    private Process levantarServidor(Path directorio, int indice, List<String> lista)
+            throws IOException, InterruptedException {
+        Files.createDirectories(directorio);
+        int puertoNodo = puerto + indice;
+        String java = Path.of(System.getProperty("java.home"), "bin", "java").toString();
+        List<String> comando = new ArrayList<>(List.of(java, "-cp", System.getProperty("java.class.path"),
+                "-Dmonitoreo.bd.url=jdbc:sqlite:" + directorio.resolve("carga.db"),
+                "-Dmonitoreo.archivo.dir=" + directorio.resolve("archivo"),
+                "-Dmonitoreo.exportar.dir=" + directorio.resolve("exportaciones"),
+                // Mismas particiones que pida quien corre la carga (-Dmonitoreo.bd.particiones=N)
+                "-Dmonitoreo.bd.particiones=" + Integer.getInteger("monitoreo.bd.particiones", 1),
+                "monitoreo.servidor.ServidorApp", "--puerto=" + puertoNodo,
+                "--max-conexiones=" + Math.max(1000, estaciones + 10)));
+        if (lista.size() > 1) {
+            comando.add("--nodos=" + String.join(",", lista));
+            comando.add("--nodo=" + lista.get(indice));
+            if (indice > 0) {
+                // Un solo endpoint de métricas por host: el del primer nodo
+                comando.add("--puerto-metricas=0");
+            }
+        }
+        ProcessBuilder pb = new ProcessBuilder(comando)
+                .redirectErrorStream(true)
+                .redirectOutput(directorio.resolve("servidor.log").toFile());
+        Process servidor = pb.start();
+        System.out.println("Servidor local iniciado en el puerto " + puertoNodo
+                + " (registro en " + directorio.resolve("servidor.log") + ")");
+
+        long limite = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (System.nanoTime() < limite && servidor.isAlive()) {
+            try (Socket prueba = new Socket()) {
+                prueba.connect(new InetSocketAddress(host, puertoNodo), 500);
+                return servidor;
+            } catch (IOException e) {
+                Thread.sleep(200);
+            }
+        }
+        servidor.destroyForcibly();
+        throw new IOException("El servidor local no aceptó conexiones en el puerto " + puertoNodo);
+    }
+}
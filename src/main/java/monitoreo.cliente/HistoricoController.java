@@ -8,7 +8,10 @@ import javafx.scene.chart.XYChart;
 import javafx.scene.control.DatePicker;
 import java.io.IOException;
 import java.time.LocalDate;
+import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
 
 public class HistoricoController {
 
@@ -21,7 +24,10 @@ public class HistoricoController {
     // Series para la gráfica
     private XYChart.Series<Number, Number> seriesX, seriesY, seriesZ;
 
-    private SocketCliente clienteSocket = new SocketCliente();
+    private SocketCliente clienteSocket = SocketCliente.compartido();
+
+    // Puntos mínimos a pedir si la gráfica aún no tiene ancho (p. ej. antes del primer layout)
+    private static final int MIN_PUNTOS = 200;
 
     @FXML
     public void initialize() {
@@ -53,67 +59,71 @@ public class HistoricoController {
         // Formatear la fecha a YYYY-MM-DD
         String filterDate = selectedDate.format(DateTimeFormatter.ofPattern("yyyy-MM-dd"));
 
-        // Ejecutamos la carga en un hilo de fondo
-        new Thread(() -> {
-            if (!clienteSocket.conectar()) {
-                Platform.runLater(() -> System.err.println("Error: El servidor no está activo para la consulta."));
-                return;
+        // Rango del día completo en epoch ms (hora local)
+        long desdeMs = selectedDate.atStartOfDay(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        long hastaMs = selectedDate.plusDays(1).atStartOfDay(ZoneId.systemDefault()).toInstant().toEpochMilli();
+
+        // Resolución acorde al ancho de la gráfica: ~1 cubeta por píxel en lugar de todas las muestras.
+        // El servidor la redondea al minuto y la responde desde sus resúmenes, sin leer las muestras
+        double anchoPx = Math.max(MIN_PUNTOS, lineChartHistorico.getWidth());
+        long resolucionMs = Math.max(1, (long) ((hastaMs - desdeMs) / anchoPx));
+
+        // Limpiar la gráfica antes de que empiecen a llegar los bloques
+        seriesX.getData().clear();
+        seriesY.getData().clear();
+        seriesZ.getData().clear();
+        lineChartHistorico.setTitle("Registro Histórico del Día: " + filterDate);
+
+        // 2. Solicitar el resumen del día por la conexión compartida: la respuesta llega en el
+        //    hilo lector del socket y cada bloque se grafica en cuanto llega
+        int[] muestras = {0};
+        clienteSocket.consultarResumen(desdeMs, hastaMs, resolucionMs, bloque -> {
+            List<XYChart.Data<Number, Number>> puntosX = new ArrayList<>();
+            List<XYChart.Data<Number, Number>> puntosY = new ArrayList<>();
+            List<XYChart.Data<Number, Number>> puntosZ = new ArrayList<>();
+
+            for (String registro : bloque.split("\\|")) {
+                if (registro.isEmpty()) continue;
+
+                // Formato: inicioCubeta,n,minX,maxX,promX,desvX,minY,maxY,promY,desvY,minZ,maxZ,promZ,desvZ
+                String[] campos = registro.split(",");
+
+                if (campos.length >= 14) {
+                    try {
+                        // Eje horizontal en horas desde el inicio del día; se grafica el promedio
+                        double hora = (Long.parseLong(campos[0]) - desdeMs) / 3_600_000.0;
+                        muestras[0] += Integer.parseInt(campos[1]);
+                        puntosX.add(new XYChart.Data<>(hora, Double.parseDouble(campos[4])));
+                        puntosY.add(new XYChart.Data<>(hora, Double.parseDouble(campos[8])));
+                        puntosZ.add(new XYChart.Data<>(hora, Double.parseDouble(campos[12])));
+
+                    } catch (NumberFormatException e) {
+                        // Ignora los registros que no se puedan convertir a números
+                        System.err.println("Error al parsear valores numéricos (registro ignorado): " + registro);
+                    }
+                } else {
+                    System.err.println("Registro ignorado por falta de campos: " + registro);
+                }
             }
 
-            // 2. Solicitar datos usando la fecha como filtro
-            String datosRaw = clienteSocket.solicitarDatosHistoricos(filterDate);
-            clienteSocket.desconectar();
-
-            // Actualizar la GUI (limpiar y título) en el hilo de JavaFX
+            // 4. Agregar el bloque completo a las series en el hilo de JavaFX (un solo cambio por serie)
             Platform.runLater(() -> {
-                seriesX.getData().clear();
-                seriesY.getData().clear();
-                seriesZ.getData().clear();
-                lineChartHistorico.setTitle("Registro Histórico del Día: " + filterDate);
+                seriesX.getData().addAll(puntosX);
+                seriesY.getData().addAll(puntosY);
+                seriesZ.getData().addAll(puntosZ);
             });
-
-            if (datosRaw != null && !datosRaw.isEmpty()) {
-                String[] registros = datosRaw.split("\\|");
-                int timeIndex = 0;
-
-                for (String registro : registros) {
-                    if (registro.isEmpty()) continue;
-
-                    // El formato esperado es X, Y, Z, FechaCompleta (sin el ID al inicio)
-                    String[] campos = registro.split(",");
-
-                    // Nos aseguramos de que haya al menos 3 campos (X, Y, Z)
-                    if (campos.length >= 3) {
-                        try {
-                            // 🚨 CORRECCIÓN: Usar índices 0, 1, 2 para X, Y, Z
-                            int x = Integer.parseInt(campos[0].trim());
-                            int y = Integer.parseInt(campos[1].trim());
-                            int z = Integer.parseInt(campos[2].trim());
-
-                            timeIndex++;
-                            final int finalTimeIndex = timeIndex;
-
-                            // 4. Agregar puntos a las series en el hilo de JavaFX
-                            Platform.runLater(() -> {
-                                seriesX.getData().add(new XYChart.Data<>(finalTimeIndex, x));
-                                seriesY.getData().add(new XYChart.Data<>(finalTimeIndex, y));
-                                seriesZ.getData().add(new XYChart.Data<>(finalTimeIndex, z));
-                            });
-
-                        } catch (NumberFormatException e) {
-                            // Ignora los registros que no se puedan convertir a números
-                            System.err.println("Error al parsear valores numéricos (registro ignorado): " + registro);
-                        }
-                    } else {
-                        System.err.println("Registro ignorado por falta de campos: " + registro);
-                    }
-                }
-                final int finalTotalSamples = timeIndex;
-                Platform.runLater(() -> System.out.println("✅ Datos históricos graficados. Total de muestras: " + finalTotalSamples));
+        }).whenComplete((total, error) -> Platform.runLater(() -> {
+            if (error != null) {
+                System.err.println("Error: El servidor no está activo para la consulta (" + error.getMessage() + ").");
+            } else if (total > 0) {
+                System.out.println("✅ Datos históricos graficados. Total de muestras: "
+                        + muestras[0] + " en " + total + " puntos.");
+            } else if (total == 0) {
+                System.out.println("No se encontraron datos para la fecha: " + filterDate);
             } else {
-                Platform.runLater(() -> System.out.println("No se encontraron datos para la fecha: " + filterDate));
+                System.err.println("Error al consultar los datos de la fecha: " + filterDate);
             }
-        }).start();
+        }));
     }
 
     @FXML
@@ -1,42 +1,73 @@
 package monitoreo.cliente;
 
-import javafx.application.Platform;
+import javafx.animation.AnimationTimer;
+import javafx.collections.ObservableList;
 import javafx.fxml.FXML;
 import javafx.scene.chart.LineChart;
+import javafx.scene.chart.NumberAxis;
 import javafx.scene.chart.XYChart;
 import javafx.scene.control.Button;
 import javafx.scene.control.Label;
-import javafx.scene.control.ComboBox; // Dejamos el ComboBox para que el FXML no falle
+import javafx.scene.control.ComboBox;
+import javafx.stage.FileChooser;
+import monitoreo.util.ProtocoloBinario;
 
+import java.io.File;
 import java.io.IOException;
-import java.util.Random;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
 
 public class MonitorController {
 
     // Componentes de la interfaz gráfica
-    @FXML private ComboBox<String> cbPuertos;
+    @FXML private ComboBox<String> cbPuertos; // Selector de la fuente de lecturas
     @FXML private LineChart<Number, Number> lineChart;
+    @FXML private NumberAxis xAxis;
     @FXML private Button btnIniciarDetener;
     @FXML private Label lblX, lblY, lblZ; // Para mostrar valores de la última lectura
 
-    private SocketCliente clienteSocket = new SocketCliente();
+    private SocketCliente clienteSocket = SocketCliente.compartido();
+    private BufferEnvio bufferEnvio; // Agrupa las lecturas en lotes GUARDAR_LOTE
+    private Muestreador muestreador; // Pide las lecturas a la fuente al ritmo que ella indica
     private boolean lecturaActiva = false;
-    private Thread threadGeneradorDatos; // ¡Ahora genera, no lee!
 
     // Series para la gráfica
     private XYChart.Series<Number, Number> seriesX, seriesY, seriesZ;
-    private int tiempo = 0;
+    private long tiempo = 0;
 
-    // Rango de simulación para el acelerómetro
-    private static final int MIN_VAL = -1024;
-    private static final int MAX_VAL = 1024;
-    private Random random = new Random();
+    // Opciones del selector: fuente sintética a estas frecuencias o un archivo grabado ("ts,x,y,z")
+    private static final int[] FRECUENCIAS = {1, 10, 100, 1000, 5000};
+    // Frecuencia seleccionada al abrir la vista (-Dmonitoreo.monitor.hz=1000 para probar a 1 kHz)
+    private static final int FRECUENCIA_INICIAL = Math.max(1, Integer.getInteger("monitoreo.monitor.hz", 1));
+    private static final String OPCION_ARCHIVO = "Archivo...";
+    private final List<Integer> frecuencias = new ArrayList<>();
+    private Path archivoSeleccionado;
+    private int seleccionAnterior;
+
+    // Puntos visibles por eje: la gráfica es una ventana fija que se desplaza
+    // (50 a 1 Hz; medio segundo de lecturas a frecuencias altas). Se dimensiona al iniciar
+    private int ventanaPuntos;
+
+    // El muestreador publica aquí sin bloquear; el AnimationTimer lo vacía una vez por cuadro
+    private AnilloMuestras anillo;
+    private int[] cuadroX, cuadroY, cuadroZ;
+    private final AnimationTimer dibujador = new AnimationTimer() {
+        @Override
+        public void handle(long ahora) {
+            dibujarPendientes();
+        }
+    };
+
+    // Disparadores del envío por lotes: lo que ocurra primero. A frecuencias altas el lote
+    // crece para mandar unos 10 por segundo
+    private static final int LOTE_MAX_MUESTRAS = 50;
+    private static final long LOTE_MAX_ESPERA_MS = 2000;
 
     @FXML
     public void initialize() {
         inicializarGrafica();
-        // El ComboBox ya no se usa para Serial, pero lo mantenemos visible.
-        cbPuertos.setVisible(false);
+        inicializarSelectorFuente();
         btnIniciarDetener.setText("Iniciar Monitoreo");
         btnIniciarDetener.setDisable(false);
     }
@@ -54,12 +85,51 @@ public class MonitorController {
 
         lineChart.getData().addAll(seriesX, seriesY, seriesZ);
         lineChart.setAnimated(false);
+        // Sin símbolos: serían miles de nodos a redibujar en cada cuadro
+        lineChart.setCreateSymbols(false);
+
+        // El eje X se mueve con la ventana en lugar de recalcular el rango con todos los puntos
+        xAxis.setAutoRanging(false);
+    }
+
+    private void inicializarSelectorFuente() {
+        for (int hz : FRECUENCIAS) {
+            frecuencias.add(hz);
+        }
+        if (!frecuencias.contains(FRECUENCIA_INICIAL)) {
+            frecuencias.add(FRECUENCIA_INICIAL);
+            frecuencias.sort(null);
+        }
+        for (int hz : frecuencias) {
+            cbPuertos.getItems().add(new FuenteSintetica(hz).getDescripcion());
+        }
+        cbPuertos.getItems().add(OPCION_ARCHIVO);
+        seleccionAnterior = frecuencias.indexOf(FRECUENCIA_INICIAL);
+        cbPuertos.getSelectionModel().select(seleccionAnterior);
+        cbPuertos.setVisible(true);
     }
 
     // --- EVENTOS Y CONTROL ---
 
     @FXML
-    private void seleccionarPuerto() { /* No hace nada */ }
+    private void seleccionarPuerto() {
+        int indice = cbPuertos.getSelectionModel().getSelectedIndex();
+        if (indice < 0 || indice == seleccionAnterior) {
+            return;
+        }
+        if (indice == frecuencias.size()) {
+            FileChooser selector = new FileChooser();
+            selector.setTitle("Lecturas grabadas (ts,x,y,z o x,y,z por línea)");
+            File elegido = selector.showOpenDialog(cbPuertos.getScene().getWindow());
+            if (elegido == null) {
+                cbPuertos.getSelectionModel().select(seleccionAnterior);
+                return;
+            }
+            archivoSeleccionado = elegido.toPath();
+            System.out.println("Fuente de lecturas: " + archivoSeleccionado);
+        }
+        seleccionAnterior = indice;
+    }
 
     @FXML
     private void iniciarDetenerLectura() {
@@ -77,87 +147,137 @@ public class MonitorController {
         ClienteApp.loadView("inicioview.fxml");
     }
 
+    /**
+     * @return La fuente elegida en el selector (nueva en cada inicio: las fuentes se cierran al detener).
+     */
+    private FuenteMuestras crearFuente() throws IOException {
+        int indice = cbPuertos.getSelectionModel().getSelectedIndex();
+        if (indice == frecuencias.size() && archivoSeleccionado != null) {
+            // Respeta los intervalos grabados y vuelve a empezar al terminar el archivo
+            return new FuenteArchivo(archivoSeleccionado, 0, true);
+        }
+        return new FuenteSintetica(frecuencias.get(Math.max(0, Math.min(indice, frecuencias.size() - 1))));
+    }
+
     private void iniciarMonitoreo() {
-        // 1. Conectar Socket (Asegurarse que el Servidor esté corriendo)
-        if (!clienteSocket.conectar()) {
+        // 1. La conexión es compartida y se abre al iniciar la aplicación (ver ClienteApp)
+        if (!clienteSocket.estaConectado()) {
             System.err.println("Error: El servidor no está activo. Conecte el servidor primero.");
             return;
         }
 
-        System.out.println("Monitoreo SIMULADO iniciado.");
+        FuenteMuestras fuente;
+        try {
+            fuente = crearFuente();
+        } catch (IOException e) {
+            System.err.println("No se pudo abrir la fuente de lecturas: " + e.getMessage());
+            return;
+        }
+        int hz = fuente.getMuestrasPorSegundo();
+        System.out.println("Monitoreo iniciado: " + fuente.getDescripcion() + ".");
+
+        // 2. Dimensionar la ventana, el anillo (un segundo de lecturas aunque la interfaz se
+        //    congele) y los lotes según la frecuencia de la fuente
+        ventanaPuntos = Integer.getInteger("monitoreo.monitor.ventana", Math.max(50, hz / 2));
+        anillo = new AnilloMuestras(Math.max(1024, hz));
+        cuadroX = new int[ventanaPuntos];
+        cuadroY = new int[ventanaPuntos];
+        cuadroZ = new int[ventanaPuntos];
+        reiniciarGrafica();
+        int lote = Math.min(ProtocoloBinario.MAX_MUESTRAS_LOTE, Math.max(LOTE_MAX_MUESTRAS, hz / 10));
+        bufferEnvio = new BufferEnvio(clienteSocket, lote, LOTE_MAX_ESPERA_MS);
+
         lecturaActiva = true;
+        cbPuertos.setDisable(true);
         btnIniciarDetener.setText("Detener Monitoreo");
+        dibujador.start();
 
-        // 2. Iniciar el hilo generador (Worker Thread)
-        threadGeneradorDatos = new Thread(this::generarYProcesarDatos);
-        threadGeneradorDatos.setDaemon(true);
-        threadGeneradorDatos.start();
+        // 3. Cada lectura va al anillo de la gráfica (no bloquea) y al buffer de envío, en el
+        //    hilo del muestreador: el hilo de JavaFX solo dibuja
+        AnilloMuestras destino = anillo;
+        BufferEnvio envio = bufferEnvio;
+        muestreador = new Muestreador(fuente, (ts, x, y, z) -> {
+            destino.ofrecer(x, y, z);
+            envio.agregar(ts, x, y, z);
+        });
     }
 
     private void detenerMonitoreo() {
         lecturaActiva = false;
-        if (threadGeneradorDatos != null) threadGeneradorDatos.interrupt();
-        clienteSocket.desconectar();
+        if (muestreador != null) {
+            muestreador.close();
+            System.out.println("Monitoreo detenido. " + muestreador);
+        }
+        // Enviar lo que quede en el buffer (la conexión sigue abierta para las demás vistas)
+        if (bufferEnvio != null) bufferEnvio.close();
 
+        dibujador.stop();
+        dibujarPendientes();
+        cbPuertos.setDisable(false);
         btnIniciarDetener.setText("Iniciar Monitoreo");
     }
 
-    // --- LÓGICA DE SIMULACIÓN Y PROCESAMIENTO ---
-
-    private void generarYProcesarDatos() {
-        while (lecturaActiva) {
-            try {
-                // 1. Generar valores aleatorios que simulan la lectura del acelerómetro
-                int x = random.nextInt(MAX_VAL - MIN_VAL) + MIN_VAL;
-                int y = random.nextInt(MAX_VAL - MIN_VAL) + MIN_VAL;
-                int z = random.nextInt(MAX_VAL - MIN_VAL) + MIN_VAL;
+    // --- DIBUJO ---
 
-                // 2. Ejecutar la actualización de GUI y envío en el hilo de JavaFX
-                Platform.runLater(() -> actualizarGraficaYEnviar(x, y, z));
-
-                // CAMBIO DE VELOCIDAD AQUÍ: Espera 1 segundo (1000 ms)
-                Thread.sleep(1000);
-
-            } catch (InterruptedException e) {
-                // Si el hilo es interrumpido (al detener el monitoreo)
-                lecturaActiva = false;
-            }
-        }
+    private void reiniciarGrafica() {
+        tiempo = 0;
+        seriesX.getData().clear();
+        seriesY.getData().clear();
+        seriesZ.getData().clear();
+        xAxis.setLowerBound(0);
+        xAxis.setUpperBound(ventanaPuntos);
+        xAxis.setTickUnit(Math.max(1, ventanaPuntos / 10));
     }
 
-    private void actualizarGraficaYEnviar(int x, int y, int z) {
-        // 1. Actualizar Labels de última lectura
-        lblX.setText(String.valueOf(x));
-        lblY.setText(String.valueOf(y));
-        lblZ.setText(String.valueOf(z));
-
-        // 2. Añadir el punto a la gráfica (JavaFX Thread)
-        tiempo++;
-        seriesX.getData().add(new XYChart.Data<>(tiempo, x));
-        seriesY.getData().add(new XYChart.Data<>(tiempo, y));
-        seriesZ.getData().add(new XYChart.Data<>(tiempo, z));
+    /**
+     * Vacía el anillo y actualiza la gráfica en bloque: por serie, un solo remove del rango que
+     * sale de la ventana y un solo addAll de los puntos nuevos. Corre en el hilo de JavaFX una
+     * vez por cuadro, sin importar cuántas lecturas llegaron.
+     */
+    private void dibujarPendientes() {
+        if (anillo == null) {
+            return;
+        }
+        int pendientes = anillo.drenar(cuadroX, cuadroY, cuadroZ);
+        if (pendientes == 0) {
+            return;
+        }
+        int n = Math.min(pendientes, ventanaPuntos);
+        // Las lecturas que no caben en la ventana igual avanzan el tiempo
+        tiempo += pendientes - n;
 
-        // Control de puntos
-        if (seriesX.getData().size() > 50) {
-            seriesX.getData().remove(0);
-            seriesY.getData().remove(0);
-            seriesZ.getData().remove(0);
+        List<XYChart.Data<Number, Number>> nuevosX = new ArrayList<>(n);
+        List<XYChart.Data<Number, Number>> nuevosY = new ArrayList<>(n);
+        List<XYChart.Data<Number, Number>> nuevosZ = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            tiempo++;
+            nuevosX.add(new XYChart.Data<>(tiempo, cuadroX[i]));
+            nuevosY.add(new XYChart.Data<>(tiempo, cuadroY[i]));
+            nuevosZ.add(new XYChart.Data<>(tiempo, cuadroZ[i]));
         }
+        desplazar(seriesX.getData(), nuevosX, ventanaPuntos);
+        desplazar(seriesY.getData(), nuevosY, ventanaPuntos);
+        desplazar(seriesZ.getData(), nuevosZ, ventanaPuntos);
+
+        xAxis.setLowerBound(Math.max(0, tiempo - ventanaPuntos));
+        xAxis.setUpperBound(Math.max(ventanaPuntos, tiempo));
 
-        // 3. Enviar los datos al servidor
-        enviarDatosAlServidor(x, y, z);
+        // Labels de última lectura (solo la más reciente del cuadro)
+        lblX.setText(String.valueOf(cuadroX[n - 1]));
+        lblY.setText(String.valueOf(cuadroY[n - 1]));
+        lblZ.setText(String.valueOf(cuadroZ[n - 1]));
     }
 
-    private void enviarDatosAlServidor(int x, int y, int z) {
-        // Esto previene que el envío de red bloquee el hilo de JavaFX
-        new Thread(() -> {
-            boolean exito = clienteSocket.enviarDatosMonitoreo(x, y, z);
-            if (!exito) {
-                Platform.runLater(() -> {
-                    System.err.println("Lectura detenida: Fallo en la comunicación de red.");
-                    detenerMonitoreo();
-                });
-            }
-        }).start();
+    private static void desplazar(ObservableList<XYChart.Data<Number, Number>> datos,
+                                  List<XYChart.Data<Number, Number>> nuevos, int ventana) {
+        int sobran = datos.size() + nuevos.size() - ventana;
+        if (sobran >= datos.size()) {
+            datos.setAll(nuevos);
+            return;
+        }
+        if (sobran > 0) {
+            datos.remove(0, sobran);
+        }
+        datos.addAll(nuevos);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,99 @@
+package monitoreo.cliente;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Hilo que pide lecturas a una FuenteMuestras al ritmo que ella indica. Cada instante de
+ * muestreo se agenda contra el reloj (inicio + suma de periodos) y no con sleep(periodo):
+ * el retraso de una espera no se acumula en las siguientes, así que la frecuencia media es
+ * exacta aun a varios kHz. Si el hilo se atrasa (p. ej. el receptor se frenó por la red),
+ * las lecturas debidas salen seguidas hasta alcanzar el reloj.
+ */
+public class Muestreador implements AutoCloseable {
+
+    // Más atrasado que esto se deja de recuperar y se retoma el ritmo desde ahora, sin ráfaga
+    private static final long MAX_ATRASO_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final FuenteMuestras fuente;
+    private final FuenteMuestras.Receptor receptor;
+    private final Thread hilo;
+    private volatile boolean activo = true;
+
+    // --- Métricas (solo las escribe el hilo del muestreador) ---
+    private volatile long entregadas;
+    private volatile long reinicios;
+
+    public Muestreador(FuenteMuestras fuente, FuenteMuestras.Receptor receptor) {
+        this.fuente = fuente;
+        this.receptor = receptor;
+        this.hilo = new Thread(this::bucle, "muestreador");
+        this.hilo.setDaemon(true);
+        // Los periodos de kHz son menores que una porción de tiempo del planificador
+        this.hilo.setPriority(Thread.MAX_PRIORITY);
+        this.hilo.start();
+    }
+
+    private void bucle() {
+        long siguiente = System.nanoTime();
+        try {
+            while (activo) {
+                long periodo = fuente.leer(receptor);
+                if (periodo < 0) {
+                    return;
+                }
+                entregadas++;
+
+                siguiente += periodo;
+                long espera = siguiente - System.nanoTime();
+                if (espera < -MAX_ATRASO_NANOS) {
+                    reinicios++;
+                    siguiente = System.nanoTime();
+                }
+                while (activo && (espera = siguiente - System.nanoTime()) > 0) {
+                    LockSupport.parkNanos(espera);
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Error al leer de la fuente " + fuente.getDescripcion() + ": " + e.getMessage());
+        } finally {
+            activo = false;
+            fuente.close();
+        }
+    }
+
+    /**
+     * @return true mientras la fuente siga entregando lecturas.
+     */
+    public boolean estaActivo() {
+        return activo;
+    }
+
+    public long getEntregadas() {
+        return entregadas;
+    }
+
+    public long getReinicios() {
+        return reinicios;
+    }
+
+    /**
+     * Detiene el muestreo y cierra la fuente.
+     */
+    @Override
+    public void close() {
+        activo = false;
+        LockSupport.unpark(hilo);
+        try {
+            hilo.join(2000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return fuente.getDescripcion() + ": entregadas=" + entregadas + ", reinicios=" + reinicios;
+    }
+}
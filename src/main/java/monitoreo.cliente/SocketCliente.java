@@ -0,0 +1,741 @@
+package monitoreo.cliente;
+
+import monitoreo.util.AnilloHash;
+import monitoreo.util.CifradoUtil;
+import monitoreo.util.ProtocoloBinario;
+import monitoreo.util.ProtocoloBinario.Trama;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Conexión del cliente con el Servidor, una sola para toda la aplicación (ver compartido()).
+ * Al conectar intenta negociar el protocolo binario; si el servidor no lo entiende, usa el
+ * protocolo de texto (líneas Base64 encriptadas). Con -Dmonitoreo.sensor=<id> cada conexión se
+ * registra como ese sensor (REGISTRAR) antes de aceptar peticiones; sin él, el servidor atribuye
+ * las muestras a su sensor por defecto.
+ *
+ * Con -Dmonitoreo.nodos=host:puerto,... (la misma lista que --nodos de los servidores) el cliente
+ * se conecta directamente al nodo dueño de su sensor; si el servidor responde "REDIRIGIR:host:puerto"
+ * al registrarse (la lista quedó vieja), sigue la redirección.
+ *
+ * Cada petición lleva un id (campo idPeticion de la trama, o prefijo "@id|" en las líneas de texto)
+ * y su respuesta completa un CompletableFuture, así el monitor y el histórico comparten el socket
+ * sin esperarse entre sí. Un único hilo lector recibe todas las respuestas. Si la conexión se cae,
+ * las peticiones pendientes fallan con IOException y se reconecta en segundo plano con espera
+ * exponencial.
+ */
+public class SocketCliente {
+
+    private static final String HOST = "localhost";
+    private static final int PUERTO = 5000;
+    private static final int TIMEOUT_CONEXION_MS = 3000;
+    // Tiempo máximo para que el servidor responda al saludo binario
+    private static final int TIMEOUT_SALUDO_MS = 2000;
+    // Espera entre intentos de reconexión: se duplica en cada fallo hasta el máximo
+    private static final long ESPERA_RECONEXION_INICIAL_MS = 250;
+    private static final long ESPERA_RECONEXION_MAX_MS = 10_000;
+    // Sensor que se registra al conectar (null = el sensor por defecto del servidor)
+    private static final String SENSOR = System.getProperty("monitoreo.sensor");
+    // Sensor al que el servidor atribuye las muestras de una conexión sin registrar
+    private static final String SENSOR_POR_DEFECTO = "local";
+    // Nodos del clúster (null = un solo servidor en HOST:PUERTO)
+    private static final AnilloHash NODOS = AnilloHash.desdeLista(System.getProperty("monitoreo.nodos"));
+    // Redirecciones que se siguen al registrarse antes de dar la conexión por fallida
+    private static final int MAX_REDIRECCIONES = 3;
+
+    private static final class Holder {
+        private static final SocketCliente COMPARTIDO = new SocketCliente();
+    }
+
+    /**
+     * @return La conexión compartida por todas las vistas del cliente.
+     */
+    public static SocketCliente compartido() {
+        return Holder.COMPARTIDO;
+    }
+
+    /**
+     * Respuesta recibida: una trama binaria (tipo + payload; texto ya desencriptado si es
+     * TEXTO o ERROR) o una línea del protocolo de texto (tipo TEXTO).
+     */
+    private record Respuesta(byte tipo, byte[] payload, String texto) {
+    }
+
+    /**
+     * Interpreta las respuestas de una petición y completa su futuro.
+     */
+    @FunctionalInterface
+    private interface Receptor {
+        /**
+         * @return true si la petición terminó (no se esperan más respuestas con ese id).
+         */
+        boolean recibir(Respuesta respuesta);
+    }
+
+    private record Pendiente(Conexion conexion, Receptor receptor, CompletableFuture<?> futuro) {
+    }
+
+    /**
+     * Lo que se escribe para una petición: una trama binaria ya encriptada o un mensaje del
+     * protocolo de texto (que en una conexión binaria viaja en una trama TEXTO).
+     */
+    private record Envio(byte tipo, byte[] payload, String texto) {
+        static Envio texto(String mensaje) {
+            return new Envio(ProtocoloBinario.TEXTO, null, mensaje);
+        }
+
+        static Envio trama(byte tipo, byte[] payload) {
+            return new Envio(tipo, payload, null);
+        }
+    }
+
+    private final Object candadoConexion = new Object();
+    private final Map<Integer, Pendiente> pendientes = new ConcurrentHashMap<>();
+    private final AtomicInteger siguienteId = new AtomicInteger();
+
+    private volatile Conexion actual;
+    // Protegidos por candadoConexion
+    private boolean deseada;
+    private boolean reconectando;
+    private Thread hiloReconexion;
+
+    /**
+     * Abre la conexión con el servidor si no está abierta. Si no lo logra, sigue intentando
+     * en segundo plano hasta que se llame a desconectar().
+     * @return true si la conexión quedó establecida.
+     */
+    public boolean conectar() {
+        synchronized (candadoConexion) {
+            deseada = true;
+            if (actual != null) {
+                return true;
+            }
+            try {
+                establecer();
+                return true;
+            } catch (IOException e) {
+                System.err.println("No se pudo conectar con el servidor: " + e.getMessage());
+                iniciarReconexion(ESPERA_RECONEXION_INICIAL_MS);
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Igual que conectar(), pero sin bloquear al hilo que llama (p. ej. el de JavaFX).
+     */
+    public void conectarEnSegundoPlano() {
+        synchronized (candadoConexion) {
+            deseada = true;
+            if (actual == null) {
+                iniciarReconexion(0);
+            }
+        }
+    }
+
+    /**
+     * @return true si hay una conexión abierta en este momento.
+     */
+    public boolean estaConectado() {
+        return actual != null;
+    }
+
+    /**
+     * Cierra la conexión (si está abierta) y deja de reconectar. Las peticiones pendientes fallan.
+     */
+    public void desconectar() {
+        Conexion conexion;
+        synchronized (candadoConexion) {
+            deseada = false;
+            if (hiloReconexion != null) {
+                hiloReconexion.interrupt();
+            }
+            conexion = actual;
+            actual = null;
+        }
+        if (conexion != null) {
+            conexion.cerrar();
+            fallarPendientes(conexion, new IOException("Conexión cerrada por el cliente."));
+        }
+    }
+
+    // --- PETICIONES ---
+
+    /**
+     * Envía una lectura del acelerómetro.
+     * @return Futuro con true si el servidor confirmó el guardado (ACK).
+     */
+    public CompletableFuture<Boolean> enviarDatosMonitoreo(int x, int y, int z) {
+        long timestampMs = System.currentTimeMillis();
+        CompletableFuture<Boolean> futuro = new CompletableFuture<>();
+        return enviar(futuro,
+                c -> c.binario
+                        ? Envio.trama(ProtocoloBinario.GUARDAR, ProtocoloBinario.cifrarMuestra(x, y, z, timestampMs))
+                        : Envio.texto("GUARDAR:" + x + "," + y + "," + z),
+                r -> {
+                    futuro.complete(r.tipo() == ProtocoloBinario.ACK || (r.texto() != null && r.texto().startsWith("ACK:")));
+                    return true;
+                });
+    }
+
+    /**
+     * Envía n lecturas en un solo mensaje GUARDAR_LOTE. Los arreglos se codifican antes de
+     * retornar, así que el llamador puede reutilizarlos en cuanto recibe el futuro.
+     * @return Futuro con el estado de cada lectura (true = guardada), o null si el servidor respondió un error.
+     */
+    public CompletableFuture<boolean[]> enviarLoteMonitoreo(long[] timestampsMs, int[] x, int[] y, int[] z, int n) {
+        CompletableFuture<boolean[]> futuro = new CompletableFuture<>();
+        return enviar(futuro,
+                c -> c.binario
+                        ? Envio.trama(ProtocoloBinario.GUARDAR_LOTE, ProtocoloBinario.cifrarLote(timestampsMs, x, y, z, n))
+                        : Envio.texto(mensajeLote(timestampsMs, x, y, z, n)),
+                r -> {
+                    futuro.complete(estadosLote(r));
+                    return true;
+                });
+    }
+
+    /**
+     * Solicita los registros de un día.
+     * @param fecha Fecha en formato yyyy-MM-dd.
+     * @return Futuro con los registros "X,Y,Z,Fecha Hora" separados por '|', o null si no hay datos.
+     */
+    public CompletableFuture<String> solicitarDatosHistoricos(String fecha) {
+        CompletableFuture<String> futuro = new CompletableFuture<>();
+        return enviar(futuro, c -> Envio.texto("CONSULTAR:" + fecha), r -> {
+            String texto = r.texto();
+            futuro.complete(texto != null && texto.startsWith("DATA:") ? quitarIds(texto.substring("DATA:".length())) : null);
+            return true;
+        });
+    }
+
+    /**
+     * Solicita los registros de un día en modo por bloques (CONSULTAR_STREAM): cada bloque se
+     * entrega en cuanto llega, sin esperar al resultado completo.
+     * @param alBloque Recibe cada bloque de registros "X,Y,Z,Fecha Hora" separados por '|'.
+     *                 Se llama en el hilo lector de la conexión: debe ser rápido.
+     * @return Futuro con el total de registros recibidos, o -1 si el servidor respondió un error.
+     */
+    public CompletableFuture<Integer> solicitarDatosHistoricos(String fecha, Consumer<String> alBloque) {
+        return consultaPorBloques("CONSULTAR_STREAM:" + fecha, bloque -> alBloque.accept(quitarIds(bloque)));
+    }
+
+    /**
+     * Solicita el rango [desdeMs, hastaMs) agrupado en cubetas de cubetaMs (0 = muestras crudas).
+     * @param alBloque Recibe cada bloque de filas separadas por '|'. Con cubetas cada fila es
+     *                 "inicioCubeta,n,minX,maxX,promX,minY,maxY,promY,minZ,maxZ,promZ"; sin cubetas, "ts,x,y,z".
+     *                 Se llama en el hilo lector de la conexión: debe ser rápido.
+     * @return Futuro con el total de filas recibidas, o -1 si el servidor respondió un error.
+     */
+    public CompletableFuture<Integer> consultarRango(long desdeMs, long hastaMs, long cubetaMs, Consumer<String> alBloque) {
+        return consultaPorBloques("CONSULTAR_RANGO:" + desdeMs + "," + hastaMs + "," + cubetaMs, alBloque);
+    }
+
+    /**
+     * Solicita el rango [desdeMs, hastaMs) agrupado con resolución resolucionMs desde los resúmenes
+     * que mantiene el servidor (por hora desde 1 h, por minuto desde 1 min): sirve para rangos
+     * largos sin leer las muestras crudas.
+     * @param alBloque Recibe cada bloque de filas separadas por '|', cada una
+     *                 "inicioCubeta,n,minX,maxX,promX,desvX,minY,maxY,promY,desvY,minZ,maxZ,promZ,desvZ".
+     *                 Se llama en el hilo lector de la conexión: debe ser rápido.
+     * @return Futuro con el total de cubetas recibidas, o -1 si el servidor respondió un error.
+     */
+    public CompletableFuture<Integer> consultarResumen(long desdeMs, long hastaMs, long resolucionMs,
+                                                       Consumer<String> alBloque) {
+        return consultaPorBloques("CONSULTAR_RESUMEN:" + desdeMs + "," + hastaMs + "," + resolucionMs, alBloque);
+    }
+
+    /**
+     * Pide al servidor que exporte las muestras crudas de [desdeMs, hastaMs) a un archivo en su
+     * directorio de exportación (monitoreo.exportar.dir), en lugar de enviarlas por la conexión.
+     * @param formato "csv" o "columnar".
+     * @param sensor Id del sensor, o "" para el sensor por defecto.
+     * @param alProgreso Recibe "filas,bytes" mientras se escribe. Se llama en el hilo lector: debe ser rápido.
+     * @return Futuro con "filas,bytes,ruta" del archivo terminado, o null si el servidor respondió un error.
+     */
+    public CompletableFuture<String> exportar(String formato, long desdeMs, long hastaMs, String sensor,
+                                              Consumer<String> alProgreso) {
+        CompletableFuture<String> futuro = new CompletableFuture<>();
+        String mensaje = "EXPORTAR:" + formato + "," + desdeMs + "," + hastaMs + "," + sensor;
+        return enviar(futuro, c -> Envio.texto(mensaje), r -> {
+            String texto = r.texto();
+            if (texto == null || texto.startsWith("ERROR:")) {
+                futuro.complete(null);
+                return true;
+            }
+            if (texto.startsWith("EXPORTADO:")) {
+                futuro.complete(texto.substring("EXPORTADO:".length()));
+                return true;
+            }
+            if (texto.startsWith("PROGRESO:")) {
+                alProgreso.accept(texto.substring("PROGRESO:".length()));
+            }
+            return false;
+        });
+    }
+
+    /**
+     * Se suscribe a las muestras que el servidor guarde de un sensor, en cuanto se guardan.
+     * @param sensor Id del sensor, o "" para todos (cada muestra llega como "sensor,ts,x,y,z").
+     * @param alRecibir Recibe cada grupo "descartadas:ts,x,y,z;ts,x,y,z;..." (descartadas = muestras
+     *                  que el servidor no pudo entregar por atraso). Se llama en el hilo lector: debe ser rápido.
+     * @return Futuro con el total de muestras entregadas cuando la suscripción se cancela, o -1 si
+     *         el servidor la rechazó. Falla si se pierde la conexión (hay que volver a suscribirse).
+     */
+    public CompletableFuture<Long> suscribir(String sensor, Consumer<String> alRecibir) {
+        return suscribir(sensor, alRecibir, null);
+    }
+
+    /**
+     * Igual que suscribir(sensor, alRecibir), y además recibe las alertas del detector de anomalías
+     * del servidor para ese sensor.
+     * @param alAlerta Recibe "sensor,ts,tipo,magnitud,media,desviacion,pico" (tipo UMBRAL o PICO);
+     *                 puede ser null. Se llama en el hilo lector: debe ser rápido.
+     */
+    public CompletableFuture<Long> suscribir(String sensor, Consumer<String> alRecibir, Consumer<String> alAlerta) {
+        CompletableFuture<Long> futuro = new CompletableFuture<>();
+        return enviar(futuro, c -> Envio.texto("SUSCRIBIR:" + sensor), r -> {
+            String texto = r.texto();
+            if (texto == null || texto.startsWith("ERROR:")) {
+                futuro.complete(-1L);
+                return true;
+            }
+            if (texto.startsWith("FIN:")) {
+                futuro.complete(Long.parseLong(texto.substring("FIN:".length()).trim()));
+                return true;
+            }
+            if (texto.startsWith("MUESTRAS:")) {
+                alRecibir.accept(texto.substring("MUESTRAS:".length()));
+            } else if (texto.startsWith("ALERTA:") && alAlerta != null) {
+                alAlerta.accept(texto.substring("ALERTA:".length()));
+            }
+            return false;
+        });
+    }
+
+    /**
+     * Cancela las suscripciones a ese sensor ("" = las de todos); sus futuros se completan con el total.
+     * @return Futuro con true si el servidor confirmó.
+     */
+    public CompletableFuture<Boolean> cancelarSuscripcion(String sensor) {
+        CompletableFuture<Boolean> futuro = new CompletableFuture<>();
+        return enviar(futuro, c -> Envio.texto("CANCELAR_SUSCRIPCION:" + sensor), r -> {
+            futuro.complete(r.texto() != null && r.texto().startsWith("ACK:"));
+            return true;
+        });
+    }
+
+    /**
+     * Envía una consulta cuya respuesta llega por bloques ("BLOQUE:..." hasta "FIN:<total>").
+     */
+    private CompletableFuture<Integer> consultaPorBloques(String mensaje, Consumer<String> alBloque) {
+        CompletableFuture<Integer> futuro = new CompletableFuture<>();
+        return enviar(futuro, c -> Envio.texto(mensaje), r -> {
+            String texto = r.texto();
+            if (texto == null || texto.startsWith("ERROR:")) {
+                futuro.complete(-1);
+                return true;
+            }
+            if (texto.startsWith("FIN:")) {
+                futuro.complete(Integer.parseInt(texto.substring("FIN:".length()).trim()));
+                return true;
+            }
+            if (texto.startsWith("BLOQUE:")) {
+                alBloque.accept(texto.substring("BLOQUE:".length()));
+            }
+            return false;
+        });
+    }
+
+    /**
+     * Registra la petición con un id nuevo y la escribe en la conexión actual.
+     * @param armar Construye lo que se envía según el protocolo de la conexión.
+     */
+    private <T> CompletableFuture<T> enviar(CompletableFuture<T> futuro, Function<Conexion, Envio> armar, Receptor receptor) {
+        Conexion conexion = actual;
+        if (conexion == null) {
+            futuro.completeExceptionally(new IOException("Sin conexión con el servidor."));
+            return futuro;
+        }
+        int id = siguienteId.incrementAndGet();
+        pendientes.put(id, new Pendiente(conexion, receptor, futuro));
+        // Si el llamador cancela o vence su espera, una respuesta tardía ya no tiene a quién entregarse
+        futuro.whenComplete((resultado, error) -> pendientes.remove(id));
+        try {
+            conexion.escribir(id, armar.apply(conexion));
+        } catch (IOException e) {
+            futuro.completeExceptionally(e);
+            perder(conexion, e);
+        }
+        return futuro;
+    }
+
+    // --- CONEXIÓN Y RECONEXIÓN ---
+
+    /**
+     * Abre una conexión nueva y arranca su hilo lector. Llamar con candadoConexion.
+     */
+    private void establecer() throws IOException {
+        String nodo = NODOS != null ? NODOS.nodoDe(SENSOR != null ? SENSOR : SENSOR_POR_DEFECTO) : HOST + ":" + PUERTO;
+        Conexion conexion = null;
+        for (int intento = 0; conexion == null; intento++) {
+            conexion = abrir(AnilloHash.host(nodo), AnilloHash.puerto(nodo));
+            if (SENSOR == null) {
+                break;
+            }
+            // Antes del hilo lector y de publicar la conexión: ninguna muestra sale sin el sensor
+            String redireccion;
+            try {
+                redireccion = conexion.registrar(SENSOR);
+            } catch (IOException e) {
+                conexion.cerrar();
+                throw e;
+            }
+            if (redireccion != null) {
+                conexion.cerrar();
+                conexion = null;
+                if (intento >= MAX_REDIRECCIONES) {
+                    throw new IOException("Demasiadas redirecciones registrando el sensor " + SENSOR + ".");
+                }
+                System.out.println("El sensor " + SENSOR + " es del nodo " + redireccion + ": reconectando allí.");
+                nodo = redireccion;
+            }
+        }
+        actual = conexion;
+
+        Conexion leida = conexion;
+        Thread lector = new Thread(() -> leerRespuestas(leida), "respuestas-servidor");
+        lector.setDaemon(true);
+        lector.start();
+    }
+
+    private static Conexion abrir(String host, int puerto) throws IOException {
+        Conexion conexion = Conexion.abrirBinaria(host, puerto);
+        if (conexion != null) {
+            System.out.println("Conectado al servidor " + host + ":" + puerto
+                    + " (protocolo binario v" + ProtocoloBinario.VERSION + ").");
+        } else {
+            // El servidor no respondió al saludo: volver a conectar con el protocolo de texto
+            conexion = Conexion.abrirTexto(host, puerto);
+            System.out.println("Conectado al servidor " + host + ":" + puerto + " (protocolo de texto).");
+        }
+        return conexion;
+    }
+
+    /**
+     * Llamar con candadoConexion. Solo hay un hilo de reconexión a la vez.
+     */
+    private void iniciarReconexion(long primeraEsperaMs) {
+        if (reconectando) {
+            return;
+        }
+        reconectando = true;
+        hiloReconexion = new Thread(() -> bucleReconexion(primeraEsperaMs), "reconexion-servidor");
+        hiloReconexion.setDaemon(true);
+        hiloReconexion.start();
+    }
+
+    private void bucleReconexion(long primeraEsperaMs) {
+        long espera = primeraEsperaMs;
+        try {
+            while (true) {
+                Thread.sleep(espera);
+                synchronized (candadoConexion) {
+                    if (!deseada || actual != null) {
+                        return;
+                    }
+                    try {
+                        establecer();
+                        return;
+                    } catch (IOException e) {
+                        System.err.println("Reconexión fallida (reintento en "
+                                + Math.max(espera * 2, ESPERA_RECONEXION_INICIAL_MS) + " ms): " + e.getMessage());
+                    }
+                }
+                espera = Math.min(ESPERA_RECONEXION_MAX_MS, Math.max(espera * 2, ESPERA_RECONEXION_INICIAL_MS));
+            }
+        } catch (InterruptedException e) {
+            // desconectar(): dejar de intentar
+        } finally {
+            synchronized (candadoConexion) {
+                reconectando = false;
+            }
+        }
+    }
+
+    /**
+     * Da de baja la conexión (si sigue siendo la actual), falla sus peticiones y programa la reconexión.
+     */
+    private void perder(Conexion conexion, IOException causa) {
+        synchronized (candadoConexion) {
+            if (actual != conexion) {
+                return;
+            }
+            actual = null;
+            if (deseada) {
+                iniciarReconexion(ESPERA_RECONEXION_INICIAL_MS);
+            }
+        }
+        System.err.println("Se perdió la conexión con el servidor: " + causa.getMessage());
+        conexion.cerrar();
+        fallarPendientes(conexion, causa);
+    }
+
+    private void fallarPendientes(Conexion conexion, IOException causa) {
+        for (Pendiente pendiente : pendientes.values()) {
+            if (pendiente.conexion() == conexion) {
+                pendiente.futuro().completeExceptionally(causa);
+            }
+        }
+    }
+
+    /**
+     * Hilo lector de una conexión: entrega cada respuesta a la petición con el mismo id.
+     */
+    private void leerRespuestas(Conexion conexion) {
+        try {
+            while (true) {
+                int id;
+                Respuesta respuesta;
+                if (conexion.binario) {
+                    Trama trama = ProtocoloBinario.leerTrama(conexion.inBinario);
+                    if (trama == null) {
+                        break;
+                    }
+                    id = trama.idPeticion();
+                    boolean conTexto = trama.tipo() == ProtocoloBinario.TEXTO || trama.tipo() == ProtocoloBinario.ERROR;
+                    respuesta = new Respuesta(trama.tipo(), trama.payload(),
+                            conTexto ? ProtocoloBinario.descifrarTexto(trama.payload()) : null);
+                } else {
+                    String linea = conexion.in.readLine();
+                    if (linea == null) {
+                        break;
+                    }
+                    // Formato: "@id|<base64>"
+                    int separador = linea.indexOf('|');
+                    if (!linea.startsWith("@") || separador < 0) {
+                        System.err.println("Respuesta sin id de petición: descartada.");
+                        continue;
+                    }
+                    id = Integer.parseInt(linea.substring(1, separador));
+                    respuesta = new Respuesta(ProtocoloBinario.TEXTO, null,
+                            CifradoUtil.decrypt(linea.substring(separador + 1)));
+                }
+                entregar(id, respuesta);
+            }
+            perder(conexion, new EOFException("El servidor cerró la conexión."));
+
+        } catch (IOException | NumberFormatException e) {
+            perder(conexion, e instanceof IOException io ? io : new IOException(e.getMessage(), e));
+        }
+    }
+
+    private void entregar(int id, Respuesta respuesta) {
+        Pendiente pendiente = pendientes.get(id);
+        if (pendiente == null) {
+            System.err.println("Respuesta para una petición que ya no está pendiente (id " + id + ").");
+            return;
+        }
+        try {
+            if (pendiente.receptor().recibir(respuesta)) {
+                pendientes.remove(id);
+            }
+        } catch (RuntimeException e) {
+            pendiente.futuro().completeExceptionally(e);
+        }
+    }
+
+    /**
+     * Socket abierto con su protocolo ya negociado. La escritura de cada petición es atómica.
+     */
+    private static final class Conexion {
+        private final Socket socket;
+        private final boolean binario;
+
+        // Protocolo binario
+        private DataOutputStream outBinario;
+        private DataInputStream inBinario;
+
+        // Protocolo de texto
+        private BufferedWriter out;
+        private BufferedReader in;
+
+        private Conexion(Socket socket, boolean binario) {
+            this.socket = socket;
+            this.binario = binario;
+        }
+
+        private static Socket abrirSocket(String host, int puerto) throws IOException {
+            Socket socket = new Socket();
+            socket.setTcpNoDelay(true);
+            socket.connect(new InetSocketAddress(host, puerto), TIMEOUT_CONEXION_MS);
+            return socket;
+        }
+
+        /**
+         * @return La conexión binaria, o null si el servidor no aceptó el saludo.
+         */
+        static Conexion abrirBinaria(String host, int puerto) throws IOException {
+            Conexion conexion = new Conexion(abrirSocket(host, puerto), true);
+            conexion.outBinario = new DataOutputStream(new BufferedOutputStream(conexion.socket.getOutputStream()));
+            conexion.inBinario = new DataInputStream(new BufferedInputStream(conexion.socket.getInputStream()));
+
+            conexion.outBinario.write(ProtocoloBinario.saludo(ProtocoloBinario.VERSION));
+            conexion.outBinario.flush();
+
+            byte[] respuesta = new byte[ProtocoloBinario.LONGITUD_SALUDO];
+            try {
+                conexion.socket.setSoTimeout(TIMEOUT_SALUDO_MS);
+                conexion.inBinario.readFully(respuesta);
+                conexion.socket.setSoTimeout(0);
+            } catch (SocketTimeoutException | EOFException e) {
+                conexion.cerrar();
+                return null;
+            }
+
+            int version = ProtocoloBinario.versionDeSaludo(respuesta);
+            if (version < 1 || version > ProtocoloBinario.VERSION) {
+                conexion.cerrar();
+                return null;
+            }
+            return conexion;
+        }
+
+        static Conexion abrirTexto(String host, int puerto) throws IOException {
+            Conexion conexion = new Conexion(abrirSocket(host, puerto), false);
+            conexion.out = new BufferedWriter(new OutputStreamWriter(conexion.socket.getOutputStream(), StandardCharsets.UTF_8));
+            conexion.in = new BufferedReader(new InputStreamReader(conexion.socket.getInputStream(), StandardCharsets.UTF_8));
+            return conexion;
+        }
+
+        /**
+         * Registra la conexión como el sensor y espera la respuesta. Solo antes de arrancar el
+         * hilo lector: la respuesta se lee aquí mismo (id de petición 0).
+         * @return null si quedó registrado, o el nodo "host:puerto" dueño del sensor si el
+         *         servidor lo redirige.
+         */
+        String registrar(String sensor) throws IOException {
+            escribir(0, Envio.texto("REGISTRAR:" + sensor));
+            String respuesta;
+            socket.setSoTimeout(TIMEOUT_SALUDO_MS);
+            try {
+                if (binario) {
+                    Trama trama = ProtocoloBinario.leerTrama(inBinario);
+                    respuesta = trama == null ? null : ProtocoloBinario.descifrarTexto(trama.payload());
+                } else {
+                    String linea = in.readLine();
+                    int separador = linea == null ? -1 : linea.indexOf('|');
+                    respuesta = separador < 0 ? null : CifradoUtil.decrypt(linea.substring(separador + 1));
+                }
+            } finally {
+                socket.setSoTimeout(0);
+            }
+            if (respuesta != null && respuesta.startsWith("REDIRIGIR:")) {
+                return respuesta.substring("REDIRIGIR:".length());
+            }
+            if (respuesta == null || !respuesta.startsWith("ACK:")) {
+                throw new IOException("El servidor no registró el sensor " + sensor + ": " + respuesta);
+            }
+            return null;
+        }
+
+        /**
+         * Encripta fuera del candado y escribe la petición completa de una vez.
+         */
+        void escribir(int id, Envio envio) throws IOException {
+            if (binario) {
+                byte[] payload = envio.payload() != null ? envio.payload() : ProtocoloBinario.cifrarTexto(envio.texto());
+                synchronized (this) {
+                    ProtocoloBinario.escribirTrama(outBinario, envio.tipo(), id, payload);
+                }
+            } else {
+                String linea = "@" + id + "|" + CifradoUtil.encrypt(envio.texto()) + "\n";
+                synchronized (this) {
+                    out.write(linea);
+                    out.flush();
+                }
+            }
+        }
+
+        void cerrar() {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                System.err.println("Error al cerrar el socket: " + e.getMessage());
+            }
+        }
+    }
+
+    // --- FORMATOS DEL PROTOCOLO DE TEXTO ---
+
+    /**
+     * Formato: "GUARDAR_LOTE:ts,x,y,z;ts,x,y,z;..."
+     */
+    private static String mensajeLote(long[] timestampsMs, int[] x, int[] y, int[] z, int n) {
+        StringBuilder mensaje = new StringBuilder("GUARDAR_LOTE:");
+        for (int i = 0; i < n; i++) {
+            if (i > 0) {
+                mensaje.append(';');
+            }
+            mensaje.append(timestampsMs[i]).append(',').append(x[i]).append(',').append(y[i]).append(',').append(z[i]);
+        }
+        return mensaje.toString();
+    }
+
+    /**
+     * @return El estado por muestra de un ACK_LOTE (trama o "ACK_LOTE:guardadas/total:1101..."), o null si fue un error.
+     */
+    private static boolean[] estadosLote(Respuesta respuesta) {
+        if (respuesta.tipo() == ProtocoloBinario.ACK_LOTE) {
+            return ProtocoloBinario.decodificarEstados(respuesta.payload());
+        }
+        String texto = respuesta.texto();
+        if (texto == null || !texto.startsWith("ACK_LOTE:")) {
+            return null;
+        }
+        String bits = texto.substring(texto.lastIndexOf(':') + 1);
+        boolean[] estados = new boolean[bits.length()];
+        for (int i = 0; i < estados.length; i++) {
+            estados[i] = bits.charAt(i) == '1';
+        }
+        return estados;
+    }
+
+    /**
+     * Convierte las filas "ID,X,Y,Z,Fecha,Hora" del servidor al formato "X,Y,Z,Fecha Hora"
+     * que grafica el histórico.
+     */
+    private static String quitarIds(String filas) {
+        StringBuilder sb = new StringBuilder(filas.length());
+        for (String fila : filas.split("\\|")) {
+            String[] campos = fila.split(",");
+            if (campos.length < 6) {
+                continue;
+            }
+            if (sb.length() > 0) {
+                sb.append('|');
+            }
+            sb.append(campos[1]).append(',').append(campos[2]).append(',').append(campos[3])
+                    .append(',').append(campos[4]).append(' ').append(campos[5]);
+        }
+        return sb.toString();
+    }
+}
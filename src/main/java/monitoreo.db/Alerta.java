@@ -0,0 +1,15 @@
+package monitoreo.db;
+
+/**
+ * Evento del detector de anomalías, listo para guardarse en 'alertas'.
+ * @param sensorId Sensor de la muestra que disparó la alerta.
+ * @param timestampMs Momento de captura de esa muestra (epoch en milisegundos).
+ * @param tipo "UMBRAL" (magnitud sobre el umbral fijo) o "PICO" (lejos de la media móvil).
+ * @param magnitud Magnitud del vector (x, y, z) de la muestra.
+ * @param media Media móvil exponencial de la magnitud antes de la muestra.
+ * @param desviacion Desviación estándar móvil de la magnitud antes de la muestra.
+ * @param pico Pico móvil de la magnitud, incluida la muestra.
+ */
+public record Alerta(String sensorId, long timestampMs, String tipo, double magnitud, double media,
+                     double desviacion, double pico) {
+}
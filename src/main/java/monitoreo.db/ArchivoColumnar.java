@@ -0,0 +1,831 @@
+package monitoreo.db;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.SQLException;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.PriorityQueue;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Archivo frío de muestras: un archivo por sensor y día (directorio/&lt;sensor&gt;/&lt;yyyy-MM-dd&gt;.col)
+ * con las columnas id, ts, x, y, z por separado. Los timestamps y los ids se guardan como
+ * diferencias con la fila anterior y cada columna usa el ancho mínimo (1, 2, 4 u 8 bytes) que
+ * admiten sus valores: a 100 Hz una muestra ocupa unos 8 bytes en lugar de los ~50 de SQLite.
+ * Los archivos se leen mapeados en memoria (fuera del heap) a través de FileChannel, por ventanas.
+ *
+ * Formato (little endian):
+ * <pre>
+ *   0  int   MAGIA ("MCOL")
+ *   4  short versión
+ *   6  byte  ancho de ts, id, x, y, z (5 bytes) + 1 reservado
+ *  12  int   filas
+ *  16  int   filas por bloque
+ *  20  int   reservado
+ *  24  long  ts mínimo
+ *  32  long  ts máximo
+ *  40  long[bloques] ts de la primera fila de cada bloque
+ *      long[bloques] id de la primera fila de cada bloque
+ *      columnas: dif. de ts, dif. de id, x, y, z (filas * ancho bytes cada una)
+ * </pre>
+ * El índice de bloques permite empezar a leer en cualquier bloque sin decodificar los anteriores.
+ */
+public class ArchivoColumnar {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ArchivoColumnar.class);
+
+    static final int MAGIA = 0x4C4F434D; // "MCOL" en little endian
+    static final short VERSION = 1;
+    static final int FILAS_POR_BLOQUE = 1024;
+    // Filas que se codifican juntas al escribir un día (múltiplo de FILAS_POR_BLOQUE): acota la
+    // memoria de la escritura a unos 28 bytes por fila de la tanda, sea cual sea el día
+    private static final int FILAS_POR_TANDA = 64 * FILAS_POR_BLOQUE;
+    private static final int LONGITUD_CABECERA = 40;
+    // Bytes de cada ventana mapeada al leer una columna (ver Region)
+    private static final long BYTES_POR_MAPEO = 64L * 1024 * 1024;
+    private static final String EXTENSION = ".col";
+
+    private final Path directorio;
+    private final ZoneId zona;
+    // Días archivados de cada sensor (se mantiene al escribir; al arrancar se lee del directorio)
+    private final Map<String, NavigableSet<LocalDate>> dias = new ConcurrentHashMap<>();
+
+    public ArchivoColumnar(Path directorio, ZoneId zona) {
+        this.directorio = directorio;
+        this.zona = zona;
+        escanear();
+    }
+
+    private void escanear() {
+        if (!Files.isDirectory(directorio)) {
+            return;
+        }
+        try (DirectoryStream<Path> sensores = Files.newDirectoryStream(directorio, Files::isDirectory)) {
+            for (Path dirSensor : sensores) {
+                try (DirectoryStream<Path> archivos = Files.newDirectoryStream(dirSensor, "*" + EXTENSION)) {
+                    for (Path archivo : archivos) {
+                        String nombre = archivo.getFileName().toString();
+                        diasDe(dirSensor.getFileName().toString())
+                                .add(LocalDate.parse(nombre.substring(0, nombre.length() - EXTENSION.length())));
+                    }
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            LOG.warn("Error al leer el archivo columnar en {}: {}", directorio, e.getMessage());
+        }
+    }
+
+    private NavigableSet<LocalDate> diasDe(String sensorId) {
+        return dias.computeIfAbsent(sensorId, s -> new ConcurrentSkipListSet<>());
+    }
+
+    private Path ruta(String sensorId, LocalDate dia) {
+        return directorio.resolve(sensorId).resolve(dia + EXTENSION);
+    }
+
+    /**
+     * @return El archivo del sensor ese día, o null si el día no está archivado.
+     */
+    Path archivoDelDia(String sensorId, LocalDate dia) {
+        NavigableSet<LocalDate> delSensor = dias.get(sensorId);
+        return delSensor != null && delSensor.contains(dia) ? ruta(sensorId, dia) : null;
+    }
+
+    /**
+     * @return true si hay algún día archivado que pueda tener filas de [desdeMs, hastaMs).
+     */
+    public boolean tieneDatosEn(String sensorId, long desdeMs, long hastaMs) {
+        return !diasEnRango(sensorId, desdeMs, hastaMs).isEmpty();
+    }
+
+    /**
+     * Días archivados que se cruzan con el rango, en orden. Se toma un día de margen a cada
+     * lado por si la zona horaria cambió desde que se archivaron (cada fila se filtra por ts igual).
+     */
+    NavigableSet<LocalDate> diasEnRango(String sensorId, long desdeMs, long hastaMs) {
+        NavigableSet<LocalDate> resultado = new TreeSet<>();
+        if (dias.isEmpty() || desdeMs >= hastaMs) {
+            return resultado;
+        }
+        LocalDate primero = desdeMs == Long.MIN_VALUE ? LocalDate.MIN : diaDe(desdeMs).minusDays(1);
+        LocalDate ultimo = hastaMs == Long.MAX_VALUE ? LocalDate.MAX : diaDe(hastaMs - 1).plusDays(1);
+        for (Map.Entry<String, NavigableSet<LocalDate>> entrada : dias.entrySet()) {
+            if (sensorId == null || sensorId.equals(entrada.getKey())) {
+                resultado.addAll(entrada.getValue().subSet(primero, true, ultimo, true));
+            }
+        }
+        return resultado;
+    }
+
+    /**
+     * @return Sensores con algún día archivado.
+     */
+    public List<String> sensores() {
+        List<String> resultado = new ArrayList<>();
+        for (Map.Entry<String, NavigableSet<LocalDate>> entrada : dias.entrySet()) {
+            if (!entrada.getValue().isEmpty()) {
+                resultado.add(entrada.getKey());
+            }
+        }
+        return resultado;
+    }
+
+    /**
+     * @return Días archivados del sensor anteriores a 'antesDe', en orden.
+     */
+    public List<LocalDate> diasAntesDe(String sensorId, LocalDate antesDe) {
+        NavigableSet<LocalDate> delSensor = dias.get(sensorId);
+        return delSensor == null ? List.of() : new ArrayList<>(delSensor.headSet(antesDe, false));
+    }
+
+    LocalDate diaDe(long timestampMs) {
+        return LocalDate.ofInstant(Instant.ofEpochMilli(timestampMs), zona);
+    }
+
+    // --- ESCRITURA ---
+
+    /**
+     * Origen de las filas de un día para escribir(): se recorre dos veces y debe entregar las
+     * mismas filas, ordenadas por (ts, id), en las dos.
+     */
+    @FunctionalInterface
+    public interface Recorrido {
+        void recorrer(VentanaReciente.VisitanteMuestra visitante) throws SQLException;
+    }
+
+    /**
+     * Escribe (o reemplaza) el archivo de un sensor y un día sin juntar sus filas en memoria: la
+     * primera pasada cuenta las filas y calcula el ancho de cada columna, y la segunda las
+     * codifica por tandas de FILAS_POR_TANDA, cada columna en su lugar del archivo. Se escribe a
+     * un temporal que se sincroniza a disco y se renombra: un lector nunca ve un archivo a medias.
+     * @return Bytes escritos.
+     */
+    public long escribir(String sensorId, LocalDate dia, Recorrido recorrido) throws IOException, SQLException {
+        Medidas medidas = new Medidas();
+        recorrido.recorrer(medidas);
+
+        Path destino = ruta(sensorId, dia);
+        Files.createDirectories(destino.getParent());
+        Path temporal = destino.resolveSibling(destino.getFileName() + ".tmp");
+        long tamano;
+        try (FileChannel canal = FileChannel.open(temporal, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            EscritorTandas escritor = new EscritorTandas(canal, medidas);
+            try {
+                recorrido.recorrer(escritor);
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            tamano = escritor.terminar();
+            canal.force(true);
+        } catch (IOException | SQLException | RuntimeException e) {
+            Files.deleteIfExists(temporal);
+            throw e;
+        }
+        Files.move(temporal, destino, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        diasDe(sensorId).add(dia);
+        return tamano;
+    }
+
+    /**
+     * Primera pasada de escribir(): filas, primer y último ts y rango de cada columna.
+     */
+    private static final class Medidas implements VentanaReciente.VisitanteMuestra {
+        int n;
+        long primerTs;
+        long ultimoTs;
+        private long ultimoId;
+        // Los rangos empiezan en 0, igual que en codificar() (la primera diferencia es 0)
+        long minDifTs, maxDifTs, minDifId, maxDifId;
+        long minX, maxX, minY, maxY, minZ, maxZ;
+
+        @Override
+        public void visitar(long id, long timestampMs, int x, int y, int z) {
+            if (n == 0) {
+                primerTs = timestampMs;
+            } else {
+                long difTs = timestampMs - ultimoTs;
+                long difId = id - ultimoId;
+                minDifTs = Math.min(minDifTs, difTs);
+                maxDifTs = Math.max(maxDifTs, difTs);
+                minDifId = Math.min(minDifId, difId);
+                maxDifId = Math.max(maxDifId, difId);
+            }
+            minX = Math.min(minX, x);
+            maxX = Math.max(maxX, x);
+            minY = Math.min(minY, y);
+            maxY = Math.max(maxY, y);
+            minZ = Math.min(minZ, z);
+            maxZ = Math.max(maxZ, z);
+            ultimoTs = timestampMs;
+            ultimoId = id;
+            n++;
+        }
+    }
+
+    /**
+     * Segunda pasada de escribir(): junta una tanda de filas y escribe su parte del índice y de
+     * cada columna en la posición que le toca (conocida por las Medidas).
+     */
+    private static final class EscritorTandas implements VentanaReciente.VisitanteMuestra {
+        private final FileChannel canal;
+        private final Medidas medidas;
+        private final int anchoTs, anchoId, anchoX, anchoY, anchoZ;
+        private final long inicioBloquesTs, inicioBloquesId;
+        private final long inicioTs, inicioId, inicioX, inicioY, inicioZ;
+        private final long tamano;
+        private final Columnas tanda = new Columnas();
+        private final ByteBuffer buffer = ByteBuffer.allocate(8 * FILAS_POR_TANDA).order(ByteOrder.LITTLE_ENDIAN);
+        private int escritas;
+        private long tsAnterior;
+        private long idAnterior;
+
+        EscritorTandas(FileChannel canal, Medidas medidas) throws IOException {
+            this.canal = canal;
+            this.medidas = medidas;
+            int n = medidas.n;
+            int bloques = (n + FILAS_POR_BLOQUE - 1) / FILAS_POR_BLOQUE;
+            anchoTs = ancho(medidas.minDifTs, medidas.maxDifTs);
+            anchoId = ancho(medidas.minDifId, medidas.maxDifId);
+            anchoX = ancho(medidas.minX, medidas.maxX);
+            anchoY = ancho(medidas.minY, medidas.maxY);
+            anchoZ = ancho(medidas.minZ, medidas.maxZ);
+            inicioBloquesTs = LONGITUD_CABECERA;
+            inicioBloquesId = inicioBloquesTs + 8L * bloques;
+            inicioTs = inicioBloquesId + 8L * bloques;
+            inicioId = inicioTs + (long) n * anchoTs;
+            inicioX = inicioId + (long) n * anchoId;
+            inicioY = inicioX + (long) n * anchoX;
+            inicioZ = inicioY + (long) n * anchoY;
+            tamano = inicioZ + (long) n * anchoZ;
+
+            buffer.clear();
+            buffer.putInt(MAGIA).putShort(VERSION)
+                    .put((byte) anchoTs).put((byte) anchoId).put((byte) anchoX).put((byte) anchoY).put((byte) anchoZ)
+                    .put((byte) 0)
+                    .putInt(n).putInt(FILAS_POR_BLOQUE).putInt(0)
+                    .putLong(n > 0 ? medidas.primerTs : 0).putLong(n > 0 ? medidas.ultimoTs : 0);
+            escribirEn(0);
+        }
+
+        @Override
+        public void visitar(long id, long timestampMs, int x, int y, int z) {
+            tanda.agregar(id, timestampMs, x, y, z);
+            if (tanda.n == FILAS_POR_TANDA) {
+                try {
+                    vaciar();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        }
+
+        private void vaciar() throws IOException {
+            int k = tanda.n;
+            if (k == 0) {
+                return;
+            }
+            if ((long) escritas + k > medidas.n) {
+                throw new IOException("Las filas del día cambiaron entre las dos pasadas de la escritura.");
+            }
+            // escritas es múltiplo de FILAS_POR_BLOQUE: la tanda empieza en un bloque nuevo
+            int primerBloque = escritas / FILAS_POR_BLOQUE;
+            buffer.clear();
+            for (int i = 0; i < k; i += FILAS_POR_BLOQUE) {
+                buffer.putLong(tanda.ts[i]);
+            }
+            escribirEn(inicioBloquesTs + 8L * primerBloque);
+            buffer.clear();
+            for (int i = 0; i < k; i += FILAS_POR_BLOQUE) {
+                buffer.putLong(tanda.ids[i]);
+            }
+            escribirEn(inicioBloquesId + 8L * primerBloque);
+
+            buffer.clear();
+            for (int i = 0; i < k; i++) {
+                long anterior = i > 0 ? tanda.ts[i - 1] : escritas > 0 ? tsAnterior : tanda.ts[0];
+                poner(buffer, anchoTs, tanda.ts[i] - anterior);
+            }
+            escribirEn(inicioTs + (long) escritas * anchoTs);
+            buffer.clear();
+            for (int i = 0; i < k; i++) {
+                long anterior = i > 0 ? tanda.ids[i - 1] : escritas > 0 ? idAnterior : tanda.ids[0];
+                poner(buffer, anchoId, tanda.ids[i] - anterior);
+            }
+            escribirEn(inicioId + (long) escritas * anchoId);
+            escribirColumna(tanda.x, anchoX, inicioX);
+            escribirColumna(tanda.y, anchoY, inicioY);
+            escribirColumna(tanda.z, anchoZ, inicioZ);
+
+            tsAnterior = tanda.ts[k - 1];
+            idAnterior = tanda.ids[k - 1];
+            escritas += k;
+            tanda.vaciar();
+        }
+
+        private void escribirColumna(int[] valores, int ancho, long inicio) throws IOException {
+            buffer.clear();
+            for (int i = 0; i < tanda.n; i++) {
+                poner(buffer, ancho, valores[i]);
+            }
+            escribirEn(inicio + (long) escritas * ancho);
+        }
+
+        private void escribirEn(long posicion) throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                posicion += canal.write(buffer, posicion);
+            }
+        }
+
+        /**
+         * Escribe la última tanda.
+         * @return Tamaño del archivo.
+         */
+        long terminar() throws IOException {
+            vaciar();
+            if (escritas != medidas.n) {
+                throw new IOException("Las filas del día cambiaron entre las dos pasadas de la escritura.");
+            }
+            return tamano;
+        }
+    }
+
+    /**
+     * Codifica las filas en el formato del archivo (cabecera incluida).
+     * @param columnas Filas ordenadas por (ts, id).
+     * @return El buffer listo para escribirse (posición 0, límite = tamaño).
+     */
+    static ByteBuffer codificar(Columnas columnas) {
+        int n = columnas.n;
+        int bloques = (n + FILAS_POR_BLOQUE - 1) / FILAS_POR_BLOQUE;
+
+        long[] difTs = new long[n];
+        long[] difIds = new long[n];
+        for (int i = 1; i < n; i++) {
+            difTs[i] = columnas.ts[i] - columnas.ts[i - 1];
+            difIds[i] = columnas.ids[i] - columnas.ids[i - 1];
+        }
+        int anchoTs = ancho(difTs, n);
+        int anchoId = ancho(difIds, n);
+        int anchoX = ancho(columnas.x, n);
+        int anchoY = ancho(columnas.y, n);
+        int anchoZ = ancho(columnas.z, n);
+
+        long tamano = LONGITUD_CABECERA + 16L * bloques + (long) n * (anchoTs + anchoId + anchoX + anchoY + anchoZ);
+        ByteBuffer buffer = ByteBuffer.allocate(Math.toIntExact(tamano)).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(MAGIA).putShort(VERSION)
+                .put((byte) anchoTs).put((byte) anchoId).put((byte) anchoX).put((byte) anchoY).put((byte) anchoZ)
+                .put((byte) 0)
+                .putInt(n).putInt(FILAS_POR_BLOQUE).putInt(0)
+                .putLong(n > 0 ? columnas.ts[0] : 0).putLong(n > 0 ? columnas.ts[n - 1] : 0);
+        for (int b = 0; b < bloques; b++) {
+            buffer.putLong(columnas.ts[b * FILAS_POR_BLOQUE]);
+        }
+        for (int b = 0; b < bloques; b++) {
+            buffer.putLong(columnas.ids[b * FILAS_POR_BLOQUE]);
+        }
+        for (int i = 0; i < n; i++) {
+            poner(buffer, anchoTs, difTs[i]);
+        }
+        for (int i = 0; i < n; i++) {
+            poner(buffer, anchoId, difIds[i]);
+        }
+        for (int i = 0; i < n; i++) {
+            poner(buffer, anchoX, columnas.x[i]);
+        }
+        for (int i = 0; i < n; i++) {
+            poner(buffer, anchoY, columnas.y[i]);
+        }
+        for (int i = 0; i < n; i++) {
+            poner(buffer, anchoZ, columnas.z[i]);
+        }
+        return buffer.flip();
+    }
+
+    private static int ancho(long[] valores, int n) {
+        long min = 0;
+        long max = 0;
+        for (int i = 0; i < n; i++) {
+            min = Math.min(min, valores[i]);
+            max = Math.max(max, valores[i]);
+        }
+        return ancho(min, max);
+    }
+
+    private static int ancho(int[] valores, int n) {
+        long min = 0;
+        long max = 0;
+        for (int i = 0; i < n; i++) {
+            min = Math.min(min, valores[i]);
+            max = Math.max(max, valores[i]);
+        }
+        return ancho(min, max);
+    }
+
+    private static int ancho(long min, long max) {
+        if (min >= Byte.MIN_VALUE && max <= Byte.MAX_VALUE) {
+            return 1;
+        }
+        if (min >= Short.MIN_VALUE && max <= Short.MAX_VALUE) {
+            return 2;
+        }
+        if (min >= Integer.MIN_VALUE && max <= Integer.MAX_VALUE) {
+            return 4;
+        }
+        return 8;
+    }
+
+    private static void poner(ByteBuffer buffer, int ancho, long valor) {
+        switch (ancho) {
+            case 1 -> buffer.put((byte) valor);
+            case 2 -> buffer.putShort((short) valor);
+            case 4 -> buffer.putInt((int) valor);
+            default -> buffer.putLong(valor);
+        }
+    }
+
+    private static long leer(ByteBuffer buffer, int posicion, int ancho) {
+        return switch (ancho) {
+            case 1 -> buffer.get(posicion);
+            case 2 -> buffer.getShort(posicion);
+            case 4 -> buffer.getInt(posicion);
+            default -> buffer.getLong(posicion);
+        };
+    }
+
+    // --- LECTURA ---
+
+    /**
+     * Borra el archivo de un sensor y un día. Un recorrido que ya lo tenía abierto termina de
+     * leerlo (el mapeo sigue válido); los que lo abran después ya no lo ven.
+     * @return Bytes liberados.
+     */
+    public long borrar(String sensorId, LocalDate dia) throws IOException {
+        diasDe(sensorId).remove(dia);
+        Path archivo = ruta(sensorId, dia);
+        long bytes = Files.exists(archivo) ? Files.size(archivo) : 0;
+        Files.deleteIfExists(archivo);
+        return bytes;
+    }
+
+    /**
+     * @return Filas archivadas del sensor ese día (solo se lee la cabecera), 0 si no está archivado.
+     */
+    public int contarFilas(String sensorId, LocalDate dia) throws IOException {
+        Path archivo = ruta(sensorId, dia);
+        if (!Files.exists(archivo)) {
+            return 0;
+        }
+        try (FileChannel canal = FileChannel.open(archivo, StandardOpenOption.READ)) {
+            return leerCabecera(canal, archivo).getInt(12);
+        }
+    }
+
+    private static ByteBuffer leerCabecera(FileChannel canal, Path archivo) throws IOException {
+        ByteBuffer cabecera = ByteBuffer.allocate(LONGITUD_CABECERA).order(ByteOrder.LITTLE_ENDIAN);
+        while (cabecera.hasRemaining() && canal.read(cabecera, cabecera.position()) >= 0) {
+            // leer hasta completar la cabecera
+        }
+        if (cabecera.position() < LONGITUD_CABECERA || cabecera.getInt(0) != MAGIA || cabecera.getShort(4) != VERSION) {
+            throw new IOException("Archivo columnar inválido: " + archivo);
+        }
+        return cabecera;
+    }
+
+    /**
+     * Abre un recorrido en orden de (ts, id) de las filas archivadas de [desdeMs, hastaMs).
+     * Hay que cerrarlo: cada archivo del día en curso queda abierto hasta leerlo entero.
+     * @param sensorId Sensor a recorrer, o null para todos.
+     */
+    public Cursor abrir(String sensorId, long desdeMs, long hastaMs) {
+        return new Cursor(sensorId, diasEnRango(sensorId, desdeMs, hastaMs), desdeMs, hastaMs);
+    }
+
+    /**
+     * Recorrido de las filas archivadas: día por día, mezclando los sensores de cada día con un
+     * montículo ordenado por la fila actual (ts, id) de cada uno.
+     */
+    public final class Cursor implements AutoCloseable {
+        private final String sensorId;
+        private final NavigableSet<LocalDate> pendientes;
+        private final long desdeMs;
+        private final long hastaMs;
+        private final PriorityQueue<LectorDia> lectores = new PriorityQueue<>(LectorDia::comparar);
+        private LectorDia actual;
+
+        private Cursor(String sensorId, NavigableSet<LocalDate> pendientes, long desdeMs, long hastaMs) {
+            this.sensorId = sensorId;
+            this.pendientes = pendientes;
+            this.desdeMs = desdeMs;
+            this.hastaMs = hastaMs;
+        }
+
+        /**
+         * Avanza a la siguiente fila.
+         * @return false si no quedan filas.
+         */
+        public boolean siguiente() throws IOException {
+            if (actual != null) {
+                if (actual.siguiente()) {
+                    lectores.add(actual);
+                } else {
+                    actual.close();
+                }
+                actual = null;
+            }
+            while (lectores.isEmpty()) {
+                LocalDate dia = pendientes.pollFirst();
+                if (dia == null) {
+                    return false;
+                }
+                abrirDia(dia);
+            }
+            actual = lectores.poll();
+            return true;
+        }
+
+        private void abrirDia(LocalDate dia) throws IOException {
+            if (sensorId != null) {
+                abrirLector(ruta(sensorId, dia));
+                return;
+            }
+            for (Map.Entry<String, NavigableSet<LocalDate>> entrada : dias.entrySet()) {
+                if (entrada.getValue().contains(dia)) {
+                    abrirLector(ruta(entrada.getKey(), dia));
+                }
+            }
+        }
+
+        private void abrirLector(Path archivo) throws IOException {
+            LectorDia lector;
+            try {
+                lector = new LectorDia(archivo, desdeMs, hastaMs);
+            } catch (NoSuchFileException e) {
+                return; // La retención lo borró después de listar los días
+            }
+            // Cada lector queda posicionado en su primera fila
+            if (lector.siguiente()) {
+                lectores.add(lector);
+            } else {
+                lector.close();
+            }
+        }
+
+        public long id() {
+            return actual.id;
+        }
+
+        public long ts() {
+            return actual.ts;
+        }
+
+        public int x() {
+            return actual.x;
+        }
+
+        public int y() {
+            return actual.y;
+        }
+
+        public int z() {
+            return actual.z;
+        }
+
+        @Override
+        public void close() {
+            if (actual != null) {
+                actual.close();
+                actual = null;
+            }
+            LectorDia lector;
+            while ((lector = lectores.poll()) != null) {
+                lector.close();
+            }
+        }
+    }
+
+    /**
+     * Lector de un archivo. Busca el primer bloque del rango con el índice y decodifica desde ahí
+     * fila por fila. Cada columna se lee a través de su propia Region mapeada, así que un
+     * archivo de más de 2 GB (un día a varios kHz) se lee igual que uno chico.
+     */
+    private static final class LectorDia implements AutoCloseable {
+        private final FileChannel canal;
+        private final int n;
+        private final int filasPorBloque;
+        private final int anchoTs, anchoId, anchoX, anchoY, anchoZ;
+        private final Region bloquesTs, bloquesId, columnaTs, columnaId, columnaX, columnaY, columnaZ;
+        private final long desdeMs;
+        private final long hastaMs;
+
+        private int fila;
+        long id;
+        long ts;
+        int x;
+        int y;
+        int z;
+
+        LectorDia(Path archivo, long desdeMs, long hastaMs) throws IOException {
+            // Con el canal abierto el archivo se sigue leyendo aunque la retención lo borre
+            canal = FileChannel.open(archivo, StandardOpenOption.READ);
+            try {
+                ByteBuffer cabecera = leerCabecera(canal, archivo);
+                anchoTs = cabecera.get(6);
+                anchoId = cabecera.get(7);
+                anchoX = cabecera.get(8);
+                anchoY = cabecera.get(9);
+                anchoZ = cabecera.get(10);
+                n = cabecera.getInt(12);
+                filasPorBloque = cabecera.getInt(16);
+                int bloques = (n + filasPorBloque - 1) / filasPorBloque;
+                long inicioBloquesTs = LONGITUD_CABECERA;
+                long inicioBloquesId = inicioBloquesTs + 8L * bloques;
+                long inicioTs = inicioBloquesId + 8L * bloques;
+                long inicioId = inicioTs + (long) n * anchoTs;
+                long inicioX = inicioId + (long) n * anchoId;
+                long inicioY = inicioX + (long) n * anchoX;
+                long inicioZ = inicioY + (long) n * anchoY;
+                long fin = inicioZ + (long) n * anchoZ;
+                if (fin > canal.size()) {
+                    throw new IOException("Archivo columnar truncado: " + archivo);
+                }
+                // Un archivo chico (lo habitual) se mapea una vez y lo comparten todas las regiones
+                MappedByteBuffer completo = fin <= BYTES_POR_MAPEO
+                        ? canal.map(FileChannel.MapMode.READ_ONLY, 0, fin) : null;
+                bloquesTs = new Region(canal, inicioBloquesTs, inicioBloquesId, completo);
+                bloquesId = new Region(canal, inicioBloquesId, inicioTs, completo);
+                columnaTs = new Region(canal, inicioTs, inicioId, completo);
+                columnaId = new Region(canal, inicioId, inicioX, completo);
+                columnaX = new Region(canal, inicioX, inicioY, completo);
+                columnaY = new Region(canal, inicioY, inicioZ, completo);
+                columnaZ = new Region(canal, inicioZ, fin, completo);
+                this.desdeMs = desdeMs;
+                this.hastaMs = hastaMs;
+
+                // Último bloque cuyo primer ts es menor que desdeMs: el rango empieza en él o después.
+                // La lectura arranca justo antes de su primera fila, que trae valores absolutos
+                int bajo = 0;
+                int alto = bloques;
+                while (bajo < alto) {
+                    int medio = (bajo + alto) >>> 1;
+                    if (bloquesTs.leer(medio, 8) < desdeMs) {
+                        bajo = medio + 1;
+                    } else {
+                        alto = medio;
+                    }
+                }
+                fila = Math.max(0, bajo - 1) * filasPorBloque - 1;
+            } catch (IOException | RuntimeException e) {
+                close();
+                throw e;
+            }
+        }
+
+        static int comparar(LectorDia a, LectorDia b) {
+            int porTs = Long.compare(a.ts, b.ts);
+            return porTs != 0 ? porTs : Long.compare(a.id, b.id);
+        }
+
+        /**
+         * @return false al llegar a hastaMs o al final del archivo.
+         */
+        boolean siguiente() throws IOException {
+            while (true) {
+                fila++;
+                if (fila >= n) {
+                    return false;
+                }
+                if (fila % filasPorBloque == 0) {
+                    // Inicio de bloque: valores absolutos del índice
+                    int bloque = fila / filasPorBloque;
+                    ts = bloquesTs.leer(bloque, 8);
+                    id = bloquesId.leer(bloque, 8);
+                } else {
+                    ts += columnaTs.leer(fila, anchoTs);
+                    id += columnaId.leer(fila, anchoId);
+                }
+                if (ts >= hastaMs) {
+                    fila = n;
+                    return false;
+                }
+                if (ts < desdeMs) {
+                    continue;
+                }
+                x = (int) columnaX.leer(fila, anchoX);
+                y = (int) columnaY.leer(fila, anchoY);
+                z = (int) columnaZ.leer(fila, anchoZ);
+                return true;
+            }
+        }
+
+        @Override
+        public void close() {
+            try {
+                canal.close();
+            } catch (IOException e) {
+                LOG.debug("Error al cerrar un archivo columnar: {}", e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Una zona contigua del archivo (el índice o una columna) leída por ventanas mapeadas de hasta
+     * BYTES_POR_MAPEO: un mapeo no puede pasar de 2 GB y el lector solo avanza, así que la ventana
+     * se vuelve a mapear desde la posición pedida cuando la lectura sale de ella.
+     */
+    private static final class Region {
+        private final FileChannel canal;
+        private final long inicio;
+        private final long fin;
+        private MappedByteBuffer ventana;
+        private long base;
+
+        /**
+         * @param completo El archivo entero ya mapeado (si es chico), o null para mapear por ventanas.
+         */
+        Region(FileChannel canal, long inicio, long fin, MappedByteBuffer completo) {
+            this.canal = canal;
+            this.inicio = inicio;
+            this.fin = fin;
+            if (completo != null) {
+                ventana = completo;
+                ventana.order(ByteOrder.LITTLE_ENDIAN);
+            }
+        }
+
+        /**
+         * @return El valor del elemento 'indice' (de 'ancho' bytes) de la región.
+         */
+        long leer(long indice, int ancho) throws IOException {
+            long posicion = inicio + indice * ancho;
+            if (ventana == null || posicion < base || posicion + ancho > base + ventana.capacity()) {
+                base = posicion;
+                ventana = canal.map(FileChannel.MapMode.READ_ONLY, base, Math.min(BYTES_POR_MAPEO, fin - base));
+                ventana.order(ByteOrder.LITTLE_ENDIAN);
+            }
+            return ArchivoColumnar.leer(ventana, (int) (posicion - base), ancho);
+        }
+    }
+
+    /**
+     * Filas de un sensor y un día en arreglos primitivos, ordenadas por (ts, id).
+     */
+    public static final class Columnas {
+        long[] ids = new long[1024];
+        long[] ts = new long[1024];
+        int[] x = new int[1024];
+        int[] y = new int[1024];
+        int[] z = new int[1024];
+        int n;
+
+        public void agregar(long id, long timestampMs, int mx, int my, int mz) {
+            if (n == ids.length) {
+                int capacidad = n * 2;
+                ids = Arrays.copyOf(ids, capacidad);
+                ts = Arrays.copyOf(ts, capacidad);
+                x = Arrays.copyOf(x, capacidad);
+                y = Arrays.copyOf(y, capacidad);
+                z = Arrays.copyOf(z, capacidad);
+            }
+            ids[n] = id;
+            ts[n] = timestampMs;
+            x[n] = mx;
+            y[n] = my;
+            z[n] = mz;
+            n++;
+        }
+
+        public int getFilas() {
+            return n;
+        }
+
+        /**
+         * Deja el conjunto vacío conservando los arreglos, para reutilizarlo.
+         */
+        public void vaciar() {
+            n = 0;
+        }
+    }
+}
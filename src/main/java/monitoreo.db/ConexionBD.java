@@ -1,22 +1,299 @@
 package monitoreo.db;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.sql.Statement;
+import java.time.Instant;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.ToLongFunction;
+import monitoreo.util.Histograma;
+import monitoreo.util.Metricas;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 public class ConexionBD {
 
-    private static final String URL = "jdbc:sqlite:monitorBD.db";
+    private static final Logger LOG = LoggerFactory.getLogger(ConexionBD.class);
+
+    // Se puede cambiar con -Dmonitoreo.bd.url=jdbc:sqlite:otra.db (p. ej. para pruebas de carga)
+    private static final String URL = System.getProperty("monitoreo.bd.url", "jdbc:sqlite:monitorBD.db");
+    private static final int MAX_LECTORES = Integer.getInteger("monitoreo.bd.lectores", 4);
+
+    // Archivos SQLite entre los que se reparten los sensores, cada uno con su hilo escritor. La
+    // partición 0 es URL; las demás, el mismo nombre con "-p<i>" (monitorBD-p1.db, ...). Las
+    // lecturas de todos los sensores los adjuntan (ATTACH), así que el tope es el de SQLite.
+    private static final int MAX_PARTICIONES = 10;
+    private static final int PARTICIONES =
+            Math.max(1, Math.min(MAX_PARTICIONES, Integer.getInteger("monitoreo.bd.particiones", 1)));
+    // Los ids de la partición i empiezan en i << BITS_ID: no se repiten entre archivos
+    private static final int BITS_ID = 48;
+    // Tablas que las lecturas de todos los sensores ven unidas (vistas TEMP con UNION ALL)
+    private static final List<String> TABLAS_PARTICIONADAS =
+            List.of("datos_sensor", Resumenes.TABLA_MINUTO, Resumenes.TABLA_HORA, "alertas");
+
+    /**
+     * Sensor al que se atribuyen las muestras de clientes que no indican uno
+     * (y todas las filas anteriores al esquema v2).
+     */
+    public static final String SENSOR_POR_DEFECTO = "local";
+
+    // Las fechas del protocolo (yyyy-MM-dd / HH:mm:ss) se interpretan en la zona horaria local
+    static final ZoneId ZONA = ZoneId.systemDefault();
+    private static final DateTimeFormatter FORMATO_FECHA = DateTimeFormatter.ofPattern("yyyy-MM-dd");
+    private static final DateTimeFormatter FORMATO_HORA = DateTimeFormatter.ofPattern("HH:mm:ss");
+    // Fecha y hora en un solo paso, con el formato de fila "...,Fecha,Hora" que espera el cliente
+    private static final DateTimeFormatter FORMATO_FECHA_HORA = DateTimeFormatter.ofPattern("yyyy-MM-dd,HH:mm:ss");
+
+    // Transacción completa de un lote: INSERT, resúmenes y commit
+    private static final Histograma LATENCIA_ESCRITURA =
+            Metricas.latencia("monitoreo_bd_escritura_segundos", "Tiempo de guardar un lote en la base (commit incluido).");
+
+    private static final String SQL_INSERTAR =
+            "INSERT INTO datos_sensor (sensor_id, ts, x, y, z) VALUES (?, ?, ?, ?, ?)";
+
+    private static final String SQL_INSERTAR_ALERTA = "INSERT INTO alertas "
+            + "(sensor_id, ts, tipo, magnitud, media, desviacion, pico) VALUES (?, ?, ?, ?, ?, ?, ?)";
+
+    // Importación masiva: INSERT de varias filas (5 parámetros por fila, lejos del límite de
+    // 32766 variables de SQLite); el resto que no llena una sentencia va por SQL_INSERTAR
+    private static final int FILAS_POR_SENTENCIA = 500;
+    private static final String SQL_INSERTAR_VARIAS = "INSERT INTO datos_sensor (sensor_id, ts, x, y, z) VALUES "
+            + String.join(", ", Collections.nCopies(FILAS_POR_SENTENCIA, "(?, ?, ?, ?, ?)"));
+
+    // Parámetros del commit agrupado (ver EscritorPorLotes)
+    private static final int CAPACIDAD_COLA = Integer.getInteger("monitoreo.bd.cola", 65_536);
+    private static final int MAX_LOTE = Integer.getInteger("monitoreo.bd.lote", 2_000);
+    private static final long MAX_ESPERA_LOTE_MS = Long.getLong("monitoreo.bd.lote.esperaMs", 5);
+    private static final long ESPERA_COLA_LLENA_MS = 5_000;
+
+    // Ventana en memoria de las muestras recientes (ver VentanaReciente); 0 la desactiva
+    private static final long VENTANA_RECIENTE_MS = Long.getLong("monitoreo.cache.ventanaMs", 24L * 60 * 60 * 1000);
+    private static final long PRESUPUESTO_VENTANA_MB = Long.getLong("monitoreo.cache.presupuestoMB", 256);
+
+    // null mientras no se active (solo el servidor, único escritor, la activa)
+    private static volatile VentanaReciente ventanaReciente;
+
+    // Archivo columnar de días cerrados (ver ArchivoColumnar); 0 días en la base desactiva el archivado
+    private static final Path DIRECTORIO_ARCHIVO = Path.of(System.getProperty("monitoreo.archivo.dir", "archivo"));
+    private static final int DIAS_EN_BD = Integer.getInteger("monitoreo.archivo.diasEnBD", 2);
+    // Filas por DELETE al sacar un día de SQLite: el escritor se libera entre uno y otro
+    private static final int FILAS_POR_BORRADO = 10_000;
+
+    // Inicialización perezosa y segura entre hilos de las particiones y del pool compartido
+    private static final class Holder {
+        private static final List<Particion> PARTICIONES = crearParticiones();
+        private static final PoolConexiones POOL = PARTICIONES.size() == 1
+                ? PARTICIONES.get(0).getPool() : crearPoolUnido(PARTICIONES);
+    }
+
+    private static final class HolderArchivo {
+        private static final ArchivoColumnar ARCHIVO = new ArchivoColumnar(DIRECTORIO_ARCHIVO, ZONA);
+    }
+
+    private static List<Particion> crearParticiones() {
+        List<Particion> particiones = new ArrayList<>(PARTICIONES);
+        for (int i = 0; i < PARTICIONES; i++) {
+            particiones.add(new Particion(i, urlParticion(i), MAX_LECTORES, CAPACIDAD_COLA, MAX_LOTE,
+                    MAX_ESPERA_LOTE_MS, ESPERA_COLA_LLENA_MS));
+        }
+        return List.copyOf(particiones);
+    }
+
+    private static String urlParticion(int indice) {
+        if (indice == 0) {
+            return URL;
+        }
+        return URL.endsWith(".db") ? URL.substring(0, URL.length() - 3) + "-p" + indice + ".db" : URL + "-p" + indice;
+    }
 
     /**
-     * Obtiene y retorna una conexión a la base de datos SQLite.
+     * Pool de solo lectura sobre la partición 0 con las demás adjuntas como p1, p2, ...: en cada
+     * conexión, una vista TEMP con el nombre de cada tabla (que tapa a la de main) une las filas
+     * de todas. Las consultas de todos los sensores no cambian; con ORDER BY ts SQLite mezcla las
+     * particiones por sus índices sin ordenar de nuevo.
+     */
+    private static PoolConexiones crearPoolUnido(List<Particion> particiones) {
+        List<String> sentencias = new ArrayList<>();
+        for (Particion p : particiones.subList(1, particiones.size())) {
+            String archivo = p.getUrl().substring("jdbc:sqlite:".length()).replace("'", "''");
+            sentencias.add("ATTACH DATABASE '" + archivo + "' AS p" + p.getIndice());
+        }
+        for (String tabla : TABLAS_PARTICIONADAS) {
+            StringBuilder vista = new StringBuilder("CREATE TEMP VIEW ").append(tabla)
+                    .append(" AS SELECT * FROM main.").append(tabla);
+            for (Particion p : particiones.subList(1, particiones.size())) {
+                vista.append(" UNION ALL SELECT * FROM p").append(p.getIndice()).append('.').append(tabla);
+            }
+            sentencias.add(vista.toString());
+        }
+        return new PoolConexiones(URL, MAX_LECTORES, sentencias);
+    }
+
+    /**
+     * @return Las particiones de la base (una sola por defecto).
+     */
+    public static List<Particion> particiones() {
+        return Holder.PARTICIONES;
+    }
+
+    /**
+     * @return La partición que guarda las muestras del sensor. Depende del número de particiones,
+     *         que queda fijo al crear la base (crearTabla() no arranca con otro).
+     */
+    public static Particion particion(String sensorId) {
+        List<Particion> particiones = Holder.PARTICIONES;
+        return particiones.size() == 1 ? particiones.get(0)
+                : particiones.get(Math.floorMod(sensorId.hashCode(), particiones.size()));
+    }
+
+    /**
+     * @return Pool para leer los datos de todos los sensores. Con una sola partición es su pool;
+     *         con varias, solo de lectura sobre las vistas que las unen (se escribe en cada partición).
+     */
+    public static PoolConexiones pool() {
+        return Holder.POOL;
+    }
+
+    /**
+     * @return Pool que lee las filas del sensor (el de su partición), o el de todos si es null.
+     */
+    private static PoolConexiones lectura(String sensorId) {
+        return sensorId == null ? pool() : particion(sensorId).getPool();
+    }
+
+    /**
+     * @return El archivo columnar de los días sacados de SQLite.
+     */
+    public static ArchivoColumnar archivo() {
+        return HolderArchivo.ARCHIVO;
+    }
+
+    /**
+     * @return Muestras esperando a los escritores por lotes de todas las particiones.
+     */
+    public static int getProfundidadColas() {
+        int total = 0;
+        for (Particion p : particiones()) {
+            total += p.tieneEscritor() ? p.getEscritor().getProfundidadCola() : 0;
+        }
+        return total;
+    }
+
+    /**
+     * @return Muestras rechazadas por cola llena en todas las particiones.
+     */
+    public static long getRechazosPorCola() {
+        long total = 0;
+        for (Particion p : particiones()) {
+            total += p.tieneEscritor() ? p.getEscritor().getRechazosPorCola() : 0;
+        }
+        return total;
+    }
+
+    /**
+     * @return Conexiones prestadas en este momento en todos los pools.
+     */
+    public static int getConexionesEnUso() {
+        return (int) sumarPools(PoolConexiones::getConexionesEnUso);
+    }
+
+    /**
+     * @return Tiempo total (ns) que se esperó por una conexión en todos los pools.
+     */
+    public static long getEsperaPoolsNanos() {
+        return sumarPools(PoolConexiones::getEsperaTotalNanos);
+    }
+
+    /**
+     * @return Conexiones prestadas desde el arranque en todos los pools.
+     */
+    public static long getPrestamosPools() {
+        return sumarPools(PoolConexiones::getPrestamos);
+    }
+
+    /**
+     * @return Sentencias preparadas que se reutilizaron de la caché en todos los pools.
+     */
+    public static long getAciertosCacheSentencias() {
+        return sumarPools(PoolConexiones::getAciertosCacheSentencias);
+    }
+
+    /**
+     * @return Sentencias que hubo que preparar por no estar en la caché, en todos los pools.
+     */
+    public static long getFallosCacheSentencias() {
+        return sumarPools(PoolConexiones::getFallosCacheSentencias);
+    }
+
+    // Con varias particiones el pool de lectura sobre las vistas que las unen es uno más
+    private static long sumarPools(ToLongFunction<PoolConexiones> valor) {
+        long total = particiones().size() == 1 ? 0 : valor.applyAsLong(pool());
+        for (Particion p : particiones()) {
+            total += valor.applyAsLong(p.getPool());
+        }
+        return total;
+    }
+
+    /**
+     * Carga las muestras recientes en memoria para que las consultas del día no vayan a SQLite.
+     * Llamar una vez al arrancar el servidor, después de crearTabla() y antes de aceptar
+     * escrituras: la ventana asume que toda fila nueva pasa por esta clase.
+     */
+    public static void activarVentanaReciente() {
+        if (VENTANA_RECIENTE_MS <= 0 || ventanaReciente != null) {
+            return;
+        }
+        VentanaReciente ventana = new VentanaReciente(VENTANA_RECIENTE_MS, PRESUPUESTO_VENTANA_MB * 1024 * 1024);
+        try {
+            ventana.cargar(pool(), System.currentTimeMillis());
+            ventanaReciente = ventana;
+        } catch (SQLException e) {
+            LOG.warn("No se pudo cargar la ventana reciente, se consulta siempre la base: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * @return La ventana reciente, o null si no está activa.
+     */
+    public static VentanaReciente ventanaReciente() {
+        return ventanaReciente;
+    }
+
+    /**
+     * Guarda lo pendiente en las colas de escritura y cierra las conexiones de todas las particiones.
+     * Se llama al apagar el servidor.
+     */
+    public static void cerrar() {
+        for (Particion p : particiones()) {
+            p.close();
+        }
+        if (particiones().size() > 1) {
+            pool().close();
+        }
+    }
+
+    /**
+     * Obtiene y retorna una conexión NUEVA a la base de datos SQLite, fuera del pool.
+     * Para el tráfico normal usar los métodos de esta clase, que reutilizan conexiones.
      * @return Objeto Connection o null si hay un error.
      */
     public static Connection getConnection() {
@@ -26,51 +303,264 @@ public class ConexionBD {
             conn = DriverManager.getConnection(URL);
             return conn;
         } catch (SQLException e) {
-            System.err.println("Error de SQL al conectar: " + e.getMessage());
+            LOG.error("Error de SQL al conectar: {}", e.getMessage());
         } catch (ClassNotFoundException e) {
-            System.err.println("Driver JDBC de SQLite no encontrado.");
+            LOG.error("Driver JDBC de SQLite no encontrado.");
         }
         return null;
     }
 
     /**
-     * Crea la tabla 'datos_sensor' si no existe.
-     * NOTA: La tabla usa nombres de columna cortos (x, y, z).
+     * Crea la tabla 'datos_sensor' si no existe y la lleva a la última versión del esquema
+     * (ver MigradorEsquema), en el archivo de cada partición. Una base de datos anterior se migra
+     * en el mismo archivo.
+     * @throws IllegalStateException si la base se creó con otro número de particiones.
      */
     public static void crearTabla() {
-        String sql = """
-            CREATE TABLE IF NOT EXISTS datos_sensor (
-                id INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL,
-                x INTEGER NOT NULL,
-                y INTEGER NOT NULL,
-                z INTEGER NOT NULL,
-                fecha_de_captura TEXT NOT NULL,
-                hora_de_captura TEXT NOT NULL
-            );
-            """;
-
-        try (Connection conn = getConnection();
-             Statement stmt = conn.createStatement()) {
-
-            if (conn != null) {
-                // Ejecutar el query de creación de la tabla
-                stmt.execute(sql);
-                System.out.println("Tabla 'datos_sensor' verificada/creada correctamente.");
+        try {
+            for (Particion p : particiones()) {
+                MigradorEsquema.migrar(p.getPool());
+                if (p.getIndice() > 0) {
+                    reservarIds(p);
+                }
             }
+            verificarParticiones();
+            LOG.info("Tabla 'datos_sensor' verificada (esquema v{}, {} particiones).",
+                    MigradorEsquema.versionActual(), particiones().size());
 
         } catch (SQLException e) {
-            System.err.println("Error al crear la tabla: " + e.getMessage());
+            LOG.error("Error al crear/migrar la tabla: {}", e.getMessage());
         }
     }
 
+    /**
+     * Compara el número de particiones configurado con el que se guardó en la tabla meta de la
+     * partición 0 al crear la base. Una base anterior a la tabla meta adopta el configurado, salvo
+     * que ya exista el archivo de una partición que queda fuera de él.
+     * @throws IllegalStateException si no coinciden: las filas ya guardadas de un sensor quedarían
+     *         en otra partición y sus consultas dejarían de verlas.
+     */
+    private static void verificarParticiones() throws SQLException {
+        String configurado = Integer.toString(PARTICIONES);
+        String guardado = particiones().get(0).getPool().enTransaccion(conexion -> {
+            PreparedStatement leer = conexion.preparar("SELECT valor FROM meta WHERE clave = 'particiones'");
+            try (ResultSet rs = leer.executeQuery()) {
+                if (rs.next()) {
+                    return rs.getString(1);
+                }
+            }
+            if (Files.exists(Path.of(urlParticion(PARTICIONES).substring("jdbc:sqlite:".length())))) {
+                return "más de " + configurado;
+            }
+            PreparedStatement guardar = conexion.preparar("INSERT INTO meta (clave, valor) VALUES ('particiones', ?)");
+            guardar.setString(1, configurado);
+            guardar.executeUpdate();
+            return configurado;
+        });
+        if (!guardado.equals(configurado)) {
+            throw new IllegalStateException("La base " + URL + " se creó con " + guardado
+                    + " particiones y monitoreo.bd.particiones=" + configurado
+                    + ": cada sensor quedaría en otra partición y no se verían sus filas anteriores.");
+        }
+    }
+
+    /**
+     * Hace que los ids de un archivo de partición nuevo empiecen en indice << BITS_ID (AUTOINCREMENT
+     * sigue desde sqlite_sequence), para que (ts, id) identifique una fila entre todas las particiones.
+     */
+    private static void reservarIds(Particion particion) throws SQLException {
+        long primerId = (long) particion.getIndice() << BITS_ID;
+        particion.getPool().enTransaccion(conexion -> {
+            PreparedStatement subir = conexion.preparar(
+                    "UPDATE sqlite_sequence SET seq = ? WHERE name = 'datos_sensor' AND seq < ?");
+            subir.setLong(1, primerId);
+            subir.setLong(2, primerId);
+            subir.executeUpdate();
+            PreparedStatement crear = conexion.preparar("INSERT INTO sqlite_sequence (name, seq) "
+                    + "SELECT 'datos_sensor', ? WHERE NOT EXISTS (SELECT 1 FROM sqlite_sequence WHERE name = 'datos_sensor')");
+            crear.setLong(1, primerId);
+            return crear.executeUpdate();
+        });
+    }
+
+    /**
+     * Reparte los elementos por la partición de su sensor, conservando el orden dentro de cada una.
+     */
+    private static <T> Map<Particion, List<T>> porParticion(List<T> elementos, Function<T, String> sensor) {
+        if (particiones().size() == 1) {
+            return Map.of(particiones().get(0), elementos);
+        }
+        Map<Particion, List<T>> grupos = new LinkedHashMap<>();
+        for (T elemento : elementos) {
+            grupos.computeIfAbsent(particion(sensor.apply(elemento)), p -> new ArrayList<>()).add(elemento);
+        }
+        return grupos;
+    }
+
     // --- MÉTODO 1: INSERCIÓN EN TIEMPO REAL (Usa la hora actual) ---
 
     public static boolean insertarDatos(int x, int y, int z) {
-        LocalDateTime now = LocalDateTime.now();
-        String fecha = now.format(DateTimeFormatter.ofPattern("yyyy-MM-dd"));
-        String hora = now.format(DateTimeFormatter.ofPattern("HH:mm:ss"));
+        return guardarDatos(SENSOR_POR_DEFECTO, System.currentTimeMillis(), x, y, z);
+    }
+
+    /**
+     * Encola una lectura para el commit agrupado en la partición de su sensor.
+     * @param sensorId Sensor que produjo la lectura.
+     * @param timestampMs Momento de captura (epoch en milisegundos).
+     * @return Future que se completa con true cuando la transacción de su lote hace commit.
+     */
+    public static CompletableFuture<Boolean> encolarDatos(String sensorId, int x, int y, int z, long timestampMs) {
+        return particion(sensorId).getEscritor().encolar(new Muestra(sensorId, timestampMs, x, y, z));
+    }
+
+    /**
+     * Inserta las muestras, una transacción por partición.
+     * @return true si todas quedaron guardadas; false si alguna transacción se revirtió.
+     */
+    public static boolean insertarLote(List<Muestra> muestras) {
+        boolean exito = true;
+        for (Map.Entry<Particion, List<Muestra>> grupo : porParticion(muestras, Muestra::sensorId).entrySet()) {
+            exito &= insertarLote(grupo.getKey(), grupo.getValue());
+        }
+        return exito;
+    }
+
+    /**
+     * Inserta todas las muestras (todas de sensores de la partición) en una sola transacción
+     * usando executeBatch.
+     * @return true si el lote completo quedó guardado; false si se revirtió.
+     */
+    static boolean insertarLote(Particion particion, List<Muestra> muestras) {
+        long inicio = System.nanoTime();
+        try {
+            long ultimoId = particion.getPool().enTransaccion(conexion -> {
+                PreparedStatement pstmt = conexion.preparar(SQL_INSERTAR);
+                for (Muestra m : muestras) {
+                    pstmt.setString(1, m.sensorId());
+                    pstmt.setLong(2, m.timestampMs());
+                    pstmt.setInt(3, m.x());
+                    pstmt.setInt(4, m.y());
+                    pstmt.setInt(5, m.z());
+                    pstmt.addBatch();
+                }
+                pstmt.executeBatch();
+                long id = ultimoIdInsertado(conexion);
+                Resumenes.acumularLote(conexion, muestras);
+                return id;
+            });
+            LATENCIA_ESCRITURA.registrarDesde(inicio);
+
+            VentanaReciente ventana = ventanaReciente;
+            if (ventana != null) {
+                ventana.agregarLote(muestras, ultimoId);
+            }
+            return true;
+
+        } catch (SQLException e) {
+            LOG.error("Error al insertar lote de {} datos: {}", muestras.size(), e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Guarda las alertas en una sola transacción.
+     * @return true si quedaron guardadas; false si se revirtió.
+     */
+    public static boolean guardarAlertas(List<Alerta> alertas) {
+        boolean exito = true;
+        for (Map.Entry<Particion, List<Alerta>> grupo : porParticion(alertas, Alerta::sensorId).entrySet()) {
+            exito &= guardarAlertas(grupo.getKey(), grupo.getValue());
+        }
+        return exito;
+    }
+
+    private static boolean guardarAlertas(Particion particion, List<Alerta> alertas) {
+        try {
+            particion.getPool().enTransaccion(conexion -> {
+                PreparedStatement pstmt = conexion.preparar(SQL_INSERTAR_ALERTA);
+                for (Alerta a : alertas) {
+                    pstmt.setString(1, a.sensorId());
+                    pstmt.setLong(2, a.timestampMs());
+                    pstmt.setString(3, a.tipo());
+                    pstmt.setDouble(4, a.magnitud());
+                    pstmt.setDouble(5, a.media());
+                    pstmt.setDouble(6, a.desviacion());
+                    pstmt.setDouble(7, a.pico());
+                    pstmt.addBatch();
+                }
+                return pstmt.executeBatch();
+            });
+            return true;
+
+        } catch (SQLException e) {
+            LOG.error("Error al guardar {} alertas: {}", alertas.size(), e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Inserta un lote grande de muestras históricas (importación masiva) en una sola transacción
+     * por partición, con sentencias INSERT de FILAS_POR_SENTENCIA filas, y suma sus resúmenes.
+     * A diferencia de insertarLote no alimenta la ventana reciente: la usa DataGenerator, fuera
+     * del servidor.
+     * @return true si el lote completo quedó guardado; false si alguna transacción se revirtió.
+     */
+    public static boolean importarLote(List<Muestra> muestras) {
+        boolean exito = true;
+        for (Map.Entry<Particion, List<Muestra>> grupo : porParticion(muestras, Muestra::sensorId).entrySet()) {
+            exito &= importarLote(grupo.getKey(), grupo.getValue());
+        }
+        return exito;
+    }
+
+    private static boolean importarLote(Particion particion, List<Muestra> muestras) {
+        try {
+            particion.getPool().enTransaccion(conexion -> {
+                int completas = muestras.size() / FILAS_POR_SENTENCIA * FILAS_POR_SENTENCIA;
+                PreparedStatement varias = conexion.preparar(SQL_INSERTAR_VARIAS);
+                for (int inicio = 0; inicio < completas; inicio += FILAS_POR_SENTENCIA) {
+                    int p = 1;
+                    for (int i = inicio; i < inicio + FILAS_POR_SENTENCIA; i++) {
+                        Muestra m = muestras.get(i);
+                        varias.setString(p++, m.sensorId());
+                        varias.setLong(p++, m.timestampMs());
+                        varias.setInt(p++, m.x());
+                        varias.setInt(p++, m.y());
+                        varias.setInt(p++, m.z());
+                    }
+                    varias.executeUpdate();
+                }
+                if (completas < muestras.size()) {
+                    PreparedStatement una = conexion.preparar(SQL_INSERTAR);
+                    for (Muestra m : muestras.subList(completas, muestras.size())) {
+                        una.setString(1, m.sensorId());
+                        una.setLong(2, m.timestampMs());
+                        una.setInt(3, m.x());
+                        una.setInt(4, m.y());
+                        una.setInt(5, m.z());
+                        una.addBatch();
+                    }
+                    una.executeBatch();
+                }
+                Resumenes.acumularLote(conexion, muestras);
+                return null;
+            });
+            return true;
+
+        } catch (SQLException e) {
+            LOG.error("Error al importar lote de {} datos: {}", muestras.size(), e.getMessage());
+            return false;
+        }
+    }
 
-        return guardarDatos(x, y, z, fecha, hora);
+    /**
+     * Con un solo escritor por archivo, las filas de una transacción reciben ids consecutivos (rowid = máximo + 1).
+     * @return El id de la última fila insertada por la conexión.
+     */
+    private static long ultimoIdInsertado(ConexionCacheada conexion) throws SQLException {
+        try (ResultSet rs = conexion.preparar("SELECT last_insert_rowid()").executeQuery()) {
+            return rs.next() ? rs.getLong(1) : -1;
+        }
     }
 
     // --- MÉTODO 2: GUARDAR DATOS CON FECHA ESPECÍFICA (CORREGIDO) ---
@@ -85,31 +575,57 @@ public class ConexionBD {
      * @return true si la inserción fue exitosa.
      */
     public static boolean guardarDatos(int x, int y, int z, String fechaStr, String horaStr) {
-        // 🚨 CORRECCIÓN: Usar x, y, z en lugar de eje_x, eje_y, eje_z
-        String sql = "INSERT INTO datos_sensor (x, y, z, fecha_de_captura, hora_de_captura) VALUES (?, ?, ?, ?, ?)";
+        long timestampMs;
+        try {
+            timestampMs = LocalDate.parse(fechaStr, FORMATO_FECHA)
+                    .atTime(LocalTime.parse(horaStr, FORMATO_HORA))
+                    .atZone(ZONA).toInstant().toEpochMilli();
+        } catch (DateTimeParseException e) {
+            LOG.warn("Fecha u hora inválida al insertar datos: {}", e.getMessage());
+            return false;
+        }
+        return guardarDatos(SENSOR_POR_DEFECTO, timestampMs, x, y, z);
+    }
 
-        try (Connection conn = getConnection();
-             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+    /**
+     * Guarda una lectura con su timestamp, fuera del commit agrupado (una transacción por fila,
+     * junto con sus resúmenes).
+     * @param sensorId Sensor que produjo la lectura.
+     * @param timestampMs Momento de captura (epoch en milisegundos).
+     * @return true si la inserción fue exitosa.
+     */
+    public static boolean guardarDatos(String sensorId, long timestampMs, int x, int y, int z) {
+        try {
+            long id = particion(sensorId).getPool().enTransaccion(conexion -> {
+                // Sentencia cacheada en la conexión de escritura (no se cierra)
+                PreparedStatement pstmt = conexion.preparar(SQL_INSERTAR);
 
-            if (conn == null) {
-                System.err.println("No se pudo obtener la conexión para la inserción.");
-                return false;
-            }
+                // Asignar los valores
+                pstmt.setString(1, sensorId);
+                pstmt.setLong(2, timestampMs);
+                pstmt.setInt(3, x);
+                pstmt.setInt(4, y);
+                pstmt.setInt(5, z);
 
-            // Asignar los valores
-            pstmt.setInt(1, x);
-            pstmt.setInt(2, y);
-            pstmt.setInt(3, z);
-            pstmt.setString(4, fechaStr);
-            pstmt.setString(5, horaStr);
+                // Ejecutar la inserción
+                int affectedRows = pstmt.executeUpdate();
 
-            // Ejecutar la inserción
-            int affectedRows = pstmt.executeUpdate();
+                if (affectedRows == 0) {
+                    return -1L;
+                }
+                long idInsertado = ultimoIdInsertado(conexion);
+                Resumenes.acumular(conexion, sensorId, timestampMs, x, y, z);
+                return idInsertado;
+            });
 
-            return affectedRows > 0;
+            VentanaReciente ventana = ventanaReciente;
+            if (id > 0 && ventana != null) {
+                ventana.agregar(sensorId, id, timestampMs, x, y, z);
+            }
+            return id > 0;
 
         } catch (SQLException e) {
-            System.err.println("Error al insertar datos: " + e.getMessage());
+            LOG.error("Error al insertar datos: {}", e.getMessage());
             return false;
         }
     }
@@ -124,45 +640,732 @@ public class ConexionBD {
     public static List<String> consultarDatos(String filtroFecha) {
 
         List<String> registros = new ArrayList<>();
-        // 🚨 CORRECCIÓN: Usar x, y, z en lugar de eje_x, eje_y, eje_z
-        String sql = "SELECT id, x, y, z, fecha_de_captura, hora_de_captura FROM datos_sensor";
+        try {
+            long[] rango = rangoDelDia(filtroFecha);
+            recorrerFilas(rango[0], rango[1], fila -> registros.add(fila.toString()));
 
-        // Lógica de Filtrado: Filtramos por el campo 'fecha_de_captura'
-        if (filtroFecha != null && !filtroFecha.isEmpty()) {
-            sql += " WHERE fecha_de_captura = ?";
+        } catch (SQLException | DateTimeParseException e) {
+            LOG.error("Error al consultar datos: {}", e.getMessage());
         }
+        return registros;
+    }
 
-        // Ordenar cronológicamente
-        sql += " ORDER BY fecha_de_captura, hora_de_captura ASC";
+    /**
+     * Igual que consultarDatos, pero sin cargar el resultado completo en memoria: las filas se
+     * entregan en bloques de hasta filasPorBloque, unidas por '|', conforme salen del ResultSet.
+     * @param alBloque Recibe cada bloque "ID,X,Y,Z,Fecha,Hora|ID,X,Y,Z,Fecha,Hora|...".
+     * @return El total de filas entregadas, o -1 si la consulta falló.
+     */
+    public static int consultarDatosPorBloques(String filtroFecha, int filasPorBloque, Consumer<String> alBloque) {
+        StringBuilder bloque = new StringBuilder(filasPorBloque * 40);
+        int[] filasEnBloque = {0};
 
-        try (Connection conn = getConnection();
-             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+        try {
+            long[] rango = rangoDelDia(filtroFecha);
+            int total = recorrerFilas(rango[0], rango[1], fila -> {
+                if (filasEnBloque[0] > 0) {
+                    bloque.append('|');
+                }
+                bloque.append(fila);
+                if (++filasEnBloque[0] >= filasPorBloque) {
+                    alBloque.accept(bloque.toString());
+                    bloque.setLength(0);
+                    filasEnBloque[0] = 0;
+                }
+            });
+            if (filasEnBloque[0] > 0) {
+                alBloque.accept(bloque.toString());
+            }
+            return total;
 
-            if (conn == null) return registros;
+        } catch (SQLException | DateTimeParseException e) {
+            LOG.error("Error al consultar datos: {}", e.getMessage());
+            return -1;
+        }
+    }
 
-            // Asignar parámetros si se usan filtros
-            if (filtroFecha != null && !filtroFecha.isEmpty()) {
-                pstmt.setString(1, filtroFecha);
+    /**
+     * Consulta un rango de tiempo [desdeMs, hastaMs). Si cubetaMs es mayor que 0, la base de
+     * datos agrupa las muestras en cubetas de ese ancho y devuelve por cubeta:
+     * "inicioCubeta,n,minX,maxX,promX,minY,maxY,promY,minZ,maxZ,promZ".
+     * Si cubetaMs es 0 devuelve las muestras crudas: "ts,x,y,z".
+     * Las filas se entregan en bloques unidos por '|', igual que consultarDatosPorBloques.
+     * @param sensorId Sensor a consultar, o null para todos.
+     * @return El total de filas entregadas, o -1 si la consulta falló.
+     */
+    public static int consultarRango(String sensorId, long desdeMs, long hastaMs, long cubetaMs, int filasPorBloque,
+                                     Consumer<String> alBloque) {
+        VentanaReciente ventana = ventanaReciente;
+        if (ventana != null) {
+            try {
+                int filas = consultarRangoRecorriendo(v -> ventana.recorrer(sensorId, desdeMs, hastaMs, v),
+                        cubetaMs, filasPorBloque, alBloque);
+                if (filas != VentanaReciente.SIN_COBERTURA) {
+                    return filas < 0 ? -1 : filas;
+                }
+            } catch (SQLException e) {
+                // La ventana no lanza SQLException
+                return -1;
             }
+        }
+        // Con días archivados las filas salen de dos fuentes: se mezclan y se agrupa aquí
+        if (archivo().tieneDatosEn(sensorId, desdeMs, hastaMs)) {
+            try {
+                return consultarRangoRecorriendo(v -> recorrerConArchivo(sensorId, desdeMs, hastaMs, v),
+                        cubetaMs, filasPorBloque, alBloque);
+            } catch (SQLException e) {
+                LOG.error("Error al consultar rango de datos: {}", e.getMessage());
+                return -1;
+            }
+        }
 
-            // Ejecutar la consulta
-            ResultSet rs = pstmt.executeQuery();
+        // Con sensor_id fijo el rango es un tramo contiguo del índice (sensor_id, ts, x, y, z)
+        String filtro = (sensorId != null ? "WHERE sensor_id = ? AND " : "WHERE ") + "ts >= ? AND ts < ?";
+        String sql;
+        if (cubetaMs > 0) {
+            sql = "SELECT (ts / ?) * ? AS cubeta, COUNT(*), MIN(x), MAX(x), AVG(x), MIN(y), MAX(y), AVG(y), "
+                    + "MIN(z), MAX(z), AVG(z) FROM datos_sensor " + filtro + " GROUP BY cubeta ORDER BY cubeta";
+        } else {
+            sql = "SELECT ts, x, y, z FROM datos_sensor " + filtro + " ORDER BY ts";
+        }
 
-            // Procesar el resultado
-            while (rs.next()) {
-                // Formato de salida requerido por el Cliente: ID,X,Y,Z,Fecha,Hora
-                String fila = rs.getInt("id") + ","
-                        + rs.getInt("x") + "," // 🚨 CORRECCIÓN: Leer la columna 'x'
-                        + rs.getInt("y") + "," // 🚨 CORRECCIÓN: Leer la columna 'y'
-                        + rs.getInt("z") + "," // 🚨 CORRECCIÓN: Leer la columna 'z'
-                        + rs.getString("fecha_de_captura") + ","
-                        + rs.getString("hora_de_captura");
-                registros.add(fila);
-            }
+        StringBuilder bloque = new StringBuilder(filasPorBloque * 64);
+        try {
+            return lectura(sensorId).conLector(conexion -> {
+                PreparedStatement pstmt = conexion.preparar(sql);
+                int i = 1;
+                if (cubetaMs > 0) {
+                    pstmt.setLong(i++, cubetaMs);
+                    pstmt.setLong(i++, cubetaMs);
+                }
+                if (sensorId != null) {
+                    pstmt.setString(i++, sensorId);
+                }
+                pstmt.setLong(i++, desdeMs);
+                pstmt.setLong(i, hastaMs);
+
+                int filas = 0;
+                int filasEnBloque = 0;
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    int columnas = rs.getMetaData().getColumnCount();
+                    while (rs.next()) {
+                        if (filasEnBloque > 0) {
+                            bloque.append('|');
+                        }
+                        bloque.append(rs.getLong(1));
+                        for (int c = 2; c <= columnas; c++) {
+                            bloque.append(',');
+                            // Los promedios (AVG) son REAL: se redondean a 2 decimales
+                            Object valor = rs.getObject(c);
+                            if (valor instanceof Double d) {
+                                bloque.append(Math.round(d * 100) / 100.0);
+                            } else {
+                                bloque.append(rs.getLong(c));
+                            }
+                        }
+                        filas++;
+                        if (++filasEnBloque >= filasPorBloque) {
+                            alBloque.accept(bloque.toString());
+                            bloque.setLength(0);
+                            filasEnBloque = 0;
+                        }
+                    }
+                }
+                if (filasEnBloque > 0) {
+                    alBloque.accept(bloque.toString());
+                }
+                return filas;
+            });
 
         } catch (SQLException e) {
-            System.err.println("Error al consultar datos: " + e.getMessage());
+            LOG.error("Error al consultar rango de datos: {}", e.getMessage());
+            return -1;
+        }
+    }
+
+    /**
+     * Consulta [desdeMs, hastaMs) agrupado en cubetas de resolucionMs desde la tabla de resúmenes
+     * más gruesa que alcance la resolución: por hora desde 1 h, por minuto desde 1 min (la
+     * resolución se redondea hacia abajo a un múltiplo de esa tabla, y los extremos del rango a
+     * su intervalo). Un mes por hora son ~720 filas de resumen por sensor en lugar de millones de
+     * muestras. Con menos de un minuto se agrupan las muestras crudas.
+     * Cada fila: "inicioCubeta,n,minX,maxX,promX,desvX,minY,maxY,promY,desvY,minZ,maxZ,promZ,desvZ",
+     * en bloques unidos por '|' igual que consultarRango().
+     * @param sensorId Sensor a consultar, o null para todos.
+     * @return El total de cubetas entregadas, o -1 si la consulta falló.
+     */
+    public static int consultarResumen(String sensorId, long desdeMs, long hastaMs, long resolucionMs,
+                                       int filasPorBloque, Consumer<String> alBloque) {
+        String tabla;
+        long cubetaMs;
+        if (resolucionMs >= Resumenes.HORA_MS) {
+            tabla = Resumenes.TABLA_HORA;
+            cubetaMs = resolucionMs - resolucionMs % Resumenes.HORA_MS;
+        } else if (resolucionMs >= Resumenes.MINUTO_MS) {
+            tabla = Resumenes.TABLA_MINUTO;
+            cubetaMs = resolucionMs - resolucionMs % Resumenes.MINUTO_MS;
+        } else {
+            return consultarResumenCrudo(sensorId, desdeMs, hastaMs, Math.max(1, resolucionMs), filasPorBloque, alBloque);
+        }
+
+        String sql = "SELECT (ts / ?) * ? AS cubeta, " + Resumenes.SQL_AGREGAR + " FROM " + tabla
+                + (sensorId != null ? " WHERE sensor_id = ? AND " : " WHERE ") + "ts >= ? AND ts < ? "
+                + "GROUP BY cubeta ORDER BY cubeta";
+        StringBuilder bloque = new StringBuilder(filasPorBloque * 96);
+        try {
+            return lectura(sensorId).conLector(conexion -> {
+                PreparedStatement pstmt = conexion.preparar(sql);
+                int i = 1;
+                pstmt.setLong(i++, cubetaMs);
+                pstmt.setLong(i++, cubetaMs);
+                if (sensorId != null) {
+                    pstmt.setString(i++, sensorId);
+                }
+                pstmt.setLong(i++, desdeMs);
+                pstmt.setLong(i, hastaMs);
+
+                long[] agregados = new long[13];
+                int filas = 0;
+                int filasEnBloque = 0;
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    while (rs.next()) {
+                        for (int c = 0; c < agregados.length; c++) {
+                            agregados[c] = rs.getLong(c + 2);
+                        }
+                        if (filasEnBloque > 0) {
+                            bloque.append('|');
+                        }
+                        Resumenes.formatear(rs.getLong(1), agregados, bloque);
+                        filas++;
+                        if (++filasEnBloque >= filasPorBloque) {
+                            alBloque.accept(bloque.toString());
+                            bloque.setLength(0);
+                            filasEnBloque = 0;
+                        }
+                    }
+                }
+                if (filasEnBloque > 0) {
+                    alBloque.accept(bloque.toString());
+                }
+                return filas;
+            });
+
+        } catch (SQLException e) {
+            LOG.error("Error al consultar resúmenes: {}", e.getMessage());
+            return -1;
+        }
+    }
+
+    /**
+     * consultarResumen() con resoluciones menores que un minuto: se agrupan las muestras crudas
+     * de la ventana reciente o, si no la cubre, de SQLite y el archivo.
+     */
+    private static int consultarResumenCrudo(String sensorId, long desdeMs, long hastaMs, long cubetaMs,
+                                             int filasPorBloque, Consumer<String> alBloque) {
+        StringBuilder bloque = new StringBuilder(filasPorBloque * 96);
+        int[] filasEnBloque = {0};
+        Resumenes.AgregadorCrudo agregador = new Resumenes.AgregadorCrudo(cubetaMs, fila -> {
+            if (filasEnBloque[0] > 0) {
+                bloque.append('|');
+            }
+            bloque.append(fila);
+            if (++filasEnBloque[0] >= filasPorBloque) {
+                alBloque.accept(bloque.toString());
+                bloque.setLength(0);
+                filasEnBloque[0] = 0;
+            }
+        });
+        try {
+            VentanaReciente ventana = ventanaReciente;
+            int muestras = ventana != null ? ventana.recorrer(sensorId, desdeMs, hastaMs, agregador)
+                    : VentanaReciente.SIN_COBERTURA;
+            if (muestras == VentanaReciente.DESALOJADA) {
+                throw new SQLException("La ventana reciente se desalojó durante la consulta.");
+            }
+            if (muestras == VentanaReciente.SIN_COBERTURA) {
+                recorrerConArchivo(sensorId, desdeMs, hastaMs, agregador);
+            }
+        } catch (SQLException e) {
+            LOG.error("Error al consultar resúmenes: {}", e.getMessage());
+            return -1;
+        }
+        int filas = agregador.terminar();
+        if (filasEnBloque[0] > 0) {
+            alBloque.accept(bloque.toString());
+        }
+        return filas;
+    }
+
+    /**
+     * Fuente de muestras en orden de (ts, id): la ventana reciente o SQLite junto con el archivo.
+     */
+    @FunctionalInterface
+    private interface Recorrido {
+        /**
+         * @return Muestras entregadas, o un código negativo de VentanaReciente.recorrer().
+         */
+        int recorrer(VentanaReciente.VisitanteMuestra visitante) throws SQLException;
+    }
+
+    /**
+     * consultarRango() calculado en Java sobre una fuente de muestras, con el mismo formato de
+     * filas y bloques que la consulta SQL.
+     * @return Filas entregadas, o el código negativo de la fuente.
+     */
+    private static int consultarRangoRecorriendo(Recorrido recorrido, long cubetaMs, int filasPorBloque,
+                                                 Consumer<String> alBloque) throws SQLException {
+        StringBuilder bloque = new StringBuilder(filasPorBloque * 64);
+        int[] filasEnBloque = {0};
+        Consumer<StringBuilder> alFila = fila -> {
+            if (filasEnBloque[0] > 0) {
+                bloque.append('|');
+            }
+            bloque.append(fila);
+            if (++filasEnBloque[0] >= filasPorBloque) {
+                alBloque.accept(bloque.toString());
+                bloque.setLength(0);
+                filasEnBloque[0] = 0;
+            }
+        };
+
+        int filas;
+        if (cubetaMs > 0) {
+            AgregadorCubetas agregador = new AgregadorCubetas(cubetaMs, alFila);
+            filas = recorrido.recorrer(agregador);
+            if (filas >= 0) {
+                filas = agregador.terminar();
+            }
+        } else {
+            StringBuilder fila = new StringBuilder(48);
+            filas = recorrido.recorrer((id, ts, x, y, z) -> {
+                fila.setLength(0);
+                fila.append(ts).append(',').append(x).append(',').append(y).append(',').append(z);
+                alFila.accept(fila);
+            });
+        }
+        if (filas >= 0 && filasEnBloque[0] > 0) {
+            alBloque.accept(bloque.toString());
+        }
+        return filas;
+    }
+
+    /**
+     * Agrupa muestras ordenadas por ts en cubetas, con las mismas columnas que la consulta SQL
+     * de consultarRango: "inicioCubeta,n,minX,maxX,promX,minY,maxY,promY,minZ,maxZ,promZ".
+     */
+    private static final class AgregadorCubetas implements VentanaReciente.VisitanteMuestra {
+        private final long cubetaMs;
+        private final Consumer<StringBuilder> alFila;
+        private final StringBuilder fila = new StringBuilder(96);
+        private long cubeta = Long.MIN_VALUE;
+        private int cubetas;
+        private long n;
+        private int minX, maxX, minY, maxY, minZ, maxZ;
+        private long sumaX, sumaY, sumaZ;
+
+        AgregadorCubetas(long cubetaMs, Consumer<StringBuilder> alFila) {
+            this.cubetaMs = cubetaMs;
+            this.alFila = alFila;
+        }
+
+        @Override
+        public void visitar(long id, long ts, int x, int y, int z) {
+            // Igual que (ts / ?) * ? en SQLite: la división entera trunca hacia cero
+            long deMuestra = (ts / cubetaMs) * cubetaMs;
+            if (deMuestra != cubeta) {
+                emitir();
+                cubeta = deMuestra;
+                minX = maxX = x;
+                minY = maxY = y;
+                minZ = maxZ = z;
+            }
+            n++;
+            minX = Math.min(minX, x);
+            maxX = Math.max(maxX, x);
+            minY = Math.min(minY, y);
+            maxY = Math.max(maxY, y);
+            minZ = Math.min(minZ, z);
+            maxZ = Math.max(maxZ, z);
+            sumaX += x;
+            sumaY += y;
+            sumaZ += z;
+        }
+
+        private void emitir() {
+            if (n == 0) {
+                return;
+            }
+            fila.setLength(0);
+            fila.append(cubeta).append(',').append(n)
+                    .append(',').append(minX).append(',').append(maxX).append(',').append(Math.round((double) sumaX / n * 100) / 100.0)
+                    .append(',').append(minY).append(',').append(maxY).append(',').append(Math.round((double) sumaY / n * 100) / 100.0)
+                    .append(',').append(minZ).append(',').append(maxZ).append(',').append(Math.round((double) sumaZ / n * 100) / 100.0);
+            alFila.accept(fila);
+            cubetas++;
+            n = 0;
+            sumaX = sumaY = sumaZ = 0;
+        }
+
+        /**
+         * Emite la última cubeta.
+         * @return El total de cubetas emitidas.
+         */
+        int terminar() {
+            emitir();
+            return cubetas;
+        }
+    }
+
+    /**
+     * Convierte el filtro de día (yyyy-MM-dd, hora local) en el rango de timestamps [inicio, fin).
+     * Sin filtro devuelve el rango completo.
+     * @throws DateTimeParseException si la fecha no tiene el formato esperado.
+     */
+    private static long[] rangoDelDia(String filtroFecha) {
+        if (filtroFecha == null || filtroFecha.isEmpty()) {
+            return new long[]{Long.MIN_VALUE, Long.MAX_VALUE};
+        }
+        LocalDate dia = LocalDate.parse(filtroFecha, FORMATO_FECHA);
+        return new long[]{
+                dia.atStartOfDay(ZONA).toInstant().toEpochMilli(),
+                dia.plusDays(1).atStartOfDay(ZONA).toInstant().toEpochMilli()
+        };
+    }
+
+    /**
+     * Recorre [desdeMs, hastaMs) mezclando por (ts, id) las filas de SQLite con las del archivo
+     * columnar. Mientras un día se está archivando sus filas pueden estar en los dos lados:
+     * si la misma fila (ts, id) sale de ambos, se entrega una vez.
+     * @param sensorId Sensor a recorrer, o null para todos.
+     * @return Muestras entregadas.
+     */
+    static int recorrerConArchivo(String sensorId, long desdeMs, long hastaMs,
+                                          VentanaReciente.VisitanteMuestra visitante) throws SQLException {
+        String consulta = "SELECT id, ts, x, y, z FROM datos_sensor "
+                + (sensorId != null ? "WHERE sensor_id = ? AND " : "WHERE ") + "ts >= ? AND ts < ? ORDER BY ts, id";
+        return lectura(sensorId).conLector(conexion -> {
+            PreparedStatement pstmt = conexion.preparar(consulta);
+            int i = 1;
+            if (sensorId != null) {
+                pstmt.setString(i++, sensorId);
+            }
+            pstmt.setLong(i++, desdeMs);
+            pstmt.setLong(i, hastaMs);
+
+            int filas = 0;
+            try (ArchivoColumnar.Cursor archivado = archivo().abrir(sensorId, desdeMs, hastaMs);
+                 ResultSet rs = pstmt.executeQuery()) {
+                boolean hayBd = rs.next();
+                boolean hayArchivo = avanzar(archivado);
+                while (hayBd || hayArchivo) {
+                    long idBd = hayBd ? rs.getLong(1) : 0;
+                    long tsBd = hayBd ? rs.getLong(2) : 0;
+                    boolean deBd = !hayArchivo
+                            || (hayBd && (tsBd < archivado.ts() || (tsBd == archivado.ts() && idBd <= archivado.id())));
+                    if (deBd) {
+                        if (hayArchivo && tsBd == archivado.ts() && idBd == archivado.id()) {
+                            hayArchivo = avanzar(archivado);
+                        }
+                        visitante.visitar(idBd, tsBd, rs.getInt(3), rs.getInt(4), rs.getInt(5));
+                        hayBd = rs.next();
+                    } else {
+                        visitante.visitar(archivado.id(), archivado.ts(), archivado.x(), archivado.y(), archivado.z());
+                        hayArchivo = avanzar(archivado);
+                    }
+                    filas++;
+                }
+            }
+            return filas;
+        });
+    }
+
+    private static boolean avanzar(ArchivoColumnar.Cursor cursor) throws SQLException {
+        try {
+            return cursor.siguiente();
+        } catch (IOException e) {
+            throw new SQLException("Error al leer el archivo columnar: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Recorre las muestras crudas de [desdeMs, hastaMs) en orden de (ts, id) desde donde estén:
+     * la ventana reciente si cubre el rango, si no SQLite junto con el archivo columnar.
+     * @param sensorId Sensor a recorrer, o null para todos.
+     * @return Muestras entregadas.
+     */
+    static int recorrerRango(String sensorId, long desdeMs, long hastaMs,
+                             VentanaReciente.VisitanteMuestra visitante) throws SQLException {
+        VentanaReciente ventana = ventanaReciente;
+        if (ventana != null) {
+            int filas = ventana.recorrer(sensorId, desdeMs, hastaMs, visitante);
+            if (filas == VentanaReciente.DESALOJADA) {
+                throw new SQLException("La ventana reciente se desalojó durante la consulta.");
+            }
+            if (filas >= 0) {
+                return filas;
+            }
+        }
+        return recorrerConArchivo(sensorId, desdeMs, hastaMs, visitante);
+    }
+
+    /**
+     * @return true si SQLite tiene alguna fila del sensor en [desdeMs, hastaMs) (p. ej. muestras
+     *         atrasadas de un día ya archivado que todavía no se mezclaron con el archivo).
+     */
+    static boolean hayFilasEnBd(String sensorId, long desdeMs, long hastaMs) throws SQLException {
+        return particion(sensorId).getPool().conLector(conexion -> {
+            PreparedStatement pstmt = conexion.preparar(
+                    "SELECT 1 FROM datos_sensor WHERE sensor_id = ? AND ts >= ? AND ts < ? LIMIT 1");
+            pstmt.setString(1, sensorId);
+            pstmt.setLong(2, desdeMs);
+            pstmt.setLong(3, hastaMs);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                return rs.next();
+            }
+        });
+    }
+
+    // --- ARCHIVO DE DÍAS CERRADOS ---
+
+    /**
+     * Saca de SQLite los días cerrados y los pasa al archivo columnar, un archivo por sensor y día.
+     * Se conservan en la base los últimos monitoreo.archivo.diasEnBD días (hoy incluido) y nunca
+     * se archiva nada que todavía cubra la ventana reciente. Si un día ya estaba archivado (p. ej.
+     * llegaron muestras atrasadas) las filas nuevas se mezclan con el archivo existente.
+     * Las filas se borran de la base solo después de que el archivo quedó en disco, por tandas.
+     * @return Filas archivadas, o -1 si hubo un error (lo ya archivado queda archivado).
+     */
+    public static long archivarDiasCerrados() {
+        if (DIAS_EN_BD <= 0) {
+            return 0;
+        }
+        long ahora = System.currentTimeMillis();
+        LocalDate primerDiaEnBd = archivo().diaDe(ahora).minusDays(DIAS_EN_BD - 1);
+        if (ventanaReciente != null) {
+            LocalDate inicioVentana = archivo().diaDe(ahora - VENTANA_RECIENTE_MS);
+            if (inicioVentana.isBefore(primerDiaEnBd)) {
+                primerDiaEnBd = inicioVentana;
+            }
+        }
+        long limite = primerDiaEnBd.atStartOfDay(ZONA).toInstant().toEpochMilli();
+
+        long archivadas = 0;
+        long bytes = 0;
+        long inicio = System.nanoTime();
+        try {
+            for (Particion particion : particiones()) {
+                String sensor = siguienteSensor(particion, "");
+                while (sensor != null) {
+                    Long primerTs;
+                    while ((primerTs = primerTsAntesDe(particion, sensor, limite)) != null) {
+                        LocalDate dia = archivo().diaDe(primerTs);
+                        long desdeDia = dia.atStartOfDay(ZONA).toInstant().toEpochMilli();
+                        long hastaDia = Math.min(limite, dia.plusDays(1).atStartOfDay(ZONA).toInstant().toEpochMilli());
+
+                        // Las filas de SQLite junto con las ya archivadas del día, sin juntarlas en
+                        // memoria. Las que lleguen mientras tanto tienen ids mayores: quedan para
+                        // la próxima pasada (y así las dos pasadas de la escritura ven lo mismo)
+                        String sensorDia = sensor;
+                        long ultimoId = ultimoIdEntre(particion, sensor, desdeDia, hastaDia);
+                        bytes += archivo().escribir(sensor, dia, visitante -> recorrerConArchivo(sensorDia, desdeDia,
+                                hastaDia, (id, ts, x, y, z) -> {
+                                    if (id <= ultimoId) {
+                                        visitante.visitar(id, ts, x, y, z);
+                                    }
+                                }));
+
+                        archivadas += borrarFilas(particion, sensor, desdeDia, hastaDia, ultimoId);
+                    }
+                    sensor = siguienteSensor(particion, sensor);
+                }
+            }
+        } catch (SQLException | IOException e) {
+            LOG.error("Error al archivar días cerrados: {}", e.getMessage());
+            return -1;
+        }
+        if (archivadas > 0) {
+            LOG.info("Archivo columnar: {} filas anteriores a {} archivadas ({} MiB) en {} ms.", archivadas, primerDiaEnBd,
+                    String.format("%.1f", bytes / (1024.0 * 1024.0)), (System.nanoTime() - inicio) / 1_000_000);
+        }
+        return archivadas;
+    }
+
+    /**
+     * Recorre los sensores de la partición por el índice (sensor_id, ts) sin leer la tabla completa.
+     * @return El primer sensor_id mayor que el dado, o null si no hay más.
+     */
+    static String siguienteSensor(Particion particion, String anterior) throws SQLException {
+        return particion.getPool().conLector(conexion -> {
+            PreparedStatement pstmt = conexion.preparar("SELECT MIN(sensor_id) FROM datos_sensor WHERE sensor_id > ?");
+            pstmt.setString(1, anterior);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                return rs.next() ? rs.getString(1) : null;
+            }
+        });
+    }
+
+    static Long primerTsAntesDe(Particion particion, String sensorId, long limite) throws SQLException {
+        return particion.getPool().conLector(conexion -> {
+            PreparedStatement pstmt = conexion.preparar(
+                    "SELECT MIN(ts) FROM datos_sensor WHERE sensor_id = ? AND ts < ?");
+            pstmt.setString(1, sensorId);
+            pstmt.setLong(2, limite);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                if (!rs.next()) {
+                    return null;
+                }
+                long ts = rs.getLong(1);
+                return rs.wasNull() ? null : ts;
+            }
+        });
+    }
+
+    /**
+     * @return El mayor id de las filas del sensor en [desdeMs, hastaMs), o Long.MIN_VALUE si no hay.
+     */
+    static long ultimoIdEntre(Particion particion, String sensorId, long desdeMs, long hastaMs) throws SQLException {
+        return particion.getPool().conLector(conexion -> {
+            PreparedStatement pstmt = conexion.preparar(
+                    "SELECT MAX(id) FROM datos_sensor WHERE sensor_id = ? AND ts >= ? AND ts < ?");
+            pstmt.setString(1, sensorId);
+            pstmt.setLong(2, desdeMs);
+            pstmt.setLong(3, hastaMs);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                if (!rs.next()) {
+                    return Long.MIN_VALUE;
+                }
+                long id = rs.getLong(1);
+                return rs.wasNull() ? Long.MIN_VALUE : id;
+            }
+        });
+    }
+
+    /**
+     * Borra las filas del sensor en [desdeMs, hastaMs) con id &lt;= ultimoId (las que lleguen
+     * mientras tanto tienen ids mayores y esperan a la próxima pasada), en transacciones cortas
+     * para no frenar la ingesta.
+     * @return Filas borradas.
+     */
+    static long borrarFilas(Particion particion, String sensorId, long desdeMs, long hastaMs, long ultimoId)
+            throws SQLException {
+        long total = 0;
+        int borradas;
+        do {
+            borradas = particion.getPool().enTransaccion(conexion -> {
+                PreparedStatement pstmt = conexion.preparar("DELETE FROM datos_sensor WHERE id IN ("
+                        + "SELECT id FROM datos_sensor WHERE sensor_id = ? AND ts >= ? AND ts < ? AND id <= ? LIMIT ?)");
+                pstmt.setString(1, sensorId);
+                pstmt.setLong(2, desdeMs);
+                pstmt.setLong(3, hastaMs);
+                pstmt.setLong(4, ultimoId);
+                pstmt.setInt(5, FILAS_POR_BORRADO);
+                return pstmt.executeUpdate();
+            });
+            total += borradas;
+        } while (borradas == FILAS_POR_BORRADO);
+        return total;
+    }
+
+    /**
+     * Ejecuta la consulta histórica sobre [desdeMs, hastaMs) y entrega cada fila formateada.
+     * El StringBuilder se reutiliza entre filas: el consumidor debe copiar su contenido si lo conserva.
+     * @return Número de filas recorridas.
+     */
+    private static int recorrerFilas(long desdeMs, long hastaMs, Consumer<StringBuilder> alFila) throws SQLException {
+        // Primero la ventana en memoria (p. ej. el día de hoy), sin tocar el disco
+        VentanaReciente ventana = ventanaReciente;
+        if (ventana != null) {
+            StringBuilder fila = new StringBuilder(64);
+            FormateadorFechaHora formato = new FormateadorFechaHora();
+            int filas = ventana.recorrer(null, desdeMs, hastaMs, (id, ts, x, y, z) -> {
+                fila.setLength(0);
+                fila.append(id).append(',').append(x).append(',').append(y).append(',').append(z).append(',');
+                formato.agregar(ts, fila);
+                alFila.accept(fila);
+            });
+            if (filas == VentanaReciente.DESALOJADA) {
+                throw new SQLException("La ventana reciente se desalojó durante la consulta.");
+            }
+            if (filas >= 0) {
+                return filas;
+            }
+        }
+
+        if (archivo().tieneDatosEn(null, desdeMs, hastaMs)) {
+            StringBuilder fila = new StringBuilder(64);
+            FormateadorFechaHora formato = new FormateadorFechaHora();
+            return recorrerConArchivo(null, desdeMs, hastaMs, (id, ts, x, y, z) -> {
+                fila.setLength(0);
+                fila.append(id).append(',').append(x).append(',').append(y).append(',').append(z).append(',');
+                formato.agregar(ts, fila);
+                alFila.accept(fila);
+            });
+        }
+
+        // Ordenar cronológicamente por el timestamp entero (id va incluido en el índice como rowid)
+        String consulta = "SELECT id, ts, x, y, z FROM datos_sensor WHERE ts >= ? AND ts < ? ORDER BY ts";
+
+        return pool().conLector(conexion -> {
+            PreparedStatement pstmt = conexion.preparar(consulta);
+            pstmt.setLong(1, desdeMs);
+            pstmt.setLong(2, hastaMs);
+
+            int filas = 0;
+            StringBuilder fila = new StringBuilder(64);
+            FormateadorFechaHora formato = new FormateadorFechaHora();
+            // Ejecutar la consulta
+            try (ResultSet rs = pstmt.executeQuery()) {
+                // Procesar el resultado
+                while (rs.next()) {
+                    // Formato de salida requerido por el Cliente: ID,X,Y,Z,Fecha,Hora
+                    fila.setLength(0);
+                    fila.append(rs.getLong(1)).append(',')
+                            .append(rs.getInt(3)).append(',')
+                            .append(rs.getInt(4)).append(',')
+                            .append(rs.getInt(5)).append(',');
+                    formato.agregar(rs.getLong(2), fila);
+                    alFila.accept(fila);
+                    filas++;
+                }
+            }
+            return filas;
+        });
+    }
+
+    /**
+     * Escribe "yyyy-MM-dd,HH:mm:ss" igual que FORMATO_FECHA_HORA, pero reutiliza "yyyy-MM-dd,HH:"
+     * mientras las filas caigan en la misma hora local: las filas de una consulta van en orden,
+     * así que el DateTimeFormatter corre una vez por hora en vez de una vez por fila.
+     * No es seguro entre hilos: uno por recorrido.
+     */
+    private static final class FormateadorFechaHora {
+        private final StringBuilder prefijo = new StringBuilder(16);
+        private long inicioHora = Long.MAX_VALUE;
+        private long finHora = Long.MIN_VALUE;
+
+        void agregar(long timestampMs, StringBuilder destino) {
+            if (timestampMs < inicioHora || timestampMs >= finHora) {
+                LocalDateTime fechaHora = LocalDateTime.ofInstant(Instant.ofEpochMilli(timestampMs), ZONA);
+                LocalDateTime hora = fechaHora.truncatedTo(ChronoUnit.HOURS);
+                inicioHora = hora.atZone(ZONA).toInstant().toEpochMilli();
+                finHora = hora.plusHours(1).atZone(ZONA).toInstant().toEpochMilli();
+                // Cambios de horario que no caen en hora exacta: se formatea fila por fila
+                if (timestampMs < inicioHora || timestampMs >= finHora || finHora - inicioHora != 3_600_000) {
+                    inicioHora = Long.MAX_VALUE;
+                    finHora = Long.MIN_VALUE;
+                    FORMATO_FECHA_HORA.formatTo(fechaHora, destino);
+                    return;
+                }
+                prefijo.setLength(0);
+                FORMATO_FECHA_HORA.formatTo(hora, prefijo);
+                prefijo.setLength(prefijo.length() - 5); // Quitar "mm:ss"
+            }
+            int segundos = (int) ((timestampMs - inicioHora) / 1000);
+            int minuto = segundos / 60;
+            int segundo = segundos % 60;
+            destino.append(prefijo)
+                    .append((char) ('0' + minuto / 10)).append((char) ('0' + minuto % 10)).append(':')
+                    .append((char) ('0' + segundo / 10)).append((char) ('0' + segundo % 10));
         }
-        return registros;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,75 @@
+package monitoreo.db;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Conexión de larga duración que reutiliza sus PreparedStatement por texto SQL.
+ * Solo la usa un hilo a la vez (el pool garantiza el acceso exclusivo), por eso el caché es un HashMap.
+ */
+public class ConexionCacheada {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ConexionCacheada.class);
+
+    private final Connection conexion;
+    private final Map<String, PreparedStatement> sentencias = new HashMap<>();
+    private final LongAdder aciertos;
+    private final LongAdder fallos;
+
+    ConexionCacheada(Connection conexion, LongAdder aciertos, LongAdder fallos) {
+        this.conexion = conexion;
+        this.aciertos = aciertos;
+        this.fallos = fallos;
+    }
+
+    /**
+     * Devuelve la sentencia preparada para el SQL indicado, creándola solo la primera vez.
+     * NOTA: La sentencia pertenece al caché; el llamador NO debe cerrarla (sí sus ResultSet).
+     */
+    public PreparedStatement preparar(String sql) throws SQLException {
+        PreparedStatement pstmt = sentencias.get(sql);
+        if (pstmt != null && !pstmt.isClosed()) {
+            aciertos.increment();
+            pstmt.clearParameters();
+            return pstmt;
+        }
+        fallos.increment();
+        pstmt = conexion.prepareStatement(sql);
+        sentencias.put(sql, pstmt);
+        return pstmt;
+    }
+
+    public Connection getConexion() {
+        return conexion;
+    }
+
+    boolean estaCerrada() {
+        try {
+            return conexion.isClosed();
+        } catch (SQLException e) {
+            return true;
+        }
+    }
+
+    void cerrar() {
+        for (PreparedStatement pstmt : sentencias.values()) {
+            try {
+                pstmt.close();
+            } catch (SQLException e) {
+                // Se cierra la conexión de todos modos
+            }
+        }
+        sentencias.clear();
+        try {
+            conexion.close();
+        } catch (SQLException e) {
+            LOG.warn("Error al cerrar la conexión: {}", e.getMessage());
+        }
+    }
+}
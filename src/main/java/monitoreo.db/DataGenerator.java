@@ -1,26 +1,80 @@
 package monitoreo.db;
 
+import java.io.Serial;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
 import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Random;
 import java.util.Scanner;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * Genera datos históricos del acelerómetro en 'datos_sensor'.
+ *
+ * Sin argumentos pregunta un día y le inserta 100 registros. Con argumentos genera en masa,
+ * sin preguntar, para armar bases de prueba grandes:
+ * java -cp ... monitoreo.db.DataGenerator --desde=01-01-2024 --hasta=31-12-2024
+ *      --filas-por-dia=86400 --sensores=10
+ *
+ * En el modo masivo las muestras se generan en paralelo en un ForkJoinPool (una tarea por
+ * sensor y día) y pasan por una cola acotada a un único escritor, que las guarda con INSERT de
+ * varias filas en transacciones grandes (ver ConexionBD.importarLote). SQLite tiene un solo
+ * escritor de todos modos; generar en paralelo es para que nunca tenga que esperar muestras.
+ */
 public class DataGenerator {
 
     private static final Random random = new Random();
 
+    private static final DateTimeFormatter FORMATO_ARGUMENTO = DateTimeFormatter.ofPattern("dd-MM-yyyy");
+
+    // Muestras por bloque que una tarea entrega al escritor
+    private static final int MUESTRAS_POR_BLOQUE = 10_000;
+    private static final long INTERVALO_PROGRESO_NS = TimeUnit.SECONDS.toNanos(5);
+
+    // Marca de fin en la cola del escritor
+    private static final List<Muestra> FIN = List.of();
+
+    // --- Parámetros del modo masivo (--clave=valor) ---
+    private LocalDate desde;
+    private LocalDate hasta;
+    private int filasPorDia = 86_400;           // Por sensor
+    private int sensores = 1;
+    private int hilos = Runtime.getRuntime().availableProcessors();
+    private int filasPorTransaccion = 100_000;
+
     public static void main(String[] args) {
 
         System.out.println("--- Generador de Datos Históricos ---");
 
+        if (args.length > 0) {
+            DataGenerator masivo = desdeArgumentos(args);
+            if (masivo != null) {
+                ConexionBD.crearTabla();
+                masivo.generar();
+                ConexionBD.cerrar();
+            }
+            return;
+        }
+
         try (Scanner scanner = new Scanner(System.in)) {
 
             // --- 1. Solicitar la Fecha ---
             LocalDate fechaAInsertar = solicitarFecha(scanner);
 
             if (fechaAInsertar != null) {
+                // La base de datos puede venir de una versión anterior: migrarla antes de escribir
+                ConexionBD.crearTabla();
+
                 // --- 2. Generar y Persistir los Datos ---
                 generarDatosParaDia(fechaAInsertar);
             } else {
@@ -55,19 +109,18 @@ public class DataGenerator {
     }
 
     /**
-     * Genera 100 registros para la fecha especificada.
+     * Genera 100 registros para la fecha especificada, guardados en una sola transacción.
      */
     private static void generarDatosParaDia(LocalDate fecha) {
 
-        // Formatos de salida para la DB (YYYY-MM-DD y HH:MM:SS)
+        // Formato de salida de la fecha (YYYY-MM-DD)
         DateTimeFormatter fechaFormatter = DateTimeFormatter.ofPattern("yyyy-MM-dd");
-        DateTimeFormatter horaFormatter = DateTimeFormatter.ofPattern("HH:mm:ss");
 
         String fechaStr = fecha.format(fechaFormatter);
 
         System.out.println("Generando 100 registros para el día: " + fechaStr + "...");
 
-        int insercionesExitosas = 0;
+        List<Muestra> muestras = new ArrayList<>(100);
 
         for (int i = 0; i < 100; i++) {
 
@@ -82,15 +135,191 @@ public class DataGenerator {
                     .plusMinutes(random.nextInt(60))
                     .plusSeconds(random.nextInt(60));
 
-            String fechaGuardar = timestamp.format(fechaFormatter);
-            String horaGuardar = timestamp.format(horaFormatter);
+            long timestampMs = timestamp.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+            muestras.add(new Muestra(ConexionBD.SENSOR_POR_DEFECTO, timestampMs, x, y, z));
+        }
+
+        int insercionesExitosas = ConexionBD.importarLote(muestras) ? muestras.size() : 0;
+        System.out.println("✅ " + insercionesExitosas + " registros insertados para el da " + fechaStr);
+    }
 
-            boolean exito = ConexionBD.guardarDatos(x, y, z, fechaGuardar, horaGuardar);
+    // --- MODO MASIVO ---
 
-            if (exito) {
-                insercionesExitosas++;
+    /**
+     * Lee --desde --hasta (dd-mm-aaaa, ambos incluidos) --filas-por-dia --sensores --hilos
+     * --transaccion. Los argumentos desconocidos se ignoran.
+     * @return La configuración, o null si falta el rango o algún valor es inválido.
+     */
+    private static DataGenerator desdeArgumentos(String[] args) {
+        DataGenerator g = new DataGenerator();
+        try {
+            for (String arg : args) {
+                if (!arg.startsWith("--") || !arg.contains("=")) {
+                    continue;
+                }
+                String clave = arg.substring(2, arg.indexOf('='));
+                String valor = arg.substring(arg.indexOf('=') + 1);
+                switch (clave) {
+                    case "desde" -> g.desde = LocalDate.parse(valor, FORMATO_ARGUMENTO);
+                    case "hasta" -> g.hasta = LocalDate.parse(valor, FORMATO_ARGUMENTO);
+                    case "filas-por-dia" -> g.filasPorDia = Integer.parseInt(valor);
+                    case "sensores" -> g.sensores = Integer.parseInt(valor);
+                    case "hilos" -> g.hilos = Integer.parseInt(valor);
+                    case "transaccion" -> g.filasPorTransaccion = Integer.parseInt(valor);
+                    default -> {
+                    }
+                }
+            }
+        } catch (NumberFormatException | DateTimeParseException e) {
+            System.err.println("Error: argumento inválido: " + e.getMessage());
+            return null;
+        }
+        if (g.desde == null || g.hasta == null || g.hasta.isBefore(g.desde)) {
+            System.err.println("Error: se necesitan --desde y --hasta (DD-MM-AAAA, desde <= hasta).");
+            return null;
+        }
+        if (g.filasPorDia <= 0 || g.sensores <= 0 || g.hilos <= 0 || g.filasPorTransaccion <= 0) {
+            System.err.println("Error: --filas-por-dia, --sensores, --hilos y --transaccion deben ser mayores que 0.");
+            return null;
+        }
+        return g;
+    }
+
+    /**
+     * El primer sensor es el que consultan los clientes por omisión; el resto, "sim-N".
+     */
+    private static String sensor(int indice) {
+        return indice == 0 ? ConexionBD.SENSOR_POR_DEFECTO : "sim-" + indice;
+    }
+
+    /**
+     * Genera todo el rango y lo guarda; el hilo que llama hace de escritor.
+     */
+    private void generar() {
+        int dias = (int) ChronoUnit.DAYS.between(desde, hasta) + 1;
+        long total = (long) dias * sensores * filasPorDia;
+        System.out.printf("Generando %d filas: %d días x %d sensores x %d filas por día, %d hilos, "
+                + "%d filas por transacción%n", total, dias, sensores, filasPorDia, hilos, filasPorTransaccion);
+
+        // Acotada: si el escritor se atrasa, las tareas esperan en lugar de llenar la memoria
+        BlockingQueue<List<Muestra>> cola = new ArrayBlockingQueue<>(Math.max(4, 2 * hilos));
+        ForkJoinPool pool = new ForkJoinPool(hilos);
+        long inicio = System.nanoTime();
+        pool.execute(() -> {
+            try {
+                new TareaGeneracion(cola, 0, dias * sensores).invoke();
+            } finally {
+                ponerEnCola(cola, FIN);
+            }
+        });
+
+        long guardadas = 0, fallidas = 0, transacciones = 0;
+        long proximoProgreso = inicio + INTERVALO_PROGRESO_NS;
+        List<Muestra> transaccion = new ArrayList<>(filasPorTransaccion + MUESTRAS_POR_BLOQUE);
+        try {
+            for (List<Muestra> bloque = cola.take(); bloque != FIN; bloque = cola.take()) {
+                transaccion.addAll(bloque);
+                if (transaccion.size() < filasPorTransaccion) {
+                    continue;
+                }
+                if (ConexionBD.importarLote(transaccion)) {
+                    guardadas += transaccion.size();
+                } else {
+                    fallidas += transaccion.size();
+                }
+                transacciones++;
+                transaccion.clear();
+
+                long ahora = System.nanoTime();
+                if (ahora >= proximoProgreso) {
+                    System.out.printf("  %d / %d filas (%.0f%%), %.0f filas/s%n", guardadas + fallidas, total,
+                            100.0 * (guardadas + fallidas) / total, guardadas / ((ahora - inicio) / 1e9));
+                    proximoProgreso = ahora + INTERVALO_PROGRESO_NS;
+                }
+            }
+            if (!transaccion.isEmpty()) {
+                if (ConexionBD.importarLote(transaccion)) {
+                    guardadas += transaccion.size();
+                } else {
+                    fallidas += transaccion.size();
+                }
+                transacciones++;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            System.err.println("Generación interrumpida.");
+        } finally {
+            pool.shutdownNow();
+        }
+
+        double segundos = (System.nanoTime() - inicio) / 1e9;
+        System.out.printf("✅ %d filas guardadas en %.1f s (%.0f filas/s, %d transacciones)%n",
+                guardadas, segundos, guardadas / segundos, transacciones);
+        if (fallidas > 0) {
+            System.err.println("❌ " + fallidas + " filas no se guardaron (transacciones revertidas).");
+        }
+    }
+
+    private static void ponerEnCola(BlockingQueue<List<Muestra>> cola, List<Muestra> bloque) {
+        try {
+            cola.put(bloque);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Genera las unidades [desde, hasta), cada una un día de un sensor (unidad = día * sensores
+     * + sensor), partiendo el rango a la mitad hasta llegar a una sola unidad.
+     */
+    private final class TareaGeneracion extends RecursiveAction {
+
+        @Serial
+        private static final long serialVersionUID = 1L;
+
+        // Las tareas no se serializan: RecursiveAction es Serializable solo por herencia
+        private final transient BlockingQueue<List<Muestra>> cola;
+        private final int desdeUnidad;
+        private final int hastaUnidad;
+
+        TareaGeneracion(BlockingQueue<List<Muestra>> cola, int desdeUnidad, int hastaUnidad) {
+            this.cola = cola;
+            this.desdeUnidad = desdeUnidad;
+            this.hastaUnidad = hastaUnidad;
+        }
+
+        @Override
+        protected void compute() {
+            if (hastaUnidad - desdeUnidad > 1) {
+                int mitad = (desdeUnidad + hastaUnidad) >>> 1;
+                invokeAll(new TareaGeneracion(cola, desdeUnidad, mitad),
+                        new TareaGeneracion(cola, mitad, hastaUnidad));
+                return;
+            }
+            int dia = desdeUnidad / sensores;
+            String sensorId = sensor(desdeUnidad % sensores);
+            long inicioDia = desde.plusDays(dia).atStartOfDay(ZoneId.systemDefault()).toInstant().toEpochMilli();
+            long finDia = desde.plusDays(dia + 1).atStartOfDay(ZoneId.systemDefault()).toInstant().toEpochMilli();
+            ThreadLocalRandom aleatorio = ThreadLocalRandom.current();
+
+            // Una muestra por intervalo, en orden de ts, con un desfase al azar dentro del intervalo
+            // (el día puede no durar 24 h si cambia el horario de verano)
+            double paso = (double) (finDia - inicioDia) / filasPorDia;
+            List<Muestra> bloque = new ArrayList<>(Math.min(filasPorDia, MUESTRAS_POR_BLOQUE));
+            for (int i = 0; i < filasPorDia; i++) {
+                long ts = inicioDia + (long) (i * paso + aleatorio.nextDouble() * paso);
+                bloque.add(new Muestra(sensorId, ts,
+                        aleatorio.nextInt(2048) - 1024,
+                        aleatorio.nextInt(2048) - 1024,
+                        aleatorio.nextInt(2048) - 1024));
+                if (bloque.size() == MUESTRAS_POR_BLOQUE) {
+                    ponerEnCola(cola, bloque);
+                    bloque = new ArrayList<>(MUESTRAS_POR_BLOQUE);
+                }
+            }
+            if (!bloque.isEmpty()) {
+                ponerEnCola(cola, bloque);
             }
         }
-        System.out.println("✅ " + insercionesExitosas + " registros insertados para el da " + fechaStr);
     }
 }
\ No newline at end of file
@@ -0,0 +1,210 @@
+package monitoreo.db;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import monitoreo.util.Histograma;
+import monitoreo.util.Metricas;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Escritura diferida con commit agrupado: las muestras de todas las conexiones de los sensores
+ * de una partición entran a una cola acotada y un único hilo escritor las guarda por lotes en el
+ * archivo de esa partición, una transacción por lote.
+ * Cada muestra recibe un CompletableFuture que se completa cuando su lote hace commit.
+ */
+public class EscritorPorLotes implements AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(EscritorPorLotes.class);
+
+    private static final Histograma TAMANO_LOTE =
+            Metricas.histograma("monitoreo_bd_lote_muestras", "Muestras por transacción del escritor por lotes.");
+
+    private final Particion particion;
+    private final BlockingQueue<Pendiente> cola;
+    private final int maxLote;
+    private final long maxEsperaNanos;
+    private final long esperaEncolarMs;
+    private final Thread hiloEscritor;
+    private volatile boolean activo = true;
+
+    // --- Métricas ---
+    private final LongAdder lotesEscritos = new LongAdder();
+    private final LongAdder muestrasEscritas = new LongAdder();
+    private final LongAdder rechazosPorCola = new LongAdder();
+
+    private record Pendiente(Muestra muestra, CompletableFuture<Boolean> resultado) {
+    }
+
+    /**
+     * @param particion Partición cuyo archivo recibe los lotes.
+     * @param nombreHilo Nombre del hilo escritor.
+     * @param capacidadCola Muestras que pueden esperar antes de aplicar backpressure.
+     * @param maxLote Máximo de muestras por transacción (disparo por tamaño).
+     * @param maxEsperaMs Tiempo máximo que se espera para completar un lote (disparo por tiempo).
+     * @param esperaEncolarMs Tiempo que un productor se bloquea con la cola llena antes de fallar.
+     */
+    public EscritorPorLotes(Particion particion, String nombreHilo, int capacidadCola, int maxLote, long maxEsperaMs,
+                            long esperaEncolarMs) {
+        this.particion = particion;
+        this.cola = new ArrayBlockingQueue<>(capacidadCola);
+        this.maxLote = maxLote;
+        this.maxEsperaNanos = TimeUnit.MILLISECONDS.toNanos(maxEsperaMs);
+        this.esperaEncolarMs = esperaEncolarMs;
+        this.hiloEscritor = new Thread(this::bucleEscritor, nombreHilo);
+        this.hiloEscritor.setDaemon(true);
+        this.hiloEscritor.start();
+    }
+
+    /**
+     * Agrega la muestra a la cola. Si está llena, bloquea al productor (y por lo tanto al
+     * socket del cliente) hasta esperaEncolarMs; pasado ese tiempo la muestra se rechaza.
+     * @return Future que se completa con true cuando la muestra quedó guardada (commit).
+     */
+    public CompletableFuture<Boolean> encolar(Muestra muestra) {
+        CompletableFuture<Boolean> resultado = new CompletableFuture<>();
+        try {
+            if (!activo || !cola.offer(new Pendiente(muestra, resultado), esperaEncolarMs, TimeUnit.MILLISECONDS)) {
+                rechazosPorCola.increment();
+                LOG.warn("Cola de escritura llena ({}): muestra rechazada.", cola.size());
+                resultado.complete(false);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            resultado.complete(false);
+        }
+        return resultado;
+    }
+
+    private void bucleEscritor() {
+        List<Pendiente> lote = new ArrayList<>(maxLote);
+
+        while (activo || !cola.isEmpty()) {
+            try {
+                Pendiente primero = cola.poll(100, TimeUnit.MILLISECONDS);
+                if (primero == null) {
+                    continue;
+                }
+                lote.add(primero);
+                completarLote(lote);
+                escribir(lote);
+            } catch (InterruptedException e) {
+                // Si el hilo es interrumpido se termina de vaciar lo que quede en la cola
+                activo = false;
+            } finally {
+                lote.clear();
+            }
+        }
+    }
+
+    /**
+     * Junta más muestras hasta llenar el lote o agotar el tiempo de espera. Con carga alta el
+     * lote se llena de inmediato; con carga baja se escribe en cuanto vence el plazo.
+     */
+    private void completarLote(List<Pendiente> lote) throws InterruptedException {
+        long limite = System.nanoTime() + maxEsperaNanos;
+
+        while (lote.size() < maxLote) {
+            cola.drainTo(lote, maxLote - lote.size());
+            if (lote.size() >= maxLote) {
+                return;
+            }
+            long restante = limite - System.nanoTime();
+            if (restante <= 0) {
+                return;
+            }
+            Pendiente siguiente = cola.poll(restante, TimeUnit.NANOSECONDS);
+            if (siguiente == null) {
+                return;
+            }
+            lote.add(siguiente);
+        }
+    }
+
+    private void escribir(List<Pendiente> lote) {
+        TAMANO_LOTE.registrar(lote.size());
+        escribirOPartir(lote);
+    }
+
+    /**
+     * Guarda el lote en una transacción. Si se revierte, lo parte en dos mitades y reintenta cada
+     * una, de modo que una muestra que la base rechaza (por ejemplo, por una restricción) no hace
+     * fallar a las demás del commit agrupado: solo esa termina con false. Con una falla que afecta
+     * a todo el lote se hacen como máximo 2n-1 intentos.
+     */
+    private void escribirOPartir(List<Pendiente> lote) {
+        List<Muestra> muestras = new ArrayList<>(lote.size());
+        for (Pendiente p : lote) {
+            muestras.add(p.muestra());
+        }
+
+        boolean exito = ConexionBD.insertarLote(particion, muestras);
+        if (exito) {
+            lotesEscritos.increment();
+            muestrasEscritas.add(lote.size());
+        } else if (lote.size() > 1) {
+            int mitad = lote.size() / 2;
+            escribirOPartir(lote.subList(0, mitad));
+            escribirOPartir(lote.subList(mitad, lote.size()));
+            return;
+        }
+
+        // El ACK de cada cliente sale solo después del commit de su lote
+        for (Pendiente p : lote) {
+            p.resultado().complete(exito);
+        }
+    }
+
+    /**
+     * Detiene el hilo escritor después de guardar lo que aún esté en la cola.
+     */
+    @Override
+    public void close() {
+        activo = false;
+        try {
+            hiloEscritor.join(10_000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // Si quedó algo sin escribir, avisar a los productores
+        Pendiente p;
+        while ((p = cola.poll()) != null) {
+            p.resultado().complete(false);
+        }
+    }
+
+    // --- MÉTRICAS ---
+
+    public int getProfundidadCola() {
+        return cola.size();
+    }
+
+    public long getLotesEscritos() {
+        return lotesEscritos.sum();
+    }
+
+    public long getMuestrasEscritas() {
+        return muestrasEscritas.sum();
+    }
+
+    public long getRechazosPorCola() {
+        return rechazosPorCola.sum();
+    }
+
+    public double getTamanoPromedioLote() {
+        long lotes = lotesEscritos.sum();
+        return lotes == 0 ? 0 : (double) muestrasEscritas.sum() / lotes;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("cola=%d, lotes=%d, muestras=%d, promedioLote=%.1f, rechazos=%d",
+                getProfundidadCola(), getLotesEscritos(), getMuestrasEscritas(),
+                getTamanoPromedioLote(), getRechazosPorCola());
+    }
+}
@@ -0,0 +1,315 @@
+package monitoreo.db;
+
+import monitoreo.util.Metricas;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Exporta las muestras crudas de un sensor en un rango de tiempo a un archivo local, sin
+ * armar la respuesta en memoria: las filas se recorren en orden desde la ventana reciente,
+ * SQLite y el archivo columnar (igual que CONSULTAR_RANGO) y se escriben por un buffer fijo.
+ *
+ * Formatos:
+ * <ul>
+ *   <li>CSV: cabecera "ts,x,y,z" y una fila por muestra (ts = epoch en milisegundos).</li>
+ *   <li>COLUMNAR (.mcol): una sucesión de segmentos con el formato de ArchivoColumnar, cada
+ *       uno con su cabecera; un lector los recorre uno tras otro hasta el final del archivo.
+ *       Un día archivado que cae completo dentro del rango ya está en ese formato: se copia
+ *       tal cual con FileChannel.transferTo, sin decodificarlo.</li>
+ * </ul>
+ * El archivo se escribe con otro nombre y se renombra al terminar: quien lo vea lo ve completo.
+ */
+public final class Exportador {
+
+    private static final Logger LOG = LoggerFactory.getLogger(Exportador.class);
+
+    public enum Formato {
+        CSV(".csv"), COLUMNAR(".mcol");
+
+        private final String extension;
+
+        Formato(String extension) {
+            this.extension = extension;
+        }
+
+        public String getExtension() {
+            return extension;
+        }
+    }
+
+    /**
+     * Recibe el avance mientras se exporta (a lo sumo una vez por INTERVALO_PROGRESO_NS).
+     */
+    @FunctionalInterface
+    public interface Progreso {
+        void avance(long filas, long bytes);
+    }
+
+    /**
+     * @param archivo Ruta del archivo escrito.
+     * @param filas Muestras exportadas.
+     * @param bytes Tamaño del archivo.
+     * @param bytesCopiados Parte de bytes que se copió del archivo columnar sin decodificar.
+     */
+    public record Resultado(Path archivo, long filas, long bytes, long bytesCopiados) {
+    }
+
+    // Buffer de salida (fuera del heap: el canal escribe de él sin copiarlo)
+    private static final int TAMANO_BUFFER = 1 << 20;
+    // Espacio que se reserva para una fila CSV: ts y tres ejes con signo, comas y salto de línea
+    private static final int MAX_BYTES_FILA = 64;
+    // Filas por segmento columnar: acota la memoria a unos 28 bytes por fila del segmento
+    private static final int FILAS_POR_SEGMENTO = 1 << 20;
+    private static final long INTERVALO_PROGRESO_NS = 1_000_000_000L;
+    private static final byte[] CABECERA_CSV = "ts,x,y,z\n".getBytes(StandardCharsets.US_ASCII);
+
+    private static final LongAdder BYTES_COPIADOS = Metricas.contador("monitoreo_exportados_bytes_total",
+            "Bytes escritos por EXPORTAR, según si se copiaron del archivo o se codificaron.", "via", "copiado");
+    private static final LongAdder BYTES_CODIFICADOS = Metricas.contador("monitoreo_exportados_bytes_total",
+            "Bytes escritos por EXPORTAR, según si se copiaron del archivo o se codificaron.", "via", "codificado");
+
+    private final String sensorId;
+    private final Formato formato;
+    private final FileChannel salida;
+    private final Progreso progreso;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(TAMANO_BUFFER);
+    private final byte[] digitos = new byte[20];
+    private final ArchivoColumnar.Columnas segmento;
+
+    private long filas;
+    private long bytes;
+    private long bytesCopiados;
+    private long proximoProgreso = System.nanoTime() + INTERVALO_PROGRESO_NS;
+
+    private Exportador(String sensorId, Formato formato, FileChannel salida, Progreso progreso) {
+        this.sensorId = sensorId;
+        this.formato = formato;
+        this.salida = salida;
+        this.progreso = progreso;
+        this.segmento = formato == Formato.COLUMNAR ? new ArchivoColumnar.Columnas() : null;
+    }
+
+    /**
+     * Exporta las muestras del sensor en [desdeMs, hastaMs) a directorio/nombre + extensión del formato.
+     * Si el archivo ya existe se reemplaza.
+     * @param progreso Recibe el avance; puede ser null.
+     * @return El resultado, o null si la exportación falló (no queda archivo a medias).
+     */
+    public static Resultado exportar(String sensorId, long desdeMs, long hastaMs, Formato formato,
+                                     Path directorio, String nombre, Progreso progreso) {
+        Path destino = directorio.resolve(nombre + formato.getExtension());
+        Path temporal = directorio.resolve(nombre + formato.getExtension() + ".tmp");
+        long inicio = System.nanoTime();
+        try {
+            Files.createDirectories(directorio);
+            Exportador exportador;
+            try (FileChannel canal = FileChannel.open(temporal, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                exportador = new Exportador(sensorId, formato, canal, progreso);
+                exportador.escribirTodo(desdeMs, hastaMs);
+            }
+            Files.move(temporal, destino, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            LOG.info("Exportadas {} filas del sensor {} a {} ({} bytes, {} copiados del archivo) en {} ms.",
+                    exportador.filas, sensorId, destino, exportador.bytes, exportador.bytesCopiados,
+                    (System.nanoTime() - inicio) / 1_000_000);
+            return new Resultado(destino, exportador.filas, exportador.bytes, exportador.bytesCopiados);
+
+        } catch (IOException | SQLException e) {
+            LOG.error("Error al exportar el sensor {} a {}: {}", sensorId, destino, e.getMessage());
+            try {
+                Files.deleteIfExists(temporal);
+            } catch (IOException ignorada) {
+                // El temporal queda; se reemplaza en la próxima exportación con el mismo nombre
+            }
+            return null;
+        }
+    }
+
+    private void escribirTodo(long desdeMs, long hastaMs) throws IOException, SQLException {
+        if (formato == Formato.CSV) {
+            buffer.put(CABECERA_CSV);
+            recodificar(desdeMs, hastaMs);
+        } else {
+            // Los días archivados completos dentro del rango se copian; los tramos entre ellos se recodifican
+            long pendienteDesde = desdeMs;
+            for (LocalDate dia : ConexionBD.archivo().diasEnRango(sensorId, desdeMs, hastaMs)) {
+                long inicioDia = dia.atStartOfDay(ConexionBD.ZONA).toInstant().toEpochMilli();
+                long finDia = dia.plusDays(1).atStartOfDay(ConexionBD.ZONA).toInstant().toEpochMilli();
+                if (inicioDia < pendienteDesde || finDia > hastaMs
+                        || ConexionBD.hayFilasEnBd(sensorId, inicioDia, finDia)) {
+                    continue;
+                }
+                recodificar(pendienteDesde, inicioDia);
+                pendienteDesde = inicioDia;
+                if (copiarDia(dia)) {
+                    pendienteDesde = finDia;
+                }
+            }
+            recodificar(pendienteDesde, hastaMs);
+        }
+        vaciarBuffer();
+        if (progreso != null) {
+            progreso.avance(filas, bytes);
+        }
+    }
+
+    /**
+     * Escribe las filas de [desdeMs, hastaMs) codificándolas en el formato de salida.
+     */
+    private void recodificar(long desdeMs, long hastaMs) throws IOException, SQLException {
+        if (desdeMs >= hastaMs) {
+            return;
+        }
+        try {
+            ConexionBD.recorrerRango(sensorId, desdeMs, hastaMs, (id, ts, x, y, z) -> {
+                try {
+                    if (formato == Formato.CSV) {
+                        filaCsv(ts, x, y, z);
+                    } else {
+                        segmento.agregar(id, ts, x, y, z);
+                        if (segmento.getFilas() == FILAS_POR_SEGMENTO) {
+                            escribirSegmento();
+                        }
+                    }
+                    filas++;
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        if (segmento != null) {
+            escribirSegmento();
+        }
+    }
+
+    private void filaCsv(long ts, int x, int y, int z) throws IOException {
+        if (buffer.remaining() < MAX_BYTES_FILA) {
+            vaciarBuffer();
+        }
+        numero(ts);
+        buffer.put((byte) ',');
+        numero(x);
+        buffer.put((byte) ',');
+        numero(y);
+        buffer.put((byte) ',');
+        numero(z);
+        buffer.put((byte) '\n');
+    }
+
+    /**
+     * Escribe el número en ASCII directo al buffer, sin pasar por String (valor > Long.MIN_VALUE).
+     */
+    private void numero(long valor) {
+        if (valor < 0) {
+            buffer.put((byte) '-');
+            valor = -valor;
+        }
+        int i = digitos.length;
+        do {
+            digitos[--i] = (byte) ('0' + valor % 10);
+            valor /= 10;
+        } while (valor != 0);
+        buffer.put(digitos, i, digitos.length - i);
+    }
+
+    private void escribirSegmento() throws IOException {
+        if (segmento.getFilas() == 0) {
+            return;
+        }
+        vaciarBuffer();
+        ByteBuffer codificado = ArchivoColumnar.codificar(segmento);
+        int tamano = codificado.remaining();
+        while (codificado.hasRemaining()) {
+            salida.write(codificado);
+        }
+        bytes += tamano;
+        BYTES_CODIFICADOS.add(tamano);
+        segmento.vaciar();
+        informar();
+    }
+
+    /**
+     * Copia el archivo columnar del día tal cual (el kernel lo pasa de archivo a archivo).
+     * @return false si el día ya no estaba archivado (la retención lo borró); hay que recodificarlo.
+     */
+    private boolean copiarDia(LocalDate dia) throws IOException {
+        Path archivo = ConexionBD.archivo().archivoDelDia(sensorId, dia);
+        if (archivo == null) {
+            return false;
+        }
+        vaciarBuffer();
+        int filasDia;
+        long copiados = 0;
+        try (FileChannel origen = FileChannel.open(archivo, StandardOpenOption.READ)) {
+            // Las filas salen de la cabecera del mismo archivo abierto (el archivador lo reemplaza
+            // renombrando, así que este canal ve siempre una versión completa)
+            ByteBuffer cabecera = ByteBuffer.allocate(16).order(ByteOrder.LITTLE_ENDIAN);
+            while (cabecera.hasRemaining() && origen.read(cabecera, cabecera.position()) >= 0) {
+                // leer hasta completar la cabecera
+            }
+            if (cabecera.position() < 16 || cabecera.getInt(0) != ArchivoColumnar.MAGIA) {
+                throw new IOException("Archivo columnar inválido: " + archivo);
+            }
+            filasDia = cabecera.getInt(12);
+            long tamano = origen.size();
+            while (copiados < tamano) {
+                long copiado = origen.transferTo(copiados, tamano - copiados, salida);
+                if (copiado <= 0) {
+                    // El archivo se achicó mientras se copiaba: sin esto el ciclo no terminaría
+                    throw new IOException("El archivo columnar " + archivo + " cambió durante la exportación ("
+                            + copiados + " de " + tamano + " bytes copiados).");
+                }
+                copiados += copiado;
+            }
+        } catch (NoSuchFileException e) {
+            return false;
+        }
+        filas += filasDia;
+        bytes += copiados;
+        bytesCopiados += copiados;
+        BYTES_COPIADOS.add(copiados);
+        informar();
+        return true;
+    }
+
+    private void vaciarBuffer() throws IOException {
+        buffer.flip();
+        int tamano = buffer.remaining();
+        while (buffer.hasRemaining()) {
+            salida.write(buffer);
+        }
+        buffer.clear();
+        bytes += tamano;
+        if (tamano > 0) {
+            BYTES_CODIFICADOS.add(tamano);
+        }
+        informar();
+    }
+
+    private void informar() {
+        if (progreso == null) {
+            return;
+        }
+        long ahora = System.nanoTime();
+        if (ahora >= proximoProgreso) {
+            progreso.avance(filas, bytes);
+            proximoProgreso = ahora + INTERVALO_PROGRESO_NS;
+        }
+    }
+}
@@ -0,0 +1,447 @@
+package monitoreo.db;
+
+import java.io.IOException;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Mantenimiento periódico de monitorBD.db en segundo plano: archiva los días cerrados, completa
+ * los resúmenes de días archivados antes de que la ingesta los mantuviera, aplica la
+ * retención (muestras crudas → resúmenes por minuto → resúmenes por hora), devuelve al sistema
+ * las páginas liberadas y actualiza las estadísticas del planificador, partición por partición.
+ * Todo se borra por tandas cortas con el escritor de cada partición, así que la ingesta sigue
+ * entre una y otra.
+ *
+ * Retención por defecto (días, 0 = sin límite): monitoreo.retencion.crudosDias=30,
+ * monitoreo.retencion.minutosDias=365, monitoreo.retencion.horasDias=0.
+ */
+public final class MantenimientoBD {
+
+    private static final Logger LOG = LoggerFactory.getLogger(MantenimientoBD.class);
+
+    private static final int DIAS_CRUDOS = Integer.getInteger("monitoreo.retencion.crudosDias", 30);
+    private static final int DIAS_MINUTOS = Integer.getInteger("monitoreo.retencion.minutosDias", 365);
+    private static final int DIAS_HORAS = Integer.getInteger("monitoreo.retencion.horasDias", 0);
+    private static final long PERIODO_MIN = Long.getLong("monitoreo.mantenimiento.periodoMin", 60);
+    // Resúmenes por DELETE (igual que las muestras crudas en ConexionBD)
+    private static final int FILAS_POR_BORRADO = 10_000;
+    // Páginas por PRAGMA incremental_vacuum: ~8 MiB con páginas de 4 KiB por toma del escritor
+    private static final int PAGINAS_POR_VACIADO = 2_000;
+    // PRAGMA auto_vacuum: 2 = INCREMENTAL
+    private static final int AUTO_VACUUM_INCREMENTAL = 2;
+
+    /**
+     * Fases de una pasada, en el orden en que se ejecutan; el ordinal se publica como medidor.
+     */
+    private enum Fase {
+        INACTIVO("inactivo"),
+        ARCHIVANDO("archivando"),
+        COMPLETANDO_RESUMENES("completando resúmenes del archivo"),
+        EXPIRANDO_CRUDOS("expirando muestras"),
+        EXPIRANDO_MINUTOS("expirando resúmenes por minuto"),
+        EXPIRANDO_HORAS("expirando resúmenes por hora"),
+        LIBERANDO_PAGINAS("liberando páginas"),
+        ANALIZANDO("analizando");
+
+        private final String descripcion;
+
+        Fase(String descripcion) {
+            this.descripcion = descripcion;
+        }
+
+        @Override
+        public String toString() {
+            return descripcion;
+        }
+    }
+
+    private final ScheduledExecutorService ejecutor;
+
+    // --- Métricas ---
+    private final LongAdder ejecuciones = new LongAdder();
+    private final LongAdder fallos = new LongAdder();
+    private final LongAdder filasArchivadas = new LongAdder();
+    private final LongAdder diasResumidos = new LongAdder();
+    private final LongAdder filasCrudasBorradas = new LongAdder();
+    private final LongAdder bytesArchivoLiberados = new LongAdder();
+    private final LongAdder resumenesBorrados = new LongAdder();
+    private final LongAdder paginasLiberadas = new LongAdder();
+    private volatile Fase fase = Fase.INACTIVO;
+    private volatile String progreso = "";
+    // Sensores, días o tandas procesados en la pasada en curso; solo lo escribe el hilo del mantenimiento
+    private volatile long pasosPasada;
+    private volatile long inicioPasadaMs;
+    private volatile long duracionUltimaMs;
+    private volatile long ultimaEjecucionMs;
+    private boolean avisoAutoVacuum;
+    // Los días archivados se revisan una vez por proceso: después la ingesta mantiene los resúmenes
+    private boolean archivoRevisado;
+
+    private MantenimientoBD(ScheduledExecutorService ejecutor) {
+        this.ejecutor = ejecutor;
+    }
+
+    /**
+     * Programa el mantenimiento cada monitoreo.mantenimiento.periodoMin minutos en un hilo daemon.
+     * La primera pasada espera un minuto para no competir con el arranque de la ingesta.
+     */
+    public static MantenimientoBD iniciar() {
+        ScheduledExecutorService ejecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread hilo = new Thread(r, "mantenimiento-bd");
+            hilo.setDaemon(true);
+            return hilo;
+        });
+        MantenimientoBD mantenimiento = new MantenimientoBD(ejecutor);
+        ejecutor.scheduleWithFixedDelay(mantenimiento::ejecutar, 1, PERIODO_MIN, TimeUnit.MINUTES);
+        return mantenimiento;
+    }
+
+    /**
+     * Cancela las pasadas programadas e interrumpe la que esté en curso entre dos tandas.
+     */
+    public void detener() {
+        ejecutor.shutdownNow();
+    }
+
+    /**
+     * Ejecuta una pasada completa. Si una fase falla se informa y se sigue con las demás.
+     * @return true si todas las fases terminaron sin errores.
+     */
+    public synchronized boolean ejecutar() {
+        long inicio = System.nanoTime();
+        boolean ok = true;
+        inicioPasadaMs = System.currentTimeMillis();
+        pasosPasada = 0;
+
+        fase = Fase.ARCHIVANDO;
+        long archivadas = ConexionBD.archivarDiasCerrados();
+        if (archivadas < 0) {
+            ok = false;
+        } else {
+            filasArchivadas.add(archivadas);
+        }
+
+        try {
+            if (!archivoRevisado) {
+                fase = Fase.COMPLETANDO_RESUMENES;
+                completarResumenesDelArchivo();
+                archivoRevisado = true;
+            }
+            if (DIAS_CRUDOS > 0) {
+                fase = Fase.EXPIRANDO_CRUDOS;
+                expirarCrudos(LocalDate.now(ConexionBD.ZONA).minusDays(DIAS_CRUDOS));
+            }
+            if (DIAS_MINUTOS > 0) {
+                fase = Fase.EXPIRANDO_MINUTOS;
+                expirarResumenes(Resumenes.TABLA_MINUTO, DIAS_MINUTOS);
+            }
+            if (DIAS_HORAS > 0) {
+                fase = Fase.EXPIRANDO_HORAS;
+                expirarResumenes(Resumenes.TABLA_HORA, DIAS_HORAS);
+            }
+            for (Particion particion : ConexionBD.particiones()) {
+                fase = Fase.LIBERANDO_PAGINAS;
+                liberarPaginas(particion);
+                fase = Fase.ANALIZANDO;
+                particion.getPool().conEscritor(conexion -> {
+                    MigradorEsquema.actualizarEstadisticas(conexion.getConexion());
+                    return null;
+                });
+            }
+        } catch (SQLException | IOException e) {
+            LOG.error("Error en el mantenimiento de la base de datos ({}): {}", fase, e.getMessage());
+            ok = false;
+        }
+
+        if (!ok) {
+            fallos.increment();
+        }
+        ejecuciones.increment();
+        duracionUltimaMs = (System.nanoTime() - inicio) / 1_000_000;
+        ultimaEjecucionMs = System.currentTimeMillis();
+        fase = Fase.INACTIVO;
+        progreso = "";
+        inicioPasadaMs = 0;
+        LOG.info("Mantenimiento de la base de datos en {} ms: {}", duracionUltimaMs, this);
+        return ok;
+    }
+
+    /**
+     * Borra las muestras crudas de los días anteriores a 'primerDiaCrudo', tanto las que siguen
+     * en SQLite (si el archivado está desactivado) como los días archivados. Los resúmenes ya las
+     * incluyen: la ingesta los mantiene y completarResumenesDelArchivo() cubre los días archivados
+     * antes de que existieran, así que aquí no se vuelve a resumir nada.
+     */
+    private void expirarCrudos(LocalDate primerDiaCrudo) throws SQLException, IOException {
+        long limite = primerDiaCrudo.atStartOfDay(ConexionBD.ZONA).toInstant().toEpochMilli();
+
+        for (Particion particion : ConexionBD.particiones()) {
+            String sensor = ConexionBD.siguienteSensor(particion, "");
+            while (sensor != null) {
+                Long primerTs;
+                while ((primerTs = ConexionBD.primerTsAntesDe(particion, sensor, limite)) != null) {
+                    interrumpido();
+                    LocalDate dia = ConexionBD.archivo().diaDe(primerTs);
+                    long desdeDia = dia.atStartOfDay(ConexionBD.ZONA).toInstant().toEpochMilli();
+                    long hastaDia = Math.min(limite, dia.plusDays(1).atStartOfDay(ConexionBD.ZONA).toInstant().toEpochMilli());
+                    avanzar(sensor + " " + dia);
+                    filasCrudasBorradas.add(ConexionBD.borrarFilas(particion, sensor, desdeDia, hastaDia, Long.MAX_VALUE));
+                }
+                sensor = ConexionBD.siguienteSensor(particion, sensor);
+            }
+        }
+
+        ArchivoColumnar archivo = ConexionBD.archivo();
+        for (String sensorArchivado : archivo.sensores()) {
+            for (LocalDate dia : archivo.diasAntesDe(sensorArchivado, primerDiaCrudo)) {
+                interrumpido();
+                avanzar(sensorArchivado + " " + dia + " (archivo)");
+                filasCrudasBorradas.add(archivo.contarFilas(sensorArchivado, dia));
+                bytesArchivoLiberados.add(archivo.borrar(sensorArchivado, dia));
+            }
+        }
+
+        VentanaReciente ventana = ConexionBD.ventanaReciente();
+        if (ventana != null) {
+            ventana.descartarAntesDe(limite);
+        }
+    }
+
+    /**
+     * Vuelve a resumir los días archivados cuyos resúmenes por minuto no incluyen todas las
+     * muestras del archivo (días archivados antes de que existieran los resúmenes). El día se
+     * resume una sola vez con todas sus muestras, las del archivo y las que sigan en SQLite,
+     * recorridas en orden: en memoria solo quedan las cubetas por minuto del día.
+     * Solo se miran los días que la retención de resúmenes por minuto conserva: los anteriores se
+     * borrarían en esta misma pasada y se volverían a resumir en cada arranque.
+     */
+    private void completarResumenesDelArchivo() throws SQLException, IOException {
+        LocalDate primerDia = DIAS_MINUTOS > 0 ? LocalDate.now(ConexionBD.ZONA).minusDays(DIAS_MINUTOS) : LocalDate.MIN;
+        ArchivoColumnar archivo = ConexionBD.archivo();
+        for (String sensor : archivo.sensores()) {
+            for (LocalDate dia : archivo.diasAntesDe(sensor, LocalDate.MAX)) {
+                if (dia.isBefore(primerDia)) {
+                    continue;
+                }
+                interrumpido();
+                long desdeDia = dia.atStartOfDay(ConexionBD.ZONA).toInstant().toEpochMilli();
+                long hastaDia = dia.plusDays(1).atStartOfDay(ConexionBD.ZONA).toInstant().toEpochMilli();
+                if (muestrasResumidasDelArchivo(sensor, desdeDia, hastaDia) >= archivo.contarFilas(sensor, dia)) {
+                    continue;
+                }
+                avanzar(sensor + " " + dia);
+                Resumenes.Acumulador minutos = new Resumenes.Acumulador(Resumenes.MINUTO_MS);
+                ConexionBD.recorrerConArchivo(sensor, desdeDia, hastaDia, (id, ts, x, y, z) -> minutos.agregar(ts, x, y, z));
+                ConexionBD.particion(sensor).getPool().enTransaccion(conexion -> {
+                    Resumenes.resumir(conexion, sensor, minutos);
+                    return null;
+                });
+                diasResumidos.increment();
+            }
+        }
+    }
+
+    /**
+     * @return Muestras del tramo que cuentan los resúmenes por minuto, descontadas las que siguen
+     * en SQLite (llegadas tarde a un día ya archivado): lo que queda es la parte del archivo.
+     */
+    private static long muestrasResumidasDelArchivo(String sensorId, long desdeMs, long hastaMs) throws SQLException {
+        return ConexionBD.particion(sensorId).getPool().conLector(conexion -> {
+            PreparedStatement pstmt = conexion.preparar("SELECT (SELECT COALESCE(SUM(n), 0) FROM "
+                    + Resumenes.TABLA_MINUTO + " WHERE sensor_id = ? AND ts >= ? AND ts < ?)"
+                    + " - (SELECT COUNT(*) FROM datos_sensor WHERE sensor_id = ? AND ts >= ? AND ts < ?)");
+            for (int i = 0; i < 2; i++) {
+                pstmt.setString(3 * i + 1, sensorId);
+                pstmt.setLong(3 * i + 2, desdeMs);
+                pstmt.setLong(3 * i + 3, hastaMs);
+            }
+            try (ResultSet rs = pstmt.executeQuery()) {
+                return rs.next() ? rs.getLong(1) : 0;
+            }
+        });
+    }
+
+    /**
+     * Borra los resúmenes más viejos que 'dias', sensor por sensor para recorrer solo el tramo
+     * de la clave (sensor_id, ts) que vence.
+     */
+    private void expirarResumenes(String tabla, int dias) throws SQLException {
+        long limite = LocalDate.now(ConexionBD.ZONA).minusDays(dias)
+                .atStartOfDay(ConexionBD.ZONA).toInstant().toEpochMilli();
+        for (Particion particion : ConexionBD.particiones()) {
+            String sensor = "";
+            while ((sensor = siguienteSensorResumido(particion, tabla, sensor)) != null) {
+                String sensorId = sensor;
+                avanzar(tabla + " " + sensorId);
+                int borradas;
+                do {
+                    interrumpido();
+                    borradas = particion.getPool().enTransaccion(conexion -> {
+                        PreparedStatement pstmt = conexion.preparar("DELETE FROM " + tabla + " WHERE sensor_id = ? AND ts IN ("
+                                + "SELECT ts FROM " + tabla + " WHERE sensor_id = ? AND ts < ? LIMIT ?)");
+                        pstmt.setString(1, sensorId);
+                        pstmt.setString(2, sensorId);
+                        pstmt.setLong(3, limite);
+                        pstmt.setInt(4, FILAS_POR_BORRADO);
+                        return pstmt.executeUpdate();
+                    });
+                    resumenesBorrados.add(borradas);
+                } while (borradas == FILAS_POR_BORRADO);
+            }
+        }
+    }
+
+    private static String siguienteSensorResumido(Particion particion, String tabla, String anterior)
+            throws SQLException {
+        return particion.getPool().conLector(conexion -> {
+            PreparedStatement pstmt = conexion.preparar("SELECT MIN(sensor_id) FROM " + tabla + " WHERE sensor_id > ?");
+            pstmt.setString(1, anterior);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                return rs.next() ? rs.getString(1) : null;
+            }
+        });
+    }
+
+    /**
+     * Devuelve al sistema las páginas libres por tandas. Solo es posible si la base se creó con
+     * auto_vacuum=INCREMENTAL (las bases nuevas); en una base anterior SQLite reutiliza las
+     * páginas libres pero el archivo no se achica hasta un VACUUM completo manual.
+     */
+    private void liberarPaginas(Particion particion) throws SQLException {
+        PoolConexiones pool = particion.getPool();
+        int modo = pragma(pool, "PRAGMA auto_vacuum");
+        if (modo != AUTO_VACUUM_INCREMENTAL) {
+            if (!avisoAutoVacuum) {
+                avisoAutoVacuum = true;
+                LOG.info("La base no tiene auto_vacuum=INCREMENTAL: las páginas libres se reutilizan, "
+                        + "pero el archivo solo se achica con un VACUUM manual.");
+            }
+            return;
+        }
+        int libres;
+        while ((libres = pragma(pool, "PRAGMA freelist_count")) > 0) {
+            interrumpido();
+            avanzar(particion + ": " + libres + " páginas libres");
+            pool.conEscritor(conexion -> {
+                try (Statement stmt = conexion.getConexion().createStatement()) {
+                    stmt.execute("PRAGMA incremental_vacuum(" + PAGINAS_POR_VACIADO + ")");
+                }
+                return null;
+            });
+            int restantes = pragma(pool, "PRAGMA freelist_count");
+            paginasLiberadas.add(libres - restantes);
+            if (restantes >= libres) {
+                return;
+            }
+        }
+    }
+
+    private static int pragma(PoolConexiones pool, String sql) throws SQLException {
+        return pool.conEscritor(conexion -> {
+            try (Statement stmt = conexion.getConexion().createStatement();
+                 ResultSet rs = stmt.executeQuery(sql)) {
+                return rs.next() ? rs.getInt(1) : 0;
+            }
+        });
+    }
+
+    private static void interrumpido() throws SQLException {
+        if (Thread.currentThread().isInterrupted()) {
+            throw new SQLException("Mantenimiento interrumpido.");
+        }
+    }
+
+    private void avanzar(String descripcion) {
+        progreso = descripcion;
+        pasosPasada++;
+    }
+
+    // --- MÉTRICAS ---
+
+    public long getEjecuciones() {
+        return ejecuciones.sum();
+    }
+
+    public long getFallos() {
+        return fallos.sum();
+    }
+
+    public long getFilasArchivadas() {
+        return filasArchivadas.sum();
+    }
+
+    /** @return Días archivados de un sensor que se volvieron a resumir (archivados antes de los resúmenes). */
+    public long getDiasResumidos() {
+        return diasResumidos.sum();
+    }
+
+    public long getFilasCrudasBorradas() {
+        return filasCrudasBorradas.sum();
+    }
+
+    public long getBytesArchivoLiberados() {
+        return bytesArchivoLiberados.sum();
+    }
+
+    public long getResumenesBorrados() {
+        return resumenesBorrados.sum();
+    }
+
+    public long getPaginasLiberadas() {
+        return paginasLiberadas.sum();
+    }
+
+    /** @return Fase en curso ("inactivo" entre pasadas). */
+    public String getFase() {
+        return fase.toString();
+    }
+
+    /** @return Número de la fase en curso: 0 entre pasadas, 1 archivando ... 7 analizando. */
+    public int getNumeroFase() {
+        return fase.ordinal();
+    }
+
+    /** @return Sensor, día o tabla que procesa la fase en curso. */
+    public String getProgreso() {
+        return progreso;
+    }
+
+    /** @return Sensores, días o tandas procesados en la pasada en curso (o en la última). */
+    public long getPasosPasada() {
+        return pasosPasada;
+    }
+
+    /** @return Milisegundos que lleva la pasada en curso, 0 entre pasadas. */
+    public long getDuracionEnCursoMs() {
+        long inicio = inicioPasadaMs;
+        return inicio == 0 ? 0 : System.currentTimeMillis() - inicio;
+    }
+
+    public long getDuracionUltimaMs() {
+        return duracionUltimaMs;
+    }
+
+    /** @return Epoch ms del fin de la última pasada, 0 si todavía no hubo ninguna. */
+    public long getUltimaEjecucionMs() {
+        return ultimaEjecucionMs;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("ejecuciones=%d (%d con errores), fase=%s, archivadas=%d, diasResumidos=%d, "
+                        + "crudasBorradas=%d, archivoLiberado=%.1f MiB, resumenesBorrados=%d, paginasLiberadas=%d, "
+                        + "ultima=%d ms",
+                getEjecuciones(), getFallos(), getFase(), getFilasArchivadas(), getDiasResumidos(),
+                getFilasCrudasBorradas(), getBytesArchivoLiberados() / (1024.0 * 1024.0), getResumenesBorrados(),
+                getPaginasLiberadas(), getDuracionUltimaMs());
+    }
+}
@@ -0,0 +1,195 @@
+package monitoreo.db;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Migraciones versionadas del esquema de monitorBD.db. La versión aplicada se guarda en
+ * PRAGMA user_version; al arrancar se ejecutan, en orden y cada una en su propia transacción,
+ * las migraciones con versión mayor a la guardada. Las migraciones ya publicadas no se modifican:
+ * cualquier cambio nuevo se agrega al final de la lista con la siguiente versión.
+ */
+public final class MigradorEsquema {
+
+    private static final Logger LOG = LoggerFactory.getLogger(MigradorEsquema.class);
+
+    /**
+     * Una versión del esquema y las sentencias que llevan a ella desde la anterior.
+     */
+    private record Migracion(int version, String descripcion, String... sentencias) {
+    }
+
+    private static final List<Migracion> MIGRACIONES = List.of(
+            new Migracion(1, "Tabla original datos_sensor (fecha y hora como TEXT)", """
+                CREATE TABLE IF NOT EXISTS datos_sensor (
+                    id INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL,
+                    x INTEGER NOT NULL,
+                    y INTEGER NOT NULL,
+                    z INTEGER NOT NULL,
+                    fecha_de_captura TEXT NOT NULL,
+                    hora_de_captura TEXT NOT NULL
+                )
+                """),
+
+            new Migracion(2, "Timestamp epoch ms, sensor_id e índice cubriente (sensor_id, ts)",
+                    "CREATE TABLE datos_sensor_v2 ("
+                            + "id INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL, "
+                            + "sensor_id TEXT NOT NULL DEFAULT '" + ConexionBD.SENSOR_POR_DEFECTO + "', "
+                            + "ts INTEGER NOT NULL, "
+                            + "x INTEGER NOT NULL, "
+                            + "y INTEGER NOT NULL, "
+                            + "z INTEGER NOT NULL)",
+                    // Las fechas de texto estaban en hora local: 'utc' las convierte a epoch real
+                    "INSERT INTO datos_sensor_v2 (id, sensor_id, ts, x, y, z) "
+                            + "SELECT id, '" + ConexionBD.SENSOR_POR_DEFECTO + "', "
+                            + "CAST(strftime('%s', fecha_de_captura || ' ' || hora_de_captura, 'utc') AS INTEGER) * 1000, "
+                            + "x, y, z FROM datos_sensor",
+                    "DROP TABLE datos_sensor",
+                    "ALTER TABLE datos_sensor_v2 RENAME TO datos_sensor",
+                    // Cubriente: las consultas por rango se resuelven solo con el índice, sin leer la tabla
+                    "CREATE INDEX idx_datos_sensor_sensor_ts ON datos_sensor (sensor_id, ts, x, y, z)",
+                    // Estadísticas para que el planificador use skip-scan en consultas sin sensor_id
+                    "ANALYZE"),
+
+            new Migracion(3, "Tablas de resúmenes por minuto y por hora",
+                    crearTablaResumen(Resumenes.TABLA_MINUTO),
+                    crearTablaResumen(Resumenes.TABLA_HORA)),
+
+            // Desde v4 la ingesta mantiene los resúmenes: se completan con las muestras que ya estaban
+            new Migracion(4, "Resúmenes de las muestras existentes",
+                    "INSERT OR REPLACE INTO " + Resumenes.TABLA_MINUTO + " SELECT sensor_id, (ts / "
+                            + Resumenes.MINUTO_MS + ") * " + Resumenes.MINUTO_MS + " AS minuto, COUNT(*), "
+                            + "MIN(x), MAX(x), SUM(x), SUM(x * x), MIN(y), MAX(y), SUM(y), SUM(y * y), "
+                            + "MIN(z), MAX(z), SUM(z), SUM(z * z) FROM datos_sensor GROUP BY sensor_id, minuto",
+                    "INSERT OR REPLACE INTO " + Resumenes.TABLA_HORA + " SELECT sensor_id, (ts / "
+                            + Resumenes.HORA_MS + ") * " + Resumenes.HORA_MS + " AS hora, " + Resumenes.SQL_AGREGAR
+                            + " FROM " + Resumenes.TABLA_MINUTO + " GROUP BY sensor_id, hora"),
+
+            new Migracion(5, "Tabla de alertas del detector de anomalías",
+                    "CREATE TABLE alertas ("
+                            + "id INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL, "
+                            + "sensor_id TEXT NOT NULL, "
+                            + "ts INTEGER NOT NULL, "
+                            + "tipo TEXT NOT NULL, "
+                            + "magnitud REAL NOT NULL, "
+                            + "media REAL NOT NULL, "
+                            + "desviacion REAL NOT NULL, "
+                            + "pico REAL NOT NULL)",
+                    "CREATE INDEX idx_alertas_sensor_ts ON alertas (sensor_id, ts)"),
+
+            // Parámetros con los que se creó la base y que no pueden cambiar después (p. ej. particiones)
+            new Migracion(6, "Tabla meta de parámetros de la base",
+                    "CREATE TABLE meta (clave TEXT PRIMARY KEY NOT NULL, valor TEXT NOT NULL) WITHOUT ROWID")
+    );
+
+    /**
+     * Una fila por sensor e intervalo: cantidad, y mínimo, máximo, suma y suma de cuadrados
+     * de cada eje. Sin rowid: la clave (sensor_id, ts) es el propio árbol de la tabla.
+     */
+    private static String crearTablaResumen(String tabla) {
+        StringBuilder sql = new StringBuilder("CREATE TABLE ").append(tabla).append(" (")
+                .append("sensor_id TEXT NOT NULL, ts INTEGER NOT NULL, n INTEGER NOT NULL");
+        for (String eje : new String[]{"x", "y", "z"}) {
+            sql.append(", min_").append(eje).append(" INTEGER NOT NULL")
+                    .append(", max_").append(eje).append(" INTEGER NOT NULL")
+                    .append(", suma_").append(eje).append(" INTEGER NOT NULL")
+                    .append(", suma2_").append(eje).append(" INTEGER NOT NULL");
+        }
+        return sql.append(", PRIMARY KEY (sensor_id, ts)) WITHOUT ROWID").toString();
+    }
+
+    private MigradorEsquema() {
+    }
+
+    /**
+     * @return La versión más reciente del esquema que conoce esta aplicación.
+     */
+    public static int versionActual() {
+        return MIGRACIONES.get(MIGRACIONES.size() - 1).version();
+    }
+
+    /**
+     * Lleva la base de datos a la versión más reciente.
+     * @throws SQLException si alguna migración falla (esa migración se revierte completa).
+     */
+    public static void migrar(PoolConexiones pool) throws SQLException {
+        pool.conEscritor(conexion -> {
+            Connection conn = conexion.getConexion();
+            int version = leerVersion(conn);
+            if (version == 0) {
+                activarAutoVacuumIncremental(conn);
+            }
+
+            for (Migracion migracion : MIGRACIONES) {
+                if (migracion.version() <= version) {
+                    continue;
+                }
+                LOG.info("Migrando esquema a v{}: {}", migracion.version(), migracion.descripcion());
+                long inicio = System.currentTimeMillis();
+                aplicar(conn, migracion);
+                LOG.info("Esquema v{} aplicado en {} ms.", migracion.version(), System.currentTimeMillis() - inicio);
+                version = migracion.version();
+            }
+            actualizarEstadisticas(conn);
+            return null;
+        });
+    }
+
+    /**
+     * Actualiza las estadísticas de las tablas. Sin estadísticas al día SQLite no usa
+     * skip-scan sobre (sensor_id, ts) y las consultas por fecha de todos los sensores recorren
+     * la tabla completa. analysis_limit acota el costo a un muestreo por índice, así que es
+     * barato hacerlo en cada arranque y después de cada mantenimiento.
+     */
+    static void actualizarEstadisticas(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("PRAGMA analysis_limit = 1000");
+            stmt.execute("ANALYZE");
+        }
+    }
+
+    /**
+     * En una base recién creada (sin tablas) activa auto_vacuum=INCREMENTAL para que el
+     * mantenimiento pueda devolver al sistema las páginas que libera la retención. El cambio
+     * solo se aplica con un VACUUM, instantáneo sobre una base vacía; en una base con datos
+     * se deja como está para no reescribirla completa al arrancar.
+     */
+    private static void activarAutoVacuumIncremental(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM sqlite_master")) {
+            if (rs.next() && rs.getInt(1) == 0) {
+                stmt.execute("PRAGMA auto_vacuum = INCREMENTAL");
+                stmt.execute("VACUUM");
+            }
+        }
+    }
+
+    private static int leerVersion(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("PRAGMA user_version")) {
+            return rs.next() ? rs.getInt(1) : 0;
+        }
+    }
+
+    private static void aplicar(Connection conn, Migracion migracion) throws SQLException {
+        conn.setAutoCommit(false);
+        try (Statement stmt = conn.createStatement()) {
+            for (String sentencia : migracion.sentencias()) {
+                stmt.execute(sentencia);
+            }
+            // user_version forma parte de la transacción: si algo falla no queda a medias
+            stmt.execute("PRAGMA user_version = " + migracion.version());
+            conn.commit();
+        } catch (SQLException e) {
+            conn.rollback();
+            throw new SQLException("Fallo la migración a v" + migracion.version() + ": " + e.getMessage(), e);
+        } finally {
+            conn.setAutoCommit(true);
+        }
+    }
+}
@@ -0,0 +1,12 @@
+package monitoreo.db;
+
+/**
+ * Lectura del acelerómetro lista para guardarse en 'datos_sensor'.
+ * @param sensorId Sensor que produjo la lectura.
+ * @param timestampMs Momento de captura (epoch en milisegundos).
+ * @param x Valor del eje X.
+ * @param y Valor del eje Y.
+ * @param z Valor del eje Z.
+ */
+public record Muestra(String sensorId, long timestampMs, int x, int y, int z) {
+}
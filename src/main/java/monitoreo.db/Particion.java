@@ -0,0 +1,88 @@
+package monitoreo.db;
+
+/**
+ * Un archivo SQLite de la base con su propio pool de conexiones y su propio hilo escritor.
+ * Los sensores se reparten entre las particiones por el hash de su id (ver ConexionBD.particion):
+ * las filas de un sensor viven en un solo archivo, y sensores de particiones distintas se
+ * escriben en paralelo, cada uno bajo el candado de escritura de su archivo.
+ */
+public final class Particion implements AutoCloseable {
+
+    private final int indice;
+    private final String url;
+    private final PoolConexiones pool;
+    private final int capacidadCola;
+    private final int maxLote;
+    private final long maxEsperaMs;
+    private final long esperaEncolarMs;
+
+    // El hilo escritor solo se crea si alguien encola datos (el servidor, no el generador)
+    private volatile EscritorPorLotes escritor;
+
+    Particion(int indice, String url, int maxLectores, int capacidadCola, int maxLote, long maxEsperaMs,
+              long esperaEncolarMs) {
+        this.indice = indice;
+        this.url = url;
+        this.pool = new PoolConexiones(url, maxLectores);
+        this.capacidadCola = capacidadCola;
+        this.maxLote = maxLote;
+        this.maxEsperaMs = maxEsperaMs;
+        this.esperaEncolarMs = esperaEncolarMs;
+    }
+
+    public int getIndice() {
+        return indice;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    /**
+     * @return El pool del archivo de esta partición (su escritor y sus lectores).
+     */
+    public PoolConexiones getPool() {
+        return pool;
+    }
+
+    /**
+     * @return El escritor por lotes de esta partición; se crea con la primera llamada.
+     */
+    public EscritorPorLotes getEscritor() {
+        EscritorPorLotes actual = escritor;
+        if (actual != null) {
+            return actual;
+        }
+        synchronized (this) {
+            if (escritor == null) {
+                String nombre = indice == 0 ? "escritor-lotes" : "escritor-lotes-p" + indice;
+                escritor = new EscritorPorLotes(this, nombre, capacidadCola, maxLote, maxEsperaMs, esperaEncolarMs);
+            }
+            return escritor;
+        }
+    }
+
+    /**
+     * @return true si el hilo escritor ya existe (para métricas y cierre, sin crearlo).
+     */
+    public boolean tieneEscritor() {
+        return escritor != null;
+    }
+
+    /**
+     * Guarda lo pendiente en la cola de escritura y cierra las conexiones del archivo.
+     */
+    @Override
+    public void close() {
+        EscritorPorLotes actual = escritor;
+        if (actual != null) {
+            actual.close();
+        }
+        pool.close();
+    }
+
+    @Override
+    public String toString() {
+        return "p" + indice + " (" + url + ")";
+    }
+}
@@ -0,0 +1,264 @@
+package monitoreo.db;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Administra las conexiones a SQLite: una única conexión de escritura (SQLite solo admite
+ * un escritor a la vez) y un conjunto acotado de conexiones de solo lectura que, gracias al
+ * modo WAL, leen en paralelo sin bloquear al escritor.
+ */
+public class PoolConexiones implements AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(PoolConexiones.class);
+
+    // Tiempo máximo que una consulta espera por un lector libre
+    private static final long ESPERA_MAXIMA_MS = 30_000;
+    // Caché de páginas de SQLite en KiB (valor negativo = KiB, positivo = páginas)
+    private static final int CACHE_KIB = 16_384;
+
+    private final String url;
+    private final int maxLectores;
+    private final List<String> sentenciasAlAbrir;
+
+    private final ReentrantLock candadoEscritor = new ReentrantLock();
+    private ConexionCacheada escritor;
+
+    private final BlockingQueue<ConexionCacheada> lectoresLibres;
+    private final AtomicInteger lectoresCreados = new AtomicInteger();
+    private volatile boolean cerrado;
+
+    // --- Métricas ---
+    private final LongAdder esperaNanos = new LongAdder();
+    private final LongAdder prestamos = new LongAdder();
+    private final AtomicInteger enUso = new AtomicInteger();
+    private final LongAdder aciertosCache = new LongAdder();
+    private final LongAdder fallosCache = new LongAdder();
+
+    /**
+     * Operación JDBC ejecutada con una conexión prestada por el pool.
+     */
+    @FunctionalInterface
+    public interface OperacionSql<T> {
+        T ejecutar(ConexionCacheada conexion) throws SQLException;
+    }
+
+    public PoolConexiones(String url, int maxLectores) {
+        this(url, maxLectores, List.of());
+    }
+
+    /**
+     * @param sentenciasAlAbrir Se ejecutan en cada conexión nueva, después de la configuración
+     *                          (p. ej. ATTACH y vistas TEMP, que viven solo en esa conexión).
+     */
+    public PoolConexiones(String url, int maxLectores, List<String> sentenciasAlAbrir) {
+        this.url = url;
+        this.maxLectores = maxLectores;
+        this.sentenciasAlAbrir = List.copyOf(sentenciasAlAbrir);
+        this.lectoresLibres = new ArrayBlockingQueue<>(maxLectores);
+        try {
+            // Solo es necesario una vez por proceso
+            Class.forName("org.sqlite.JDBC");
+        } catch (ClassNotFoundException e) {
+            LOG.error("Driver JDBC de SQLite no encontrado.");
+        }
+    }
+
+    // --- ESCRITURA ---
+
+    /**
+     * Ejecuta la operación con la conexión de escritura, en exclusiva.
+     */
+    public <T> T conEscritor(OperacionSql<T> operacion) throws SQLException {
+        long inicio = System.nanoTime();
+        candadoEscritor.lock();
+        registrarPrestamo(inicio);
+        try {
+            if (escritor == null || escritor.estaCerrada()) {
+                escritor = abrir(false);
+            }
+            return operacion.ejecutar(escritor);
+        } finally {
+            enUso.decrementAndGet();
+            candadoEscritor.unlock();
+        }
+    }
+
+    /**
+     * Igual que conEscritor, pero dentro de una transacción: commit si la operación termina,
+     * rollback si lanza una excepción.
+     */
+    public <T> T enTransaccion(OperacionSql<T> operacion) throws SQLException {
+        return conEscritor(conexion -> {
+            Connection conn = conexion.getConexion();
+            conn.setAutoCommit(false);
+            try {
+                T resultado = operacion.ejecutar(conexion);
+                conn.commit();
+                return resultado;
+            } catch (SQLException | RuntimeException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+        });
+    }
+
+    // --- LECTURA ---
+
+    /**
+     * Ejecuta la operación con una conexión de solo lectura. Si todas están ocupadas y ya se
+     * alcanzó el máximo, espera a que se libere una.
+     */
+    public <T> T conLector(OperacionSql<T> operacion) throws SQLException {
+        long inicio = System.nanoTime();
+        ConexionCacheada lector = obtenerLector();
+        registrarPrestamo(inicio);
+        try {
+            return operacion.ejecutar(lector);
+        } finally {
+            enUso.decrementAndGet();
+            devolverLector(lector);
+        }
+    }
+
+    private ConexionCacheada obtenerLector() throws SQLException {
+        if (cerrado) {
+            throw new SQLException("El pool de conexiones está cerrado.");
+        }
+
+        ConexionCacheada lector = lectoresLibres.poll();
+        if (lector != null) {
+            return lector;
+        }
+
+        // Crear un lector nuevo solo si no se ha llegado al máximo
+        if (lectoresCreados.incrementAndGet() <= maxLectores) {
+            try {
+                return abrir(true);
+            } catch (SQLException e) {
+                lectoresCreados.decrementAndGet();
+                throw e;
+            }
+        }
+        lectoresCreados.decrementAndGet();
+
+        try {
+            lector = lectoresLibres.poll(ESPERA_MAXIMA_MS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrumpido esperando una conexión de lectura.", e);
+        }
+        if (lector == null) {
+            throw new SQLException("No hay conexiones de lectura disponibles tras " + ESPERA_MAXIMA_MS + " ms.");
+        }
+        return lector;
+    }
+
+    private void devolverLector(ConexionCacheada lector) {
+        if (cerrado || lector.estaCerrada() || !lectoresLibres.offer(lector)) {
+            lector.cerrar();
+            lectoresCreados.decrementAndGet();
+        }
+    }
+
+    // --- APERTURA Y CONFIGURACIÓN ---
+
+    private ConexionCacheada abrir(boolean soloLectura) throws SQLException {
+        Connection conn = DriverManager.getConnection(url);
+        try (Statement stmt = conn.createStatement()) {
+            // WAL permite lectores concurrentes con un escritor; NORMAL evita un fsync por commit
+            stmt.execute("PRAGMA journal_mode=WAL");
+            stmt.execute("PRAGMA synchronous=NORMAL");
+            stmt.execute("PRAGMA cache_size=-" + CACHE_KIB);
+            stmt.execute("PRAGMA busy_timeout=5000");
+            for (String sentencia : sentenciasAlAbrir) {
+                stmt.execute(sentencia);
+            }
+            if (soloLectura) {
+                stmt.execute("PRAGMA query_only=ON");
+            }
+        } catch (SQLException e) {
+            conn.close();
+            throw e;
+        }
+        return new ConexionCacheada(conn, aciertosCache, fallosCache);
+    }
+
+    private void registrarPrestamo(long inicioNanos) {
+        esperaNanos.add(System.nanoTime() - inicioNanos);
+        prestamos.increment();
+        enUso.incrementAndGet();
+    }
+
+    @Override
+    public void close() {
+        cerrado = true;
+        ConexionCacheada lector;
+        while ((lector = lectoresLibres.poll()) != null) {
+            lector.cerrar();
+        }
+        candadoEscritor.lock();
+        try {
+            if (escritor != null) {
+                escritor.cerrar();
+                escritor = null;
+            }
+        } finally {
+            candadoEscritor.unlock();
+        }
+    }
+
+    // --- MÉTRICAS ---
+
+    /** @return Tiempo promedio (ms) que se esperó para obtener una conexión. */
+    public double getEsperaPromedioMs() {
+        long n = prestamos.sum();
+        return n == 0 ? 0 : esperaNanos.sum() / 1_000_000.0 / n;
+    }
+
+    /** @return Tiempo total (ns) que se esperó para obtener conexiones. */
+    public long getEsperaTotalNanos() {
+        return esperaNanos.sum();
+    }
+
+    public long getPrestamos() {
+        return prestamos.sum();
+    }
+
+    /** @return Conexiones prestadas en este momento (escritor incluido). */
+    public int getConexionesEnUso() {
+        return enUso.get();
+    }
+
+    public int getLectoresAbiertos() {
+        return lectoresCreados.get();
+    }
+
+    public long getAciertosCacheSentencias() {
+        return aciertosCache.sum();
+    }
+
+    public long getFallosCacheSentencias() {
+        return fallosCache.sum();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("enUso=%d, lectores=%d/%d, esperaPromedio=%.3f ms, cacheSentencias=%d aciertos/%d fallos",
+                getConexionesEnUso(), getLectoresAbiertos(), maxLectores, getEsperaPromedioMs(),
+                getAciertosCacheSentencias(), getFallosCacheSentencias());
+    }
+}
@@ -0,0 +1,268 @@
+package monitoreo.db;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+
+/**
+ * Resúmenes por minuto y por hora de las muestras de cada sensor (tablas resumen_minuto y
+ * resumen_hora): cantidad, y mínimo, máximo, suma y suma de cuadrados de cada eje. Con ellos se
+ * obtienen el promedio y la desviación estándar de cualquier intervalo sin las muestras crudas,
+ * por eso son lo que queda cuando la retención borra las muestras. Se mantienen en la misma
+ * transacción que inserta cada lote, combinando el resumen del lote con el ya guardado.
+ */
+final class Resumenes {
+
+    static final String TABLA_MINUTO = "resumen_minuto";
+    static final String TABLA_HORA = "resumen_hora";
+    static final long MINUTO_MS = 60_000;
+    static final long HORA_MS = 3_600_000;
+
+    // Posiciones en el arreglo de cada cubeta: n y luego min, max, suma, suma2 de x, y, z
+    private static final int N = 0;
+    private static final int CAMPOS = 13;
+
+    private static final String COLUMNAS = "sensor_id, ts, n, min_x, max_x, suma_x, suma2_x, "
+            + "min_y, max_y, suma_y, suma2_y, min_z, max_z, suma_z, suma2_z";
+    private static final String VALORES = " VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    // Combina el resumen de un lote con la fila ya guardada del mismo sensor e intervalo
+    private static final String COMBINAR = " ON CONFLICT (sensor_id, ts) DO UPDATE SET n = n + excluded.n, "
+            + "min_x = MIN(min_x, excluded.min_x), max_x = MAX(max_x, excluded.max_x), "
+            + "suma_x = suma_x + excluded.suma_x, suma2_x = suma2_x + excluded.suma2_x, "
+            + "min_y = MIN(min_y, excluded.min_y), max_y = MAX(max_y, excluded.max_y), "
+            + "suma_y = suma_y + excluded.suma_y, suma2_y = suma2_y + excluded.suma2_y, "
+            + "min_z = MIN(min_z, excluded.min_z), max_z = MAX(max_z, excluded.max_z), "
+            + "suma_z = suma_z + excluded.suma_z, suma2_z = suma2_z + excluded.suma2_z";
+
+    // Agregados de varias filas de resumen: mismas columnas que una fila, a partir de n
+    static final String SQL_AGREGAR = "SUM(n), MIN(min_x), MAX(max_x), SUM(suma_x), SUM(suma2_x), "
+            + "MIN(min_y), MAX(max_y), SUM(suma_y), SUM(suma2_y), MIN(min_z), MAX(max_z), SUM(suma_z), SUM(suma2_z)";
+
+    private Resumenes() {
+    }
+
+    /**
+     * Cubetas de un sensor, en orden de ts.
+     */
+    static final class Acumulador {
+        private final long cubetaMs;
+        private final TreeMap<Long, long[]> cubetas = new TreeMap<>();
+
+        Acumulador(long cubetaMs) {
+            this.cubetaMs = cubetaMs;
+        }
+
+        void agregar(long timestampMs, int x, int y, int z) {
+            long[] c = cubetas.computeIfAbsent(Math.floorDiv(timestampMs, cubetaMs) * cubetaMs, k -> nueva());
+            c[N]++;
+            acumular(c, 1, x);
+            acumular(c, 5, y);
+            acumular(c, 9, z);
+        }
+
+        int getCubetas() {
+            return cubetas.size();
+        }
+
+        /**
+         * @return Un acumulador con las mismas muestras en cubetas más anchas (múltiplo de las actuales).
+         */
+        Acumulador agrupar(long cubetaMayorMs) {
+            Acumulador mayor = new Acumulador(cubetaMayorMs);
+            for (Map.Entry<Long, long[]> cubeta : cubetas.entrySet()) {
+                long inicio = Math.floorDiv(cubeta.getKey(), cubetaMayorMs) * cubetaMayorMs;
+                long[] destino = mayor.cubetas.computeIfAbsent(inicio, k -> nueva());
+                long[] origen = cubeta.getValue();
+                destino[N] += origen[N];
+                for (int eje = 1; eje < CAMPOS; eje += 4) {
+                    destino[eje] = Math.min(destino[eje], origen[eje]);
+                    destino[eje + 1] = Math.max(destino[eje + 1], origen[eje + 1]);
+                    destino[eje + 2] += origen[eje + 2];
+                    destino[eje + 3] += origen[eje + 3];
+                }
+            }
+            return mayor;
+        }
+
+        /**
+         * @return Primer y último ts de cubeta, o null si está vacío.
+         */
+        long[] rango() {
+            return cubetas.isEmpty() ? null : new long[]{cubetas.firstKey(), cubetas.lastKey()};
+        }
+
+        /**
+         * Escribe las cubetas reemplazando las que ya existían: recalcular el mismo intervalo
+         * con las mismas muestras deja el mismo resultado.
+         */
+        void reemplazar(ConexionCacheada conexion, String tabla, String sensorId) throws SQLException {
+            PreparedStatement pstmt = conexion.preparar("INSERT OR REPLACE INTO " + tabla + " (" + COLUMNAS + ")" + VALORES);
+            agregarAlLote(pstmt, sensorId);
+            pstmt.executeBatch();
+        }
+
+        private void agregarAlLote(PreparedStatement pstmt, String sensorId) throws SQLException {
+            for (Map.Entry<Long, long[]> cubeta : cubetas.entrySet()) {
+                pstmt.setString(1, sensorId);
+                pstmt.setLong(2, cubeta.getKey());
+                long[] c = cubeta.getValue();
+                for (int i = 0; i < CAMPOS; i++) {
+                    pstmt.setLong(3 + i, c[i]);
+                }
+                pstmt.addBatch();
+            }
+        }
+
+        private static long[] nueva() {
+            long[] c = new long[CAMPOS];
+            for (int eje = 1; eje < CAMPOS; eje += 4) {
+                c[eje] = Long.MAX_VALUE;
+                c[eje + 1] = Long.MIN_VALUE;
+            }
+            return c;
+        }
+
+        private static void acumular(long[] c, int eje, int valor) {
+            c[eje] = Math.min(c[eje], valor);
+            c[eje + 1] = Math.max(c[eje + 1], valor);
+            c[eje + 2] += valor;
+            c[eje + 3] += (long) valor * valor;
+        }
+    }
+
+    /**
+     * Suma un lote recién insertado a los resúmenes por minuto y por hora de cada sensor.
+     * Llamar dentro de la transacción que inserta el lote: si se revierte, los resúmenes también.
+     */
+    static void acumularLote(ConexionCacheada conexion, List<Muestra> muestras) throws SQLException {
+        Map<String, Acumulador> porSensor = new HashMap<>();
+        for (Muestra m : muestras) {
+            porSensor.computeIfAbsent(m.sensorId(), k -> new Acumulador(MINUTO_MS))
+                    .agregar(m.timestampMs(), m.x(), m.y(), m.z());
+        }
+        combinar(conexion, porSensor);
+    }
+
+    /**
+     * Igual que acumularLote() para una sola muestra.
+     */
+    static void acumular(ConexionCacheada conexion, String sensorId, long timestampMs, int x, int y, int z)
+            throws SQLException {
+        Acumulador minutos = new Acumulador(MINUTO_MS);
+        minutos.agregar(timestampMs, x, y, z);
+        combinar(conexion, Map.of(sensorId, minutos));
+    }
+
+    private static void combinar(ConexionCacheada conexion, Map<String, Acumulador> porSensor) throws SQLException {
+        PreparedStatement minutos = conexion.preparar("INSERT INTO " + TABLA_MINUTO + " (" + COLUMNAS + ")" + VALORES + COMBINAR);
+        PreparedStatement horas = conexion.preparar("INSERT INTO " + TABLA_HORA + " (" + COLUMNAS + ")" + VALORES + COMBINAR);
+        for (Map.Entry<String, Acumulador> sensor : porSensor.entrySet()) {
+            sensor.getValue().agregarAlLote(minutos, sensor.getKey());
+            sensor.getValue().agrupar(HORA_MS).agregarAlLote(horas, sensor.getKey());
+        }
+        minutos.executeBatch();
+        horas.executeBatch();
+    }
+
+    /**
+     * Agrega a 'fila' una cubeta consultada en el formato de CONSULTAR_RESUMEN:
+     * "inicioCubeta,n,minX,maxX,promX,desvX,minY,maxY,promY,desvY,minZ,maxZ,promZ,desvZ"
+     * (desv = desviación estándar poblacional; promedio y desviación redondeados a 2 decimales).
+     * @param c n y luego min, max, suma, suma2 de x, y, z.
+     */
+    static void formatear(long inicioCubeta, long[] c, StringBuilder fila) {
+        long n = c[N];
+        fila.append(inicioCubeta).append(',').append(n);
+        for (int eje = 1; eje < CAMPOS; eje += 4) {
+            double promedio = (double) c[eje + 2] / n;
+            double desviacion = Math.sqrt(Math.max(0, (double) c[eje + 3] / n - promedio * promedio));
+            fila.append(',').append(c[eje]).append(',').append(c[eje + 1])
+                    .append(',').append(Math.round(promedio * 100) / 100.0)
+                    .append(',').append(Math.round(desviacion * 100) / 100.0);
+        }
+    }
+
+    /**
+     * Cubetas de CONSULTAR_RESUMEN calculadas sobre muestras crudas en orden de ts (resoluciones
+     * menores que un minuto, que no tienen tabla de resumen).
+     */
+    static final class AgregadorCrudo implements VentanaReciente.VisitanteMuestra {
+        private final long cubetaMs;
+        private final Consumer<StringBuilder> alFila;
+        private final StringBuilder fila = new StringBuilder(128);
+        private long[] actual = Acumulador.nueva();
+        private long cubeta = Long.MIN_VALUE;
+        private int cubetas;
+
+        AgregadorCrudo(long cubetaMs, Consumer<StringBuilder> alFila) {
+            this.cubetaMs = cubetaMs;
+            this.alFila = alFila;
+        }
+
+        @Override
+        public void visitar(long id, long ts, int x, int y, int z) {
+            // Igual que (ts / ?) * ? en SQLite
+            long deMuestra = (ts / cubetaMs) * cubetaMs;
+            if (deMuestra != cubeta) {
+                emitir();
+                cubeta = deMuestra;
+            }
+            actual[N]++;
+            Acumulador.acumular(actual, 1, x);
+            Acumulador.acumular(actual, 5, y);
+            Acumulador.acumular(actual, 9, z);
+        }
+
+        private void emitir() {
+            if (actual[N] == 0) {
+                return;
+            }
+            fila.setLength(0);
+            formatear(cubeta, actual, fila);
+            alFila.accept(fila);
+            cubetas++;
+            actual = Acumulador.nueva();
+        }
+
+        /**
+         * Emite la última cubeta.
+         * @return El total de cubetas emitidas.
+         */
+        int terminar() {
+            emitir();
+            return cubetas;
+        }
+    }
+
+    /**
+     * Reemplaza los resúmenes por minuto del sensor con las cubetas acumuladas y recalcula las
+     * horas afectadas a partir de los minutos: una hora partida entre dos días (zonas con media
+     * hora) queda completa si el otro día ya se resumió. Llamar dentro de una transacción.
+     * @param minutos Cubetas de MINUTO_MS con todas las muestras de los minutos que cubren.
+     */
+    static void resumir(ConexionCacheada conexion, String sensorId, Acumulador minutos) throws SQLException {
+        long[] rango = minutos.rango();
+        if (rango == null) {
+            return;
+        }
+        minutos.reemplazar(conexion, TABLA_MINUTO, sensorId);
+
+        long desdeHora = Math.floorDiv(rango[0], HORA_MS) * HORA_MS;
+        long hastaHora = Math.floorDiv(rango[1], HORA_MS) * HORA_MS + HORA_MS;
+        PreparedStatement pstmt = conexion.preparar("INSERT OR REPLACE INTO " + TABLA_HORA + " (" + COLUMNAS + ") "
+                + "SELECT sensor_id, ts - (ts % " + HORA_MS + ") AS hora, SUM(n), "
+                + "MIN(min_x), MAX(max_x), SUM(suma_x), SUM(suma2_x), "
+                + "MIN(min_y), MAX(max_y), SUM(suma_y), SUM(suma2_y), "
+                + "MIN(min_z), MAX(max_z), SUM(suma_z), SUM(suma2_z) "
+                + "FROM " + TABLA_MINUTO + " WHERE sensor_id = ? AND ts >= ? AND ts < ? GROUP BY hora");
+        pstmt.setString(1, sensorId);
+        pstmt.setLong(2, desdeHora);
+        pstmt.setLong(3, hastaHora);
+        pstmt.executeUpdate();
+    }
+}
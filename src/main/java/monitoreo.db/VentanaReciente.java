@@ -0,0 +1,547 @@
+package monitoreo.db;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Copia en memoria de las muestras recientes (por defecto las últimas 24 h) para responder las
+ * consultas del día sin ir a SQLite. Cada sensor guarda sus muestras en arreglos primitivos
+ * circulares, ordenadas por (ts, id). Se desaloja por antigüedad y por un presupuesto de memoria.
+ *
+ * La ventana solo sirve un rango si está completa desde su inicio (cubreDesde): debe cargarse
+ * con cargar() antes de aceptar escrituras y recibir después cada fila que se guarde en la base.
+ * Por eso solo la activa el servidor, que es el único escritor.
+ */
+public class VentanaReciente {
+
+    private static final Logger LOG = LoggerFactory.getLogger(VentanaReciente.class);
+
+    /** recorrer(): la ventana no cubre el rango pedido; hay que consultar la base de datos. */
+    public static final int SIN_COBERTURA = -1;
+    /** recorrer(): la ventana desalojó filas del rango mientras se recorría (ya se entregaron algunas). */
+    public static final int DESALOJADA = -2;
+
+    // id + ts (long) y x, y, z (int)
+    static final int BYTES_POR_MUESTRA = 8 + 8 + 3 * 4;
+
+    private static final int CAPACIDAD_INICIAL = 1024;
+    // Filas copiadas por cada toma del candado de lectura al recorrer. Al mezclar varios sensores
+    // el tramo de cada uno se achica para que el total de un recorrido no pase de FILAS_POR_COPIA
+    // (salvo por el mínimo de FILAS_MIN_COPIA por sensor con filas en el rango)
+    private static final int FILAS_POR_COPIA = 4096;
+    private static final int FILAS_MIN_COPIA = 32;
+
+    /**
+     * Recibe cada muestra de un recorrido, en orden de (ts, id).
+     */
+    @FunctionalInterface
+    public interface VisitanteMuestra {
+        void visitar(long id, long timestampMs, int x, int y, int z);
+    }
+
+    private final long ventanaMs;
+    private final long maxMuestras;
+    private final Map<String, Serie> series = new ConcurrentHashMap<>();
+    private final AtomicLong muestras = new AtomicLong();
+    // Inicio de la cobertura para sensores que todavía no tienen muestras en la ventana
+    private volatile long cubreDesde = Long.MAX_VALUE;
+
+    // --- Métricas ---
+    private final LongAdder aciertos = new LongAdder();
+    private final LongAdder fallos = new LongAdder();
+    private final LongAdder desalojadasPorEdad = new LongAdder();
+    private final LongAdder desalojadasPorMemoria = new LongAdder();
+
+    /**
+     * @param ventanaMs Antigüedad máxima de una muestra respecto de la más nueva de su sensor.
+     * @param presupuestoBytes Memoria aproximada para todas las muestras (BYTES_POR_MUESTRA cada una).
+     */
+    public VentanaReciente(long ventanaMs, long presupuestoBytes) {
+        this.ventanaMs = ventanaMs;
+        this.maxMuestras = Math.max(CAPACIDAD_INICIAL, presupuestoBytes / BYTES_POR_MUESTRA);
+    }
+
+    /**
+     * Carga de la base de datos las muestras de la ventana (desde ahora - ventanaMs). A partir de
+     * aquí la ventana cubre ese rango para todos los sensores.
+     */
+    public void cargar(PoolConexiones pool, long ahoraMs) throws SQLException {
+        long desde = ahoraMs - ventanaMs;
+        cubreDesde = desde;
+        int cargadas = pool.conLector(conexion -> {
+            PreparedStatement pstmt = conexion.preparar(
+                    "SELECT id, sensor_id, ts, x, y, z FROM datos_sensor WHERE ts >= ? ORDER BY ts, id");
+            pstmt.setLong(1, desde);
+            int filas = 0;
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    agregar(rs.getString(2), rs.getLong(1), rs.getLong(3), rs.getInt(4), rs.getInt(5), rs.getInt(6));
+                    filas++;
+                }
+            }
+            return filas;
+        });
+        LOG.info("Ventana reciente cargada: {} muestras de {} sensores.", cargadas, series.size());
+    }
+
+    /**
+     * Agrega una fila recién guardada. Las que quedan antes de la cobertura de su sensor se ignoran
+     * (la base de datos las tiene y las consultas de ese tramo no pasan por aquí).
+     */
+    public void agregar(String sensorId, long id, long timestampMs, int x, int y, int z) {
+        Serie serie = series.computeIfAbsent(sensorId, s -> new Serie(cubreDesde));
+        int cambio = serie.agregar(id, timestampMs, x, y, z, ventanaMs, desalojadasPorEdad);
+        if (muestras.addAndGet(cambio) > maxMuestras) {
+            desalojarPorMemoria();
+        }
+    }
+
+    /**
+     * Agrega las filas de un lote guardado con ids consecutivos que terminan en ultimoId.
+     */
+    public void agregarLote(List<Muestra> lote, long ultimoId) {
+        long id = ultimoId - lote.size() + 1;
+        for (Muestra m : lote) {
+            agregar(m.sensorId(), id++, m.timestampMs(), m.x(), m.y(), m.z());
+        }
+    }
+
+    /**
+     * Descarta las muestras anteriores a tsMs (p. ej. porque se borraron de la base de datos):
+     * desde ahí la ventana deja de cubrir ese tramo.
+     */
+    public void descartarAntesDe(long tsMs) {
+        if (cubreDesde < tsMs) {
+            cubreDesde = tsMs;
+        }
+        for (Serie serie : series.values()) {
+            muestras.addAndGet(-serie.desalojarAntesDe(tsMs, true));
+        }
+    }
+
+    /**
+     * Quita las muestras más viejas de todos los sensores hasta volver al presupuesto. Mientras
+     * alguien recorre un sensor se le toleran hasta el doble, para no cortarle el recorrido.
+     */
+    private void desalojarPorMemoria() {
+        while (muestras.get() > maxMuestras) {
+            Serie masVieja = null;
+            long tsMasViejo = Long.MAX_VALUE;
+            for (Serie serie : series.values()) {
+                long ts = serie.tsMasViejo();
+                boolean protegida = serie.lectores.get() > 0 && muestras.get() <= 2 * maxMuestras;
+                if (ts < tsMasViejo && !protegida) {
+                    tsMasViejo = ts;
+                    masVieja = serie;
+                }
+            }
+            if (masVieja == null) {
+                return;
+            }
+            int quitadas = masVieja.desalojarAntesDe(tsMasViejo + 1, true);
+            if (quitadas == 0) {
+                return;
+            }
+            muestras.addAndGet(-quitadas);
+            desalojadasPorMemoria.add(quitadas);
+        }
+    }
+
+    /**
+     * Recorre en orden de (ts, id) las muestras de [desdeMs, hastaMs) de un sensor o de todos.
+     * El visitante corre sin candados tomados: puede escribir al socket sin frenar la ingesta.
+     * @param sensorId Sensor a recorrer, o null para todos.
+     * @return Las muestras entregadas, SIN_COBERTURA si la ventana no cubre desdeMs (no se entregó
+     *         nada), o DESALOJADA si se desalojaron filas del rango a mitad del recorrido.
+     */
+    public int recorrer(String sensorId, long desdeMs, long hastaMs, VisitanteMuestra visitante) {
+        List<Serie> elegidas = new ArrayList<>();
+        if (sensorId != null) {
+            Serie serie = series.get(sensorId);
+            if (serie == null ? cubreDesde > desdeMs : !serie.cubre(desdeMs)) {
+                fallos.increment();
+                return SIN_COBERTURA;
+            }
+            if (serie != null) {
+                elegidas.add(serie);
+            }
+        } else {
+            if (cubreDesde > desdeMs) {
+                fallos.increment();
+                return SIN_COBERTURA;
+            }
+            for (Serie serie : series.values()) {
+                if (!serie.cubre(desdeMs)) {
+                    fallos.increment();
+                    return SIN_COBERTURA;
+                }
+                elegidas.add(serie);
+            }
+        }
+        aciertos.increment();
+
+        int filasPorTramo = Math.max(FILAS_MIN_COPIA, FILAS_POR_COPIA / Math.max(1, elegidas.size()));
+        List<Cursor> cursores = new ArrayList<>(elegidas.size());
+        for (Serie serie : elegidas) {
+            cursores.add(new Cursor(serie, desdeMs, hastaMs, filasPorTramo));
+            serie.lectores.incrementAndGet();
+        }
+        try {
+            // Mezcla de los sensores por (ts, id): el montículo tiene los cursores con fila actual
+            PriorityQueue<Cursor> pendientes = new PriorityQueue<>(Math.max(1, cursores.size()), Cursor::comparar);
+            for (Cursor cursor : cursores) {
+                if (cursor.hayActual()) {
+                    pendientes.add(cursor);
+                } else if (cursor.desalojada) {
+                    return desalojadaAlRecorrer(0);
+                }
+            }
+            int entregadas = 0;
+            Cursor menor;
+            while ((menor = pendientes.poll()) != null) {
+                menor.entregar(visitante);
+                entregadas++;
+                if (menor.hayActual()) {
+                    pendientes.add(menor);
+                } else if (menor.desalojada) {
+                    return desalojadaAlRecorrer(entregadas);
+                }
+            }
+            return entregadas;
+        } finally {
+            for (Cursor cursor : cursores) {
+                cursor.serie.lectores.decrementAndGet();
+            }
+        }
+    }
+
+    private int desalojadaAlRecorrer(int entregadas) {
+        if (entregadas == 0) {
+            // Se desalojó entre la verificación y la primera copia: aún se puede ir a la base
+            aciertos.add(-1);
+            fallos.increment();
+            return SIN_COBERTURA;
+        }
+        return DESALOJADA;
+    }
+
+    // --- MÉTRICAS ---
+
+    public long getAciertos() {
+        return aciertos.sum();
+    }
+
+    public long getFallos() {
+        return fallos.sum();
+    }
+
+    public double getTasaAciertos() {
+        long total = aciertos.sum() + fallos.sum();
+        return total == 0 ? 0 : (double) aciertos.sum() / total;
+    }
+
+    public long getMuestras() {
+        return muestras.get();
+    }
+
+    public long getBytesEstimados() {
+        return muestras.get() * BYTES_POR_MUESTRA;
+    }
+
+    public int getSensores() {
+        return series.size();
+    }
+
+    public long getDesalojadasPorEdad() {
+        return desalojadasPorEdad.sum();
+    }
+
+    public long getDesalojadasPorMemoria() {
+        return desalojadasPorMemoria.sum();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("muestras=%d (%.1f MiB), sensores=%d, aciertos=%d, fallos=%d (%.1f%%), "
+                        + "desalojadasEdad=%d, desalojadasMemoria=%d",
+                getMuestras(), getBytesEstimados() / (1024.0 * 1024.0), getSensores(), getAciertos(), getFallos(),
+                getTasaAciertos() * 100, getDesalojadasPorEdad(), getDesalojadasPorMemoria());
+    }
+
+    // --- ESTRUCTURAS INTERNAS ---
+
+    /**
+     * Muestras de un sensor en arreglos circulares de capacidad potencia de 2, ordenadas por (ts, id).
+     * Las muestras llegan casi siempre en orden, así que insertar es agregar al final.
+     */
+    private static final class Serie {
+        private final ReentrantReadWriteLock candado = new ReentrantReadWriteLock();
+        // Recorridos en curso: el desalojo por memoria los respeta mientras pueda
+        private final AtomicInteger lectores = new AtomicInteger();
+
+        private long[] ids = new long[CAPACIDAD_INICIAL];
+        private long[] ts = new long[CAPACIDAD_INICIAL];
+        private int[] x = new int[CAPACIDAD_INICIAL];
+        private int[] y = new int[CAPACIDAD_INICIAL];
+        private int[] z = new int[CAPACIDAD_INICIAL];
+        private int inicio;
+        private int tamano;
+        // La serie tiene todas las muestras del sensor con ts >= cubreDesde
+        private long cubreDesde;
+
+        Serie(long cubreDesde) {
+            this.cubreDesde = cubreDesde;
+        }
+
+        private int pos(int i) {
+            return (inicio + i) & (ids.length - 1);
+        }
+
+        boolean cubre(long desdeMs) {
+            candado.readLock().lock();
+            try {
+                return cubreDesde <= desdeMs;
+            } finally {
+                candado.readLock().unlock();
+            }
+        }
+
+        long tsMasViejo() {
+            candado.readLock().lock();
+            try {
+                return tamano == 0 ? Long.MAX_VALUE : ts[pos(0)];
+            } finally {
+                candado.readLock().unlock();
+            }
+        }
+
+        /**
+         * Inserta en orden y desaloja lo que quedó fuera de la ventana.
+         * @return Cambio en el número de muestras de la serie.
+         */
+        int agregar(long id, long timestampMs, int mx, int my, int mz, long ventanaMs, LongAdder desalojadas) {
+            candado.writeLock().lock();
+            try {
+                if (timestampMs < cubreDesde) {
+                    return 0;
+                }
+                if (tamano == ids.length) {
+                    crecer();
+                }
+                // Desde el final, correr las que van después (solo pasa con muestras atrasadas)
+                int i = tamano;
+                while (i > 0) {
+                    int anterior = pos(i - 1);
+                    if (ts[anterior] < timestampMs || (ts[anterior] == timestampMs && ids[anterior] < id)) {
+                        break;
+                    }
+                    int destino = pos(i);
+                    ids[destino] = ids[anterior];
+                    ts[destino] = ts[anterior];
+                    x[destino] = x[anterior];
+                    y[destino] = y[anterior];
+                    z[destino] = z[anterior];
+                    i--;
+                }
+                int destino = pos(i);
+                ids[destino] = id;
+                ts[destino] = timestampMs;
+                x[destino] = mx;
+                y[destino] = my;
+                z[destino] = mz;
+                tamano++;
+
+                // Desalojo por edad respecto de la muestra más nueva, salvo durante un recorrido
+                int quitadas = 0;
+                if (lectores.get() == 0) {
+                    quitadas = desalojarAntesDeConCandado(ts[pos(tamano - 1)] - ventanaMs, false);
+                    desalojadas.add(quitadas);
+                }
+                return 1 - quitadas;
+            } finally {
+                candado.writeLock().unlock();
+            }
+        }
+
+        private void crecer() {
+            int capacidad = ids.length * 2;
+            long[] nIds = new long[capacidad];
+            long[] nTs = new long[capacidad];
+            int[] nx = new int[capacidad];
+            int[] ny = new int[capacidad];
+            int[] nz = new int[capacidad];
+            for (int i = 0; i < tamano; i++) {
+                int p = pos(i);
+                nIds[i] = ids[p];
+                nTs[i] = ts[p];
+                nx[i] = x[p];
+                ny[i] = y[p];
+                nz[i] = z[p];
+            }
+            ids = nIds;
+            ts = nTs;
+            x = nx;
+            y = ny;
+            z = nz;
+            inicio = 0;
+        }
+
+        /**
+         * @param forzar true para desalojar aunque haya recorridos en curso.
+         * @return Muestras quitadas.
+         */
+        int desalojarAntesDe(long tsMs, boolean forzar) {
+            candado.writeLock().lock();
+            try {
+                return desalojarAntesDeConCandado(tsMs, forzar);
+            } finally {
+                candado.writeLock().unlock();
+            }
+        }
+
+        private int desalojarAntesDeConCandado(long tsMs, boolean forzar) {
+            if (!forzar && lectores.get() > 0) {
+                return 0;
+            }
+            int quitadas = 0;
+            while (tamano > 0 && ts[inicio] < tsMs) {
+                inicio = (inicio + 1) & (ids.length - 1);
+                tamano--;
+                quitadas++;
+            }
+            if (cubreDesde < tsMs) {
+                cubreDesde = tsMs;
+            }
+            return quitadas;
+        }
+
+        /**
+         * @return La posición lógica de la primera muestra con (ts, id) posterior a (tsMs, idExclusivo).
+         */
+        private int primeraDespuesDe(long tsMs, long idExclusivo) {
+            int bajo = 0;
+            int alto = tamano;
+            while (bajo < alto) {
+                int medio = (bajo + alto) >>> 1;
+                int p = pos(medio);
+                if (ts[p] < tsMs || (ts[p] == tsMs && ids[p] <= idExclusivo)) {
+                    bajo = medio + 1;
+                } else {
+                    alto = medio;
+                }
+            }
+            return bajo;
+        }
+    }
+
+    /**
+     * Recorrido de una serie por tramos: cada tramo se copia bajo el candado de lectura y se
+     * entrega fuera de él. Los arreglos del tramo se crean con la primera fila que se copia, así
+     * que un sensor sin filas en el rango no ocupa memoria.
+     */
+    private static final class Cursor {
+        private final Serie serie;
+        private final long hastaMs;
+        private final int filasPorTramo;
+        private long[] ids;
+        private long[] ts;
+        private int[] x;
+        private int[] y;
+        private int[] z;
+        private int n;
+        private int i;
+        // Última muestra entregada (el próximo tramo empieza después de ella)
+        private long ultimoTs;
+        private long ultimoId = Long.MIN_VALUE;
+        private boolean agotado;
+        boolean desalojada;
+
+        Cursor(Serie serie, long desdeMs, long hastaMs, int filasPorTramo) {
+            this.serie = serie;
+            this.hastaMs = hastaMs;
+            this.filasPorTramo = filasPorTramo;
+            this.ultimoTs = desdeMs;
+        }
+
+        boolean hayActual() {
+            if (i < n) {
+                return true;
+            }
+            if (agotado) {
+                return false;
+            }
+            copiarTramo();
+            return i < n;
+        }
+
+        /** Orden de las filas actuales de dos cursores (ambos con hayActual() == true). */
+        static int comparar(Cursor a, Cursor b) {
+            int porTs = Long.compare(a.ts[a.i], b.ts[b.i]);
+            return porTs != 0 ? porTs : Long.compare(a.ids[a.i], b.ids[b.i]);
+        }
+
+        void entregar(VisitanteMuestra visitante) {
+            ultimoTs = ts[i];
+            ultimoId = ids[i];
+            visitante.visitar(ids[i], ts[i], x[i], y[i], z[i]);
+            i++;
+        }
+
+        private void copiarTramo() {
+            n = 0;
+            i = 0;
+            serie.candado.readLock().lock();
+            try {
+                // Si el desalojo pasó por encima de la posición del recorrido, faltarían filas
+                if (serie.cubreDesde > ultimoTs) {
+                    desalojada = true;
+                    agotado = true;
+                    return;
+                }
+                int p = serie.primeraDespuesDe(ultimoTs, ultimoId);
+                while (n < filasPorTramo && p < serie.tamano) {
+                    int q = serie.pos(p);
+                    if (serie.ts[q] >= hastaMs) {
+                        agotado = true;
+                        break;
+                    }
+                    if (ids == null) {
+                        crearTramo();
+                    }
+                    ids[n] = serie.ids[q];
+                    ts[n] = serie.ts[q];
+                    x[n] = serie.x[q];
+                    y[n] = serie.y[q];
+                    z[n] = serie.z[q];
+                    n++;
+                    p++;
+                }
+                if (p >= serie.tamano) {
+                    agotado = true;
+                }
+            } finally {
+                serie.candado.readLock().unlock();
+            }
+        }
+
+        private void crearTramo() {
+            ids = new long[filasPorTramo];
+            ts = new long[filasPorTramo];
+            x = new int[filasPorTramo];
+            y = new int[filasPorTramo];
+            z = new int[filasPorTramo];
+        }
+    }
+}
@@ -0,0 +1,560 @@
+package monitoreo.servidor;
+
+import monitoreo.util.AnilloHash;
+import monitoreo.util.CifradoUtil;
+import monitoreo.util.Metricas;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.io.Serial;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Modo clúster: varios ServidorApp (en uno o más hosts) se reparten los sensores por hashing
+ * consistente (ver AnilloHash). Todos se arrancan con la misma lista --nodos y cada uno con su
+ * --nodo. Cada sensor tiene un solo nodo dueño, que guarda sus muestras y su historia.
+ * <ul>
+ *   <li>REGISTRAR y GUARDAR de un sensor ajeno responden "REDIRIGIR:host:puerto": el cliente
+ *       se conecta al dueño (o lo calcula él mismo con la misma lista de nodos).</li>
+ *   <li>Las consultas de un sensor ajeno se reenvían a su dueño y la respuesta se retransmite.</li>
+ *   <li>Las consultas de todos los sensores se reparten a todos los nodos y se reúnen aquí:
+ *       cada nodo responde en orden y las filas se mezclan conforme llegan (las cubetas con el
+ *       mismo inicio se combinan), sin juntar los resultados completos en memoria.</li>
+ * </ul>
+ * Entre nodos se usa el protocolo de texto con el prefijo "LOCAL:", que pide responder solo con
+ * los datos propios (así una petición nunca se reparte dos veces).
+ */
+public final class Cluster {
+
+    private static final Logger LOG = LoggerFactory.getLogger(Cluster.class);
+
+    /** Prefijo de las peticiones entre nodos: se responden solo con los datos del nodo. */
+    public static final String PREFIJO_LOCAL = "LOCAL:";
+
+    private static final int TIMEOUT_CONEXION_MS = 3000;
+    // Tiempo máximo sin recibir nada de un nodo en medio de una respuesta
+    private static final int TIMEOUT_RESPUESTA_MS = 30_000;
+    // Conexiones libres que se guardan por nodo para la próxima petición
+    private static final int CONEXIONES_POR_NODO = 8;
+    // Bloques que una fuente adelanta mientras la mezcla consume otra
+    private static final int BLOQUES_EN_ESPERA = 4;
+
+    private static final LongAdder PETICIONES_NODO = Metricas.contador("monitoreo_cluster_peticiones_total",
+            "Peticiones enviadas a otros nodos del clúster.");
+    private static final LongAdder ERRORES_NODO = Metricas.contador("monitoreo_cluster_errores_total",
+            "Peticiones a otros nodos que fallaron (conexión, tiempo de espera o ERROR del nodo).");
+
+    private static volatile AnilloHash anillo;
+    private static volatile String esteNodo;
+    private static final Map<String, BlockingQueue<ConexionNodo>> libres = new ConcurrentHashMap<>();
+
+    private Cluster() {
+    }
+
+    /**
+     * Orden en que cada nodo entrega las filas de una consulta y cómo se mezclan.
+     */
+    public enum Orden {
+        /** Filas "id,x,y,z,fecha,hora" (CONSULTAR): por fecha y hora. */
+        FECHA_HORA,
+        /** Filas "ts,x,y,z" (CONSULTAR_RANGO sin cubetas): por ts. */
+        TS,
+        /** Cubetas "inicio,n,minX,maxX,promX,..." de CONSULTAR_RANGO: las del mismo inicio se combinan. */
+        CUBETA,
+        /** Cubetas "inicio,n,minX,maxX,promX,desvX,..." de CONSULTAR_RESUMEN: ídem, con desviación. */
+        CUBETA_DESVIACION
+    }
+
+    /**
+     * Consulta de este nodo con la misma salida por bloques que la petición repartida.
+     */
+    @FunctionalInterface
+    public interface ConsultaLocal {
+        /**
+         * @return Filas entregadas, o -1 si falló.
+         */
+        int consultar(Consumer<String> alBloque);
+    }
+
+    /**
+     * Activa el modo clúster si la configuración trae --nodos y este nodo figura en la lista.
+     * @return true si quedó activo.
+     */
+    public static boolean iniciar(ConfiguracionServidor config) {
+        AnilloHash nuevo = AnilloHash.desdeLista(config.getNodos());
+        if (nuevo == null) {
+            return false;
+        }
+        String nodo = config.getNodo();
+        if (!nuevo.getNodos().contains(nodo)) {
+            LOG.error("El nodo {} no figura en --nodos={}: el modo clúster queda desactivado.", nodo, nuevo);
+            return false;
+        }
+        for (String otro : nuevo.getNodos()) {
+            try {
+                AnilloHash.puerto(otro);
+            } catch (NumberFormatException | StringIndexOutOfBoundsException e) {
+                LOG.error("Nodo inválido '{}' (se esperaba host:puerto): el modo clúster queda desactivado.", otro);
+                return false;
+            }
+        }
+        esteNodo = nodo;
+        anillo = nuevo;
+        LOG.info("Modo clúster: nodo {} de {}.", nodo, nuevo.getNodos().size());
+        return true;
+    }
+
+    public static boolean activo() {
+        return anillo != null;
+    }
+
+    /**
+     * @return El nodo dueño del sensor si es otro, o null si es este (o no hay clúster).
+     */
+    public static String duenoAjeno(String sensorId) {
+        AnilloHash actual = anillo;
+        if (actual == null) {
+            return null;
+        }
+        String dueno = actual.nodoDe(sensorId);
+        return dueno.equals(esteNodo) ? null : dueno;
+    }
+
+    // --- REENVÍO ---
+
+    /**
+     * Manda la petición al nodo (como "LOCAL:") y retransmite sus respuestas tal cual hasta la
+     * última (la primera que no sea BLOQUE: ni PROGRESO:).
+     * @return false si el nodo no respondió; el llamador contesta el error al cliente.
+     */
+    public static boolean reenviar(String nodo, String peticion, SalidaCliente out) {
+        PETICIONES_NODO.increment();
+        ConexionNodo conexion = null;
+        try {
+            conexion = obtener(nodo);
+            conexion.enviar(PREFIJO_LOCAL + peticion);
+            while (true) {
+                String respuesta = conexion.leer();
+                out.enviar(respuesta);
+                if (!respuesta.startsWith("BLOQUE:") && !respuesta.startsWith("PROGRESO:")) {
+                    break;
+                }
+            }
+            devolver(nodo, conexion);
+            return true;
+        } catch (IOException e) {
+            ERRORES_NODO.increment();
+            LOG.warn("No se pudo reenviar la petición al nodo {}: {}", nodo, e.getMessage());
+            if (conexion != null) {
+                conexion.cerrar();
+            }
+            return false;
+        }
+    }
+
+    // --- REPARTO Y REUNIÓN ---
+
+    /**
+     * Reparte la consulta a los demás nodos (como "LOCAL:" + peticion), la ejecuta también aquí y
+     * entrega las filas de todos mezcladas en el orden indicado, en bloques de filasPorBloque.
+     * Cada fuente corre en su propio hilo virtual y adelanta a lo sumo BLOQUES_EN_ESPERA bloques.
+     * @param peticion Petición que se manda a los otros nodos; debe responder "BLOQUE:..." y "FIN:n".
+     * @return Filas entregadas, o -1 si alguna fuente falló (puede haberse entregado una parte).
+     */
+    public static int reunir(String peticion, ConsultaLocal local, Orden orden, int filasPorBloque,
+                             Consumer<String> alBloque) {
+        AnilloHash actual = anillo;
+        List<Fuente> fuentes = new ArrayList<>();
+        fuentes.add(Fuente.local(local));
+        for (String nodo : actual.getNodos()) {
+            if (!nodo.equals(esteNodo)) {
+                fuentes.add(Fuente.remota(nodo, PREFIJO_LOCAL + peticion));
+            }
+        }
+
+        Mezcla mezcla = new Mezcla(orden, filasPorBloque, alBloque);
+        Comparator<Fuente> porClave = orden == Orden.FECHA_HORA
+                ? Comparator.comparing((Fuente f) -> f.claveTexto).thenComparingInt(f -> f.indice)
+                : Comparator.comparingLong((Fuente f) -> f.clave).thenComparingInt(f -> f.indice);
+        PriorityQueue<Fuente> cola = new PriorityQueue<>(porClave);
+        try {
+            for (int i = 0; i < fuentes.size(); i++) {
+                Fuente fuente = fuentes.get(i);
+                fuente.indice = i;
+                if (fuente.avanzar(orden)) {
+                    cola.add(fuente);
+                }
+            }
+            while (!cola.isEmpty()) {
+                Fuente fuente = cola.poll();
+                mezcla.agregar(fuente.fila, fuente.clave);
+                if (fuente.avanzar(orden)) {
+                    cola.add(fuente);
+                }
+            }
+            return mezcla.terminar();
+
+        } catch (IOException e) {
+            ERRORES_NODO.increment();
+            LOG.warn("Consulta repartida incompleta: {}", e.getMessage());
+            return -1;
+        } finally {
+            for (Fuente fuente : fuentes) {
+                fuente.cancelar();
+            }
+        }
+    }
+
+    /**
+     * Las filas de un nodo (o de este) en orden. Un hilo virtual las produce en bloques hacia una
+     * cola corta con los mensajes del protocolo: "BLOQUE:...", y al final "FIN:n" o "ERROR:...".
+     */
+    private static final class Fuente {
+        private final String nombre;
+        private final BlockingQueue<String> mensajes = new ArrayBlockingQueue<>(BLOQUES_EN_ESPERA);
+        private volatile boolean cancelada;
+        private String[] filas = new String[0];
+        private int posicion;
+        int indice;
+        String fila;
+        long clave;
+        String claveTexto;
+
+        private Fuente(String nombre) {
+            this.nombre = nombre;
+        }
+
+        static Fuente local(ConsultaLocal consulta) {
+            Fuente fuente = new Fuente("este nodo");
+            Thread.ofVirtual().name("cluster-local").start(() -> {
+                try {
+                    int total = consulta.consultar(bloque -> {
+                        if (!fuente.poner("BLOQUE:" + bloque)) {
+                            // La mezcla terminó (otro nodo falló): se corta el recorrido en vez de
+                            // leer el resto del rango con la conexión de lectura prestada
+                            throw new ConsultaCortada();
+                        }
+                    });
+                    fuente.poner(total < 0 ? "ERROR:Fallo al consultar la base de datos." : "FIN:" + total);
+                } catch (ConsultaCortada e) {
+                    // Los finally de la consulta ya cerraron el ResultSet y devolvieron el lector
+                }
+            });
+            return fuente;
+        }
+
+        static Fuente remota(String nodo, String peticion) {
+            Fuente fuente = new Fuente("el nodo " + nodo);
+            Thread.ofVirtual().name("cluster-" + nodo).start(() -> {
+                PETICIONES_NODO.increment();
+                ConexionNodo conexion = null;
+                try {
+                    conexion = obtener(nodo);
+                    conexion.enviar(peticion);
+                    String respuesta;
+                    do {
+                        respuesta = conexion.leer();
+                        if (!fuente.poner(respuesta)) {
+                            // La mezcla terminó antes: la respuesta queda a medias en el socket
+                            conexion.cerrar();
+                            return;
+                        }
+                    } while (respuesta.startsWith("BLOQUE:"));
+                    devolver(nodo, conexion);
+                } catch (IOException e) {
+                    if (conexion != null) {
+                        conexion.cerrar();
+                    }
+                    fuente.poner("ERROR:" + e.getMessage());
+                }
+            });
+            return fuente;
+        }
+
+        /**
+         * Espera lugar en la cola mientras la mezcla siga leyendo.
+         * @return false si la mezcla ya no lo espera.
+         */
+        private boolean poner(String mensaje) {
+            try {
+                while (!cancelada) {
+                    if (mensajes.offer(mensaje, 1, TimeUnit.SECONDS)) {
+                        return true;
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return false;
+        }
+
+        /**
+         * Pasa a la siguiente fila y calcula su clave de orden.
+         * @return false si la fuente terminó.
+         */
+        boolean avanzar(Orden orden) throws IOException {
+            while (posicion == filas.length) {
+                String mensaje;
+                try {
+                    mensaje = mensajes.poll(TIMEOUT_RESPUESTA_MS, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrumpido esperando a " + nombre + ".");
+                }
+                if (mensaje == null) {
+                    throw new IOException(nombre + " no respondió en " + TIMEOUT_RESPUESTA_MS + " ms.");
+                }
+                if (mensaje.startsWith("FIN:")) {
+                    return false;
+                }
+                if (!mensaje.startsWith("BLOQUE:")) {
+                    throw new IOException(nombre + " respondió " + mensaje);
+                }
+                filas = mensaje.substring("BLOQUE:".length()).split("\\|");
+                posicion = 0;
+            }
+            fila = filas[posicion++];
+            if (orden == Orden.FECHA_HORA) {
+                // "id,x,y,z,yyyy-MM-dd,HH:mm:ss": desde la fecha el texto ordena cronológicamente
+                int coma = -1;
+                for (int i = 0; i < 4; i++) {
+                    coma = fila.indexOf(',', coma + 1);
+                }
+                claveTexto = fila.substring(coma + 1);
+            } else {
+                int coma = fila.indexOf(',');
+                try {
+                    clave = Long.parseLong(coma < 0 ? fila : fila.substring(0, coma));
+                } catch (NumberFormatException e) {
+                    throw new IOException(nombre + " respondió una fila inválida: " + fila);
+                }
+            }
+            return true;
+        }
+
+        void cancelar() {
+            cancelada = true;
+            mensajes.clear();
+        }
+    }
+
+    /**
+     * Sale de la consulta local cuando la mezcla ya no espera sus bloques. Sin traza: no es un error.
+     */
+    private static final class ConsultaCortada extends RuntimeException {
+
+        @Serial
+        private static final long serialVersionUID = 1L;
+
+        ConsultaCortada() {
+            super(null, null, false, false);
+        }
+    }
+
+    /**
+     * Junta las filas ya ordenadas en bloques. Con cubetas, las de igual inicio (de nodos
+     * distintos) se combinan en una: n suma, min/max de los extremos, promedio ponderado por n y
+     * desviación (poblacional) a partir de la media de los cuadrados de cada parte.
+     */
+    private static final class Mezcla {
+        private final Orden orden;
+        private final int filasPorBloque;
+        private final Consumer<String> alBloque;
+        private final StringBuilder bloque;
+        private final int camposPorEje;
+        private int filasEnBloque;
+        private int total;
+
+        // Cubeta pendiente: [n, y por eje min, max, promedio(, desviación)]
+        private boolean hayCubeta;
+        private long inicioCubeta;
+        private double[] cubeta;
+
+        Mezcla(Orden orden, int filasPorBloque, Consumer<String> alBloque) {
+            this.orden = orden;
+            this.filasPorBloque = filasPorBloque;
+            this.alBloque = alBloque;
+            this.bloque = new StringBuilder(filasPorBloque * 64);
+            this.camposPorEje = orden == Orden.CUBETA_DESVIACION ? 4 : 3;
+        }
+
+        void agregar(String fila, long clave) throws IOException {
+            if (orden == Orden.FECHA_HORA || orden == Orden.TS) {
+                emitir(fila);
+                return;
+            }
+            double[] valores = leerCubeta(fila);
+            if (hayCubeta && clave == inicioCubeta) {
+                combinar(valores);
+            } else {
+                emitirCubeta();
+                hayCubeta = true;
+                inicioCubeta = clave;
+                cubeta = valores;
+            }
+        }
+
+        private double[] leerCubeta(String fila) throws IOException {
+            String[] campos = fila.split(",");
+            if (campos.length != 2 + 3 * camposPorEje) {
+                throw new IOException("Cubeta con formato inesperado: " + fila);
+            }
+            double[] valores = new double[campos.length - 1];
+            try {
+                for (int i = 1; i < campos.length; i++) {
+                    valores[i - 1] = Double.parseDouble(campos[i]);
+                }
+            } catch (NumberFormatException e) {
+                throw new IOException("Cubeta con formato inesperado: " + fila);
+            }
+            return valores;
+        }
+
+        private void combinar(double[] otra) {
+            double n1 = cubeta[0];
+            double n2 = otra[0];
+            double n = n1 + n2;
+            for (int eje = 1; eje < cubeta.length; eje += camposPorEje) {
+                double p1 = cubeta[eje + 2];
+                double p2 = otra[eje + 2];
+                double promedio = (n1 * p1 + n2 * p2) / n;
+                if (camposPorEje == 4) {
+                    double d1 = cubeta[eje + 3];
+                    double d2 = otra[eje + 3];
+                    double cuadrados = (n1 * (d1 * d1 + p1 * p1) + n2 * (d2 * d2 + p2 * p2)) / n;
+                    cubeta[eje + 3] = Math.sqrt(Math.max(0, cuadrados - promedio * promedio));
+                }
+                cubeta[eje] = Math.min(cubeta[eje], otra[eje]);
+                cubeta[eje + 1] = Math.max(cubeta[eje + 1], otra[eje + 1]);
+                cubeta[eje + 2] = promedio;
+            }
+            cubeta[0] = n;
+        }
+
+        private void emitirCubeta() {
+            if (!hayCubeta) {
+                return;
+            }
+            StringBuilder fila = new StringBuilder(96).append(inicioCubeta).append(',').append((long) cubeta[0]);
+            for (int eje = 1; eje < cubeta.length; eje += camposPorEje) {
+                fila.append(',').append((long) cubeta[eje]).append(',').append((long) cubeta[eje + 1]);
+                for (int c = 2; c < camposPorEje; c++) {
+                    fila.append(',').append(Math.round(cubeta[eje + c] * 100) / 100.0);
+                }
+            }
+            hayCubeta = false;
+            emitir(fila);
+        }
+
+        private void emitir(CharSequence fila) {
+            if (filasEnBloque > 0) {
+                bloque.append('|');
+            }
+            bloque.append(fila);
+            total++;
+            if (++filasEnBloque >= filasPorBloque) {
+                alBloque.accept(bloque.toString());
+                bloque.setLength(0);
+                filasEnBloque = 0;
+            }
+        }
+
+        int terminar() {
+            emitirCubeta();
+            if (filasEnBloque > 0) {
+                alBloque.accept(bloque.toString());
+                bloque.setLength(0);
+                filasEnBloque = 0;
+            }
+            return total;
+        }
+    }
+
+    // --- CONEXIONES ENTRE NODOS ---
+
+    private static ConexionNodo obtener(String nodo) throws IOException {
+        BlockingQueue<ConexionNodo> cola = libres.get(nodo);
+        ConexionNodo conexion = cola != null ? cola.poll() : null;
+        return conexion != null ? conexion : ConexionNodo.abrir(nodo);
+    }
+
+    /**
+     * Guarda la conexión para la próxima petición; solo después de leer su respuesta completa.
+     */
+    private static void devolver(String nodo, ConexionNodo conexion) {
+        if (!libres.computeIfAbsent(nodo, n -> new ArrayBlockingQueue<>(CONEXIONES_POR_NODO)).offer(conexion)) {
+            conexion.cerrar();
+        }
+    }
+
+    /**
+     * Conexión con otro nodo por el protocolo de texto, sin ids: una petición a la vez.
+     */
+    private static final class ConexionNodo {
+        private final Socket socket;
+        private final PrintWriter out;
+        private final BufferedReader in;
+
+        private ConexionNodo(Socket socket) throws IOException {
+            this.socket = socket;
+            this.out = new PrintWriter(socket.getOutputStream(), true, StandardCharsets.UTF_8);
+            this.in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+        }
+
+        static ConexionNodo abrir(String nodo) throws IOException {
+            Socket socket = new Socket();
+            try {
+                socket.setTcpNoDelay(true);
+                socket.connect(new InetSocketAddress(AnilloHash.host(nodo), AnilloHash.puerto(nodo)), TIMEOUT_CONEXION_MS);
+                socket.setSoTimeout(TIMEOUT_RESPUESTA_MS);
+                return new ConexionNodo(socket);
+            } catch (IOException e) {
+                socket.close();
+                throw e;
+            }
+        }
+
+        void enviar(String peticion) throws IOException {
+            out.println(CifradoUtil.encrypt(peticion));
+            if (out.checkError()) {
+                throw new IOException("No se pudo escribir al nodo.");
+            }
+        }
+
+        String leer() throws IOException {
+            String linea = in.readLine();
+            if (linea == null) {
+                throw new IOException("El nodo cerró la conexión.");
+            }
+            String respuesta = CifradoUtil.decrypt(linea);
+            if (respuesta == null) {
+                throw new IOException("Respuesta del nodo ilegible.");
+            }
+            return respuesta;
+        }
+
+        void cerrar() {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // Ya estaba cerrado
+            }
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package monitoreo.servidor;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Parámetros de arranque del servidor (modo del motor, puerto y límites de conexión).
+ * Se construye a partir de los argumentos de línea de comandos con el formato --clave=valor.
+ */
+public class ConfiguracionServidor {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ConfiguracionServidor.class);
+
+    /** Modos de atención de conexiones disponibles. */
+    public enum Modo {
+        /** Un hilo virtual por conexión con E/S bloqueante (modo por defecto). */
+        VIRTUAL,
+        /** Un único Selector NIO que multiplexa todas las conexiones. */
+        NIO
+    }
+
+    private Modo modo = Modo.VIRTUAL;
+    private int puerto = ServidorApp.PUERTO_BASE;
+    private int backlog = 128;
+    private int maxConexiones = 1000;
+    private long tiempoGraciaMs = 5000;
+    // Endpoint local de métricas en texto plano (0 = deshabilitado)
+    private int puertoMetricas = 9464;
+    // Modo clúster: todos los nodos "host:puerto" y el nombre de este en esa lista (null = sin clúster)
+    private String nodos;
+    private String nodo;
+
+    /**
+     * Interpreta los argumentos del tipo --modo=nio --puerto=5000 --backlog=256
+     * --max-conexiones=2000 --gracia-ms=5000 --puerto-metricas=9464
+     * --nodos=127.0.0.1:5001,127.0.0.1:5002 --nodo=127.0.0.1:5001.
+     * Los argumentos desconocidos se ignoran.
+     */
+    public static ConfiguracionServidor desdeArgumentos(String[] args) {
+        ConfiguracionServidor config = new ConfiguracionServidor();
+
+        for (String arg : args) {
+            int igual = arg.indexOf('=');
+            if (!arg.startsWith("--") || igual < 0) {
+                continue;
+            }
+            String clave = arg.substring(2, igual);
+            String valor = arg.substring(igual + 1).trim();
+
+            try {
+                switch (clave) {
+                    case "modo" -> config.modo = Modo.valueOf(valor.toUpperCase());
+                    case "puerto" -> config.puerto = Integer.parseInt(valor);
+                    case "backlog" -> config.backlog = Integer.parseInt(valor);
+                    case "max-conexiones" -> config.maxConexiones = Integer.parseInt(valor);
+                    case "gracia-ms" -> config.tiempoGraciaMs = Long.parseLong(valor);
+                    case "puerto-metricas" -> config.puertoMetricas = Integer.parseInt(valor);
+                    case "nodos" -> config.nodos = valor;
+                    case "nodo" -> config.nodo = valor;
+                    default -> { /* Argumento de otro componente */ }
+                }
+            } catch (IllegalArgumentException e) {
+                LOG.warn("Argumento inválido '{}', se usa el valor por defecto.", arg);
+            }
+        }
+        return config;
+    }
+
+    public Modo getModo() {
+        return modo;
+    }
+
+    public int getPuerto() {
+        return puerto;
+    }
+
+    public int getBacklog() {
+        return backlog;
+    }
+
+    public int getMaxConexiones() {
+        return maxConexiones;
+    }
+
+    public long getTiempoGraciaMs() {
+        return tiempoGraciaMs;
+    }
+
+    public int getPuertoMetricas() {
+        return puertoMetricas;
+    }
+
+    /** @return Lista "host:puerto,..." de los nodos del clúster, o null sin modo clúster. */
+    public String getNodos() {
+        return nodos;
+    }
+
+    /** @return Este nodo tal como figura en --nodos (por defecto 127.0.0.1:puerto). */
+    public String getNodo() {
+        return nodo != null ? nodo : "127.0.0.1:" + puerto;
+    }
+
+    @Override
+    public String toString() {
+        return "modo=" + modo + ", puerto=" + puerto + ", backlog=" + backlog
+                + ", maxConexiones=" + maxConexiones + ", graciaMs=" + tiempoGraciaMs
+                + ", puertoMetricas=" + puertoMetricas + (nodos != null ? ", nodo=" + getNodo() + ", nodos=" + nodos : "");
+    }
+}
@@ -0,0 +1,205 @@
+package monitoreo.servidor;
+
+import monitoreo.db.Alerta;
+import monitoreo.db.ConexionBD;
+import monitoreo.util.Metricas;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Etapa de análisis de la ingesta: cada muestra recién interpretada pasa por aquí antes de
+ * guardarse. Por sensor se lleva, en campos primitivos, la media y la varianza móviles
+ * exponenciales (EWMA) de la magnitud del vector (x, y, z) y un pico móvil que decae hacia la
+ * media. Analizar una muestra no reserva memoria; solo una alerta crea objetos.
+ *
+ * Alertas:
+ * <ul>
+ *   <li>UMBRAL: la magnitud supera monitoreo.alertas.umbral.</li>
+ *   <li>PICO: la magnitud se aleja de la media más de monitoreo.alertas.sigmas desviaciones
+ *       (después de las primeras monitoreo.alertas.calentamiento muestras del sensor).</li>
+ * </ul>
+ * Cada tipo se repite a lo sumo una vez por monitoreo.alertas.esperaMs y sensor. Las alertas se
+ * envían a los suscriptores del sensor ("ALERTA:...") y se guardan en la tabla 'alertas' desde un
+ * hilo propio, en lotes: la ingesta nunca espera a la base de datos por una alerta.
+ */
+public final class DetectorAnomalias {
+
+    private static final Logger LOG = LoggerFactory.getLogger(DetectorAnomalias.class);
+
+    private static final boolean ACTIVO = Boolean.parseBoolean(System.getProperty("monitoreo.alertas", "true"));
+    // Magnitud máxima esperada: con ejes en [-1024, 1024] el vector llega a ~1774
+    private static final double UMBRAL = Double.parseDouble(System.getProperty("monitoreo.alertas.umbral", "1600"));
+    private static final double SIGMAS = Double.parseDouble(System.getProperty("monitoreo.alertas.sigmas", "6"));
+    // Peso de cada muestra nueva en la media y la varianza (a 100 Hz, memoria de ~1 s)
+    private static final double ALFA = Double.parseDouble(System.getProperty("monitoreo.alertas.alfa", "0.01"));
+    private static final long CALENTAMIENTO = Long.getLong("monitoreo.alertas.calentamiento", 200);
+    private static final long ESPERA_MS = Long.getLong("monitoreo.alertas.esperaMs", 1000);
+
+    // Alertas que pueden esperar al hilo que las guarda; si se llena, se descartan
+    private static final int CAPACIDAD_COLA = 4096;
+    private static final int MAX_LOTE = 256;
+
+    public static final String UMBRAL_SUPERADO = "UMBRAL";
+    public static final String PICO = "PICO";
+
+    private static final LongAdder ALERTAS_UMBRAL = Metricas.contador("monitoreo_alertas_total",
+            "Alertas del detector de anomalías por tipo.", "tipo", UMBRAL_SUPERADO);
+    private static final LongAdder ALERTAS_PICO = Metricas.contador("monitoreo_alertas_total",
+            "Alertas del detector de anomalías por tipo.", "tipo", PICO);
+    private static final LongAdder DESCARTADAS = Metricas.contador("monitoreo_alertas_descartadas_total",
+            "Alertas que no se guardaron porque la cola hacia la base estaba llena.");
+
+    private static final Map<String, Estado> porSensor = new ConcurrentHashMap<>();
+    private static final BlockingQueue<Alerta> pendientes = new ArrayBlockingQueue<>(CAPACIDAD_COLA);
+    private static volatile Thread escritor;
+
+    private DetectorAnomalias() {
+    }
+
+    /**
+     * Estadísticas móviles de un sensor, protegidas por el propio objeto (las conexiones del
+     * mismo sensor se turnan; el candado sin competencia cuesta unos nanosegundos).
+     */
+    static final class Estado {
+        private long muestras;
+        private double media;
+        private double varianza;
+        private double pico;
+        private long ultimaUmbral = Long.MIN_VALUE;
+        private long ultimaPico = Long.MIN_VALUE;
+
+        /**
+         * @return La alerta que dispara la muestra, o null (el caso normal).
+         */
+        synchronized Alerta analizar(String sensorId, long timestampMs, int x, int y, int z) {
+            double magnitud = Math.sqrt((double) x * x + (double) y * y + (double) z * z);
+            double mediaAnterior = media;
+            double desviacion = Math.sqrt(varianza);
+            double diferencia = magnitud - mediaAnterior;
+
+            // EWMA de la media y de la varianza (forma incremental de West)
+            if (muestras == 0) {
+                media = magnitud;
+                pico = magnitud;
+            } else {
+                media += ALFA * diferencia;
+                varianza = (1 - ALFA) * (varianza + ALFA * diferencia * diferencia);
+                pico = Math.max(magnitud, media + (pico - media) * (1 - ALFA));
+            }
+            muestras++;
+
+            String tipo = null;
+            if (UMBRAL > 0 && magnitud > UMBRAL && timestampMs >= ultimaUmbral + ESPERA_MS) {
+                ultimaUmbral = timestampMs;
+                tipo = UMBRAL_SUPERADO;
+            } else if (muestras > CALENTAMIENTO && desviacion > 0 && Math.abs(diferencia) > SIGMAS * desviacion
+                    && timestampMs >= ultimaPico + ESPERA_MS) {
+                ultimaPico = timestampMs;
+                tipo = PICO;
+            }
+            return tipo == null ? null
+                    : new Alerta(sensorId, timestampMs, tipo, magnitud, mediaAnterior, desviacion, pico);
+        }
+    }
+
+    /**
+     * Analiza una muestra recién interpretada. Lo llaman los hilos de ingesta.
+     */
+    public static void analizar(String sensorId, long timestampMs, int x, int y, int z) {
+        if (!ACTIVO) {
+            return;
+        }
+        Estado estado = porSensor.get(sensorId);
+        if (estado == null) {
+            estado = porSensor.computeIfAbsent(sensorId, s -> new Estado());
+        }
+        Alerta alerta = estado.analizar(sensorId, timestampMs, x, y, z);
+        if (alerta != null) {
+            emitir(alerta);
+        }
+    }
+
+    private static void emitir(Alerta alerta) {
+        (PICO.equals(alerta.tipo()) ? ALERTAS_PICO : ALERTAS_UMBRAL).increment();
+        LOG.info("Alerta {} del sensor {}: magnitud {} (media {}, desviación {})", alerta.tipo(),
+                alerta.sensorId(), Math.round(alerta.magnitud()), Math.round(alerta.media()),
+                Math.round(alerta.desviacion()));
+
+        Suscripciones.publicarAlerta(alerta.sensorId(), "ALERTA:" + alerta.sensorId() + "," + alerta.timestampMs()
+                + "," + alerta.tipo() + "," + redondear(alerta.magnitud()) + "," + redondear(alerta.media())
+                + "," + redondear(alerta.desviacion()) + "," + redondear(alerta.pico()));
+
+        iniciarEscritor();
+        if (!pendientes.offer(alerta)) {
+            DESCARTADAS.increment();
+        }
+    }
+
+    private static double redondear(double valor) {
+        return Math.round(valor * 100) / 100.0;
+    }
+
+    /**
+     * El hilo que guarda las alertas se crea con la primera: un servidor sin alertas no lo tiene.
+     */
+    private static void iniciarEscritor() {
+        if (escritor != null) {
+            return;
+        }
+        synchronized (DetectorAnomalias.class) {
+            if (escritor == null) {
+                Thread hilo = new Thread(DetectorAnomalias::guardarPendientes, "alertas-bd");
+                hilo.setDaemon(true);
+                hilo.start();
+                escritor = hilo;
+            }
+        }
+    }
+
+    private static void guardarPendientes() {
+        List<Alerta> lote = new ArrayList<>(MAX_LOTE);
+        try {
+            while (true) {
+                Alerta primera = pendientes.poll(1, TimeUnit.SECONDS);
+                if (primera == null) {
+                    continue;
+                }
+                lote.add(primera);
+                pendientes.drainTo(lote, MAX_LOTE - 1);
+                ConexionBD.guardarAlertas(lote);
+                lote.clear();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Guarda las alertas que quedaron en la cola. Se llama al apagar el servidor, antes de
+     * cerrar la base de datos.
+     */
+    public static void cerrar() {
+        Thread hilo = escritor;
+        if (hilo != null) {
+            hilo.interrupt();
+            try {
+                hilo.join(TimeUnit.SECONDS.toMillis(5));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        List<Alerta> restantes = new ArrayList<>();
+        pendientes.drainTo(restantes);
+        if (!restantes.isEmpty()) {
+            ConexionBD.guardarAlertas(restantes);
+        }
+    }
+}
@@ -0,0 +1,14 @@
+package monitoreo.servidor;
+
+/**
+ * Destino de las tramas del protocolo binario hacia un cliente.
+ * Las implementaciones deben ser seguras si varios hilos escriben a la misma conexión.
+ */
+@FunctionalInterface
+public interface EscritorTramas {
+
+    /**
+     * Escribe una trama completa; el payload ya debe venir encriptado.
+     */
+    void enviarTrama(byte tipo, int idPeticion, byte[] payload);
+}
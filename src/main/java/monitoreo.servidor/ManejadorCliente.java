@@ -1,129 +1,717 @@
 package monitoreo.servidor;
 
 import monitoreo.db.ConexionBD;
+import monitoreo.db.Exportador;
 import monitoreo.util.CifradoUtil;
+import monitoreo.util.Histograma;
+import monitoreo.util.Metricas;
+import monitoreo.util.ProtocoloBinario;
+import monitoreo.util.ProtocoloBinario.MuestraBinaria;
+import monitoreo.util.ProtocoloBinario.Trama;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.io.PrintWriter;
+import java.io.UncheckedIOException;
 import java.net.Socket;
+import java.nio.file.Path;
 import java.util.List; // Necesario para la lista de resultados
 import java.util.ArrayList; // Necesario para la lista de resultados
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
-// Clase que maneja la comunicación con UN cliente específico en su propio Thread
+// Clase que maneja la comunicación con UN cliente específico.
+// En modo bloqueante corre en su propio hilo (run); en modo NIO el motor le entrega cada línea.
 public class ManejadorCliente implements Runnable {
 
+    private static final Logger LOG = LoggerFactory.getLogger(ManejadorCliente.class);
+
+    // Filas por bloque en las respuestas de CONSULTAR_STREAM
+    private static final int FILAS_POR_BLOQUE = 500;
+    private static final int MAX_FILAS_POR_BLOQUE = 20_000;
+
+    // Peticiones con id ("@id|<base64>" en texto; todas las tramas binarias) se atienden en
+    // paralelo: una consulta larga no retrasa los GUARDAR que comparten la conexión
+    private static final String PREFIJO_ID = "@";
+    // Límite compartido con MotorNio, que pausa la lectura de la conexión al alcanzarlo
+    static final int MAX_EN_CURSO = 64;
+
+    // Directorio local donde EXPORTAR deja los archivos (el cliente no elige la ruta, solo el rango)
+    private static final Path DIRECTORIO_EXPORTACION =
+            Path.of(System.getProperty("monitoreo.exportar.dir", "exportaciones"));
+
+    // --- Métricas ---
+    // Peticiones por tipo; las peticiones por segundo las calcula quien lee el contador
+    private static final String[] TIPOS_PETICION = {"REGISTRAR", "GUARDAR", "GUARDAR_LOTE", "CONSULTAR",
+            "CONSULTAR_STREAM", "CONSULTAR_RANGO", "CONSULTAR_RESUMEN", "SUSCRIBIR", "CANCELAR_SUSCRIPCION", "EXPORTAR",
+            "DESCONOCIDA"};
+    private static final Map<String, LongAdder> PETICIONES = new HashMap<>();
+    static {
+        for (String tipo : TIPOS_PETICION) {
+            PETICIONES.put(tipo, Metricas.contador("monitoreo_peticiones_total",
+                    "Peticiones recibidas por tipo.", "tipo", tipo));
+        }
+    }
+    private static final Histograma LATENCIA_PARSEO = Metricas.latencia(Metricas.PARSEO, Metricas.AYUDA_PARSEO);
+    private static final Histograma LATENCIA_CONSULTA = Metricas.latencia("monitoreo_bd_consulta_segundos",
+            "Tiempo de una consulta, incluido el envío de sus bloques al cliente.");
+
     private final Socket clienteSocket;
+    private final String direccionRemota;
+    // Solo para run(): limita las peticiones en paralelo de esta conexión
+    private final Semaphore enCurso = new Semaphore(MAX_EN_CURSO);
+    // Sensor al que se atribuyen las muestras que envía esta conexión (lo fija REGISTRAR)
+    private volatile String sensorId = ConexionBD.SENSOR_POR_DEFECTO;
+    // En modo clúster, el nodo dueño de sensorId si no es este: las muestras se redirigen allí
+    private volatile String duenoSensor = Cluster.duenoAjeno(ConexionBD.SENSOR_POR_DEFECTO);
+    // Suscripciones en vivo abiertas por esta conexión (se cancelan al cerrarla)
+    private final List<Suscriptor> suscripciones = new CopyOnWriteArrayList<>();
+    private volatile boolean cerrado;
 
     public ManejadorCliente(Socket socket) {
+        this(socket, socket.getInetAddress().getHostAddress());
+    }
+
+    /**
+     * Constructor para motores que hacen su propia E/S (sin Socket bloqueante).
+     */
+    ManejadorCliente(String direccionRemota) {
+        this(null, direccionRemota);
+    }
+
+    private ManejadorCliente(Socket socket, String direccionRemota) {
         this.clienteSocket = socket;
-        System.out.println("1. Nuevo cliente conectado desde: " + socket.getInetAddress().getHostAddress());
+        this.direccionRemota = direccionRemota;
+        LOG.debug("1. Nuevo cliente conectado desde: {}", direccionRemota);
+    }
+
+    public String getDireccionRemota() {
+        return direccionRemota;
     }
 
     @Override
     public void run() {
         try (
                 // Streams para enviar y recibir datos
-                PrintWriter out = new PrintWriter(clienteSocket.getOutputStream(), true);
-                BufferedReader in = new BufferedReader(new InputStreamReader(clienteSocket.getInputStream()))
+                BufferedInputStream entrada = new BufferedInputStream(clienteSocket.getInputStream());
+                OutputStream salidaRed = clienteSocket.getOutputStream()
         ) {
-            String inputLine;
-            // Leer datos del cliente línea por línea
-            while ((inputLine = in.readLine()) != null) {
-                // El servidor espera recibir un mensaje encriptado
-                procesarPeticion(inputLine, out);
+            // El primer byte indica el protocolo: MAGIA = binario, cualquier otro = líneas Base64
+            entrada.mark(1);
+            int primerByte = entrada.read();
+            if (primerByte < 0) {
+                return;
+            }
+            entrada.reset();
+
+            if ((byte) primerByte == ProtocoloBinario.MAGIA) {
+                atenderBinario(entrada, salidaRed);
+            } else {
+                atenderTexto(entrada, salidaRed);
             }
 
-        } catch (IOException e) {
+        } catch (IOException | UncheckedIOException e) {
             // Esto ocurre cuando el cliente cierra la conexión (se desconecta)
-            System.err.println("Error de I/O en la comunicación con el cliente: " + e.getMessage());
+            LOG.debug("Error de I/O en la comunicación con el cliente: {}", e.getMessage());
         } finally {
+            cerrar();
             try {
                 clienteSocket.close();
-                System.out.println("Cliente desconectado: " + clienteSocket.getInetAddress().getHostAddress());
+                LOG.debug("Cliente desconectado: {}", direccionRemota);
             } catch (IOException e) {
-                System.err.println("Error al cerrar el socket: " + e.getMessage());
+                LOG.warn("Error al cerrar el socket: {}", e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Libera lo que la conexión tenga registrado en el servidor. La llama el motor al cerrarla.
+     */
+    void cerrar() {
+        cerrado = true;
+        for (Suscriptor suscriptor : suscripciones) {
+            Suscripciones.cancelar(suscriptor, false);
+        }
+        suscripciones.clear();
+    }
+
+    private void atenderTexto(InputStream entrada, OutputStream salidaRed) throws IOException {
+        PrintWriter out = new PrintWriter(salidaRed, true);
+        BufferedReader in = new BufferedReader(new InputStreamReader(entrada));
+
+        String inputLine;
+        // Leer datos del cliente línea por línea
+        while ((inputLine = in.readLine()) != null) {
+            // El servidor espera recibir un mensaje encriptado
+            String linea = inputLine;
+            if (esMultiplexada(linea)) {
+                enParalelo(() -> procesarLinea(linea, out::println));
+            } else {
+                procesarLinea(linea, out::println);
+            }
+        }
+        esperarEnCurso();
+    }
+
+    private void atenderBinario(InputStream entrada, OutputStream salidaRed) throws IOException {
+        DataInputStream in = new DataInputStream(entrada);
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(salidaRed));
+
+        // 1. Negociar la versión del protocolo
+        byte[] saludo = new byte[ProtocoloBinario.LONGITUD_SALUDO];
+        in.readFully(saludo);
+        byte version = ProtocoloBinario.negociarVersion(saludo);
+        out.write(ProtocoloBinario.saludo(version));
+        out.flush();
+        if (version == ProtocoloBinario.VERSION_RECHAZADA) {
+            LOG.warn("Versión de protocolo binario no soportada. Cerrando conexión.");
+            return;
+        }
+
+        // 2. Atender tramas hasta que el cliente se desconecte
+        EscritorTramas escritor = (tipo, idPeticion, payload) -> {
+            synchronized (out) {
+                try {
+                    ProtocoloBinario.escribirTrama(out, tipo, idPeticion, payload);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        };
+        Trama trama;
+        while ((trama = ProtocoloBinario.leerTrama(in)) != null) {
+            Trama recibida = trama;
+            enParalelo(() -> procesarTrama(recibida, escritor));
+        }
+        esperarEnCurso();
+    }
+
+    /**
+     * Atiende la petición en su propio hilo virtual. Si ya hay MAX_EN_CURSO en proceso, el hilo
+     * lector espera aquí y deja de leer del socket hasta que alguna termine.
+     */
+    private void enParalelo(Runnable peticion) throws IOException {
+        try {
+            enCurso.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrumpido esperando peticiones en curso", e);
+        }
+        Thread.startVirtualThread(() -> {
+            try {
+                peticion.run();
+            } catch (UncheckedIOException e) {
+                LOG.debug("Error de I/O al responder al cliente: {}", e.getMessage());
+            } finally {
+                enCurso.release();
             }
+        });
+    }
+
+    /**
+     * Espera a que terminen las peticiones en paralelo antes de cerrar el socket.
+     */
+    private void esperarEnCurso() {
+        try {
+            enCurso.acquire(MAX_EN_CURSO);
+            enCurso.release(MAX_EN_CURSO);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return true si la línea trae id de petición ("@id|<base64>") y puede atenderse en paralelo.
+     */
+    static boolean esMultiplexada(String linea) {
+        return linea.startsWith(PREFIJO_ID);
+    }
+
+    /**
+     * Atiende una línea del protocolo de texto. Si trae id ("@id|<base64>"), cada respuesta se
+     * escribe con el mismo prefijo para que el cliente la asocie a su petición.
+     * @param escritorLineas Escribe una línea completa hacia el cliente (seguro entre hilos).
+     */
+    void procesarLinea(String linea, Consumer<String> escritorLineas) {
+        int separador = linea.indexOf('|');
+        if (esMultiplexada(linea) && separador > 0) {
+            String prefijo = linea.substring(0, separador + 1);
+            procesarPeticion(linea.substring(separador + 1),
+                    SalidaCliente.texto(respuesta -> escritorLineas.accept(prefijo + respuesta)));
+        } else {
+            procesarPeticion(linea, SalidaCliente.texto(escritorLineas));
+        }
+    }
+
+    /**
+     * Atiende una trama del protocolo binario. Las muestras GUARDAR llegan empaquetadas;
+     * el resto de los mensajes viajan como TEXTO y se procesan igual que en el protocolo de texto.
+     */
+    void procesarTrama(Trama trama, EscritorTramas out) {
+        int id = trama.idPeticion();
+
+        switch (trama.tipo()) {
+            case ProtocoloBinario.GUARDAR -> {
+                PETICIONES.get("GUARDAR").increment();
+                MuestraBinaria m = ProtocoloBinario.descifrarMuestra(trama.payload());
+                if (m == null) {
+                    LOG.warn("Error: Trama GUARDAR inválida. Descartando.");
+                    out.enviarTrama(ProtocoloBinario.ERROR, id, ProtocoloBinario.cifrarTexto("ERROR:Trama inválida."));
+                    return;
+                }
+                String dueno = duenoSensor;
+                if (dueno != null) {
+                    out.enviarTrama(ProtocoloBinario.ERROR, id, ProtocoloBinario.cifrarTexto("REDIRIGIR:" + dueno));
+                    return;
+                }
+                if (guardar(m.x(), m.y(), m.z(), m.timestampMs())) {
+                    out.enviarTrama(ProtocoloBinario.ACK, id, new byte[0]);
+                } else {
+                    out.enviarTrama(ProtocoloBinario.ERROR, id,
+                            ProtocoloBinario.cifrarTexto("ERROR:Fallo al guardar los datos en la base de datos."));
+                }
+            }
+            case ProtocoloBinario.GUARDAR_LOTE -> {
+                PETICIONES.get("GUARDAR_LOTE").increment();
+                List<MuestraBinaria> lote = ProtocoloBinario.descifrarLote(trama.payload());
+                if (lote == null) {
+                    LOG.warn("Error: Trama GUARDAR_LOTE inválida. Descartando.");
+                    out.enviarTrama(ProtocoloBinario.ERROR, id, ProtocoloBinario.cifrarTexto("ERROR:Trama inválida."));
+                    return;
+                }
+                String dueno = duenoSensor;
+                if (dueno != null) {
+                    out.enviarTrama(ProtocoloBinario.ERROR, id, ProtocoloBinario.cifrarTexto("REDIRIGIR:" + dueno));
+                    return;
+                }
+                out.enviarTrama(ProtocoloBinario.ACK_LOTE, id, ProtocoloBinario.codificarEstados(guardarLote(lote)));
+            }
+            case ProtocoloBinario.TEXTO -> {
+                String mensaje = ProtocoloBinario.descifrarTexto(trama.payload());
+                if (mensaje == null) {
+                    LOG.warn("Error: No se pudo desencriptar el mensaje. Descartando.");
+                    return;
+                }
+                procesarMensaje(mensaje, respuesta ->
+                        out.enviarTrama(ProtocoloBinario.TEXTO, id, ProtocoloBinario.cifrarTexto(respuesta)));
+            }
+            default -> LOG.warn("Tipo de trama no reconocido: {}", trama.tipo());
         }
     }
 
     /**
      * Analiza el mensaje recibido (encriptado), lo desencripta y realiza la acción.
      */
-    private void procesarPeticion(String mensajeEncriptado, PrintWriter out) {
+    void procesarPeticion(String mensajeEncriptado, SalidaCliente out) {
 
         // 1. DESENCRIPTAR EL MENSAJE
         String mensajeDesencriptado = CifradoUtil.decrypt(mensajeEncriptado);
 
         if (mensajeDesencriptado == null) {
-            System.err.println("Error: No se pudo desencriptar el mensaje. Descartando.");
+            LOG.warn("Error: No se pudo desencriptar el mensaje. Descartando.");
             return;
         }
 
+        procesarMensaje(mensajeDesencriptado, out);
+    }
+
+    /**
+     * Realiza la acción pedida en un mensaje ya desencriptado y envía la respuesta en claro
+     * (la SalidaCliente se encarga de encriptarla según el protocolo de la conexión).
+     */
+    private void procesarMensaje(String mensaje, SalidaCliente out) {
+        // Petición de otro nodo del clúster ("LOCAL:..."): se responde solo con los datos de este
+        boolean deOtroNodo = mensaje.startsWith(Cluster.PREFIJO_LOCAL);
+        String mensajeDesencriptado = deOtroNodo ? mensaje.substring(Cluster.PREFIJO_LOCAL.length()) : mensaje;
+        // Las consultas de todos los sensores se reparten y las de un sensor ajeno se reenvían
+        boolean distribuir = Cluster.activo() && !deOtroNodo;
+        contarPeticion(mensajeDesencriptado);
+
         // 2. Identificar el tipo de petición
-        if (mensajeDesencriptado.startsWith("GUARDAR:")) {
+        if (mensajeDesencriptado.startsWith("REGISTRAR:")) {
+            // Ejemplo: "REGISTRAR:estacion-7". Desde aquí las muestras de la conexión son de ese
+            // sensor (y van a su partición); sin registrarse son de ConexionBD.SENSOR_POR_DEFECTO
+            String sensor = mensajeDesencriptado.substring("REGISTRAR:".length()).trim();
+            if (!esSensorValido(sensor)) {
+                out.enviar("ERROR:Id de sensor inválido.");
+                return;
+            }
+            String dueno = Cluster.duenoAjeno(sensor);
+            if (dueno != null) {
+                // En modo clúster el sensor es de otro nodo: el cliente debe conectarse allí
+                out.enviar("REDIRIGIR:" + dueno);
+                LOG.debug("3. Cliente {} redirigido al nodo {} por el sensor {}.", direccionRemota, dueno, sensor);
+                return;
+            }
+            sensorId = sensor;
+            duenoSensor = null;
+            out.enviar("ACK:Sensor registrado: " + sensor);
+            LOG.debug("3. Cliente {} registrado como sensor {} (partición {}).", direccionRemota, sensor,
+                    ConexionBD.particion(sensor).getIndice());
+
+        } else if (mensajeDesencriptado.startsWith("GUARDAR:")) {
             String datos = mensajeDesencriptado.substring("GUARDAR:".length());
-            System.out.println("2. Cliente solicitó guardar datos: " + datos);
+            LOG.debug("2. Cliente solicitó guardar datos: {}", datos);
+            String dueno = duenoSensor;
+            if (dueno != null) {
+                out.enviar("REDIRIGIR:" + dueno);
+                return;
+            }
 
             String respuesta;
             boolean guardadoExitoso = manejarGuardado(datos);
 
             if (guardadoExitoso) {
                 respuesta = "ACK:Datos guardados exitosamente.";
-                System.out.println("4. Se envió confirmación de guardado.");
+                LOG.debug("4. Se envió confirmación de guardado.");
             } else {
                 respuesta = "ERROR:Fallo al guardar los datos en la base de datos.";
-                System.err.println("4. Fallo al guardar los datos.");
+                LOG.warn("4. Fallo al guardar los datos.");
             }
 
-            // 3. Enviar respuesta encriptada
-            String respuestaEncriptada = CifradoUtil.encrypt(respuesta);
-            out.println(respuestaEncriptada);
+            // 3. Enviar respuesta (se encripta al escribirla)
+            out.enviar(respuesta);
+
+        } else if (mensajeDesencriptado.startsWith("GUARDAR_LOTE:")) {
+            // Formato: "GUARDAR_LOTE:ts,x,y,z;ts,x,y,z;..." (ts = epoch en milisegundos)
+            String datos = mensajeDesencriptado.substring("GUARDAR_LOTE:".length());
+            String dueno = duenoSensor;
+            if (dueno != null) {
+                out.enviar("REDIRIGIR:" + dueno);
+                return;
+            }
+            List<MuestraBinaria> lote = parsearLote(datos);
+            if (lote == null) {
+                // Igual que en binario: un lote demasiado grande se rechaza entero, no se recorta
+                LOG.warn("Error: GUARDAR_LOTE con más de {} muestras. Descartando.", ProtocoloBinario.MAX_MUESTRAS_LOTE);
+                out.enviar("ERROR:El lote supera las " + ProtocoloBinario.MAX_MUESTRAS_LOTE + " muestras.");
+                return;
+            }
+            boolean[] estados = guardarLote(lote);
+
+            // Un solo ACK para todo el lote: "ACK_LOTE:guardadas/total:1101..." (1 = guardada)
+            StringBuilder respuesta = new StringBuilder(estados.length + 32);
+            int guardadas = 0;
+            for (boolean estado : estados) {
+                respuesta.append(estado ? '1' : '0');
+                if (estado) guardadas++;
+            }
+            respuesta.insert(0, "ACK_LOTE:" + guardadas + "/" + estados.length + ":");
+            LOG.debug("4. Lote de {} muestras: {} guardadas.", estados.length, guardadas);
+
+            out.enviar(respuesta.toString());
 
         } else if (mensajeDesencriptado.startsWith("CONSULTAR:")) {
             // Ejemplo de mensaje esperado: "CONSULTAR:2025-12-01" (solo fecha)
             String filtros = mensajeDesencriptado.substring("CONSULTAR:".length());
-            System.out.println("3. Cliente solicitó consulta histórica con filtros: " + filtros);
+            LOG.debug("3. Cliente solicitó consulta histórica con filtros: {}", filtros);
 
             // 1. Asumimos que el filtro es la fecha (YYYY-MM-DD)
             String fechaFiltro = filtros.trim().isEmpty() ? null : filtros.trim();
 
             // 2. Consultar la base de datos
             // El método consultaDatos ahora espera solo la fecha de filtro.
-            List<String> datos = ConexionBD.consultarDatos(fechaFiltro);
+            long inicioConsulta = System.nanoTime();
+            List<String> datos;
+            if (distribuir) {
+                // Las filas de todos los nodos, mezcladas por fecha y hora
+                List<String> bloques = new ArrayList<>();
+                int total = Cluster.reunir("CONSULTAR_STREAM:" + (fechaFiltro == null ? "" : fechaFiltro) + ","
+                                + MAX_FILAS_POR_BLOQUE,
+                        alBloque -> ConexionBD.consultarDatosPorBloques(fechaFiltro, MAX_FILAS_POR_BLOQUE, alBloque),
+                        Cluster.Orden.FECHA_HORA, MAX_FILAS_POR_BLOQUE, bloques::add);
+                if (total < 0) {
+                    out.enviar("ERROR:Fallo al consultar los nodos del clúster.");
+                    return;
+                }
+                datos = bloques;
+            } else {
+                datos = ConexionBD.consultarDatos(fechaFiltro);
+            }
+            LATENCIA_CONSULTA.registrarDesde(inicioConsulta);
 
             // 3. Formatear y enviar los datos
             // 🚨 CORRECCIÓN: Usar la variable 'datos' en lugar de la variable no declarada 'registros'
             String datosParaEnviar = String.join("|", datos);
 
             // Si no hay datos, enviamos un mensaje de error o vacío
-            String datosEncriptados;
+            String respuesta;
             if (datos.isEmpty()) {
-                datosEncriptados = CifradoUtil.encrypt("ERROR:No se encontraron datos con esos filtros.");
-                System.out.println("4. Se envió ERROR de consulta.");
+                respuesta = "ERROR:No se encontraron datos con esos filtros.";
+                LOG.debug("4. Se envió ERROR de consulta.");
             } else {
                 // El formato final enviado será: "DATA:ID,x,y,z,f,h|ID,x,y,z,f,h|..."
-                String mensajeFinal = "DATA:" + datosParaEnviar;
-                datosEncriptados = CifradoUtil.encrypt(mensajeFinal);
-                System.out.println("4. Se enviaron " + datos.size() + " registros.");
+                respuesta = "DATA:" + datosParaEnviar;
+                LOG.debug("4. Se enviaron {} registros.", datos.size());
+            }
+
+            out.enviar(respuesta);
+
+        } else if (mensajeDesencriptado.startsWith("CONSULTAR_STREAM:")) {
+            // Ejemplo: "CONSULTAR_STREAM:2025-12-01" o "CONSULTAR_STREAM:2025-12-01,1000" (filas por bloque)
+            String[] filtros = mensajeDesencriptado.substring("CONSULTAR_STREAM:".length()).split(",");
+            String fechaFiltro = filtros[0].trim().isEmpty() ? null : filtros[0].trim();
+            int filasPorBloque = FILAS_POR_BLOQUE;
+            if (filtros.length > 1) {
+                try {
+                    filasPorBloque = Math.max(1, Math.min(MAX_FILAS_POR_BLOQUE, Integer.parseInt(filtros[1].trim())));
+                } catch (NumberFormatException e) {
+                    LOG.warn("Tamaño de bloque inválido, se usa {}.", FILAS_POR_BLOQUE);
+                }
+            }
+            LOG.debug("3. Cliente solicitó consulta histórica por bloques con filtros: {}", fechaFiltro);
+
+            // Cada bloque se encripta y envía en cuanto sale del ResultSet: "BLOQUE:fila|fila|..."
+            // y al final "FIN:<total>" (o "ERROR:..." si la consulta falló)
+            long inicioConsulta = System.nanoTime();
+            int filas = filasPorBloque;
+            Cluster.ConsultaLocal local = alBloque -> ConexionBD.consultarDatosPorBloques(fechaFiltro, filas, alBloque);
+            int total = distribuir
+                    ? Cluster.reunir(mensajeDesencriptado, local, Cluster.Orden.FECHA_HORA, filasPorBloque,
+                            b -> out.enviar("BLOQUE:" + b))
+                    : local.consultar(b -> out.enviar("BLOQUE:" + b));
+            LATENCIA_CONSULTA.registrarDesde(inicioConsulta);
+
+            if (total < 0) {
+                out.enviar(distribuir ? "ERROR:Fallo al consultar los nodos del clúster."
+                        : "ERROR:Fallo al consultar la base de datos.");
+            } else {
+                out.enviar("FIN:" + total);
+                LOG.debug("4. Se enviaron {} registros por bloques.", total);
+            }
+
+        } else if (mensajeDesencriptado.startsWith("CONSULTAR_RANGO:")) {
+            // Ejemplo: "CONSULTAR_RANGO:desdeMs,hastaMs,cubetaMs,sensor"
+            // (cubetaMs opcional, 0 = muestras crudas; sensor opcional, sin él se consultan todos)
+            String[] filtros = mensajeDesencriptado.substring("CONSULTAR_RANGO:".length()).split(",");
+            long desde, hasta, cubeta;
+            try {
+                desde = Long.parseLong(filtros[0].trim());
+                hasta = Long.parseLong(filtros[1].trim());
+                cubeta = filtros.length > 2 ? Math.max(0, Long.parseLong(filtros[2].trim())) : 0;
+            } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+                LOG.warn("Formato de consulta por rango incorrecto: {}", mensajeDesencriptado);
+                out.enviar("ERROR:Se esperaba CONSULTAR_RANGO:desdeMs,hastaMs[,cubetaMs[,sensor]].");
+                return;
+            }
+            String sensor = filtros.length > 3 && !filtros[3].trim().isEmpty() ? filtros[3].trim() : null;
+            LOG.debug("3. Cliente solicitó rango [{}, {}) con cubetas de {} ms{}",
+                    desde, hasta, cubeta, sensor != null ? " del sensor " + sensor : "");
+
+            if (distribuir && reenviarAlDueno(sensor, mensajeDesencriptado, out)) {
+                return;
+            }
+
+            // Misma respuesta por bloques que CONSULTAR_STREAM: "BLOQUE:..." y al final "FIN:<total>"
+            long inicioConsulta = System.nanoTime();
+            Cluster.ConsultaLocal local = alBloque -> ConexionBD.consultarRango(sensor, desde, hasta, cubeta,
+                    FILAS_POR_BLOQUE, alBloque);
+            int total = distribuir
+                    ? Cluster.reunir(mensajeDesencriptado, local, cubeta > 0 ? Cluster.Orden.CUBETA : Cluster.Orden.TS,
+                            FILAS_POR_BLOQUE, bloque -> out.enviar("BLOQUE:" + bloque))
+                    : local.consultar(bloque -> out.enviar("BLOQUE:" + bloque));
+            LATENCIA_CONSULTA.registrarDesde(inicioConsulta);
+
+            if (total < 0) {
+                out.enviar(distribuir ? "ERROR:Fallo al consultar los nodos del clúster."
+                        : "ERROR:Fallo al consultar la base de datos.");
+            } else {
+                out.enviar("FIN:" + total);
+                LOG.debug("4. Se enviaron {} filas del rango.", total);
+            }
+
+        } else if (mensajeDesencriptado.startsWith("CONSULTAR_RESUMEN:")) {
+            // Ejemplo: "CONSULTAR_RESUMEN:desdeMs,hastaMs,resolucionMs,sensor" (sensor opcional).
+            // Se responde desde la tabla de resúmenes más gruesa que alcance la resolución
+            String[] filtros = mensajeDesencriptado.substring("CONSULTAR_RESUMEN:".length()).split(",");
+            long desde, hasta, resolucion;
+            try {
+                desde = Long.parseLong(filtros[0].trim());
+                hasta = Long.parseLong(filtros[1].trim());
+                resolucion = Long.parseLong(filtros[2].trim());
+            } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+                LOG.warn("Formato de consulta de resumen incorrecto: {}", mensajeDesencriptado);
+                out.enviar("ERROR:Se esperaba CONSULTAR_RESUMEN:desdeMs,hastaMs,resolucionMs[,sensor].");
+                return;
+            }
+            String sensor = filtros.length > 3 && !filtros[3].trim().isEmpty() ? filtros[3].trim() : null;
+            LOG.debug("3. Cliente solicitó resumen [{}, {}) con resolución de {} ms{}",
+                    desde, hasta, resolucion, sensor != null ? " del sensor " + sensor : "");
+
+            if (distribuir && reenviarAlDueno(sensor, mensajeDesencriptado, out)) {
+                return;
+            }
+
+            // "BLOQUE:..." con filas "inicioCubeta,n,minX,maxX,promX,desvX,..." y al final "FIN:<total>"
+            long inicioConsulta = System.nanoTime();
+            Cluster.ConsultaLocal local = alBloque -> ConexionBD.consultarResumen(sensor, desde, hasta, resolucion,
+                    FILAS_POR_BLOQUE, alBloque);
+            int total = distribuir
+                    ? Cluster.reunir(mensajeDesencriptado, local, Cluster.Orden.CUBETA_DESVIACION, FILAS_POR_BLOQUE,
+                            bloque -> out.enviar("BLOQUE:" + bloque))
+                    : local.consultar(bloque -> out.enviar("BLOQUE:" + bloque));
+            LATENCIA_CONSULTA.registrarDesde(inicioConsulta);
+
+            if (total < 0) {
+                out.enviar(distribuir ? "ERROR:Fallo al consultar los nodos del clúster."
+                        : "ERROR:Fallo al consultar la base de datos.");
+            } else {
+                out.enviar("FIN:" + total);
+                LOG.debug("4. Se enviaron {} cubetas del resumen.", total);
+            }
+
+        } else if (mensajeDesencriptado.startsWith("EXPORTAR:")) {
+            // Ejemplo: "EXPORTAR:csv,desdeMs,hastaMs,sensor" (formato csv o columnar; sensor opcional,
+            // sin él se exporta el sensor por defecto). Mientras corre se envía "PROGRESO:filas,bytes"
+            // y al final "EXPORTADO:filas,bytes,ruta" con el archivo en el directorio de exportación
+            String[] filtros = mensajeDesencriptado.substring("EXPORTAR:".length()).split(",");
+            Exportador.Formato formato;
+            long desde, hasta;
+            try {
+                formato = Exportador.Formato.valueOf(filtros[0].trim().toUpperCase());
+                desde = Long.parseLong(filtros[1].trim());
+                hasta = Long.parseLong(filtros[2].trim());
+            } catch (IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
+                LOG.warn("Formato de exportación incorrecto: {}", mensajeDesencriptado);
+                out.enviar("ERROR:Se esperaba EXPORTAR:csv|columnar,desdeMs,hastaMs[,sensor].");
+                return;
+            }
+            String sensor = filtros.length > 3 && !filtros[3].trim().isEmpty()
+                    ? filtros[3].trim() : ConexionBD.SENSOR_POR_DEFECTO;
+            if (!esSensorValido(sensor) || desde >= hasta) {
+                out.enviar("ERROR:Sensor o rango inválido.");
+                return;
+            }
+            if (distribuir && reenviarAlDueno(sensor, mensajeDesencriptado, out)) {
+                // El archivo queda en el directorio de exportación del nodo dueño
+                return;
+            }
+            LOG.debug("3. Cliente solicitó exportar [{}, {}) del sensor {} en {}", desde, hasta, sensor, formato);
+
+            Exportador.Resultado resultado = Exportador.exportar(sensor, desde, hasta, formato,
+                    DIRECTORIO_EXPORTACION, sensor + "_" + desde + "_" + hasta,
+                    (filas, bytes) -> out.enviar("PROGRESO:" + filas + "," + bytes));
+            if (resultado == null) {
+                out.enviar("ERROR:Fallo al exportar los datos.");
+            } else {
+                out.enviar("EXPORTADO:" + resultado.filas() + "," + resultado.bytes() + ","
+                        + resultado.archivo().toAbsolutePath());
+                LOG.debug("4. Se exportaron {} filas a {}.", resultado.filas(), resultado.archivo());
             }
 
-            out.println(datosEncriptados);
+        } else if (mensajeDesencriptado.startsWith("SUSCRIBIR:")) {
+            // Ejemplo: "SUSCRIBIR:local" (vacío = todos los sensores). Respuesta: "SUSCRITO:<sensor>",
+            // luego "MUESTRAS:descartadas:ts,x,y,z;..." por cada grupo de muestras guardadas, hasta
+            // "FIN:<entregadas>" al cancelar. Todo llega con el id de la petición SUSCRIBIR.
+            String sensor = mensajeDesencriptado.substring("SUSCRIBIR:".length()).trim();
+            if (!sensor.isEmpty() && !esSensorValido(sensor)) {
+                out.enviar("ERROR:Id de sensor inválido.");
+                return;
+            }
+            // En modo clúster las muestras de un sensor solo pasan por su dueño (sin sensor, se
+            // reciben las que llegan a este nodo)
+            String dueno = sensor.isEmpty() ? null : Cluster.duenoAjeno(sensor);
+            if (dueno != null) {
+                out.enviar("REDIRIGIR:" + dueno);
+                return;
+            }
+            Suscriptor suscriptor = Suscripciones.suscribir(sensor.isEmpty() ? null : sensor, out);
+            if (suscriptor == null) {
+                out.enviar("ERROR:El servidor no admite más suscripciones.");
+                return;
+            }
+            suscripciones.add(suscriptor);
+            if (cerrado && suscripciones.remove(suscriptor)) {
+                // La conexión se cerró mientras se atendía la petición
+                Suscripciones.cancelar(suscriptor, false);
+                return;
+            }
+            LOG.debug("3. Cliente {} suscrito a {} ({} suscriptores).", direccionRemota,
+                    sensor.isEmpty() ? "todos los sensores" : "el sensor " + sensor, Suscripciones.activos());
+
+        } else if (mensajeDesencriptado.startsWith("CANCELAR_SUSCRIPCION:")) {
+            // Cierra las suscripciones de esta conexión a ese sensor (vacío = las de todos los sensores)
+            String sensor = mensajeDesencriptado.substring("CANCELAR_SUSCRIPCION:".length()).trim();
+            int canceladas = 0;
+            for (Suscriptor suscriptor : suscripciones) {
+                boolean coincide = sensor.isEmpty() ? suscriptor.getSensor() == null : sensor.equals(suscriptor.getSensor());
+                if (coincide && suscripciones.remove(suscriptor) && Suscripciones.cancelar(suscriptor, true)) {
+                    canceladas++;
+                }
+            }
+            out.enviar("ACK:Suscripciones canceladas: " + canceladas);
 
         } else {
-            System.err.println("Petición no reconocida: " + mensajeDesencriptado);
+            LOG.warn("Petición no reconocida: {}", mensajeDesencriptado);
+        }
+    }
+
+    /**
+     * En modo clúster, manda la consulta de un sensor ajeno a su nodo dueño y retransmite la respuesta.
+     * @return true si la consulta quedó respondida (por el dueño o con un ERROR); false si el sensor
+     *         es de este nodo o la consulta es de todos los sensores.
+     */
+    private static boolean reenviarAlDueno(String sensor, String peticion, SalidaCliente out) {
+        String dueno = sensor == null ? null : Cluster.duenoAjeno(sensor);
+        if (dueno == null) {
+            return false;
+        }
+        if (!Cluster.reenviar(dueno, peticion, out)) {
+            out.enviar("ERROR:No se pudo consultar al nodo " + dueno + ".");
+        }
+        return true;
+    }
+
+    /**
+     * Cuenta la petición según el tipo que va antes del primer ':'.
+     */
+    private static void contarPeticion(String mensaje) {
+        int dosPuntos = mensaje.indexOf(':');
+        LongAdder contador = dosPuntos > 0 ? PETICIONES.get(mensaje.substring(0, dosPuntos)) : null;
+        (contador != null ? contador : PETICIONES.get("DESCONOCIDA")).increment();
+    }
+
+    /**
+     * Un id de sensor viaja dentro de los formatos "a,b;c,d" y "CLAVE:valor" y nombra un
+     * directorio del archivo columnar: no puede llevar separadores, rutas ni el comodín '*'.
+     */
+    static boolean esSensorValido(String sensor) {
+        if (sensor.isEmpty() || sensor.length() > 64) {
+            return false;
         }
+        for (int i = 0; i < sensor.length(); i++) {
+            char c = sensor.charAt(i);
+            if (c == ',' || c == ';' || c == ':' || c == '|' || c == '*' || c == '/' || c == '\\'
+                    || Character.isWhitespace(c)) {
+                return false;
+            }
+        }
+        return !sensor.startsWith(".");
     }
 
     /**
      * Parsea la cadena de datos (x,y,z) y los inserta en la BD.
      */
     private boolean manejarGuardado(String datos) {
+        long inicio = System.nanoTime();
         try {
             // Esperamos un formato "X,Y,Z"
             String[] partes = datos.split(",");
             if (partes.length != 3) {
-                System.err.println("Formato de datos incorrecto: Se esperaban X,Y,Z.");
+                LOG.warn("Formato de datos incorrecto: Se esperaban X,Y,Z.");
                 return false;
             }
 
@@ -131,20 +719,128 @@ public class ManejadorCliente implements Runnable {
             int x = Integer.parseInt(partes[0].trim());
             int y = Integer.parseInt(partes[1].trim());
             int z = Integer.parseInt(partes[2].trim());
+            LATENCIA_PARSEO.registrarDesde(inicio);
+
+            // El protocolo de texto no trae timestamp: se usa la hora de llegada
+            return guardar(x, y, z, System.currentTimeMillis());
+
+        } catch (NumberFormatException e) {
+            LOG.warn("Error de formato: X, Y, Z deben ser números enteros. Mensaje: {}", e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Parsea las muestras "ts,x,y,z" separadas por ';'. Las entradas mal formadas quedan
+     * como null para reportarlas como fallidas sin descartar el resto del lote.
+     * @return null si el lote trae más de ProtocoloBinario.MAX_MUESTRAS_LOTE muestras.
+     */
+    static List<MuestraBinaria> parsearLote(String datos) {
+        long inicio = System.nanoTime();
+        String[] entradas = datos.isEmpty() ? new String[0] : datos.split(";");
+        if (entradas.length > ProtocoloBinario.MAX_MUESTRAS_LOTE) {
+            return null;
+        }
+        List<MuestraBinaria> lote = new ArrayList<>(entradas.length);
+
+        for (int i = 0; i < entradas.length; i++) {
+            String[] partes = entradas[i].split(",");
+            try {
+                if (partes.length != 4) {
+                    throw new NumberFormatException("Se esperaban ts,X,Y,Z");
+                }
+                lote.add(new MuestraBinaria(
+                        Integer.parseInt(partes[1].trim()),
+                        Integer.parseInt(partes[2].trim()),
+                        Integer.parseInt(partes[3].trim()),
+                        Long.parseLong(partes[0].trim())));
+            } catch (NumberFormatException e) {
+                LOG.warn("Muestra {} del lote con formato incorrecto: {}", i, entradas[i]);
+                lote.add(null);
+            }
+        }
+        LATENCIA_PARSEO.registrarDesde(inicio);
+        return lote;
+    }
+
+    /**
+     * Pasa las muestras válidas por el detector de anomalías, las encola todas de una vez y
+     * espera a que se guarden.
+     * @return El estado de cada muestra, en el mismo orden (false si era inválida o falló).
+     */
+    private boolean[] guardarLote(List<MuestraBinaria> lote) {
+        // Todo el lote es del sensor registrado al llegar, aunque un REGISTRAR en paralelo lo cambie
+        String sensor = sensorId;
+        List<CompletableFuture<Boolean>> pendientes = new ArrayList<>(lote.size());
+        for (MuestraBinaria m : lote) {
+            if (m != null) {
+                DetectorAnomalias.analizar(sensor, m.timestampMs(), m.x(), m.y(), m.z());
+            }
+            pendientes.add(m == null ? null : ConexionBD.encolarDatos(sensor, m.x(), m.y(), m.z(), m.timestampMs()));
+        }
 
-            // Llamada al método de inserción en la BD (usa fecha y hora actuales)
-            boolean exito = ConexionBD.insertarDatos(x, y, z);
+        boolean[] estados = new boolean[lote.size()];
+        for (int i = 0; i < estados.length; i++) {
+            CompletableFuture<Boolean> pendiente = pendientes.get(i);
+            try {
+                estados[i] = pendiente != null && pendiente.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return estados;
+            } catch (Exception e) {
+                LOG.error("Error inesperado al guardar datos: {}", e.getMessage());
+            }
+        }
+        publicarGuardadas(sensor, lote, estados);
+        return estados;
+    }
+
+    /**
+     * Publica a los suscriptores las muestras del lote que quedaron guardadas, en una sola pasada.
+     */
+    private void publicarGuardadas(String sensor, List<MuestraBinaria> lote, boolean[] estados) {
+        if (Suscripciones.activos() == 0) {
+            return;
+        }
+        int n = 0;
+        long[] ts = new long[estados.length];
+        int[] x = new int[estados.length];
+        int[] y = new int[estados.length];
+        int[] z = new int[estados.length];
+        for (int i = 0; i < estados.length; i++) {
+            if (estados[i]) {
+                MuestraBinaria m = lote.get(i);
+                ts[n] = m.timestampMs();
+                x[n] = m.x();
+                y[n] = m.y();
+                z[n] = m.z();
+                n++;
+            }
+        }
+        Suscripciones.publicarLote(sensor, ts, x, y, z, n);
+    }
+
+    /**
+     * Pasa la muestra por el detector de anomalías, la encola para el commit agrupado y espera a
+     * que su lote quede guardado antes de responder al cliente.
+     */
+    private boolean guardar(int x, int y, int z, long timestampMs) {
+        String sensor = sensorId;
+        DetectorAnomalias.analizar(sensor, timestampMs, x, y, z);
+        try {
+            boolean exito = ConexionBD.encolarDatos(sensor, x, y, z, timestampMs).get();
 
             if (exito) {
-                System.out.println("3. Datos insertados en la DB: X=" + x + ", Y=" + y + ", Z=" + z);
+                LOG.debug("3. Datos insertados en la DB: X={}, Y={}, Z={}", x, y, z);
+                Suscripciones.publicar(sensor, timestampMs, x, y, z);
             }
             return exito;
 
-        } catch (NumberFormatException e) {
-            System.err.println("Error de formato: X, Y, Z deben ser números enteros. Mensaje: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
             return false;
         } catch (Exception e) {
-            System.err.println("Error inesperado al guardar datos: " + e.getMessage());
+            LOG.error("Error inesperado al guardar datos: {}", e.getMessage());
             return false;
         }
     }
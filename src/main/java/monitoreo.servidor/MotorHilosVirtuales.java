@@ -0,0 +1,137 @@
+package monitoreo.servidor;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Motor con un hilo virtual por conexión. Conserva la E/S bloqueante de ManejadorCliente,
+ * pero sin el costo de memoria ni el límite de hilos nativos de un Thread por cliente.
+ */
+public class MotorHilosVirtuales implements MotorServidor {
+
+    private static final Logger LOG = LoggerFactory.getLogger(MotorHilosVirtuales.class);
+
+    private final ConfiguracionServidor config;
+    private final Semaphore cupos;
+    private final Set<Socket> sockets = ConcurrentHashMap.newKeySet();
+    private final ExecutorService ejecutor = Executors.newVirtualThreadPerTaskExecutor();
+    private final CountDownLatch terminado = new CountDownLatch(1);
+
+    private ServerSocket serverSocket;
+    private volatile boolean activo;
+
+    public MotorHilosVirtuales(ConfiguracionServidor config) {
+        this.config = config;
+        this.cupos = new Semaphore(config.getMaxConexiones());
+    }
+
+    @Override
+    public void iniciar() throws IOException {
+        serverSocket = new ServerSocket();
+        serverSocket.setReuseAddress(true);
+        serverSocket.bind(new InetSocketAddress(config.getPuerto()), config.getBacklog());
+        activo = true;
+
+        // El bucle de aceptación es un hilo de plataforma: vive lo mismo que el servidor
+        Thread aceptador = new Thread(this::aceptarConexiones, "aceptador-virtual");
+        aceptador.start();
+    }
+
+    private void aceptarConexiones() {
+        try {
+            while (activo) {
+                // Bloquea hasta que un cliente se conecta
+                Socket socket = serverSocket.accept();
+
+                if (!cupos.tryAcquire()) {
+                    LOG.warn("Conexión rechazada: se alcanzó el límite de {} clientes.", config.getMaxConexiones());
+                    cerrarSilencioso(socket);
+                    continue;
+                }
+
+                sockets.add(socket);
+                ejecutor.execute(() -> {
+                    try {
+                        new ManejadorCliente(socket).run();
+                    } finally {
+                        sockets.remove(socket);
+                        cupos.release();
+                    }
+                });
+            }
+        } catch (IOException e) {
+            // accept() lanza SocketException al cerrar el ServerSocket durante el apagado
+            if (activo) {
+                LOG.error("Error de I/O en el servidor: {}", e.getMessage());
+            }
+        } finally {
+            finalizar();
+        }
+    }
+
+    @Override
+    public void detener() {
+        if (!activo) {
+            return;
+        }
+        activo = false;
+        // Cerrar el ServerSocket desbloquea accept() y termina el bucle de aceptación
+        cerrarSilencioso(serverSocket);
+    }
+
+    private void finalizar() {
+        LOG.info("Deteniendo servidor: esperando {} conexiones activas...", sockets.size());
+
+        // Cerrar la entrada hace que readLine() devuelva null tras terminar la petición en curso
+        for (Socket socket : sockets) {
+            try {
+                socket.shutdownInput();
+            } catch (IOException e) {
+                // El cliente ya se desconectó
+            }
+        }
+
+        ejecutor.shutdown();
+        try {
+            if (!ejecutor.awaitTermination(config.getTiempoGraciaMs(), TimeUnit.MILLISECONDS)) {
+                LOG.warn("Tiempo de gracia agotado, cerrando {} conexiones.", sockets.size());
+                sockets.forEach(MotorHilosVirtuales::cerrarSilencioso);
+                ejecutor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        LOG.info("Servidor detenido.");
+        terminado.countDown();
+    }
+
+    @Override
+    public void esperarTerminacion() throws InterruptedException {
+        terminado.await();
+    }
+
+    @Override
+    public int conexionesActivas() {
+        return sockets.size();
+    }
+
+    private static void cerrarSilencioso(AutoCloseable recurso) {
+        try {
+            recurso.close();
+        } catch (Exception e) {
+            // Nada que hacer: el recurso ya estaba cerrado
+        }
+    }
+}
@@ -0,0 +1,485 @@
+package monitoreo.servidor;
+
+import monitoreo.util.ProtocoloBinario;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Motor con un único Selector. El hilo del selector solo hace E/S de red: detecta el protocolo,
+ * separa las líneas (texto) o tramas (binario) recibidas y las entrega a un ManejadorCliente que
+ * las procesa en un hilo virtual, una a la vez y en orden por conexión. Las respuestas se encolan
+ * y el selector las escribe.
+ */
+public class MotorNio implements MotorServidor {
+
+    private static final Logger LOG = LoggerFactory.getLogger(MotorNio.class);
+
+    // Protección contra clientes que envían una "línea" sin fin
+    private static final int MAX_LINEA_BYTES = 16 * 1024 * 1024;
+    // Bytes de respuesta encolados por conexión antes de frenar al hilo que responde
+    private static final long MAX_BYTES_ESCRITURA = 4L * 1024 * 1024;
+
+    private final ConfiguracionServidor config;
+    private final ExecutorService trabajadores = Executors.newVirtualThreadPerTaskExecutor();
+    private final Queue<Runnable> tareasSelector = new ConcurrentLinkedQueue<>();
+    private final Set<ConexionNio> conexiones = ConcurrentHashMap.newKeySet();
+    private final CountDownLatch terminado = new CountDownLatch(1);
+
+    private Selector selector;
+    private ServerSocketChannel canalServidor;
+    private Thread hiloSelector;
+    private volatile boolean activo;
+    private volatile long limiteGracia;
+
+    public MotorNio(ConfiguracionServidor config) {
+        this.config = config;
+    }
+
+    @Override
+    public void iniciar() throws IOException {
+        selector = Selector.open();
+        canalServidor = ServerSocketChannel.open();
+        canalServidor.configureBlocking(false);
+        canalServidor.bind(new InetSocketAddress(config.getPuerto()), config.getBacklog());
+        canalServidor.register(selector, SelectionKey.OP_ACCEPT);
+        activo = true;
+
+        hiloSelector = new Thread(this::bucleSelector, "selector-nio");
+        hiloSelector.start();
+    }
+
+    @Override
+    public void detener() {
+        if (!activo) {
+            return;
+        }
+        limiteGracia = System.currentTimeMillis() + config.getTiempoGraciaMs();
+        activo = false;
+        selector.wakeup();
+    }
+
+    @Override
+    public void esperarTerminacion() throws InterruptedException {
+        terminado.await();
+    }
+
+    @Override
+    public int conexionesActivas() {
+        return conexiones.size();
+    }
+
+    // --- BUCLE DEL SELECTOR ---
+
+    private void bucleSelector() {
+        try {
+            while (activo || !apagadoCompleto()) {
+                selector.select(activo ? 0 : 100);
+
+                Runnable tarea;
+                while ((tarea = tareasSelector.poll()) != null) {
+                    tarea.run();
+                }
+
+                Iterator<SelectionKey> claves = selector.selectedKeys().iterator();
+                while (claves.hasNext()) {
+                    SelectionKey clave = claves.next();
+                    claves.remove();
+                    atender(clave);
+                }
+            }
+        } catch (IOException e) {
+            LOG.error("Error de I/O en el selector: {}", e.getMessage());
+        } finally {
+            new ArrayList<>(conexiones).forEach(ConexionNio::cerrar);
+            trabajadores.shutdownNow();
+            cerrarSilencioso(selector);
+            LOG.info("Servidor detenido.");
+            terminado.countDown();
+        }
+    }
+
+    /**
+     * Durante el apagado cierra el canal de escucha y las conexiones ya ociosas.
+     * @return true cuando ya no quedan conexiones o se agotó el tiempo de gracia.
+     */
+    private boolean apagadoCompleto() {
+        if (canalServidor.isOpen()) {
+            LOG.info("Deteniendo servidor: esperando {} conexiones activas...", conexiones.size());
+            cerrarSilencioso(canalServidor);
+        }
+
+        for (ConexionNio conexion : new ArrayList<>(conexiones)) {
+            if (conexion.ociosa()) {
+                conexion.cerrar();
+            }
+        }
+
+        if (!conexiones.isEmpty() && System.currentTimeMillis() >= limiteGracia) {
+            LOG.warn("Tiempo de gracia agotado, cerrando {} conexiones.", conexiones.size());
+            return true;
+        }
+        return conexiones.isEmpty();
+    }
+
+    private void atender(SelectionKey clave) {
+        if (!clave.isValid()) {
+            return;
+        }
+        if (clave.isAcceptable()) {
+            aceptar();
+            return;
+        }
+
+        ConexionNio conexion = (ConexionNio) clave.attachment();
+        try {
+            if (clave.isReadable()) {
+                conexion.leer();
+            }
+            if (clave.isValid() && clave.isWritable()) {
+                conexion.escribir();
+            }
+        } catch (IOException e) {
+            // Esto ocurre cuando el cliente cierra la conexión (se desconecta)
+            LOG.debug("Error de I/O en la comunicación con el cliente: {}", e.getMessage());
+            conexion.cerrar();
+        }
+    }
+
+    private void aceptar() {
+        try {
+            SocketChannel canal = canalServidor.accept();
+            if (canal == null) {
+                return;
+            }
+
+            if (!activo || conexiones.size() >= config.getMaxConexiones()) {
+                LOG.warn("Conexión rechazada: se alcanzó el límite de {} clientes.", config.getMaxConexiones());
+                cerrarSilencioso(canal);
+                return;
+            }
+
+            canal.configureBlocking(false);
+            String direccion = ((InetSocketAddress) canal.getRemoteAddress()).getAddress().getHostAddress();
+            ConexionNio conexion = new ConexionNio(canal, direccion);
+            conexion.clave = canal.register(selector, SelectionKey.OP_READ, conexion);
+            conexiones.add(conexion);
+
+        } catch (IOException e) {
+            LOG.warn("Error al aceptar la conexión: {}", e.getMessage());
+        }
+    }
+
+    private void enSelector(Runnable tarea) {
+        tareasSelector.add(tarea);
+        selector.wakeup();
+    }
+
+    private static void cerrarSilencioso(AutoCloseable recurso) {
+        try {
+            recurso.close();
+        } catch (Exception e) {
+            // Nada que hacer: el recurso ya estaba cerrado
+        }
+    }
+
+    // --- ESTADO POR CONEXIÓN ---
+
+    private enum Protocolo { DETECTANDO, SALUDO_BINARIO, TEXTO, BINARIO }
+
+    private final class ConexionNio {
+
+        private final SocketChannel canal;
+        private final ManejadorCliente manejador;
+        private final ByteArrayOutputStream lineaParcial = new ByteArrayOutputStream();
+        private final Consumer<String> escritorLineas;
+        private final EscritorTramas escritorTramas;
+        private ByteBuffer lectura = ByteBuffer.allocate(8192);
+        private Protocolo protocolo = Protocolo.DETECTANDO;
+
+        private final Queue<Runnable> peticionesPendientes = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger numPendientes = new AtomicInteger();
+        private final AtomicBoolean procesando = new AtomicBoolean(false);
+        private final Queue<ByteBuffer> escrituras = new ConcurrentLinkedQueue<>();
+        private final AtomicLong bytesPorEscribir = new AtomicLong();
+        private final ReentrantLock candadoEscritura = new ReentrantLock();
+        private final Condition hayEspacio = candadoEscritura.newCondition();
+
+        private SelectionKey clave;
+        private boolean lecturaPausada;
+        private boolean cerrarAlVaciar;
+
+        ConexionNio(SocketChannel canal, String direccion) {
+            this.canal = canal;
+            this.manejador = new ManejadorCliente(direccion);
+            this.escritorLineas = linea ->
+                    encolarEscritura(ByteBuffer.wrap((linea + "\n").getBytes(StandardCharsets.UTF_8)));
+            this.escritorTramas = (tipo, idPeticion, payload) ->
+                    encolarEscritura(ProtocoloBinario.codificarTrama(tipo, idPeticion, payload));
+        }
+
+        /** Lee lo disponible en el canal y despacha cada petición completa. Solo hilo del selector. */
+        void leer() throws IOException {
+            int leidos = canal.read(lectura);
+            if (leidos < 0) {
+                cerrar();
+                return;
+            }
+
+            separarPeticiones();
+        }
+
+        /**
+         * Despacha las peticiones completas del buffer. Al llegar a ManejadorCliente.MAX_EN_CURSO
+         * peticiones sin terminar deja el resto en el buffer y pausa la lectura (backpressure,
+         * como el motor de hilos); reanudarLectura() sigue desde ahí.
+         */
+        private void separarPeticiones() throws IOException {
+            lectura.flip();
+            try {
+                if (protocolo == Protocolo.DETECTANDO && lectura.hasRemaining()) {
+                    // El primer byte indica el protocolo: MAGIA = binario, cualquier otro = líneas Base64
+                    protocolo = lectura.get(lectura.position()) == ProtocoloBinario.MAGIA
+                            ? Protocolo.SALUDO_BINARIO : Protocolo.TEXTO;
+                }
+                if (protocolo == Protocolo.SALUDO_BINARIO && lectura.remaining() >= ProtocoloBinario.LONGITUD_SALUDO) {
+                    negociarBinario();
+                }
+                if (protocolo == Protocolo.TEXTO) {
+                    separarLineas();
+                } else if (protocolo == Protocolo.BINARIO) {
+                    separarTramas();
+                }
+            } finally {
+                lectura.compact();
+            }
+
+            if (lecturaPausada) {
+                clave.interestOps(clave.interestOps() & ~SelectionKey.OP_READ);
+            }
+        }
+
+        private boolean hayLugar() {
+            if (numPendientes.get() >= ManejadorCliente.MAX_EN_CURSO) {
+                lecturaPausada = true;
+                return false;
+            }
+            return true;
+        }
+
+        private void negociarBinario() {
+            byte[] saludo = new byte[ProtocoloBinario.LONGITUD_SALUDO];
+            lectura.get(saludo);
+            byte version = ProtocoloBinario.negociarVersion(saludo);
+            encolarEscritura(ByteBuffer.wrap(ProtocoloBinario.saludo(version)));
+
+            if (version == ProtocoloBinario.VERSION_RECHAZADA) {
+                LOG.warn("Versión de protocolo binario no soportada. Cerrando conexión.");
+                cerrarAlVaciar = true;
+                lectura.position(lectura.limit());
+                clave.interestOps(clave.interestOps() & ~SelectionKey.OP_READ);
+                return;
+            }
+            protocolo = Protocolo.BINARIO;
+        }
+
+        private void separarLineas() throws IOException {
+            while (lectura.hasRemaining() && hayLugar()) {
+                byte b = lectura.get();
+                if (b == '\n') {
+                    String linea = lineaParcial.toString(StandardCharsets.UTF_8);
+                    lineaParcial.reset();
+                    despachar(() -> manejador.procesarLinea(linea, escritorLineas),
+                            ManejadorCliente.esMultiplexada(linea));
+                } else if (b != '\r') {
+                    lineaParcial.write(b);
+                    if (lineaParcial.size() > MAX_LINEA_BYTES) {
+                        throw new IOException("Línea demasiado larga");
+                    }
+                }
+            }
+        }
+
+        private void separarTramas() throws IOException {
+            ProtocoloBinario.Trama trama;
+            while (hayLugar() && (trama = ProtocoloBinario.extraerTrama(lectura)) != null) {
+                ProtocoloBinario.Trama recibida = trama;
+                despachar(() -> manejador.procesarTrama(recibida, escritorTramas), true);
+            }
+
+            // Si la siguiente trama no cabe en el buffer, crecerlo (el tamaño ya fue validado)
+            if (lectura.remaining() >= 4) {
+                int necesario = 4 + lectura.getInt(lectura.position());
+                if (necesario > lectura.capacity()) {
+                    ByteBuffer mayor = ByteBuffer.allocate(necesario);
+                    mayor.put(lectura);
+                    mayor.flip();
+                    lectura = mayor;
+                }
+            }
+        }
+
+        /**
+         * @param independiente true si la petición trae id: se atiende en su propio hilo virtual,
+         *                      sin esperar a las anteriores. Las demás se atienden en orden.
+         */
+        private void despachar(Runnable peticion, boolean independiente) {
+            numPendientes.incrementAndGet();
+            if (independiente) {
+                trabajadores.execute(() -> {
+                    try {
+                        peticion.run();
+                    } finally {
+                        terminada();
+                    }
+                });
+                return;
+            }
+            peticionesPendientes.add(peticion);
+            if (procesando.compareAndSet(false, true)) {
+                trabajadores.execute(this::procesarPendientes);
+            }
+        }
+
+        /** Procesa las peticiones en orden; como máximo un hilo virtual activo por conexión. */
+        private void procesarPendientes() {
+            do {
+                Runnable peticion;
+                while ((peticion = peticionesPendientes.poll()) != null) {
+                    try {
+                        peticion.run();
+                    } finally {
+                        terminada();
+                    }
+                }
+                procesando.set(false);
+            } while (!peticionesPendientes.isEmpty() && procesando.compareAndSet(false, true));
+        }
+
+        private void terminada() {
+            // Al bajar del límite se reanuda la lectura (si se había pausado)
+            if (numPendientes.decrementAndGet() == ManejadorCliente.MAX_EN_CURSO - 1) {
+                enSelector(this::reanudarLectura);
+            }
+        }
+
+        /** Solo hilo del selector: primero despacha lo que quedó en el buffer al pausar. */
+        private void reanudarLectura() {
+            if (lecturaPausada && !cerrarAlVaciar && clave.isValid()
+                    && numPendientes.get() < ManejadorCliente.MAX_EN_CURSO) {
+                lecturaPausada = false;
+                clave.interestOps(clave.interestOps() | SelectionKey.OP_READ);
+                try {
+                    separarPeticiones();
+                } catch (IOException e) {
+                    LOG.debug("Error de I/O en la comunicación con el cliente: {}", e.getMessage());
+                    cerrar();
+                }
+            }
+        }
+
+        /**
+         * Puede llamarse desde cualquier hilo: encola los bytes y despierta al selector.
+         * Si el cliente lee más lento de lo que se le responde (p. ej. CONSULTAR_STREAM), el hilo
+         * que responde espera aquí en vez de acumular el resultado completo en memoria.
+         */
+        private void encolarEscritura(ByteBuffer bytes) {
+            if (Thread.currentThread() != hiloSelector) {
+                esperarEspacio();
+            }
+            bytesPorEscribir.addAndGet(bytes.remaining());
+            escrituras.add(bytes);
+            enSelector(() -> {
+                if (clave.isValid()) {
+                    clave.interestOps(clave.interestOps() | SelectionKey.OP_WRITE);
+                }
+            });
+        }
+
+        private void esperarEspacio() {
+            candadoEscritura.lock();
+            try {
+                while (bytesPorEscribir.get() > MAX_BYTES_ESCRITURA && clave.isValid()) {
+                    hayEspacio.await(100, TimeUnit.MILLISECONDS);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                candadoEscritura.unlock();
+            }
+        }
+
+        private void avisarEspacio() {
+            candadoEscritura.lock();
+            try {
+                hayEspacio.signalAll();
+            } finally {
+                candadoEscritura.unlock();
+            }
+        }
+
+        /** Escribe las respuestas encoladas hasta que el socket deje de aceptar bytes. */
+        void escribir() throws IOException {
+            ByteBuffer buffer;
+            long antes = bytesPorEscribir.get();
+            try {
+                while ((buffer = escrituras.peek()) != null) {
+                    bytesPorEscribir.addAndGet(-canal.write(buffer));
+                    if (buffer.hasRemaining()) {
+                        return; // El buffer del socket está lleno, se reintenta con OP_WRITE
+                    }
+                    escrituras.poll();
+                }
+            } finally {
+                if (antes > MAX_BYTES_ESCRITURA && bytesPorEscribir.get() <= MAX_BYTES_ESCRITURA) {
+                    avisarEspacio();
+                }
+            }
+            clave.interestOps(clave.interestOps() & ~SelectionKey.OP_WRITE);
+            if (cerrarAlVaciar) {
+                cerrar();
+            }
+        }
+
+        boolean ociosa() {
+            return !procesando.get() && numPendientes.get() == 0 && escrituras.isEmpty();
+        }
+
+        void cerrar() {
+            if (!conexiones.remove(this)) {
+                return;
+            }
+            if (clave != null) {
+                clave.cancel();
+            }
+            cerrarSilencioso(canal);
+            avisarEspacio();
+            manejador.cerrar();
+            LOG.debug("Cliente desconectado: {}", manejador.getDireccionRemota());
+        }
+    }
+}
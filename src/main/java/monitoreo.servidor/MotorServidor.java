@@ -0,0 +1,41 @@
+package monitoreo.servidor;
+
+import java.io.IOException;
+
+/**
+ * Motor que acepta conexiones de clientes y entrega cada petición a un ManejadorCliente.
+ * Las implementaciones solo difieren en cómo se atiende la E/S de red.
+ */
+public interface MotorServidor {
+
+    /**
+     * Abre el puerto de escucha y comienza a aceptar conexiones en segundo plano.
+     */
+    void iniciar() throws IOException;
+
+    /**
+     * Deja de aceptar conexiones, espera a que terminen las peticiones en curso
+     * (hasta el tiempo de gracia configurado) y cierra el resto.
+     */
+    void detener();
+
+    /**
+     * Bloquea el hilo actual hasta que el motor se haya detenido por completo.
+     */
+    void esperarTerminacion() throws InterruptedException;
+
+    /**
+     * @return Número de conexiones de clientes abiertas en este momento.
+     */
+    int conexionesActivas();
+
+    /**
+     * Crea el motor correspondiente al modo indicado en la configuración.
+     */
+    static MotorServidor crear(ConfiguracionServidor config) {
+        return switch (config.getModo()) {
+            case VIRTUAL -> new MotorHilosVirtuales(config);
+            case NIO -> new MotorNio(config);
+        };
+    }
+}
@@ -0,0 +1,25 @@
+package monitoreo.servidor;
+
+import monitoreo.util.CifradoUtil;
+import java.util.function.Consumer;
+
+/**
+ * Destino de las respuestas hacia un cliente. Recibe el mensaje en claro y cada
+ * implementación lo encripta y enmarca según el protocolo y el motor de la conexión.
+ */
+@FunctionalInterface
+public interface SalidaCliente {
+
+    /**
+     * Envía una respuesta en claro (p. ej. "ACK:...") al cliente.
+     */
+    void enviar(String mensaje);
+
+    /**
+     * Salida del protocolo de texto: cada mensaje se encripta a Base64 y se escribe como una línea.
+     * @param escritorLineas Escribe la línea y agrega el salto de línea (p. ej. PrintWriter::println).
+     */
+    static SalidaCliente texto(Consumer<String> escritorLineas) {
+        return mensaje -> escritorLineas.accept(CifradoUtil.encrypt(mensaje));
+    }
+}
@@ -1,36 +1,164 @@
 package monitoreo.servidor;
 
 import monitoreo.db.ConexionBD;
+import monitoreo.db.Particion;
+import monitoreo.db.MantenimientoBD;
+import monitoreo.db.VentanaReciente;
+import monitoreo.util.Metricas;
 import java.io.IOException;
-import java.net.ServerSocket;
-import java.net.Socket;
+import ch.qos.logback.classic.LoggerContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 public class ServidorApp {
 
+    private static final Logger LOG = LoggerFactory.getLogger(ServidorApp.class);
+
     public static final int PUERTO_BASE = 5000;
 
     public static void main(String[] args) {
 
-        System.out.println("Iniciando Servidor...");
-        ConexionBD.crearTabla(); // Asegura la existencia de la DB y la tabla
+        LOG.info("Iniciando Servidor...");
+        try {
+            ConexionBD.crearTabla(); // Asegura la existencia de la DB y la tabla
+        } catch (IllegalStateException e) {
+            LOG.error("No se puede iniciar el servidor: {}", e.getMessage());
+            ConexionBD.cerrar();
+            detenerRegistro();
+            System.exit(1);
+        }
+        ConexionBD.activarVentanaReciente(); // Las consultas del día se responden desde memoria
+
+        // Archivado de días cerrados, retención, liberación de páginas y estadísticas en segundo plano
+        MantenimientoBD mantenimiento = MantenimientoBD.iniciar();
 
-        try (ServerSocket serverSocket = new ServerSocket(PUERTO_BASE)) {
+        // Ejemplo: --modo=nio --puerto=5000 --backlog=256 --max-conexiones=2000 --gracia-ms=5000
+        ConfiguracionServidor config = ConfiguracionServidor.desdeArgumentos(args);
+        // Con --nodos=h:p,h:p,... este servidor atiende solo sus sensores y reparte las consultas
+        Cluster.iniciar(config);
+        MotorServidor motor = MotorServidor.crear(config);
 
-            System.out.println("Servidor iniciado y esperando conexiones en el puerto: " + PUERTO_BASE);
+        try {
+            motor.iniciar();
+            LOG.info("Servidor iniciado y esperando conexiones en el puerto: {} ({})", config.getPuerto(), config);
 
-            // Loop principal: Escuchar indefinidamente nuevas conexiones de clientes
-            while (true) {
-                // Bloquea hasta que un cliente se conecta
-                Socket clienteSocket = serverSocket.accept();
+            // Métricas por JMX y en texto plano en 127.0.0.1:<puerto-metricas>/metricas
+            registrarMedidores(motor, mantenimiento);
+            Metricas.registrarJmx();
+            ServidorMetricas servidorMetricas = ServidorMetricas.iniciar(config.getPuertoMetricas());
 
-                // Crea un nuevo hilo para manejar la comunicación con el cliente
-                Thread t = new Thread(new ManejadorCliente(clienteSocket));
-                t.start();
-            }
+            // Apagado ordenado al recibir Ctrl+C / SIGTERM
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                motor.detener();
+                mantenimiento.detener();
+                if (servidorMetricas != null) {
+                    servidorMetricas.detener();
+                }
+                try {
+                    motor.esperarTerminacion();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                for (Particion particion : ConexionBD.particiones()) {
+                    LOG.info("Partición {}: pool {}", particion, particion.getPool());
+                    if (particion.tieneEscritor()) {
+                        LOG.info("Partición {}: escritor por lotes {}", particion, particion.getEscritor());
+                    }
+                }
+                if (ConexionBD.ventanaReciente() != null) {
+                    LOG.info("Ventana reciente: {}", ConexionBD.ventanaReciente());
+                }
+                LOG.info("Mantenimiento: {}", mantenimiento);
+                DetectorAnomalias.cerrar();
+                ConexionBD.cerrar();
+                detenerRegistro();
+            }, "apagado-servidor"));
+
+            motor.esperarTerminacion();
 
         } catch (IOException e) {
-            System.err.println("Error de I/O en el servidor: " + e.getMessage());
+            LOG.error("Error de I/O en el servidor: {}", e.getMessage());
             // Si el puerto está ocupado u otro error grave
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * El registro es asíncrono: se vacía su cola antes de que termine la JVM.
+     */
+    private static void detenerRegistro() {
+        if (LoggerFactory.getILoggerFactory() instanceof LoggerContext contexto) {
+            contexto.stop();
+        }
+    }
+
+    /**
+     * Valores que se leen al consultar las métricas: conexiones abiertas, profundidad de las colas,
+     * pools, ventana reciente y estado del mantenimiento. Los totales que solo crecen se publican
+     * como contadores (sufijo _total) y lo instantáneo como medidores.
+     */
+    private static void registrarMedidores(MotorServidor motor, MantenimientoBD mantenimiento) {
+        Metricas.medidor("monitoreo_conexiones_activas", "Conexiones de clientes abiertas.", motor::conexionesActivas);
+        Metricas.medidor("monitoreo_bd_cola_escritura", "Muestras esperando a los escritores por lotes.",
+                ConexionBD::getProfundidadColas);
+        registrarMedidoresMantenimiento(mantenimiento);
+        Metricas.contador("monitoreo_bd_rechazos_cola_total", "Muestras rechazadas por cola de escritura llena.",
+                ConexionBD::getRechazosPorCola);
+        Metricas.medidor("monitoreo_bd_conexiones_en_uso", "Conexiones de los pools prestadas en este momento.",
+                ConexionBD::getConexionesEnUso);
+        Metricas.contador("monitoreo_bd_prestamos_pool_total", "Conexiones prestadas por los pools desde el arranque.",
+                ConexionBD::getPrestamosPools);
+        Metricas.contador("monitoreo_bd_espera_pool_ns_total", "Tiempo total esperando una conexión de los pools.",
+                ConexionBD::getEsperaPoolsNanos);
+        Metricas.contador("monitoreo_bd_cache_sentencias_aciertos_total",
+                "Sentencias preparadas reutilizadas de la caché.", ConexionBD::getAciertosCacheSentencias);
+        Metricas.contador("monitoreo_bd_cache_sentencias_fallos_total",
+                "Sentencias preparadas por no estar en la caché.", ConexionBD::getFallosCacheSentencias);
+        VentanaReciente ventana = ConexionBD.ventanaReciente();
+        if (ventana != null) {
+            Metricas.contador("monitoreo_ventana_aciertos_total", "Consultas respondidas desde la ventana en memoria.",
+                    ventana::getAciertos);
+            Metricas.contador("monitoreo_ventana_fallos_total", "Consultas que la ventana no cubría y fueron a SQLite.",
+                    ventana::getFallos);
+            Metricas.medidor("monitoreo_ventana_muestras", "Muestras retenidas en la ventana.", ventana::getMuestras);
+            Metricas.medidor("monitoreo_ventana_bytes_estimados", "Memoria estimada de la ventana.",
+                    ventana::getBytesEstimados);
+            Metricas.contador("monitoreo_ventana_desalojadas_edad_total",
+                    "Muestras que salieron de la ventana por antigüedad.", ventana::getDesalojadasPorEdad);
+            Metricas.contador("monitoreo_ventana_desalojadas_memoria_total",
+                    "Muestras que salieron de la ventana por el límite de memoria.", ventana::getDesalojadasPorMemoria);
         }
+        Metricas.medidor("monitoreo_suscriptores_activos", "Suscripciones en vivo abiertas.", Suscripciones::activos);
+    }
+
+    private static void registrarMedidoresMantenimiento(MantenimientoBD mantenimiento) {
+        Metricas.medidor("monitoreo_mantenimiento_fase", "Fase del mantenimiento en curso (0 = inactivo).",
+                mantenimiento::getNumeroFase);
+        Metricas.medidor("monitoreo_mantenimiento_pasos", "Sensores, días o tandas procesados en la pasada en curso.",
+                mantenimiento::getPasosPasada);
+        Metricas.medidor("monitoreo_mantenimiento_en_curso_ms", "Milisegundos que lleva la pasada en curso.",
+                mantenimiento::getDuracionEnCursoMs);
+        Metricas.medidor("monitoreo_mantenimiento_duracion_ultima_ms", "Duración de la última pasada completa.",
+                mantenimiento::getDuracionUltimaMs);
+        Metricas.medidor("monitoreo_mantenimiento_ultima_ejecucion_ms", "Epoch ms del fin de la última pasada.",
+                mantenimiento::getUltimaEjecucionMs);
+        Metricas.contador("monitoreo_mantenimiento_ejecuciones_total", "Pasadas de mantenimiento terminadas.",
+                mantenimiento::getEjecuciones);
+        Metricas.contador("monitoreo_mantenimiento_fallos_total", "Pasadas de mantenimiento con errores.",
+                mantenimiento::getFallos);
+        Metricas.contador("monitoreo_mantenimiento_filas_archivadas_total", "Muestras pasadas al archivo columnar.",
+                mantenimiento::getFilasArchivadas);
+        Metricas.contador("monitoreo_mantenimiento_dias_resumidos_total", "Días archivados que se volvieron a resumir.",
+                mantenimiento::getDiasResumidos);
+        Metricas.contador("monitoreo_mantenimiento_filas_crudas_borradas_total",
+                "Muestras crudas borradas por retención.",
+                mantenimiento::getFilasCrudasBorradas);
+        Metricas.contador("monitoreo_mantenimiento_bytes_archivo_liberados_total",
+                "Bytes del archivo columnar borrados por retención.", mantenimiento::getBytesArchivoLiberados);
+        Metricas.contador("monitoreo_mantenimiento_resumenes_borrados_total", "Resúmenes borrados por retención.",
+                mantenimiento::getResumenesBorrados);
+        Metricas.contador("monitoreo_mantenimiento_paginas_liberadas_total", "Páginas devueltas al sistema.",
+                mantenimiento::getPaginasLiberadas);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,82 @@
+package monitoreo.servidor;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import monitoreo.util.Metricas;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Endpoint HTTP local con las métricas en texto plano (formato de Prometheus):
+ * curl http://127.0.0.1:9464/metricas
+ * Solo escucha en la interfaz de loopback; para leerlas desde otra máquina se usa JMX.
+ */
+public final class ServidorMetricas {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ServidorMetricas.class);
+
+    private static final String TIPO_CONTENIDO = "text/plain; version=0.0.4; charset=utf-8";
+
+    private final HttpServer http;
+    private final ExecutorService hilo;
+
+    private ServidorMetricas(HttpServer http, ExecutorService hilo) {
+        this.http = http;
+        this.hilo = hilo;
+    }
+
+    /**
+     * Abre el endpoint en 127.0.0.1:puerto.
+     * @return El servidor iniciado, o null si el puerto es 0 (deshabilitado) o no se pudo abrir.
+     */
+    public static ServidorMetricas iniciar(int puerto) {
+        if (puerto <= 0) {
+            return null;
+        }
+        try {
+            HttpServer http = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), puerto), 0);
+            // Un solo hilo: las consultas son esporádicas y no deben competir con la ingesta
+            ExecutorService hilo = Executors.newSingleThreadExecutor(r -> {
+                Thread t = new Thread(r, "metricas-http");
+                t.setDaemon(true);
+                return t;
+            });
+            http.createContext("/metricas", ServidorMetricas::responder);
+            http.createContext("/metrics", ServidorMetricas::responder);
+            http.setExecutor(hilo);
+            http.start();
+            LOG.info("Métricas disponibles en http://127.0.0.1:{}/metricas", puerto);
+            return new ServidorMetricas(http, hilo);
+        } catch (IOException e) {
+            LOG.error("No se pudo abrir el endpoint de métricas en el puerto {}: {}", puerto, e.getMessage());
+            return null;
+        }
+    }
+
+    private static void responder(HttpExchange intercambio) throws IOException {
+        try (intercambio) {
+            if (!"GET".equals(intercambio.getRequestMethod())) {
+                intercambio.sendResponseHeaders(405, -1);
+                return;
+            }
+            byte[] cuerpo = Metricas.texto().getBytes(StandardCharsets.UTF_8);
+            intercambio.getResponseHeaders().set("Content-Type", TIPO_CONTENIDO);
+            intercambio.sendResponseHeaders(200, cuerpo.length);
+            try (OutputStream salida = intercambio.getResponseBody()) {
+                salida.write(cuerpo);
+            }
+        }
+    }
+
+    public void detener() {
+        http.stop(0);
+        hilo.shutdownNow();
+    }
+}
@@ -0,0 +1,147 @@
+package monitoreo.servidor;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Registro de suscripciones en vivo (SUSCRIBIR) del servidor. Cada muestra guardada se publica a
+ * los suscriptores de su sensor y a los suscritos a todos los sensores. Publicar no bloquea: cada
+ * suscriptor la copia a su propio buffer y la envía en su hilo virtual.
+ */
+public final class Suscripciones {
+
+    private static final Logger LOG = LoggerFactory.getLogger(Suscripciones.class);
+
+    // Límite de suscriptores del nodo; cada uno reserva su buffer completo al suscribirse
+    private static final int MAX_SUSCRIPTORES = Integer.getInteger("monitoreo.suscripciones.max", 1000);
+    // Muestras por suscriptor que pueden esperar a ser enviadas (a 100 Hz, unos 2.5 s de atraso)
+    private static final int CAPACIDAD_BUFFER = Integer.getInteger("monitoreo.suscripciones.buffer", 256);
+
+    // Clave de las suscripciones a todos los sensores (los ids de sensor no llevan '*')
+    private static final String TODOS = "*";
+
+    private static final Map<String, List<Suscriptor>> porSensor = new ConcurrentHashMap<>();
+    private static final AtomicInteger total = new AtomicInteger();
+    private static final ExecutorService envios = Executors.newVirtualThreadPerTaskExecutor();
+
+    private Suscripciones() {
+    }
+
+    /**
+     * Registra un suscriptor nuevo.
+     * @param sensor Sensor a seguir, o null para todos.
+     * @param salida Donde se envían el "SUSCRITO:<sensor>", los "MUESTRAS:..." y el "FIN:n" final.
+     * @return El suscriptor, o null si se alcanzó MAX_SUSCRIPTORES.
+     */
+    static Suscriptor suscribir(String sensor, SalidaCliente salida) {
+        if (total.incrementAndGet() > MAX_SUSCRIPTORES) {
+            total.decrementAndGet();
+            LOG.warn("Suscripción rechazada: se alcanzó el límite de {} suscriptores.", MAX_SUSCRIPTORES);
+            return null;
+        }
+        Suscriptor suscriptor = new Suscriptor(sensor, salida, CAPACIDAD_BUFFER, envios);
+        try {
+            // La confirmación sale antes de registrarlo: ninguna muestra puede adelantársele
+            salida.enviar("SUSCRITO:" + (sensor == null ? TODOS : sensor));
+        } catch (RuntimeException e) {
+            total.decrementAndGet();
+            throw e;
+        }
+        porSensor.computeIfAbsent(sensor == null ? TODOS : sensor, k -> new CopyOnWriteArrayList<>()).add(suscriptor);
+        return suscriptor;
+    }
+
+    /**
+     * Da de baja al suscriptor.
+     * @param avisar true para cerrar su flujo con "FIN:n"; false si su conexión ya se cerró.
+     * @return true si seguía registrado.
+     */
+    static boolean cancelar(Suscriptor suscriptor, boolean avisar) {
+        List<Suscriptor> lista = porSensor.get(suscriptor.getSensor() == null ? TODOS : suscriptor.getSensor());
+        if (lista == null || !lista.remove(suscriptor)) {
+            return false;
+        }
+        total.decrementAndGet();
+        suscriptor.cerrar(avisar);
+        return true;
+    }
+
+    /**
+     * Entrega la muestra a los suscriptores del sensor y a los de todos los sensores.
+     * Lo llaman los hilos de ingesta después de que la muestra quedó guardada.
+     */
+    public static void publicar(String sensorId, long timestampMs, int x, int y, int z) {
+        if (total.get() == 0) {
+            return;
+        }
+        List<Suscriptor> delSensor = porSensor.get(sensorId);
+        if (delSensor != null) {
+            for (Suscriptor s : delSensor) {
+                s.ofrecer(sensorId, timestampMs, x, y, z);
+            }
+        }
+        List<Suscriptor> deTodos = porSensor.get(TODOS);
+        if (deTodos != null) {
+            for (Suscriptor s : deTodos) {
+                s.ofrecer(sensorId, timestampMs, x, y, z);
+            }
+        }
+    }
+
+    /**
+     * Igual que publicar() para las primeras n muestras de los arreglos (un lote ya guardado).
+     */
+    public static void publicarLote(String sensorId, long[] timestampsMs, int[] x, int[] y, int[] z, int n) {
+        if (total.get() == 0 || n == 0) {
+            return;
+        }
+        List<Suscriptor> delSensor = porSensor.get(sensorId);
+        if (delSensor != null) {
+            for (Suscriptor s : delSensor) {
+                s.ofrecerLote(sensorId, timestampsMs, x, y, z, n);
+            }
+        }
+        List<Suscriptor> deTodos = porSensor.get(TODOS);
+        if (deTodos != null) {
+            for (Suscriptor s : deTodos) {
+                s.ofrecerLote(sensorId, timestampsMs, x, y, z, n);
+            }
+        }
+    }
+
+    /**
+     * Envía una alerta del detector a los suscriptores del sensor y a los de todos los sensores,
+     * como "ALERTA:sensor,ts,tipo,magnitud,media,desviacion,pico". No bloquea a quien la publica.
+     */
+    static void publicarAlerta(String sensorId, String mensaje) {
+        if (total.get() == 0) {
+            return;
+        }
+        List<Suscriptor> delSensor = porSensor.get(sensorId);
+        if (delSensor != null) {
+            for (Suscriptor s : delSensor) {
+                s.ofrecerMensaje(mensaje);
+            }
+        }
+        List<Suscriptor> deTodos = porSensor.get(TODOS);
+        if (deTodos != null) {
+            for (Suscriptor s : deTodos) {
+                s.ofrecerMensaje(mensaje);
+            }
+        }
+    }
+
+    /**
+     * @return Suscriptores activos en el nodo.
+     */
+    public static int activos() {
+        return total.get();
+    }
+}
@@ -0,0 +1,222 @@
+package monitoreo.servidor;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Un cliente suscrito a las muestras de un sensor (SUSCRIBIR). Las muestras publicadas entran a un
+ * buffer circular acotado de arreglos primitivos y un hilo virtual las envía agrupadas en un solo
+ * mensaje "MUESTRAS:..." por vaciado. Si el cliente lee más lento de lo que llegan las muestras,
+ * las más viejas se sobrescriben y se informa cuántas se perdieron: la ingesta nunca espera.
+ */
+final class Suscriptor {
+
+    private static final Logger LOG = LoggerFactory.getLogger(Suscriptor.class);
+
+    private final String sensor;
+    private final SalidaCliente salida;
+    private final Executor ejecutor;
+
+    // Buffer circular, protegido por this
+    private final String[] sensores;
+    private final long[] timestamps;
+    private final int[] x;
+    private final int[] y;
+    private final int[] z;
+    private int inicio;
+    private int tamano;
+    private long descartadas;
+
+    private final AtomicBoolean programado = new AtomicBoolean(false);
+    // Ordena los envíos con el FIN: después de "FIN:n" no sale ningún "MUESTRAS:..."
+    private final Object candadoEnvio = new Object();
+    private volatile boolean activo = true;
+    private long entregadas;
+
+    /**
+     * @param sensor Sensor suscrito, o null para recibir las muestras de todos.
+     * @param capacidad Muestras que pueden esperar a ser enviadas antes de empezar a descartar.
+     * @param ejecutor Donde corre el envío (uno a la vez por suscriptor).
+     */
+    Suscriptor(String sensor, SalidaCliente salida, int capacidad, Executor ejecutor) {
+        this.sensor = sensor;
+        this.salida = salida;
+        this.ejecutor = ejecutor;
+        this.sensores = new String[capacidad];
+        this.timestamps = new long[capacidad];
+        this.x = new int[capacidad];
+        this.y = new int[capacidad];
+        this.z = new int[capacidad];
+    }
+
+    String getSensor() {
+        return sensor;
+    }
+
+    /**
+     * Agrega la muestra sin bloquear (lo llama el hilo que la guardó) y programa el envío.
+     */
+    void ofrecer(String sensorId, long timestampMs, int mx, int my, int mz) {
+        if (!activo) {
+            return;
+        }
+        synchronized (this) {
+            agregar(sensorId, timestampMs, mx, my, mz);
+        }
+        programarEnvio();
+    }
+
+    /**
+     * Igual que ofrecer() para las primeras n muestras de los arreglos, con una sola toma del candado.
+     */
+    void ofrecerLote(String sensorId, long[] timestampsMs, int[] mx, int[] my, int[] mz, int n) {
+        if (!activo || n == 0) {
+            return;
+        }
+        synchronized (this) {
+            for (int i = 0; i < n; i++) {
+                agregar(sensorId, timestampsMs[i], mx[i], my[i], mz[i]);
+            }
+        }
+        programarEnvio();
+    }
+
+    /**
+     * Envía un mensaje suelto (p. ej. una alerta) en el hilo de envío, sin pasar por el buffer de
+     * muestras. Son raros, así que no se agrupan ni se descartan.
+     */
+    void ofrecerMensaje(String mensaje) {
+        if (!activo) {
+            return;
+        }
+        ejecutor.execute(() -> {
+            try {
+                synchronized (candadoEnvio) {
+                    if (activo) {
+                        salida.enviar(mensaje);
+                    }
+                }
+            } catch (RuntimeException e) {
+                LOG.warn("Error al enviar un mensaje a un suscriptor: {}", e.getMessage());
+                Suscripciones.cancelar(this, false);
+            }
+        });
+    }
+
+    /** Llamar con el candado. Si el buffer está lleno se pierde la muestra más vieja. */
+    private void agregar(String sensorId, long timestampMs, int mx, int my, int mz) {
+        int capacidad = timestamps.length;
+        if (tamano == capacidad) {
+            inicio = (inicio + 1) % capacidad;
+            tamano--;
+            descartadas++;
+        }
+        int i = (inicio + tamano) % capacidad;
+        sensores[i] = sensorId;
+        timestamps[i] = timestampMs;
+        x[i] = mx;
+        y[i] = my;
+        z[i] = mz;
+        tamano++;
+    }
+
+    private void programarEnvio() {
+        if (programado.compareAndSet(false, true)) {
+            ejecutor.execute(this::vaciar);
+        }
+    }
+
+    /**
+     * Envía todo lo acumulado en un mensaje: "MUESTRAS:descartadas:ts,x,y,z;ts,x,y,z;..."
+     * (descartadas = muestras perdidas desde el envío anterior; si la suscripción es a todos los
+     * sensores cada muestra es "sensor,ts,x,y,z"). Sigue hasta que el buffer queda vacío.
+     * Bajo el candado solo se copian los arreglos; el formateo y el envío van afuera para no
+     * retener a quien publica.
+     */
+    private void vaciar() {
+        int capacidad = timestamps.length;
+        // Solo hay un vaciado a la vez por suscriptor: las copias se reutilizan entre vueltas
+        String[] cSensores = sensor == null ? new String[capacidad] : null;
+        long[] cTimestamps = new long[capacidad];
+        int[] cx = new int[capacidad];
+        int[] cy = new int[capacidad];
+        int[] cz = new int[capacidad];
+        StringBuilder sb = new StringBuilder(64 + capacidad * 24);
+        try {
+            while (activo) {
+                int n;
+                long perdidas;
+                synchronized (this) {
+                    if (tamano == 0) {
+                        programado.set(false);
+                        break;
+                    }
+                    n = tamano;
+                    perdidas = descartadas;
+                    // El buffer circular puede estar partido en dos tramos
+                    int primero = Math.min(n, capacidad - inicio);
+                    System.arraycopy(timestamps, inicio, cTimestamps, 0, primero);
+                    System.arraycopy(timestamps, 0, cTimestamps, primero, n - primero);
+                    System.arraycopy(x, inicio, cx, 0, primero);
+                    System.arraycopy(x, 0, cx, primero, n - primero);
+                    System.arraycopy(y, inicio, cy, 0, primero);
+                    System.arraycopy(y, 0, cy, primero, n - primero);
+                    System.arraycopy(z, inicio, cz, 0, primero);
+                    System.arraycopy(z, 0, cz, primero, n - primero);
+                    if (cSensores != null) {
+                        System.arraycopy(sensores, inicio, cSensores, 0, primero);
+                        System.arraycopy(sensores, 0, cSensores, primero, n - primero);
+                    }
+                    entregadas += n;
+                    inicio = 0;
+                    tamano = 0;
+                    descartadas = 0;
+                }
+
+                sb.setLength(0);
+                sb.append("MUESTRAS:").append(perdidas).append(':');
+                for (int i = 0; i < n; i++) {
+                    if (i > 0) {
+                        sb.append(';');
+                    }
+                    if (cSensores != null) {
+                        sb.append(cSensores[i]).append(',');
+                    }
+                    sb.append(cTimestamps[i]).append(',').append(cx[i]).append(',').append(cy[i]).append(',').append(cz[i]);
+                }
+                // Un cliente lento bloquea solo este envío, no a quien publica
+                synchronized (candadoEnvio) {
+                    if (activo) {
+                        salida.enviar(sb.toString());
+                    }
+                }
+            }
+        } catch (RuntimeException e) {
+            LOG.warn("Error al enviar muestras a un suscriptor: {}", e.getMessage());
+            Suscripciones.cancelar(this, false);
+        }
+    }
+
+    /**
+     * Deja de aceptar muestras y cierra el flujo con "FIN:<muestras entregadas>".
+     * @param avisar false si la conexión ya se cerró y no tiene sentido escribir.
+     */
+    void cerrar(boolean avisar) {
+        activo = false;
+        if (avisar) {
+            try {
+                synchronized (candadoEnvio) {
+                    long total;
+                    synchronized (this) {
+                        total = entregadas;
+                    }
+                    salida.enviar("FIN:" + total);
+                }
+            } catch (RuntimeException e) {
+                LOG.warn("No se pudo avisar el fin de la suscripción: {}", e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package monitoreo.util;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+/**
+ * Reparto de sensores entre los nodos de un clúster por hashing consistente: cada nodo
+ * ("host:puerto") ocupa PUNTOS_POR_NODO posiciones en un anillo de 64 bits y un sensor es del
+ * primer punto que sigue a su hash. Agregar o quitar un nodo solo mueve los sensores de los
+ * tramos que ganó o perdió (~1/N), no todos.
+ *
+ * El cliente y el servidor arman el mismo anillo a partir de la misma lista de nodos (el orden no
+ * importa), así que coinciden en el dueño sin preguntarse. Inmutable y seguro entre hilos.
+ */
+public final class AnilloHash {
+
+    // Con 160 puntos por nodo la carga de cada uno queda a unos pocos % de la media
+    private static final int PUNTOS_POR_NODO = 160;
+
+    private final List<String> nodos;
+    private final long[] puntos;
+    private final String[] duenos;
+
+    /**
+     * @param nodos Nodos "host:puerto"; los repetidos se ignoran.
+     */
+    public AnilloHash(List<String> nodos) {
+        this.nodos = List.copyOf(new LinkedHashSet<>(nodos));
+        if (this.nodos.isEmpty()) {
+            throw new IllegalArgumentException("El anillo necesita al menos un nodo.");
+        }
+
+        int total = this.nodos.size() * PUNTOS_POR_NODO;
+        long[][] pares = new long[total][2];
+        int k = 0;
+        for (int n = 0; n < this.nodos.size(); n++) {
+            for (int p = 0; p < PUNTOS_POR_NODO; p++) {
+                pares[k][0] = hash(this.nodos.get(n) + "#" + p);
+                pares[k][1] = n;
+                k++;
+            }
+        }
+        // Empates de hash (improbables): decide el nodo de menor índice, igual en todos los procesos
+        Arrays.sort(pares, (a, b) -> a[0] != b[0] ? Long.compare(a[0], b[0]) : Long.compare(a[1], b[1]));
+        this.puntos = new long[total];
+        this.duenos = new String[total];
+        for (int i = 0; i < total; i++) {
+            puntos[i] = pares[i][0];
+            duenos[i] = this.nodos.get((int) pares[i][1]);
+        }
+    }
+
+    /**
+     * Interpreta una lista "host:puerto,host:puerto,..." (espacios y elementos vacíos se ignoran).
+     * @return El anillo, o null si la lista no tiene nodos.
+     */
+    public static AnilloHash desdeLista(String lista) {
+        if (lista == null) {
+            return null;
+        }
+        List<String> nodos = new ArrayList<>();
+        for (String nodo : lista.split(",")) {
+            if (!nodo.isBlank()) {
+                nodos.add(nodo.trim());
+            }
+        }
+        return nodos.isEmpty() ? null : new AnilloHash(nodos);
+    }
+
+    /**
+     * @return El nodo dueño del sensor.
+     */
+    public String nodoDe(String sensorId) {
+        long h = hash(sensorId);
+        int i = Arrays.binarySearch(puntos, h);
+        if (i < 0) {
+            i = -i - 1;
+        }
+        return duenos[i == puntos.length ? 0 : i];
+    }
+
+    public List<String> getNodos() {
+        return nodos;
+    }
+
+    /**
+     * FNV-1a de 64 bits sobre los bytes UTF-8, con la mezcla final de MurmurHash3 para que
+     * claves parecidas ("sim-1", "sim-2") caigan lejos en el anillo.
+     */
+    static long hash(String clave) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : clave.getBytes(StandardCharsets.UTF_8)) {
+            h ^= b & 0xff;
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /**
+     * @return Host de un nodo "host:puerto".
+     */
+    public static String host(String nodo) {
+        return nodo.substring(0, nodo.lastIndexOf(':'));
+    }
+
+    /**
+     * @return Puerto de un nodo "host:puerto".
+     * @throws NumberFormatException si el nodo no termina en ":puerto".
+     */
+    public static int puerto(String nodo) {
+        return Integer.parseInt(nodo.substring(nodo.lastIndexOf(':') + 1));
+    }
+
+    @Override
+    public String toString() {
+        return String.join(",", nodos);
+    }
+}
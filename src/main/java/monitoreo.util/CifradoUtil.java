@@ -2,16 +2,31 @@ package monitoreo.util;
 
 import javax.crypto.Cipher;
 import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
 import java.util.Base64;
 import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ArrayBlockingQueue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 public class CifradoUtil {
 
+    private static final Logger LOG = LoggerFactory.getLogger(CifradoUtil.class);
+
+    // Tiempo de AES por mensaje o payload (sin la codificación Base64 del protocolo de texto)
+    private static final Histograma LATENCIA_CIFRADO =
+            Metricas.latencia("monitoreo_cifrado_segundos", "Tiempo de encriptar un mensaje o payload.");
+    private static final Histograma LATENCIA_DESCIFRADO =
+            Metricas.latencia("monitoreo_descifrado_segundos", "Tiempo de desencriptar un mensaje o payload.");
+
     // --- Clave Secreta ---
     // NOTA IMPORTANTE: Esta clave debe ser IGUAL en el Cliente y en el Servidor.
     // Usaremos un String base para generar una clave AES de 128 bits.
     private static final String CLAVE_SECRETA_BASE = "MonitoreoUnison2025";
 
+    private static final String TRANSFORMACION = "AES/ECB/PKCS5Padding";
+    private static final int BLOQUE_AES = 16;
+
     private static SecretKeySpec secretKey;
 
     // Bloque estático para inicializar la clave secreta una sola vez al cargar la clase
@@ -22,7 +37,117 @@ public class CifradoUtil {
             keyBytes = java.util.Arrays.copyOf(keyBytes, 16);
             secretKey = new SecretKeySpec(keyBytes, "AES");
         } catch (Exception e) {
-            System.err.println("Error al inicializar la clave de cifrado: " + e.getMessage());
+            LOG.error("Error al inicializar la clave de cifrado: {}", e.getMessage());
+        }
+    }
+
+    // Los codificadores Base64 no guardan estado: se comparten entre hilos
+    private static final Base64.Encoder CODIFICADOR_BASE64 = Base64.getEncoder();
+    private static final Base64.Decoder DECODIFICADOR_BASE64 = Base64.getDecoder();
+
+    private static final CacheCipher CIFRADORES = new CacheCipher(Cipher.ENCRYPT_MODE);
+    private static final CacheCipher DESCIFRADORES = new CacheCipher(Cipher.DECRYPT_MODE);
+
+    /**
+     * Cipher ya inicializados y reutilizables. Con ECB no hay IV, así que después de doFinal el
+     * Cipher queda listo para el siguiente mensaje sin volver a llamar a init.
+     * Cada hilo de plataforma conserva el suyo (ThreadLocal). Los hilos virtuales son uno por
+     * petición y un ThreadLocal no se reutilizaría: toman y devuelven un Cipher de una reserva compartida.
+     * Con un mensaje corto la ida y vuelta baja de ~8800 ns a ~690 ns (CifradoBench, resultados
+     * en benchmarks/README.md).
+     */
+    private static final class CacheCipher {
+        private static final int MAX_RESERVA = 64;
+
+        private final int modo;
+        private final ThreadLocal<Cipher> porHilo;
+        private final ArrayBlockingQueue<Cipher> reserva = new ArrayBlockingQueue<>(MAX_RESERVA);
+
+        CacheCipher(int modo) {
+            this.modo = modo;
+            this.porHilo = ThreadLocal.withInitial(this::crear);
+        }
+
+        private Cipher crear() {
+            try {
+                Cipher cipher = Cipher.getInstance(TRANSFORMACION);
+                cipher.init(modo, secretKey);
+                return cipher;
+            } catch (Exception e) {
+                throw new IllegalStateException("No se pudo inicializar AES: " + e.getMessage(), e);
+            }
+        }
+
+        Cipher tomar() {
+            if (!Thread.currentThread().isVirtual()) {
+                return porHilo.get();
+            }
+            Cipher cipher = reserva.poll();
+            return cipher != null ? cipher : crear();
+        }
+
+        void devolver(Cipher cipher) {
+            if (Thread.currentThread().isVirtual()) {
+                reserva.offer(cipher);
+            }
+        }
+
+        /**
+         * Después de un error el estado interno del Cipher no es confiable: no se reutiliza.
+         */
+        void descartar() {
+            if (!Thread.currentThread().isVirtual()) {
+                porHilo.remove();
+            }
+        }
+    }
+
+    /**
+     * @return El tamaño del texto cifrado para longitudClaro bytes en claro (relleno PKCS5 incluido).
+     */
+    public static int longitudCifrada(int longitudClaro) {
+        return (longitudClaro / BLOQUE_AES + 1) * BLOQUE_AES;
+    }
+
+    /**
+     * Encripta los bytes restantes de claro y escribe el resultado en cifrado, avanzando
+     * la posición de ambos buffers. No crea arreglos intermedios.
+     * @param cifrado Debe tener al menos longitudCifrada(claro.remaining()) bytes libres.
+     * @return Bytes escritos en cifrado, o -1 si hubo un error.
+     */
+    public static int encrypt(ByteBuffer claro, ByteBuffer cifrado) {
+        long inicio = System.nanoTime();
+        Cipher cipher = CIFRADORES.tomar();
+        try {
+            int escritos = cipher.doFinal(claro, cifrado);
+            CIFRADORES.devolver(cipher);
+            LATENCIA_CIFRADO.registrarDesde(inicio);
+            return escritos;
+        } catch (Exception e) {
+            CIFRADORES.descartar();
+            LOG.warn("Error al encriptar: {}", e.toString());
+            return -1;
+        }
+    }
+
+    /**
+     * Desencripta los bytes restantes de cifrado y escribe el texto en claro en claro, avanzando
+     * la posición de ambos buffers. No crea arreglos intermedios.
+     * @param claro Debe tener al menos cifrado.remaining() bytes libres.
+     * @return Bytes escritos en claro, o -1 si la clave o los datos son incorrectos.
+     */
+    public static int decrypt(ByteBuffer cifrado, ByteBuffer claro) {
+        long inicio = System.nanoTime();
+        Cipher cipher = DESCIFRADORES.tomar();
+        try {
+            int escritos = cipher.doFinal(cifrado, claro);
+            DESCIFRADORES.devolver(cipher);
+            LATENCIA_DESCIFRADO.registrarDesde(inicio);
+            return escritos;
+        } catch (Exception e) {
+            DESCIFRADORES.descartar();
+            LOG.warn("Error al desencriptar. Clave o datos incorrectos: {}", e.toString());
+            return -1;
         }
     }
 
@@ -32,15 +157,9 @@ public class CifradoUtil {
      * @return El string encriptado codificado en Base64.
      */
     public static String encrypt(String strToEncrypt) {
-        try {
-            Cipher cipher = Cipher.getInstance("AES/ECB/PKCS5Padding");
-            cipher.init(Cipher.ENCRYPT_MODE, secretKey);
-            // El resultado binario se codifica a Base64 para enviarlo como String
-            return Base64.getEncoder().encodeToString(cipher.doFinal(strToEncrypt.getBytes(StandardCharsets.UTF_8)));
-        } catch (Exception e) {
-            System.err.println("Error al encriptar: " + e.toString());
-            return null;
-        }
+        byte[] cifrado = encryptBytes(strToEncrypt.getBytes(StandardCharsets.UTF_8));
+        // El resultado binario se codifica a Base64 para enviarlo como String
+        return cifrado == null ? null : CODIFICADOR_BASE64.encodeToString(cifrado);
     }
 
     /**
@@ -49,14 +168,47 @@ public class CifradoUtil {
      * @return El string desencriptado original.
      */
     public static String decrypt(String strToDecrypt) {
+        byte[] cifrado;
         try {
-            Cipher cipher = Cipher.getInstance("AES/ECB/PKCS5Padding");
-            cipher.init(Cipher.DECRYPT_MODE, secretKey);
             // Se decodifica de Base64 antes de desencriptar
-            return new String(cipher.doFinal(Base64.getDecoder().decode(strToDecrypt)), StandardCharsets.UTF_8);
+            cifrado = DECODIFICADOR_BASE64.decode(strToDecrypt);
+        } catch (IllegalArgumentException e) {
+            LOG.warn("Error al desencriptar. Clave o datos incorrectos: {}", e.toString());
+            return null;
+        }
+        // Se desencripta directo al arreglo final: sin la copia que hace doFinal(byte[]) al quitar el relleno
+        byte[] claro = new byte[cifrado.length];
+        int longitud = decrypt(ByteBuffer.wrap(cifrado), ByteBuffer.wrap(claro));
+        return longitud < 0 ? null : new String(claro, 0, longitud, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Encripta bytes usando AES, sin codificar a Base64 (para las tramas del protocolo binario).
+     * @param datos Los bytes en claro.
+     * @return Los bytes encriptados, o null si hubo un error.
+     */
+    public static byte[] encryptBytes(byte[] datos) {
+        byte[] cifrado = new byte[longitudCifrada(datos.length)];
+        return encrypt(ByteBuffer.wrap(datos), ByteBuffer.wrap(cifrado)) < 0 ? null : cifrado;
+    }
+
+    /**
+     * Desencripta bytes producidos por encryptBytes.
+     * @param datos Los bytes encriptados.
+     * @return Los bytes en claro, o null si la clave o los datos son incorrectos.
+     */
+    public static byte[] decryptBytes(byte[] datos) {
+        long inicio = System.nanoTime();
+        Cipher cipher = DESCIFRADORES.tomar();
+        try {
+            byte[] claro = cipher.doFinal(datos);
+            DESCIFRADORES.devolver(cipher);
+            LATENCIA_DESCIFRADO.registrarDesde(inicio);
+            return claro;
         } catch (Exception e) {
-            System.err.println("Error al desencriptar. Clave o datos incorrectos: " + e.toString());
+            DESCIFRADORES.descartar();
+            LOG.warn("Error al desencriptar. Clave o datos incorrectos: {}", e.toString());
             return null;
         }
     }
-}
\ No newline at end of file
+}
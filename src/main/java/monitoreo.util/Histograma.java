@@ -0,0 +1,102 @@
+package monitoreo.util;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histograma de valores enteros no negativos (latencias en ns, tamaños de lote) con cubetas
+ * log-lineales al estilo de HdrHistogram: cada potencia de 2 se parte en SUB cubetas iguales,
+ * así que un percentil se reporta con a lo sumo 1/SUB de error relativo y el arreglo tiene
+ * tamaño fijo sin importar el rango. Registrar no reserva memoria ni toma candados.
+ */
+public final class Histograma {
+
+    // 8 subcubetas por potencia de 2: error relativo de los percentiles menor a 12.5 %
+    private static final int BITS_SUB = 3;
+    private static final int SUB = 1 << BITS_SUB;
+    // Alcanza para cualquier long positivo (el exponente mayor es 62)
+    private static final int CUBETAS = (64 - BITS_SUB) * SUB;
+
+    private final AtomicLongArray cuentas = new AtomicLongArray(CUBETAS);
+    private final LongAdder total = new LongAdder();
+    private final LongAdder suma = new LongAdder();
+    private final LongAccumulator maximo = new LongAccumulator(Long::max, 0);
+
+    /**
+     * Registra un valor; los negativos cuentan como 0.
+     */
+    public void registrar(long valor) {
+        if (valor < 0) {
+            valor = 0;
+        }
+        cuentas.incrementAndGet(indice(valor));
+        total.increment();
+        suma.add(valor);
+        maximo.accumulate(valor);
+    }
+
+    /**
+     * Registra los nanosegundos transcurridos desde inicioNanos (un System.nanoTime() previo).
+     */
+    public void registrarDesde(long inicioNanos) {
+        registrar(System.nanoTime() - inicioNanos);
+    }
+
+    /**
+     * @param p Percentil entre 0 y 1 (0.99 = p99).
+     * @return El mayor valor de la cubeta donde cae el percentil (sin pasar del máximo
+     *         registrado), o 0 si no hay valores.
+     */
+    public long percentil(double p) {
+        long n = total.sum();
+        if (n == 0) {
+            return 0;
+        }
+        long objetivo = Math.max(1, (long) Math.ceil(p * n));
+        long acumulado = 0;
+        for (int i = 0; i < CUBETAS; i++) {
+            acumulado += cuentas.get(i);
+            if (acumulado >= objetivo) {
+                return Math.min(limiteSuperior(i), maximo.get());
+            }
+        }
+        return maximo.get();
+    }
+
+    public long getCuenta() {
+        return total.sum();
+    }
+
+    public long getSuma() {
+        return suma.sum();
+    }
+
+    public long getMaximo() {
+        return maximo.get();
+    }
+
+    private static int indice(long valor) {
+        if (valor < SUB) {
+            return (int) valor;
+        }
+        int exponente = 63 - Long.numberOfLeadingZeros(valor);
+        int desplazamiento = exponente - BITS_SUB;
+        return (desplazamiento + 1) * SUB + (int) ((valor >>> desplazamiento) & (SUB - 1));
+    }
+
+    private static long limiteSuperior(int indice) {
+        if (indice < SUB) {
+            return indice;
+        }
+        int desplazamiento = indice / SUB - 1;
+        long inferior = (long) (SUB + indice % SUB) << desplazamiento;
+        return inferior + (1L << desplazamiento) - 1;
+    }
+
+    @Override
+    public String toString() {
+        return "n=" + getCuenta() + ", p50=" + percentil(0.5) + ", p99=" + percentil(0.99)
+                + ", p999=" + percentil(0.999) + ", max=" + getMaximo();
+    }
+}
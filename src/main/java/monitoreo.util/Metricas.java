@@ -0,0 +1,268 @@
+package monitoreo.util;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Registro de métricas del proceso: contadores, medidores (valores que se leen al consultar,
+ * como la profundidad de una cola) e histogramas. Quien mide guarda la referencia que le
+ * devuelve el registro, así que medir cuesta lo mismo que un LongAdder y no pasa por un mapa.
+ *
+ * Se leen de dos formas: texto() en el formato de exposición de Prometheus (lo sirve el
+ * endpoint local del servidor) y el MBean "monitoreo:type=Metricas" (jconsole, VisualVM).
+ */
+public final class Metricas {
+
+    private static final Logger LOG = LoggerFactory.getLogger(Metricas.class);
+
+    public static final String NOMBRE_JMX = "monitoreo:type=Metricas";
+
+    // Métricas que se registran desde más de una clase (el registro devuelve la misma instancia)
+    public static final String PARSEO = "monitoreo_parseo_segundos";
+    public static final String AYUDA_PARSEO = "Tiempo de interpretar las muestras de una petición de guardado.";
+
+    // Percentiles que se publican de cada histograma
+    private static final double[] CUANTILES = {0.5, 0.9, 0.99, 0.999};
+    private static final String[] SUFIJOS_CUANTILES = {"p50", "p90", "p99", "p999"};
+
+    private enum Tipo {
+        CONTADOR("counter"), MEDIDOR("gauge"), HISTOGRAMA("summary");
+
+        private final String prometheus;
+
+        Tipo(String prometheus) {
+            this.prometheus = prometheus;
+        }
+    }
+
+    /**
+     * Una métrica con nombre; si tiene etiqueta, cada valor de la etiqueta es una serie aparte.
+     * @param divisor Divisor con que se publican los histogramas (1e9 pasa de ns a segundos).
+     */
+    private record Familia(String nombre, String ayuda, Tipo tipo, String etiqueta, double divisor,
+                           Map<String, Object> series) {
+    }
+
+    // Ordenado por nombre para que la salida sea estable entre consultas
+    private static final Map<String, Familia> familias = new ConcurrentSkipListMap<>();
+
+    private Metricas() {
+    }
+
+    /**
+     * @return El contador con ese nombre (lo crea la primera vez).
+     */
+    public static LongAdder contador(String nombre, String ayuda) {
+        return contador(nombre, ayuda, null, "");
+    }
+
+    /**
+     * @return La serie del contador para ese valor de la etiqueta (p. ej. tipo="GUARDAR").
+     */
+    public static LongAdder contador(String nombre, String ayuda, String etiqueta, String valor) {
+        return (LongAdder) familia(nombre, ayuda, Tipo.CONTADOR, etiqueta, 1)
+                .series().computeIfAbsent(valor, v -> new LongAdder());
+    }
+
+    /**
+     * Registra un contador que lleva otra clase (préstamos de un pool, aciertos de una caché) y
+     * se lee al consultarlo. La fuente solo debe crecer; para valores que suben y bajan va
+     * medidor(). Registrar otra vez el mismo nombre reemplaza la fuente anterior.
+     */
+    public static void contador(String nombre, String ayuda, LongSupplier fuente) {
+        familia(nombre, ayuda, Tipo.CONTADOR, null, 1).series().put("", fuente);
+    }
+
+    /**
+     * Registra un valor que se calcula al consultarlo. Registrar otra vez el mismo nombre
+     * reemplaza la fuente anterior.
+     */
+    public static void medidor(String nombre, String ayuda, LongSupplier fuente) {
+        familia(nombre, ayuda, Tipo.MEDIDOR, null, 1).series().put("", fuente);
+    }
+
+    /**
+     * @return Un histograma de latencias: se registran nanosegundos y se publican en segundos.
+     */
+    public static Histograma latencia(String nombre, String ayuda) {
+        return (Histograma) familia(nombre, ayuda, Tipo.HISTOGRAMA, null, 1e9)
+                .series().computeIfAbsent("", v -> new Histograma());
+    }
+
+    /**
+     * @return Un histograma de valores sin unidad de tiempo (tamaños de lote, filas).
+     */
+    public static Histograma histograma(String nombre, String ayuda) {
+        return (Histograma) familia(nombre, ayuda, Tipo.HISTOGRAMA, null, 1)
+                .series().computeIfAbsent("", v -> new Histograma());
+    }
+
+    private static Familia familia(String nombre, String ayuda, Tipo tipo, String etiqueta, double divisor) {
+        Familia familia = familias.computeIfAbsent(nombre,
+                n -> new Familia(n, ayuda, tipo, etiqueta, divisor, new ConcurrentHashMap<>()));
+        if (familia.tipo() != tipo) {
+            throw new IllegalArgumentException("La métrica " + nombre + " ya existe como " + familia.tipo());
+        }
+        return familia;
+    }
+
+    /**
+     * @return Todas las métricas en el formato de texto de Prometheus (versión 0.0.4).
+     */
+    public static String texto() {
+        StringBuilder sb = new StringBuilder(4096);
+        for (Familia f : familias.values()) {
+            sb.append("# HELP ").append(f.nombre()).append(' ').append(f.ayuda()).append('\n');
+            sb.append("# TYPE ").append(f.nombre()).append(' ').append(f.tipo().prometheus).append('\n');
+            for (Map.Entry<String, Object> serie : new ConcurrentSkipListMap<>(f.series()).entrySet()) {
+                String etiquetas = f.etiqueta() == null ? "" : f.etiqueta() + "=\"" + serie.getKey() + "\"";
+                if (serie.getValue() instanceof Histograma h) {
+                    for (int i = 0; i < CUANTILES.length; i++) {
+                        sb.append(f.nombre()).append('{');
+                        if (!etiquetas.isEmpty()) {
+                            sb.append(etiquetas).append(',');
+                        }
+                        sb.append("quantile=\"").append(CUANTILES[i]).append("\"} ")
+                                .append(h.percentil(CUANTILES[i]) / f.divisor()).append('\n');
+                    }
+                    linea(sb, f.nombre() + "_sum", etiquetas, h.getSuma() / f.divisor());
+                    linea(sb, f.nombre() + "_count", etiquetas, h.getCuenta());
+                } else {
+                    linea(sb, f.nombre(), etiquetas, leer(serie.getValue()));
+                }
+            }
+        }
+        return sb.toString();
+    }
+
+    private static void linea(StringBuilder sb, String nombre, String etiquetas, Number valor) {
+        sb.append(nombre);
+        if (!etiquetas.isEmpty()) {
+            sb.append('{').append(etiquetas).append('}');
+        }
+        sb.append(' ').append(valor).append('\n');
+    }
+
+    private static long leer(Object serie) {
+        if (serie instanceof LongAdder contador) {
+            return contador.sum();
+        }
+        return ((LongSupplier) serie).getAsLong();
+    }
+
+    /**
+     * Aplana el registro en atributos "nombre[.valorEtiqueta][.percentil]" para JMX.
+     */
+    private static Map<String, Number> valores() {
+        Map<String, Number> valores = new LinkedHashMap<>();
+        for (Familia f : familias.values()) {
+            for (Map.Entry<String, Object> serie : new ConcurrentSkipListMap<>(f.series()).entrySet()) {
+                String base = f.etiqueta() == null ? f.nombre() : f.nombre() + "." + serie.getKey();
+                if (serie.getValue() instanceof Histograma h) {
+                    for (int i = 0; i < CUANTILES.length; i++) {
+                        valores.put(base + "." + SUFIJOS_CUANTILES[i], h.percentil(CUANTILES[i]) / f.divisor());
+                    }
+                    valores.put(base + ".max", h.getMaximo() / f.divisor());
+                    valores.put(base + ".cuenta", h.getCuenta());
+                } else {
+                    valores.put(base, leer(serie.getValue()));
+                }
+            }
+        }
+        return valores;
+    }
+
+    /**
+     * Publica el registro como MBean en el servidor de plataforma. Las métricas que se creen
+     * después aparecen solas: los atributos se arman en cada consulta.
+     * @return false si no se pudo registrar.
+     */
+    public static boolean registrarJmx() {
+        try {
+            MBeanServer servidor = ManagementFactory.getPlatformMBeanServer();
+            ObjectName nombre = new ObjectName(NOMBRE_JMX);
+            if (!servidor.isRegistered(nombre)) {
+                servidor.registerMBean(new MBeanMetricas(), nombre);
+            }
+            return true;
+        } catch (JMException e) {
+            LOG.error("No se pudieron publicar las métricas por JMX: {}", e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Vista de solo lectura del registro para JMX.
+     */
+    private static final class MBeanMetricas implements DynamicMBean {
+
+        @Override
+        public Object getAttribute(String atributo) throws AttributeNotFoundException {
+            Number valor = valores().get(atributo);
+            if (valor == null) {
+                throw new AttributeNotFoundException(atributo);
+            }
+            return valor;
+        }
+
+        @Override
+        public AttributeList getAttributes(String[] atributos) {
+            Map<String, Number> valores = valores();
+            AttributeList lista = new AttributeList();
+            for (String atributo : atributos) {
+                Number valor = valores.get(atributo);
+                if (valor != null) {
+                    lista.add(new Attribute(atributo, valor));
+                }
+            }
+            return lista;
+        }
+
+        @Override
+        public void setAttribute(Attribute atributo) throws AttributeNotFoundException {
+            throw new AttributeNotFoundException("Las métricas son de solo lectura: " + atributo.getName());
+        }
+
+        @Override
+        public AttributeList setAttributes(AttributeList atributos) {
+            return new AttributeList();
+        }
+
+        @Override
+        public Object invoke(String operacion, Object[] parametros, String[] firma) throws ReflectionException {
+            // El MBean no publica operaciones: es la excepción que espera un cliente JMX
+            throw new ReflectionException(new NoSuchMethodException(operacion));
+        }
+
+        @Override
+        public MBeanInfo getMBeanInfo() {
+            List<MBeanAttributeInfo> atributos = new ArrayList<>();
+            for (Map.Entry<String, Number> valor : valores().entrySet()) {
+                atributos.add(new MBeanAttributeInfo(valor.getKey(), valor.getValue().getClass().getName(),
+                        valor.getKey(), true, false, false));
+            }
+            return new MBeanInfo(Metricas.class.getName(), "Métricas del servidor de monitoreo",
+                    atributos.toArray(new MBeanAttributeInfo[0]), null, new MBeanOperationInfo[0], null);
+        }
+    }
+}
@@ -0,0 +1,294 @@
+package monitoreo.util;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Protocolo binario versionado, alternativo a las líneas de texto Base64.
+ * NOTA: Debe ser IGUAL en el Cliente y en el Servidor (igual que CifradoUtil).
+ *
+ * Negociación: al conectar, el cliente envía SALUDO (MAGIA, 'M', 'B', versión). Si el servidor
+ * entiende la versión responde con los mismos 4 bytes; si no, el cliente vuelve al protocolo de texto.
+ * Como MAGIA (0xB1) no es un carácter Base64, el servidor distingue ambos protocolos por el primer byte.
+ *
+ * Trama: [int32 longitud][byte tipo][int32 idPeticion][payload encriptado con AES]
+ * donde longitud cuenta tipo + idPeticion + payload. Los enteros van en big-endian.
+ */
+public final class ProtocoloBinario {
+
+    public static final byte MAGIA = (byte) 0xB1;
+    public static final byte VERSION = 1;
+    // Versión que responde el servidor cuando no soporta ninguna de las propuestas
+    public static final byte VERSION_RECHAZADA = 0;
+    public static final int LONGITUD_SALUDO = 4;
+
+    // Tamaño del encabezado después del campo longitud (tipo + idPeticion)
+    public static final int ENCABEZADO = 1 + 4;
+    public static final int MAX_TRAMA = 16 * 1024 * 1024;
+
+    // --- Tipos de trama ---
+    /** Cliente → servidor: una muestra empaquetada (x, y, z int32 + timestamp int64). */
+    public static final byte GUARDAR = 1;
+    /** Servidor → cliente: muestra guardada. Payload vacío. */
+    public static final byte ACK = 2;
+    /** Servidor → cliente: error. Payload = texto encriptado. */
+    public static final byte ERROR = 3;
+    /** Ambos sentidos: un mensaje del protocolo de texto (p. ej. "CONSULTAR:...") encriptado. */
+    public static final byte TEXTO = 4;
+
+    /** Cliente → servidor: N muestras (int32 N + N × muestra empaquetada) en una sola trama. */
+    public static final byte GUARDAR_LOTE = 5;
+    /** Servidor → cliente: estado por muestra de un GUARDAR_LOTE (int32 N + mapa de bits). Sin encriptar. */
+    public static final byte ACK_LOTE = 6;
+
+    // Bytes de una muestra empaquetada antes de encriptar: 3 ejes int32 + timestamp int64
+    public static final int BYTES_MUESTRA = 3 * 4 + 8;
+    // Máximo de muestras aceptadas en un solo lote
+    public static final int MAX_MUESTRAS_LOTE = 10_000;
+
+    // Desempaquetado de los lotes (la muestra suelta no se mide: cuesta menos que tomar el tiempo)
+    private static final Histograma LATENCIA_PARSEO = Metricas.latencia(Metricas.PARSEO, Metricas.AYUDA_PARSEO);
+
+    private ProtocoloBinario() {
+    }
+
+    /**
+     * Trama recibida: el payload todavía está encriptado.
+     */
+    public record Trama(byte tipo, int idPeticion, byte[] payload) {
+    }
+
+    /**
+     * Muestra decodificada de una trama GUARDAR.
+     */
+    public record MuestraBinaria(int x, int y, int z, long timestampMs) {
+    }
+
+    // --- NEGOCIACIÓN ---
+
+    public static byte[] saludo(byte version) {
+        return new byte[]{MAGIA, 'M', 'B', version};
+    }
+
+    /**
+     * @return La versión propuesta en el saludo, o -1 si los bytes no son un saludo válido.
+     */
+    public static int versionDeSaludo(byte[] saludo) {
+        if (saludo.length != LONGITUD_SALUDO || saludo[0] != MAGIA || saludo[1] != 'M' || saludo[2] != 'B') {
+            return -1;
+        }
+        return saludo[3];
+    }
+
+    /**
+     * Elige la versión a usar a partir del saludo del cliente: la mayor que ambos soportan.
+     * @return La versión acordada, o VERSION_RECHAZADA si el saludo no es válido.
+     */
+    public static byte negociarVersion(byte[] saludoCliente) {
+        int propuesta = versionDeSaludo(saludoCliente);
+        if (propuesta < 1) {
+            return VERSION_RECHAZADA;
+        }
+        return (byte) Math.min(propuesta, VERSION);
+    }
+
+    // --- CODIFICACIÓN DE TRAMAS ---
+
+    /**
+     * Escribe una trama completa y hace flush.
+     */
+    public static void escribirTrama(DataOutputStream out, byte tipo, int idPeticion, byte[] payload) throws IOException {
+        out.writeInt(ENCABEZADO + payload.length);
+        out.writeByte(tipo);
+        out.writeInt(idPeticion);
+        out.write(payload);
+        out.flush();
+    }
+
+    /**
+     * Codifica una trama completa en un ByteBuffer listo para escribirse en un canal.
+     */
+    public static ByteBuffer codificarTrama(byte tipo, int idPeticion, byte[] payload) {
+        ByteBuffer buffer = ByteBuffer.allocate(4 + ENCABEZADO + payload.length);
+        buffer.putInt(ENCABEZADO + payload.length);
+        buffer.put(tipo);
+        buffer.putInt(idPeticion);
+        buffer.put(payload);
+        return buffer.flip();
+    }
+
+    /**
+     * Lee una trama completa (bloqueante).
+     * @return La trama, o null si el otro extremo cerró la conexión.
+     */
+    public static Trama leerTrama(DataInputStream in) throws IOException {
+        int longitud;
+        try {
+            longitud = in.readInt();
+        } catch (EOFException e) {
+            return null;
+        }
+        validarLongitud(longitud);
+        byte tipo = in.readByte();
+        int idPeticion = in.readInt();
+        byte[] payload = new byte[longitud - ENCABEZADO];
+        in.readFully(payload);
+        return new Trama(tipo, idPeticion, payload);
+    }
+
+    /**
+     * Extrae una trama del buffer si ya llegó completa (para E/S no bloqueante).
+     * El buffer debe estar en modo lectura; si la trama está incompleta no se consume nada.
+     * @return La trama, o null si faltan bytes.
+     */
+    public static Trama extraerTrama(ByteBuffer buffer) throws IOException {
+        if (buffer.remaining() < 4) {
+            return null;
+        }
+        int longitud = buffer.getInt(buffer.position());
+        validarLongitud(longitud);
+        if (buffer.remaining() < 4 + longitud) {
+            return null;
+        }
+        buffer.getInt();
+        byte tipo = buffer.get();
+        int idPeticion = buffer.getInt();
+        byte[] payload = new byte[longitud - ENCABEZADO];
+        buffer.get(payload);
+        return new Trama(tipo, idPeticion, payload);
+    }
+
+    private static void validarLongitud(int longitud) throws IOException {
+        if (longitud < ENCABEZADO || longitud > MAX_TRAMA) {
+            throw new IOException("Longitud de trama inválida: " + longitud);
+        }
+    }
+
+    // --- PAYLOADS ---
+
+    /**
+     * Empaqueta y encripta una muestra para una trama GUARDAR.
+     */
+    public static byte[] cifrarMuestra(int x, int y, int z, long timestampMs) {
+        ByteBuffer buffer = ByteBuffer.allocate(BYTES_MUESTRA);
+        buffer.putInt(x).putInt(y).putInt(z).putLong(timestampMs);
+        return cifrar(buffer.flip());
+    }
+
+    /**
+     * Desencripta y desempaqueta el payload de una trama GUARDAR.
+     * @return La muestra, o null si el payload no es válido.
+     */
+    public static MuestraBinaria descifrarMuestra(byte[] payload) {
+        ByteBuffer buffer = descifrar(payload);
+        if (buffer == null || buffer.remaining() != BYTES_MUESTRA) {
+            return null;
+        }
+        return new MuestraBinaria(buffer.getInt(), buffer.getInt(), buffer.getInt(), buffer.getLong());
+    }
+
+    public static byte[] cifrarTexto(String texto) {
+        return CifradoUtil.encryptBytes(texto.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @return El texto en claro, o null si el payload no se pudo desencriptar.
+     */
+    public static String descifrarTexto(byte[] payload) {
+        ByteBuffer claro = descifrar(payload);
+        return claro == null ? null : new String(claro.array(), 0, claro.limit(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Empaqueta y encripta las primeras n muestras de los arreglos para una trama GUARDAR_LOTE.
+     */
+    public static byte[] cifrarLote(long[] timestampsMs, int[] x, int[] y, int[] z, int n) {
+        ByteBuffer buffer = ByteBuffer.allocate(4 + n * BYTES_MUESTRA);
+        buffer.putInt(n);
+        for (int i = 0; i < n; i++) {
+            buffer.putInt(x[i]).putInt(y[i]).putInt(z[i]).putLong(timestampsMs[i]);
+        }
+        return cifrar(buffer.flip());
+    }
+
+    /**
+     * Desencripta y desempaqueta el payload de una trama GUARDAR_LOTE.
+     * @return Las muestras en el orden recibido, o null si el payload no es válido.
+     */
+    public static List<MuestraBinaria> descifrarLote(byte[] payload) {
+        ByteBuffer buffer = descifrar(payload);
+        if (buffer == null || buffer.remaining() < 4) {
+            return null;
+        }
+        int n = buffer.getInt();
+        if (n < 0 || n > MAX_MUESTRAS_LOTE || buffer.remaining() != n * BYTES_MUESTRA) {
+            return null;
+        }
+        long inicio = System.nanoTime();
+        List<MuestraBinaria> muestras = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            muestras.add(new MuestraBinaria(buffer.getInt(), buffer.getInt(), buffer.getInt(), buffer.getLong()));
+        }
+        LATENCIA_PARSEO.registrarDesde(inicio);
+        return muestras;
+    }
+
+    /**
+     * Encripta los bytes restantes del buffer directo a un arreglo del tamaño exacto del payload.
+     * @return El payload encriptado, o null si hubo un error.
+     */
+    private static byte[] cifrar(ByteBuffer claro) {
+        byte[] cifrado = new byte[CifradoUtil.longitudCifrada(claro.remaining())];
+        return CifradoUtil.encrypt(claro, ByteBuffer.wrap(cifrado)) < 0 ? null : cifrado;
+    }
+
+    /**
+     * Desencripta el payload a un buffer listo para leer (posición 0, límite = bytes en claro),
+     * sin la copia adicional que hace Cipher.doFinal(byte[]) al quitar el relleno.
+     * @return El buffer en claro, o null si el payload no se pudo desencriptar.
+     */
+    private static ByteBuffer descifrar(byte[] payload) {
+        ByteBuffer claro = ByteBuffer.allocate(payload.length);
+        return CifradoUtil.decrypt(ByteBuffer.wrap(payload), claro) < 0 ? null : claro.flip();
+    }
+
+    /**
+     * Codifica el estado de cada muestra de un lote como int32 N + un bit por muestra (1 = guardada).
+     */
+    public static byte[] codificarEstados(boolean[] estados) {
+        ByteBuffer buffer = ByteBuffer.allocate(4 + (estados.length + 7) / 8);
+        buffer.putInt(estados.length);
+        byte[] bits = new byte[(estados.length + 7) / 8];
+        for (int i = 0; i < estados.length; i++) {
+            if (estados[i]) {
+                bits[i / 8] |= (byte) (1 << (i % 8));
+            }
+        }
+        return buffer.put(bits).array();
+    }
+
+    /**
+     * @return El estado de cada muestra del lote, o null si el payload no es válido.
+     */
+    public static boolean[] decodificarEstados(byte[] payload) {
+        if (payload.length < 4) {
+            return null;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(payload);
+        int n = buffer.getInt();
+        if (n < 0 || buffer.remaining() != (n + 7) / 8) {
+            return null;
+        }
+        boolean[] estados = new boolean[n];
+        for (int i = 0; i < n; i++) {
+            estados[i] = (payload[4 + i / 8] & (1 << (i % 8))) != 0;
+        }
+        return estados;
+    }
+}